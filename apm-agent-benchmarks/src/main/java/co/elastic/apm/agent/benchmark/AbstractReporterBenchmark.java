@@ -0,0 +1,110 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.metadata.MetaData;
+import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
+import co.elastic.apm.agent.report.ApmServerClient;
+import co.elastic.apm.agent.report.ApmServerReporter;
+import co.elastic.apm.agent.report.IntakeV2ReportingEventHandler;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import co.elastic.apm.agent.report.ReporterMonitor;
+import co.elastic.apm.agent.report.processor.ProcessorEventHandler;
+import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.BlockingHandler;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.stagemonitor.configuration.ConfigurationOptionProvider;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+import org.stagemonitor.configuration.source.SimpleSource;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ServiceLoader;
+
+/**
+ * Starts a tracer which reports to a local server that stands in for the AWS Lambda extension.
+ */
+public abstract class AbstractReporterBenchmark extends AbstractBenchmark {
+
+    private final byte[] buffer = new byte[32 * 1024];
+    private Undertow extension;
+    protected ElasticApmTracer tracer;
+    protected ApmServerReporter reporter;
+
+    /**
+     * @return whether the events are reported on the thread that ends them instead of the {@code server-reporter} thread
+     */
+    protected abstract boolean isDirectReporting();
+
+    @Setup
+    public void setUp() {
+        extension = Undertow.builder()
+            .addHttpListener(0, "127.0.0.1")
+            .setHandler(new BlockingHandler(exchange -> {
+                if (exchange.getRequestPath().equals("/")) {
+                    exchange.getOutputStream().write("{\"version\":\"8.0.0\"}".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    try (InputStream is = exchange.getInputStream()) {
+                        while (is.read(buffer) != -1) {
+                            // consume the request body like the extension does before it responds
+                        }
+                    }
+                }
+                exchange.setStatusCode(200).endExchange();
+            })).build();
+        extension.start();
+        int port = ((InetSocketAddress) extension.getListenerInfo().get(0).getAddress()).getPort();
+
+        ConfigurationRegistry configurationRegistry = ConfigurationRegistry.builder()
+            .addConfigSource(new SimpleSource()
+                .add(CoreConfiguration.SERVICE_NAME, "benchmark")
+                .add(CoreConfiguration.INSTRUMENT, "false")
+                .add("cloud_provider", "NONE")
+                .add("metrics_interval", "0ms")
+                .add("server_url", "http://localhost:" + port))
+            .optionProviders(ServiceLoader.load(ConfigurationOptionProvider.class))
+            .build();
+        ReporterConfiguration reporterConfiguration = configurationRegistry.getConfig(ReporterConfiguration.class);
+        ApmServerClient apmServerClient = new ApmServerClient(reporterConfiguration, configurationRegistry.getConfig(CoreConfiguration.class));
+        DslJsonSerializer payloadSerializer = new DslJsonSerializer(configurationRegistry.getConfig(StacktraceConfiguration.class),
+            apmServerClient, MetaData.create(configurationRegistry, null));
+        IntakeV2ReportingEventHandler reportingEventHandler = new IntakeV2ReportingEventHandler(reporterConfiguration,
+            ProcessorEventHandler.loadProcessors(configurationRegistry), payloadSerializer, apmServerClient);
+        reporter = new ApmServerReporter(true, isDirectReporting(), reporterConfiguration, reportingEventHandler, ReporterMonitor.NOOP);
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(configurationRegistry)
+            .withApmServerClient(apmServerClient)
+            .reporter(reporter)
+            .buildAndStart();
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracer.stop();
+        extension.stop();
+        System.out.println("Reported: " + reporter.getReported());
+        System.out.println("Dropped: " + reporter.getDropped());
+    }
+}
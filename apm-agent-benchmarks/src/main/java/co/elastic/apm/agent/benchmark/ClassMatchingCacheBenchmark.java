@@ -0,0 +1,160 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.bci.ElasticApmAgent;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import io.lettuce.core.RedisClient;
+import net.bytebuddy.agent.ByteBuddyAgent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+import org.stagemonitor.configuration.ConfigurationOptionProvider;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+import org.stagemonitor.configuration.source.SimpleSource;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Measures how long it takes to load all classes of a jar while the agent is active,
+ * which approximates the type matching overhead during the startup of an application.
+ * <p>
+ * When {@link #classMatchingCache} is enabled, the decisions are recorded and persisted in a first run during the setup,
+ * so that the measured runs can skip the type matching of the classes that are known to not match.
+ * </p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ClassMatchingCacheBenchmark extends AbstractBenchmark {
+
+    @Param({"false", "true"})
+    public boolean classMatchingCache;
+
+    private File cacheDir;
+    private URL[] classPath;
+    private List<String> classNames;
+
+    public static void main(String[] args) throws RunnerException {
+        run(ClassMatchingCacheBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        cacheDir = Files.createTempDirectory("class-matching-cache").toFile();
+        classPath = getClassPath();
+        classNames = getClassNames(new File(RedisClient.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+        startAgent();
+        if (classMatchingCache) {
+            // first start, records the decisions
+            loadClasses(null);
+            ElasticApmAgent.persistClassMatchingDecisions();
+            ElasticApmAgent.reset();
+            // subsequent start, uses the decisions of the first start
+            startAgent();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ElasticApmAgent.reset();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Benchmark
+    public void loadAllClassesOfJar(Blackhole blackhole) {
+        loadClasses(blackhole);
+    }
+
+    private void startAgent() {
+        ElasticApmTracer tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(ConfigurationRegistry.builder()
+                .addConfigSource(new SimpleSource()
+                    .add(CoreConfiguration.SERVICE_NAME, "benchmark")
+                    .add("server_url", "http://localhost:1")
+                    .add("classes_excluded_from_instrumentation", "java.*,com.sun.*,sun.*")
+                    .add("class_matching_cache_dir", classMatchingCache ? cacheDir.getAbsolutePath() : ""))
+                .optionProviders(ServiceLoader.load(ConfigurationOptionProvider.class))
+                .build())
+            .buildAndStart();
+        ElasticApmAgent.initInstrumentation(tracer, ByteBuddyAgent.install());
+    }
+
+    /**
+     * Loads the classes in a new class loader so that they are matched against all instrumentations again
+     */
+    private void loadClasses(@Nullable Blackhole blackhole) {
+        URLClassLoader classLoader = new URLClassLoader(classPath, null);
+        for (String className : classNames) {
+            try {
+                Class<?> clazz = Class.forName(className, false, classLoader);
+                if (blackhole != null) {
+                    blackhole.consume(clazz);
+                }
+            } catch (Throwable ignore) {
+                // missing optional dependencies
+            }
+        }
+    }
+
+    private static URL[] getClassPath() throws Exception {
+        List<URL> urls = new ArrayList<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            urls.add(new File(path).toURI().toURL());
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    private static List<String> getClassNames(File jar) throws Exception {
+        List<String> classNames = new ArrayList<>();
+        try (JarFile jarFile = new JarFile(jar)) {
+            for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && !name.endsWith("module-info.class") && !name.startsWith("META-INF/")) {
+                    classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+        return classNames;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.concurrent.JavaConcurrent;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of capturing and restoring the context of a single task
+ * when propagating it via the global context map ({@code map}),
+ * as done for regular executors,
+ * with holding it in a wrapper ({@code thread}),
+ * as done for threads that are created per task, such as virtual threads.
+ * <p>
+ * The task is run on the benchmark thread after deactivating the transaction, which emulates running it on a new thread
+ * without measuring the cost of creating and scheduling that thread.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContextPropagationBenchmark extends AbstractMockApmServerBenchmark {
+
+    @Param({"map", "thread"})
+    public String path;
+
+    private Transaction transaction;
+    private Task task;
+
+    public ContextPropagationBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(ContextPropagationBenchmark.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void startTransaction(Blackhole blackhole) {
+        transaction = tracer.startRootTransaction(null);
+        if (transaction == null) {
+            throw new IllegalStateException("Tracer is not running");
+        }
+        task = new Task(blackhole);
+    }
+
+    @TearDown(Level.Iteration)
+    public void endTransaction() {
+        transaction.end();
+    }
+
+    @Benchmark
+    public void captureAndRestore() {
+        transaction.activate();
+        Runnable wrapped;
+        try {
+            if (path.equals("map")) {
+                wrapped = JavaConcurrent.withContext(task, tracer);
+                JavaConcurrent.doFinally(null, wrapped);
+            } else {
+                wrapped = JavaConcurrent.withContextForNewThread(task, tracer);
+            }
+        } finally {
+            transaction.deactivate();
+        }
+        if (wrapped != null) {
+            wrapped.run();
+        }
+    }
+
+    private class Task implements Runnable {
+
+        private final Blackhole blackhole;
+
+        private Task(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void run() {
+            blackhole.consume(tracer.getActive());
+        }
+    }
+}
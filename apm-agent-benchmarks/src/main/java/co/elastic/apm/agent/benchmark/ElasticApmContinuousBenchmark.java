@@ -24,6 +24,7 @@ import co.elastic.apm.agent.report.Reporter;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -71,12 +72,19 @@ import java.util.concurrent.TimeUnit;
  * Because of this, some transactions will be dropped.
  * This is preferred to the alternative which is to block the application until the report is done.
  * </p>
+ * <p>
+ * The number of JDBC queries per request is parameterized,
+ * so that the per-span overhead can be told apart from the per-transaction overhead.
+ * </p>
  */
 @BenchmarkMode(Mode.SampleTime)
 @OutputTimeUnit(TimeUnit.MICROSECONDS)
 @State(Scope.Benchmark)
 public abstract class ElasticApmContinuousBenchmark extends AbstractMockApmServerBenchmark {
 
+    @Param({"1", "10"})
+    public int spansPerRequest;
+
     protected HttpServlet httpServlet;
 
     public ElasticApmContinuousBenchmark(boolean apmEnabled) {
@@ -88,7 +96,7 @@ public abstract class ElasticApmContinuousBenchmark extends AbstractMockApmServe
         super.setUp(blackhole);
         final BlackholeConnection blackholeConnection = BlackholeConnection.INSTANCE;
         blackholeConnection.init(blackhole);
-        httpServlet = new ElasticApmContinuousBenchmark.BenchmarkingServlet(blackholeConnection, tracer, blackhole);
+        httpServlet = new ElasticApmContinuousBenchmark.BenchmarkingServlet(blackholeConnection, tracer, blackhole, spansPerRequest);
         System.getProperties().put(Reporter.class.getName(), tracer.getReporter());
     }
 
@@ -132,11 +140,13 @@ public abstract class ElasticApmContinuousBenchmark extends AbstractMockApmServe
         private final Connection connection;
         private final Reporter reporter;
         private final Blackhole blackhole;
+        private final int spansPerRequest;
 
-        private BenchmarkingServlet(Connection connection, ElasticApmTracer tracer, Blackhole blackhole) {
+        private BenchmarkingServlet(Connection connection, ElasticApmTracer tracer, Blackhole blackhole, int spansPerRequest) {
             this.connection = connection;
             this.reporter = tracer.getReporter();
             this.blackhole = blackhole;
+            this.spansPerRequest = spansPerRequest;
         }
 
         @Override
@@ -144,8 +154,10 @@ public abstract class ElasticApmContinuousBenchmark extends AbstractMockApmServe
             try {
                 final PreparedStatement preparedStatement = connection
                     .prepareStatement("SELECT * FROM ELASTIC_APM WHERE foo=?");
-                preparedStatement.setInt(1, 1);
-                blackhole.consume(preparedStatement.executeQuery());
+                for (int i = 0; i < spansPerRequest; i++) {
+                    preparedStatement.setInt(1, i);
+                    blackhole.consume(preparedStatement.executeQuery());
+                }
                 // makes sure the jdbc query and the reporting can't be eliminated by JIT
                 // setting it as the http status code so that there are no allocations necessary
                 // for example converting to string
@@ -0,0 +1,68 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of an AWS Lambda invocation's reporting, from ending its transaction until the data is flushed,
+ * against a local server which stands in for the Lambda extension.
+ * Compares handing the events over to the {@code server-reporter} thread with reporting them directly on the invoking thread.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReporterFlushBenchmark extends AbstractReporterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean directReporting;
+
+    @Param({"0", "10"})
+    public int spansPerInvocation;
+
+    public static void main(String[] args) throws RunnerException {
+        run(ReporterFlushBenchmark.class);
+    }
+
+    @Override
+    protected boolean isDirectReporting() {
+        return directReporting;
+    }
+
+    @Benchmark
+    public boolean invocation() {
+        Transaction transaction = tracer.startRootTransaction(null);
+        if (transaction != null) {
+            for (int i = 0; i < spansPerInvocation; i++) {
+                Span span = transaction.createSpan();
+                span.end();
+            }
+            transaction.end();
+        }
+        return reporter.flush(1, TimeUnit.SECONDS, true);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.tracer.dispatch.AbstractHeaderGetter;
+import co.elastic.apm.agent.tracer.dispatch.TextHeaderGetter;
+import co.elastic.apm.agent.tracer.dispatch.TextHeaderSetter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing incoming and injecting outgoing {@code traceparent} and {@code tracestate} headers.
+ * <p>
+ * Look at the {@code gc.alloc.rate.norm} metric of the GC profiler for the allocations per operation.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceContextBenchmark extends AbstractMockApmServerBenchmark {
+
+    private final Map<String, String> incomingHeaders = new HashMap<>();
+    private final Map<String, String> outgoingHeaders = new HashMap<>();
+    private Transaction transaction;
+    private Span span;
+
+    public TraceContextBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(TraceContextBenchmark.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void startSpan() {
+        incomingHeaders.put("traceparent", "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+        incomingHeaders.put("tracestate", "es=s:1,foo=bar,baz=qux");
+        transaction = tracer.startChildTransaction(incomingHeaders, MapHeaderAccessor.INSTANCE, null);
+        if (transaction == null) {
+            throw new IllegalStateException("Tracer is not running");
+        }
+        span = transaction.createSpan();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endSpan() {
+        span.end();
+        transaction.end();
+    }
+
+    @Benchmark
+    public Transaction parseIncomingHeaders() {
+        Transaction transaction = tracer.startChildTransaction(incomingHeaders, MapHeaderAccessor.INSTANCE, null);
+        if (transaction != null) {
+            // not reporting the transaction to only measure the header parsing
+            transaction.ignoreTransaction();
+            transaction.end();
+        }
+        return transaction;
+    }
+
+    @Benchmark
+    public Map<String, String> injectOutgoingHeaders() {
+        span.propagateTraceContext(outgoingHeaders, MapHeaderAccessor.INSTANCE);
+        return outgoingHeaders;
+    }
+
+    private static class MapHeaderAccessor extends AbstractHeaderGetter<String, Map<String, String>>
+        implements TextHeaderGetter<Map<String, String>>, TextHeaderSetter<Map<String, String>> {
+
+        private static final MapHeaderAccessor INSTANCE = new MapHeaderAccessor();
+
+        @Nullable
+        @Override
+        public String getFirstHeader(String headerName, Map<String, String> headerMap) {
+            return headerMap.get(headerName);
+        }
+
+        @Override
+        public void setHeader(String headerName, String headerValue, Map<String, String> headerMap) {
+            headerMap.put(headerName, headerValue);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of activating and deactivating a context on a large number of short-lived threads.
+ * <p>
+ * Every task runs on a new virtual thread, which is the worst case for per-thread context storage.
+ * Virtual threads require Java 21+.
+ * On older Java versions, the {@code virtual} variant falls back to a fixed pool of platform threads.
+ * </p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VirtualThreadActivationBenchmark extends AbstractMockApmServerBenchmark {
+
+    @Param({"1000000"})
+    public int tasks;
+
+    @Param({"virtual", "platform"})
+    public String threads;
+
+    public VirtualThreadActivationBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(VirtualThreadActivationBenchmark.class);
+    }
+
+    @Benchmark
+    public void activateOnEachThread(final Blackhole blackhole) throws Exception {
+        final Transaction transaction = tracer.startRootTransaction(null);
+        if (transaction == null) {
+            throw new IllegalStateException("Tracer is not running");
+        }
+        final CountDownLatch latch = new CountDownLatch(tasks);
+        ExecutorService executor = newExecutor();
+        try {
+            for (int i = 0; i < tasks; i++) {
+                executor.execute(() -> {
+                    transaction.activate();
+                    try {
+                        blackhole.consume(tracer.currentTransaction());
+                    } finally {
+                        transaction.deactivate();
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+        } finally {
+            executor.shutdown();
+            transaction.end();
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if ("virtual".equals(threads)) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (Exception e) {
+                System.out.println("Virtual threads are not supported on this JVM, falling back to platform threads");
+            }
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+}
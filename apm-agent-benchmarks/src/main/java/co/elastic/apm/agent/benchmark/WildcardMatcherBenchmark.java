@@ -0,0 +1,92 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.common.util.WildcardMatcher;
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares matching typical HTTP header names against the default {@code sanitize_field_names}
+ * via {@link WildcardMatcher#anyMatch(List, CharSequence)} and via a compiled {@link WildcardMatcherSet}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WildcardMatcherBenchmark extends AbstractBenchmark {
+
+    /**
+     * The default value of {@code sanitize_field_names}
+     */
+    private static final String[] SANITIZE_FIELD_NAMES = {
+        "password", "passwd", "pwd", "secret", "*key", "*token*", "*session*", "*credit*", "*card*", "*auth*", "*principal*", "set-cookie"
+    };
+
+    private static final String[] HEADER_NAMES = {
+        "Accept", "Accept-Encoding", "Accept-Language", "Cache-Control", "Connection", "Content-Length", "Content-Type",
+        "Host", "Origin", "Pragma", "Referer", "User-Agent", "X-Forwarded-For", "X-Forwarded-Proto", "X-Request-Id",
+        "traceparent", "tracestate", "Authorization", "X-Api-Key", "Sec-Fetch-Mode", "Sec-Fetch-Site", "Upgrade-Insecure-Requests"
+    };
+
+    private List<WildcardMatcher> matchers;
+    private WildcardMatcherSet matcherSet;
+
+    public static void main(String[] args) throws RunnerException {
+        run(WildcardMatcherBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        matchers = new ArrayList<>();
+        for (int i = 0; i < SANITIZE_FIELD_NAMES.length; i++) {
+            matchers.add(WildcardMatcher.valueOf(SANITIZE_FIELD_NAMES[i]));
+        }
+        // simulates a user that has added custom entries
+        for (int i = 0; i < 30; i++) {
+            matchers.add(WildcardMatcher.valueOf("*custom-field-" + i + "*"));
+        }
+        matcherSet = WildcardMatcherSet.of(matchers);
+    }
+
+    @Benchmark
+    public void matchList(Blackhole blackhole) {
+        for (int i = 0; i < HEADER_NAMES.length; i++) {
+            blackhole.consume(WildcardMatcher.isAnyMatch(matchers, HEADER_NAMES[i]));
+        }
+    }
+
+    @Benchmark
+    public void matchCompiledSet(Blackhole blackhole) {
+        for (int i = 0; i < HEADER_NAMES.length; i++) {
+            blackhole.consume(matcherSet.isAnyMatch(HEADER_NAMES[i]));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.benchmark.sql;
+
+import co.elastic.apm.agent.benchmark.AbstractMockApmServerBenchmark;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of creating JDBC spans, including the lookup of the connection metadata,
+ * for a physical connection and for a connection that is borrowed from a pool which hands out a new proxy on each borrow.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class JdbcStatementBenchmark extends AbstractMockApmServerBenchmark {
+
+    private static final String QUERY = "SELECT * FROM ELASTIC_APM WHERE foo=1";
+
+    private Blackhole blackhole;
+    private Statement statement;
+
+    public JdbcStatementBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(JdbcStatementBenchmark.class);
+    }
+
+    @Override
+    public void setUp(Blackhole blackhole) throws IOException {
+        super.setUp(blackhole);
+        this.blackhole = blackhole;
+        BlackholeConnection.INSTANCE.init(blackhole);
+        statement = new BlackholeStatement(blackhole, BlackholeConnection.INSTANCE);
+    }
+
+    @Benchmark
+    public ResultSet executeQuery() throws SQLException {
+        return executeQuery(statement);
+    }
+
+    @Benchmark
+    public ResultSet executeQueryOnPooledConnection() throws SQLException {
+        return executeQuery(new BlackholeStatement(blackhole, borrowConnection()));
+    }
+
+    private ResultSet executeQuery(Statement statement) throws SQLException {
+        Transaction transaction = tracer.startRootTransaction(null).withName("transaction").activate();
+        try {
+            return statement.executeQuery(QUERY);
+        } finally {
+            transaction.deactivate().end();
+        }
+    }
+
+    /**
+     * Emulates pools like HikariCP, which wrap the physical connection in a new proxy each time it is borrowed
+     */
+    private static Connection borrowConnection() {
+        final Connection physicalConnection = BlackholeConnection.INSTANCE;
+        return (Connection) Proxy.newProxyInstance(JdbcStatementBenchmark.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("unwrap")) {
+                return physicalConnection;
+            }
+            try {
+                return method.invoke(physicalConnection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}
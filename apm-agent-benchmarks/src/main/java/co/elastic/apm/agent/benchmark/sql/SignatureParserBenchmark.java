@@ -39,6 +39,11 @@ public class SignatureParserBenchmark extends AbstractBenchmark {
 
     private SignatureParser signatureParser;
     private StringBuilder stringBuilder;
+    /**
+     * Non-prepared queries which only differ in their literals and in the length of their {@code IN} lists
+     */
+    private String[] dynamicQueries;
+    private int dynamicQueryIndex;
 
     public static void main(String[] args) throws RunnerException {
         run(SignatureParserBenchmark.class);
@@ -48,6 +53,17 @@ public class SignatureParserBenchmark extends AbstractBenchmark {
     public void setUp() {
         stringBuilder = new StringBuilder();
         signatureParser = new SignatureParser();
+        dynamicQueries = new String[256];
+        for (int i = 0; i < dynamicQueries.length; i++) {
+            StringBuilder query = new StringBuilder("SELECT id, name, price FROM products WHERE name = 'product-").append(i).append("' AND category_id IN (");
+            for (int j = 0; j <= i % 16; j++) {
+                if (j > 0) {
+                    query.append(", ");
+                }
+                query.append(i * 31 + j);
+            }
+            dynamicQueries[i] = query.append(") AND price > ").append(i).append(".99").toString();
+        }
     }
 
     @Benchmark
@@ -64,6 +80,13 @@ public class SignatureParserBenchmark extends AbstractBenchmark {
         return stringBuilder;
     }
 
+    @Benchmark
+    public StringBuilder parseDynamicQuery() {
+        stringBuilder.setLength(0);
+        signatureParser.querySignature(dynamicQueries[dynamicQueryIndex++ & (dynamicQueries.length - 1)], stringBuilder, false);
+        return stringBuilder;
+    }
+
     @Benchmark
     public void consumeCpu() {
         // to get a feel for the jitter of this machine (most notable in higher percentiles)
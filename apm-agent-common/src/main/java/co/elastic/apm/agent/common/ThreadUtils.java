@@ -18,14 +18,52 @@
  */
 package co.elastic.apm.agent.common;
 
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 public final class ThreadUtils {
 
     public static final String ELASTIC_APM_THREAD_PREFIX = "elastic-apm-";
 
+    /**
+     * {@code Thread#isVirtual()}, only available on Java 21+ (or Java 19+ with preview features enabled)
+     */
+    @Nullable
+    private static final MethodHandle IS_VIRTUAL = lookupIsVirtual();
+
     private ThreadUtils() {
     }
 
     public static String addElasticApmThreadPrefix(String purpose) {
         return ELASTIC_APM_THREAD_PREFIX + purpose;
     }
+
+    /**
+     * Returns whether the provided thread is a virtual thread.
+     * Always returns {@code false} on Java versions that don't support virtual threads.
+     *
+     * @param thread the thread to check
+     * @return {@code true} if the thread is a virtual thread
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    @Nullable
+    private static MethodHandle lookupIsVirtual() {
+        try {
+            return MethodHandles.lookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (Exception e) {
+            return null;
+        }
+    }
 }
@@ -394,5 +394,17 @@ public abstract class WildcardMatcher {
         public String getMatcher() {
             return matcher;
         }
+
+        boolean isWildcardAtBeginning() {
+            return wildcardAtBeginning;
+        }
+
+        boolean isWildcardAtEnd() {
+            return wildcardAtEnd;
+        }
+
+        boolean isIgnoreCase() {
+            return ignoreCase;
+        }
     }
 }
@@ -0,0 +1,383 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.common.util;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A compiled form of a list of {@link WildcardMatcher}s which matches a string against all of them in a single pass,
+ * instead of trying each matcher one after the other as {@link WildcardMatcher#anyMatch(List, CharSequence)} does.
+ * <p>
+ * Case insensitive matchers without a wildcard in the middle are compiled into case-folded tries:
+ * </p>
+ * <ul>
+ *     <li>{@code foo} - a trie which is walked from the start of the string and has to consume the whole string</li>
+ *     <li>{@code foo*} - a trie which is walked from the start of the string</li>
+ *     <li>{@code *foo} - a trie of the reversed matchers which is walked from the end of the string</li>
+ *     <li>{@code *foo*} - an Aho-Corasick automaton which finds all matchers contained in the string</li>
+ * </ul>
+ * <p>
+ * All other matchers, like case sensitive ones or ones with a wildcard in the middle, are evaluated one by one.
+ * </p>
+ * <p>
+ * The result is the same as for {@link WildcardMatcher#anyMatch(List, CharSequence)}:
+ * if multiple matchers match, the one that comes first in the list is returned.
+ * Just like the {@link WildcardMatcher}, matching is completely allocation free.
+ * </p>
+ * <p>
+ * Instances are immutable and thread safe.
+ * Use a {@link Cache} to only compile a new set when a dynamic configuration option changes.
+ * </p>
+ */
+// don't use for-each as it allocates memory by instantiating an iterator
+@SuppressWarnings("ForLoopReplaceableByForEach")
+public final class WildcardMatcherSet {
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+    private static final WildcardMatcherSet EMPTY = new WildcardMatcherSet(Collections.<WildcardMatcher>emptyList());
+
+    private final List<WildcardMatcher> matchers;
+    @Nullable
+    private final Node exact;
+    @Nullable
+    private final Node prefix;
+    @Nullable
+    private final Node suffix;
+    @Nullable
+    private final Node infix;
+    /**
+     * Indices of the {@link #matchers} which could not be compiled, in ascending order
+     */
+    private final int[] uncompiled;
+
+    private WildcardMatcherSet(List<WildcardMatcher> matchers) {
+        this.matchers = matchers;
+        Node exact = null;
+        Node prefix = null;
+        Node suffix = null;
+        Node infix = null;
+        int[] uncompiled = new int[matchers.size()];
+        int uncompiledCount = 0;
+        for (int i = 0; i < matchers.size(); i++) {
+            WildcardMatcher matcher = matchers.get(i);
+            if (!isCompilable(matcher)) {
+                uncompiled[uncompiledCount++] = i;
+                continue;
+            }
+            WildcardMatcher.SimpleWildcardMatcher simpleMatcher = (WildcardMatcher.SimpleWildcardMatcher) matcher;
+            String pattern = simpleMatcher.getMatcher();
+            if (simpleMatcher.isWildcardAtBeginning() && simpleMatcher.isWildcardAtEnd()) {
+                infix = add(infix, pattern, false, i);
+            } else if (simpleMatcher.isWildcardAtBeginning()) {
+                suffix = add(suffix, pattern, true, i);
+            } else if (simpleMatcher.isWildcardAtEnd()) {
+                prefix = add(prefix, pattern, false, i);
+            } else {
+                exact = add(exact, pattern, false, i);
+            }
+        }
+        if (infix != null) {
+            computeFailureLinks(infix);
+        }
+        this.exact = exact;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.infix = infix;
+        this.uncompiled = Arrays.copyOf(uncompiled, uncompiledCount);
+    }
+
+    public static WildcardMatcherSet of(List<WildcardMatcher> matchers) {
+        if (matchers.isEmpty()) {
+            return EMPTY;
+        }
+        return new WildcardMatcherSet(matchers);
+    }
+
+    private static boolean isCompilable(WildcardMatcher matcher) {
+        if (!(matcher instanceof WildcardMatcher.SimpleWildcardMatcher)) {
+            return false;
+        }
+        WildcardMatcher.SimpleWildcardMatcher simpleMatcher = (WildcardMatcher.SimpleWildcardMatcher) matcher;
+        return simpleMatcher.isIgnoreCase() && !simpleMatcher.getMatcher().isEmpty();
+    }
+
+    private static Node add(@Nullable Node root, String pattern, boolean reverse, int index) {
+        if (root == null) {
+            root = new Node();
+        }
+        Node node = root;
+        int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            node = node.getOrAddChild(fold(pattern.charAt(reverse ? length - 1 - i : i)));
+        }
+        node.match = Math.min(node.match, index);
+        return root;
+    }
+
+    /**
+     * Turns the trie into an Aho-Corasick automaton by computing the failure link of each node in breadth-first order.
+     * The failure link of a node points to the node representing the longest proper suffix of its path.
+     * As all matchers ending in a suffix of the current path also match,
+     * the match of a node is the minimum of its own and the one of its failure link.
+     */
+    private static void computeFailureLinks(Node root) {
+        Queue<Node> queue = new ArrayDeque<>();
+        root.failure = root;
+        for (int i = 0; i < root.children.length; i++) {
+            root.children[i].failure = root;
+            queue.add(root.children[i]);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            for (int i = 0; i < node.children.length; i++) {
+                Node child = node.children[i];
+                char c = node.keys[i];
+                Node failure = node.failure;
+                while (failure != root && failure.getChild(c) == null) {
+                    failure = failure.failure;
+                }
+                Node failureChild = failure.getChild(c);
+                child.failure = failureChild != null ? failureChild : root;
+                child.match = Math.min(child.match, child.failure.match);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true}, if any of the matchers match the provided string.
+     *
+     * @param s the string to match against
+     * @return {@code true}, if any of the matchers match the provided string
+     */
+    public boolean isAnyMatch(@Nullable CharSequence s) {
+        if (s == null || matchers.isEmpty()) {
+            return false;
+        }
+        return indexOfMatch(s, "", true) != NO_MATCH;
+    }
+
+    /**
+     * Returns {@code true}, if none of the matchers match the provided string.
+     *
+     * @param s the string to match against
+     * @return {@code true}, if none of the matchers match the provided string
+     */
+    public boolean isNoneMatch(@Nullable CharSequence s) {
+        return !isAnyMatch(s);
+    }
+
+    /**
+     * Returns the first {@link WildcardMatcher} {@linkplain WildcardMatcher#matches(CharSequence) matching} the provided string.
+     *
+     * @param s the string to match against
+     * @return the first matching {@link WildcardMatcher}, or {@code null} if none match.
+     */
+    @Nullable
+    public WildcardMatcher anyMatch(@Nullable CharSequence s) {
+        if (s == null || matchers.isEmpty()) {
+            return null;
+        }
+        return anyMatch(s, null);
+    }
+
+    /**
+     * Returns the first {@link WildcardMatcher} {@linkplain WildcardMatcher#matches(CharSequence, CharSequence) matching}
+     * the provided partitioned string.
+     *
+     * @param firstPart  The first part of the string to match against.
+     * @param secondPart The second part of the string to match against.
+     * @return the first matching {@link WildcardMatcher}, or {@code null} if none match.
+     */
+    @Nullable
+    public WildcardMatcher anyMatch(CharSequence firstPart, @Nullable CharSequence secondPart) {
+        if (matchers.isEmpty()) {
+            return null;
+        }
+        int index = indexOfMatch(firstPart, secondPart != null ? secondPart : "", false);
+        return index != NO_MATCH ? matchers.get(index) : null;
+    }
+
+    public List<WildcardMatcher> getMatchers() {
+        return matchers;
+    }
+
+    /**
+     * @param anyMatch when {@code true}, returns as soon as any matcher matches, even if it's not the first one in the list
+     * @return the index of the first matching matcher, or {@link #NO_MATCH}
+     */
+    private int indexOfMatch(CharSequence firstPart, CharSequence secondPart, boolean anyMatch) {
+        int firstPartLength = firstPart.length();
+        int length = firstPartLength + secondPart.length();
+        int result = NO_MATCH;
+        if (exact != null) {
+            result = matchExact(exact, firstPart, secondPart, firstPartLength, length);
+        }
+        if (prefix != null && (result == NO_MATCH || !anyMatch)) {
+            result = Math.min(result, matchPrefix(prefix, firstPart, secondPart, firstPartLength, length));
+        }
+        if (suffix != null && (result == NO_MATCH || !anyMatch)) {
+            result = Math.min(result, matchSuffix(suffix, firstPart, secondPart, firstPartLength, length));
+        }
+        if (infix != null && (result == NO_MATCH || !anyMatch)) {
+            result = Math.min(result, matchInfix(infix, firstPart, secondPart, firstPartLength, length, anyMatch));
+        }
+        for (int i = 0; i < uncompiled.length && uncompiled[i] < result; i++) {
+            if (matchers.get(uncompiled[i]).matches(firstPart, secondPart)) {
+                return uncompiled[i];
+            }
+        }
+        return result;
+    }
+
+    private static int matchExact(Node node, CharSequence firstPart, CharSequence secondPart, int firstPartLength, int length) {
+        for (int i = 0; i < length; i++) {
+            node = node.getChild(fold(WildcardMatcher.charAt(i, firstPart, secondPart, firstPartLength)));
+            if (node == null) {
+                return NO_MATCH;
+            }
+        }
+        return node.match;
+    }
+
+    private static int matchPrefix(Node node, CharSequence firstPart, CharSequence secondPart, int firstPartLength, int length) {
+        int result = NO_MATCH;
+        for (int i = 0; i < length; i++) {
+            node = node.getChild(fold(WildcardMatcher.charAt(i, firstPart, secondPart, firstPartLength)));
+            if (node == null) {
+                break;
+            }
+            result = Math.min(result, node.match);
+        }
+        return result;
+    }
+
+    private static int matchSuffix(Node node, CharSequence firstPart, CharSequence secondPart, int firstPartLength, int length) {
+        int result = NO_MATCH;
+        for (int i = length - 1; i >= 0; i--) {
+            node = node.getChild(fold(WildcardMatcher.charAt(i, firstPart, secondPart, firstPartLength)));
+            if (node == null) {
+                break;
+            }
+            result = Math.min(result, node.match);
+        }
+        return result;
+    }
+
+    private static int matchInfix(Node root, CharSequence firstPart, CharSequence secondPart, int firstPartLength, int length, boolean anyMatch) {
+        int result = NO_MATCH;
+        Node node = root;
+        for (int i = 0; i < length; i++) {
+            char c = fold(WildcardMatcher.charAt(i, firstPart, secondPart, firstPartLength));
+            Node child = node.getChild(c);
+            while (child == null && node != root) {
+                node = node.failure;
+                child = node.getChild(c);
+            }
+            node = child != null ? child : root;
+            if (node.match < result) {
+                result = node.match;
+                if (anyMatch) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(c);
+    }
+
+    @Override
+    public String toString() {
+        return matchers.toString();
+    }
+
+    private static class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        /**
+         * Sorted, so that children can be looked up via binary search
+         */
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        /**
+         * The lowest index of all matchers that match when reaching this node
+         */
+        private int match = NO_MATCH;
+        /**
+         * Only set for nodes of the Aho-Corasick automaton
+         */
+        @Nullable
+        private Node failure;
+
+        @Nullable
+        Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertionPoint = -index - 1;
+            Node child = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertionPoint);
+            System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+            newKeys[insertionPoint] = c;
+            newChildren[insertionPoint] = child;
+            System.arraycopy(keys, insertionPoint, newKeys, insertionPoint + 1, keys.length - insertionPoint);
+            System.arraycopy(children, insertionPoint, newChildren, insertionPoint + 1, children.length - insertionPoint);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+
+    /**
+     * Holds the {@link WildcardMatcherSet} for the current value of a dynamic configuration option
+     * and only re-compiles it when the value has changed.
+     */
+    public static final class Cache {
+
+        @Nullable
+        private volatile WildcardMatcherSet compiled;
+
+        public WildcardMatcherSet get(List<WildcardMatcher> matchers) {
+            WildcardMatcherSet current = compiled;
+            // a config change always results in a new list instance
+            if (current == null || current.matchers != matchers) {
+                current = new WildcardMatcherSet(matchers);
+                compiled = current;
+            }
+            return current;
+        }
+    }
+}
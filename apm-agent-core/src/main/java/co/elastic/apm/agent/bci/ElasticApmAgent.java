@@ -19,14 +19,17 @@
 package co.elastic.apm.agent.bci;
 
 import co.elastic.apm.agent.bci.bytebuddy.AnnotationValueOffsetMappingFactory;
+import co.elastic.apm.agent.bci.bytebuddy.ClassMatchingDecisionCache;
 import co.elastic.apm.agent.bci.bytebuddy.ErrorLoggingListener;
 import co.elastic.apm.agent.bci.bytebuddy.FailSafeDeclaredMethodsCompiler;
 import co.elastic.apm.agent.bci.bytebuddy.InstallationListenerImpl;
 import co.elastic.apm.agent.bci.bytebuddy.Instrumented;
 import co.elastic.apm.agent.bci.bytebuddy.LruTypePoolCache;
 import co.elastic.apm.agent.bci.bytebuddy.MinimumClassFileVersionValidator;
+import co.elastic.apm.agent.bci.bytebuddy.NamePreFilterIndex;
 import co.elastic.apm.agent.bci.bytebuddy.NonInstrumented;
 import co.elastic.apm.agent.bci.bytebuddy.PatchBytecodeVersionTo51Transformer;
+import co.elastic.apm.agent.bci.bytebuddy.RetransformationScheduler;
 import co.elastic.apm.agent.bci.bytebuddy.RootPackageCustomLocator;
 import co.elastic.apm.agent.bci.bytebuddy.SimpleMethodSignatureOffsetMappingFactory;
 import co.elastic.apm.agent.bci.classloading.ExternalPluginClassLoader;
@@ -40,6 +43,8 @@ import co.elastic.apm.agent.impl.Tracer;
 import co.elastic.apm.agent.tracer.GlobalTracer;
 import co.elastic.apm.agent.logging.ApmServerLogAppender;
 import co.elastic.apm.agent.matcher.MethodMatcher;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.builtin.AdviceOverheadMetrics;
 import co.elastic.apm.agent.sdk.ElasticApmInstrumentation;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
@@ -49,6 +54,7 @@ import co.elastic.apm.agent.tracemethods.TraceMethodInstrumentation;
 import co.elastic.apm.agent.util.DependencyInjectingServiceLoader;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import co.elastic.apm.agent.util.PrivilegedActionUtils;
+import co.elastic.apm.agent.util.VersionUtils;
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
@@ -96,7 +102,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import static co.elastic.apm.agent.bci.bytebuddy.ClassLoaderNameMatcher.classLoaderWithName;
 import static co.elastic.apm.agent.bci.bytebuddy.ClassLoaderNameMatcher.classLoaderWithNamePrefix;
@@ -126,6 +131,8 @@ public class ElasticApmAgent {
     private static Instrumentation instrumentation;
     @Nullable
     private static ResettableClassFileTransformer resettableClassFileTransformer;
+    @Nullable
+    private static ClassMatchingDecisionCache classMatchingDecisionCache;
     private static final List<ResettableClassFileTransformer> dynamicClassFileTransformers = new ArrayList<>();
     private static final WeakMap<Class<?>, Set<Collection<Class<? extends ElasticApmInstrumentation>>>> dynamicallyInstrumentedClasses = WeakConcurrent.buildMap();
     @Nullable
@@ -274,11 +281,13 @@ public class ElasticApmAgent {
             mapInstrumentationCL2adviceClassName(
                 apmInstrumentation.getAdviceClassName(),
                 PrivilegedActionUtils.getClassLoader(apmInstrumentation.getClass()));
+            AdviceOverheadMetrics.registerAdvice(apmInstrumentation.getAdviceClassName(), apmInstrumentation.getInstrumentationGroupNames());
         }
         Runtime.getRuntime().addShutdownHook(new Thread(ThreadUtils.addElasticApmThreadPrefix("init-instrumentation-shutdown-hook")) {
             @Override
             public void run() {
                 tracer.stop();
+                persistClassMatchingDecisions();
             }
         });
         Logger logger = getLogger();
@@ -286,6 +295,7 @@ public class ElasticApmAgent {
             logger.warn("Instrumentation has already been initialized");
             return;
         }
+        classMatchingDecisionCache = createClassMatchingDecisionCache(coreConfig);
         // POOL_ONLY because we don't want to cause eager linking on startup as the class path may not be complete yet
         AgentBuilder agentBuilder = initAgentBuilder(tracer, instrumentation, instrumentations, logger, AgentBuilder.DescriptionStrategy.Default.POOL_ONLY, premain);
 
@@ -341,6 +351,10 @@ public class ElasticApmAgent {
     static synchronized void doReInitInstrumentation(Iterable<ElasticApmInstrumentation> instrumentations) {
         Logger logger = getLogger();
         logger.info("Re initializing instrumentation");
+        if (classMatchingDecisionCache != null) {
+            // the recorded decisions are only valid for the configuration the agent has been started with
+            classMatchingDecisionCache.disable();
+        }
         AgentBuilder agentBuilder = initAgentBuilder(GlobalTracer.get().require(ElasticApmTracer.class), instrumentation, instrumentations, logger, AgentBuilder.DescriptionStrategy.Default.POOL_ONLY, false);
 
         resettableClassFileTransformer = agentBuilder.patchOn(instrumentation, resettableClassFileTransformer);
@@ -355,14 +369,18 @@ public class ElasticApmAgent {
             .with(TypeValidation.of(logger.isDebugEnabled()))
             .with(FailSafeDeclaredMethodsCompiler.INSTANCE);
         AgentBuilder agentBuilder = getAgentBuilder(
-            byteBuddy, coreConfiguration, logger, descriptionStrategy, premain, coreConfiguration.isTypePoolCacheEnabled()
+            byteBuddy, coreConfiguration, tracer.getMetricRegistry(), logger, descriptionStrategy, premain, coreConfiguration.isTypePoolCacheEnabled()
         );
         int numberOfAdvices = 0;
+        NamePreFilterIndex preFilterIndex = new NamePreFilterIndex(instrumentationStats.shouldMeasureMatching()
+            ? instrumentationStats.getOrCreateTimer(NamePreFilterIndex.class.getName())
+            : null);
         for (final ElasticApmInstrumentation advice : instrumentations) {
             if (isIncluded(advice, coreConfiguration)) {
                 instrumentationStats.addInstrumentation(advice);
                 try {
-                    agentBuilder = applyAdvice(tracer, agentBuilder, advice, advice.getTypeMatcher());
+                    agentBuilder = applyAdvice(tracer, agentBuilder, advice, preFilterIndex.add(advice.getTypeMatcherPreFilter()),
+                        advice.getTypeMatcher(), classMatchingDecisionCache);
                     numberOfAdvices++;
                 } catch (Exception e) {
                     logger.error("Exception occurred while applying instrumentation {}", advice.getClass().getName(), e);
@@ -373,6 +391,7 @@ public class ElasticApmAgent {
                 logger.debug("Not applying excluded instrumentation {}", advice.getClass().getName());
             }
         }
+        preFilterIndex.compile();
         logger.debug("Applied {} advices", numberOfAdvices);
         return agentBuilder;
     }
@@ -385,16 +404,47 @@ public class ElasticApmAgent {
         return advice.includeWhenInstrumentationIsDisabled() || coreConfiguration.isInstrument();
     }
 
+    @Nullable
+    private static ClassMatchingDecisionCache createClassMatchingDecisionCache(CoreConfiguration coreConfig) {
+        String cacheDir = coreConfig.getClassMatchingCacheDir();
+        if (cacheDir == null || cacheDir.trim().isEmpty()) {
+            return null;
+        }
+        List<String> fingerprintParts = new ArrayList<>();
+        fingerprintParts.add(VersionUtils.getAgentVersion());
+        fingerprintParts.add(System.getProperty("java.version"));
+        fingerprintParts.add(System.getProperty("java.class.path"));
+        for (ConfigurationOption<?> option : coreConfig.getClassMatchingOptions()) {
+            fingerprintParts.add(option.getKey() + "=" + option.getValueAsString());
+        }
+        return ClassMatchingDecisionCache.create(new File(cacheDir.trim()),
+            ClassMatchingDecisionCache.fingerprint(fingerprintParts.toArray(new String[0])));
+    }
+
+    /**
+     * Persists the class matching decisions if the {@link CoreConfiguration#getClassMatchingCacheDir()} is set.
+     * Called on shutdown so that the next start of the agent can skip type matching of classes that are known to not match.
+     */
+    public static void persistClassMatchingDecisions() {
+        ClassMatchingDecisionCache cache = classMatchingDecisionCache;
+        if (cache != null) {
+            cache.persist();
+        }
+    }
+
     private static AgentBuilder applyAdvice(final ElasticApmTracer tracer, final AgentBuilder agentBuilder,
-                                            final ElasticApmInstrumentation instrumentation, final ElementMatcher<? super TypeDescription> typeMatcher) {
+                                            final ElasticApmInstrumentation instrumentation,
+                                            final ElementMatcher<? super NamedElement> typeMatcherPreFilter,
+                                            final ElementMatcher<? super TypeDescription> typeMatcher,
+                                            @Nullable final ClassMatchingDecisionCache decisionCache) {
         final Logger logger = getLogger();
         logger.debug("Applying instrumentation {}", instrumentation.getClass().getName());
         final boolean classLoadingMatchingPreFilter = tracer.getConfig(CoreConfiguration.class).isClassLoadingMatchingPreFilter();
         final boolean typeMatchingWithNamePreFilter = tracer.getConfig(CoreConfiguration.class).isTypeMatchingWithNamePreFilter();
         final ElementMatcher.Junction<ClassLoader> classLoaderMatcher = instrumentation.getClassLoaderMatcher();
-        final ElementMatcher<? super NamedElement> typeMatcherPreFilter = instrumentation.getTypeMatcherPreFilter();
         final ElementMatcher.Junction<ProtectionDomain> versionPostFilter = instrumentation.getProtectionDomainPostFilter();
         final ElementMatcher<? super MethodDescription> methodMatcher = new ElementMatcher.Junction.Conjunction<>(instrumentation.getMethodMatcher(), not(isAbstract()));
+        final String instrumentationName = instrumentation.getClass().getName();
         final AgentBuilder.RawMatcher matcher = new AgentBuilder.RawMatcher() {
             @Override
             public boolean matches(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module, Class<?> classBeingRedefined, ProtectionDomain protectionDomain) {
@@ -404,9 +454,21 @@ public class ElasticApmAgent {
                 if (typeMatchingWithNamePreFilter && !typeMatcherPreFilter.matches(typeDescription)) {
                     return false;
                 }
+                String codeSourceKey = null;
+                if (decisionCache != null) {
+                    codeSourceKey = decisionCache.getCodeSourceKey(protectionDomain);
+                    if (codeSourceKey != null && decisionCache.isKnownMismatch(codeSourceKey, typeDescription.getName(), instrumentationName)) {
+                        return false;
+                    }
+                }
                 boolean typeMatches;
                 try {
-                    typeMatches = typeMatcher.matches(typeDescription) && versionPostFilter.matches(protectionDomain);
+                    typeMatches = typeMatcher.matches(typeDescription);
+                    if (!typeMatches && decisionCache != null && codeSourceKey != null) {
+                        // unlike the class loader and version matchers, the type matcher only depends on the class itself
+                        decisionCache.recordMismatch(codeSourceKey, typeDescription.getName(), instrumentationName);
+                    }
+                    typeMatches = typeMatches && versionPostFilter.matches(protectionDomain);
                 } catch (Exception ignored) {
                     // could be because of a missing type
                     typeMatches = false;
@@ -672,12 +734,14 @@ public class ElasticApmAgent {
         }
         dynamicClassFileTransformers.clear();
         instrumentation = null;
+        classMatchingDecisionCache = null;
         IndyPluginClassLoaderFactory.clear();
         adviceClassName2instrumentationClassLoader.clear();
         pluginPackages2pluginClassLoaderCustomizations.clear();
     }
 
-    private static AgentBuilder getAgentBuilder(final ByteBuddy byteBuddy, final CoreConfiguration coreConfiguration, final Logger logger,
+    private static AgentBuilder getAgentBuilder(final ByteBuddy byteBuddy, final CoreConfiguration coreConfiguration,
+                                                final MetricRegistry metricRegistry, final Logger logger,
                                                 final AgentBuilder.DescriptionStrategy descriptionStrategy, final boolean premain,
                                                 final boolean useTypePoolCache) {
         AgentBuilder.LocationStrategy locationStrategy = AgentBuilder.LocationStrategy.ForClassLoader.WEAK;
@@ -698,11 +762,20 @@ public class ElasticApmAgent {
                 logger.warn("Failed to add ClassFileLocator for the agent jar. Some instrumentations may not work", e);
             }
         }
+        RedefinitionStrategy.BatchAllocator batchAllocator = RedefinitionStrategy.BatchAllocator.ForTotal.INSTANCE;
+        RedefinitionStrategy.Listener redefinitionListener = RedefinitionStrategy.Listener.NoOp.INSTANCE;
+        if (!premain) {
+            // when runtime attaching, retransform classes in small batches and pause in-between as retransformation causes a stop-the-world pause
+            RetransformationScheduler retransformationScheduler = new RetransformationScheduler(metricRegistry,
+                coreConfiguration.getRetransformationBatchSize(), coreConfiguration.getRetransformationPauseMs(),
+                coreConfiguration.isRetransformationPrioritizeHotClasses());
+            batchAllocator = retransformationScheduler;
+            redefinitionListener = retransformationScheduler;
+        }
         return new AgentBuilder.Default(byteBuddy)
             .with(RedefinitionStrategy.RETRANSFORMATION)
-            // when runtime attaching, only retransform up to 100 classes at once and sleep 100ms in-between as retransformation causes a stop-the-world pause
-            .with(premain ? RedefinitionStrategy.BatchAllocator.ForTotal.INSTANCE : RedefinitionStrategy.BatchAllocator.ForFixedSize.ofSize(100))
-            .with(premain ? RedefinitionStrategy.Listener.NoOp.INSTANCE : RedefinitionStrategy.Listener.Pausing.of(100, TimeUnit.MILLISECONDS))
+            .with(batchAllocator)
+            .with(redefinitionListener)
             .with(new RedefinitionStrategy.Listener.Adapter() {
                 @Override
                 public Iterable<? extends List<Class<?>>> onError(int index, List<Class<?>> batch, Throwable throwable, List<Class<?>> types) {
@@ -829,16 +902,18 @@ public class ElasticApmAgent {
             .with(TypeValidation.of(logger.isDebugEnabled()))
             .with(FailSafeDeclaredMethodsCompiler.INSTANCE);
         AgentBuilder agentBuilder = getAgentBuilder(
-            byteBuddy, config, logger, AgentBuilder.DescriptionStrategy.Default.POOL_ONLY, false, false
+            byteBuddy, config, tracer.getMetricRegistry(), logger, AgentBuilder.DescriptionStrategy.Default.POOL_ONLY, false, false
         );
         for (Class<? extends ElasticApmInstrumentation> instrumentationClass : instrumentationClasses) {
             ElasticApmInstrumentation apmInstrumentation = instantiate(instrumentationClass);
             mapInstrumentationCL2adviceClassName(
                 apmInstrumentation.getAdviceClassName(),
                 PrivilegedActionUtils.getClassLoader(instrumentationClass));
+            AdviceOverheadMetrics.registerAdvice(apmInstrumentation.getAdviceClassName(), apmInstrumentation.getInstrumentationGroupNames());
             ElementMatcher.Junction<? super TypeDescription> typeMatcher = getTypeMatcher(classToInstrument, apmInstrumentation.getMethodMatcher(), none());
             if (typeMatcher != null && isIncluded(apmInstrumentation, config)) {
-                agentBuilder = applyAdvice(tracer, agentBuilder, apmInstrumentation, typeMatcher.and(apmInstrumentation.getTypeMatcher()));
+                agentBuilder = applyAdvice(tracer, agentBuilder, apmInstrumentation, apmInstrumentation.getTypeMatcherPreFilter(),
+                    typeMatcher.and(apmInstrumentation.getTypeMatcher()), null);
             }
         }
         dynamicClassFileTransformers.add(agentBuilder.installOn(instrumentation));
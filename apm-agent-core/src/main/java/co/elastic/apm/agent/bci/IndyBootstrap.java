@@ -22,6 +22,7 @@ import co.elastic.apm.agent.bci.classloading.ExternalPluginClassLoader;
 import co.elastic.apm.agent.bci.classloading.IndyPluginClassLoader;
 import co.elastic.apm.agent.bci.classloading.LookupExposer;
 import co.elastic.apm.agent.common.JvmRuntimeInfo;
+import co.elastic.apm.agent.metrics.builtin.AdviceOverheadMetrics;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 import co.elastic.apm.agent.sdk.state.CallDepth;
@@ -467,7 +468,7 @@ public class IndyBootstrap {
             MethodHandles.Lookup indyLookup = (MethodHandles.Lookup) lookupExposer.getMethod("getLookup").invoke(null);
             // When calling findStatic now, the lookup class will be one that is loaded by the plugin class loader
             MethodHandle methodHandle = indyLookup.findStatic(adviceInPluginCL, adviceMethodName, adviceMethodType);
-            return new ConstantCallSite(methodHandle);
+            return new ConstantCallSite(AdviceOverheadMetrics.measure(adviceClassName, methodHandle));
         } catch (Exception e) {
             logger().error(e.getMessage(), e);
             return null;
@@ -118,7 +118,10 @@ public final class InstrumentationStats {
     }
 
     MatcherTimer getOrCreateTimer(Class<? extends ElasticApmInstrumentation> adviceClass) {
-        final String name = adviceClass.getName();
+        return getOrCreateTimer(adviceClass.getName());
+    }
+
+    MatcherTimer getOrCreateTimer(String name) {
         MatcherTimer timer = matcherTimers.get(name);
         if (timer == null) {
             matcherTimers.putIfAbsent(name, new MatcherTimer(name));
@@ -0,0 +1,411 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.bci.bytebuddy;
+
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+import co.elastic.apm.agent.sdk.weakconcurrent.WeakConcurrent;
+import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
+import co.elastic.apm.agent.util.HexUtils;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persists which instrumentations have not matched which classes,
+ * so that subsequent starts of the agent can skip the type matching for classes that are known to not match an instrumentation.
+ * Type matching is expensive as it usually requires resolving the type hierarchy of a class via the type pool.
+ * <p>
+ * Only explicit mismatches are recorded.
+ * If there's no decision for a class and an instrumentation, for example because the class has not been loaded in a previous run
+ * or because the class loader matcher has rejected the instrumentation, the type matching is not skipped.
+ * </p>
+ * <p>
+ * Cache invalidation works as follows:
+ * </p>
+ * <ul>
+ *     <li>
+ *         The name of the cache file contains a {@linkplain #fingerprint(String...) fingerprint} of the agent version,
+ *         the Java version, the class path and the instrumentation-related configuration.
+ *         If any of those change, a different file is used.
+ *     </li>
+ *     <li>
+ *         Decisions are only recorded for classes that have been loaded from a jar file.
+ *         They are keyed by the location, the size and the last modified timestamp of the jar.
+ *         Replacing a jar invalidates all decisions for classes within that jar.
+ *     </li>
+ *     <li>
+ *         Decisions are only valid for the configuration the agent has been started with.
+ *         When the instrumentation is re-initialized due to a configuration change, the cache is {@linkplain #disable() disabled}.
+ *     </li>
+ * </ul>
+ * <p>
+ * Note that the type hierarchy of a class may span multiple jars.
+ * Changing a super type in a different jar without changing the class path or the jar of the sub type is not detected.
+ * That's why this cache is opt-in.
+ * </p>
+ */
+public class ClassMatchingDecisionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassMatchingDecisionCache.class);
+
+    private static final String FILE_HEADER = "# elastic-apm-agent class matching decisions v2";
+    private static final String FILE_PREFIX = "elastic-apm-class-matching-";
+    private static final String FILE_SUFFIX = ".cache";
+    private static final String NOT_CACHEABLE = "";
+    /**
+     * Limits the number of classes in the cache file so that loading it does not take longer than the type matching it saves
+     */
+    private static final int MAX_CLASSES = 200_000;
+
+    private final File cacheFile;
+    /**
+     * Decisions of previous runs: code source key -> class name -> names of the instrumentations that did not match
+     */
+    private final Map<String, Map<String, Set<String>>> previousDecisions;
+    /**
+     * Decisions of the current run: code source key -> class name -> names of the instrumentations that did not match
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, Set<String>>> decisions = new ConcurrentHashMap<>();
+    private final WeakMap<ProtectionDomain, String> codeSourceKeys = WeakConcurrent.buildMap();
+    private final AtomicInteger recordedClasses = new AtomicInteger();
+    private final AtomicLong skippedTypeMatches = new AtomicLong();
+    private volatile boolean enabled = true;
+
+    ClassMatchingDecisionCache(File cacheFile, Map<String, Map<String, Set<String>>> previousDecisions) {
+        this.cacheFile = cacheFile;
+        this.previousDecisions = previousDecisions;
+    }
+
+    /**
+     * Creates a cache that is backed by a file within the provided directory.
+     * If there is a file for the same fingerprint from a previous run, its decisions are loaded.
+     *
+     * @param cacheDir    the directory of the cache file, created if it does not exist
+     * @param fingerprint the {@linkplain #fingerprint(String...) fingerprint} of everything that influences the matching decisions
+     * @return a new cache
+     */
+    public static ClassMatchingDecisionCache create(File cacheDir, String fingerprint) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            logger.warn("Could not create class matching cache directory {}", cacheDir);
+        }
+        File cacheFile = new File(cacheDir, FILE_PREFIX + fingerprint + FILE_SUFFIX);
+        Map<String, Map<String, Set<String>>> previousDecisions = Collections.emptyMap();
+        if (cacheFile.isFile()) {
+            long start = System.nanoTime();
+            try {
+                previousDecisions = load(cacheFile.toPath());
+                logger.debug("Loaded class matching decisions for {} code sources from {} in {}ms",
+                    previousDecisions.size(), cacheFile, (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception e) {
+                logger.warn("Ignoring corrupt class matching cache file {}: {}", cacheFile, e.getMessage());
+                previousDecisions = Collections.emptyMap();
+            }
+        }
+        return new ClassMatchingDecisionCache(cacheFile, previousDecisions);
+    }
+
+    /**
+     * Computes a fingerprint of the provided parts which is used to build the name of the cache file.
+     *
+     * @param parts everything that may influence the matching decisions, such as the agent version and the configuration
+     * @return a hex-encoded fingerprint
+     */
+    public static String fingerprint(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                // separator, so that ("ab", "c") and ("a", "bc") differ
+                digest.update((byte) 0);
+            }
+            return HexUtils.bytesToHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the key of the code source a class has been loaded from.
+     * A key is only created for classes that have been loaded from a jar file that still exists.
+     *
+     * @param protectionDomain the protection domain of the class
+     * @return the code source key, or {@code null} if decisions for classes of this code source can't be cached
+     */
+    @Nullable
+    public String getCodeSourceKey(@Nullable ProtectionDomain protectionDomain) {
+        if (!enabled || protectionDomain == null) {
+            return null;
+        }
+        String key = codeSourceKeys.get(protectionDomain);
+        if (key == null) {
+            key = computeCodeSourceKey(protectionDomain.getCodeSource());
+            codeSourceKeys.put(protectionDomain, key);
+        }
+        return key.isEmpty() ? null : key;
+    }
+
+    // visible for testing
+    static String computeCodeSourceKey(@Nullable CodeSource codeSource) {
+        if (codeSource == null) {
+            return NOT_CACHEABLE;
+        }
+        URL location = codeSource.getLocation();
+        if (location == null) {
+            return NOT_CACHEABLE;
+        }
+        String url = location.toExternalForm();
+        String fileUrl = url;
+        if (url.startsWith("jar:")) {
+            // nested jars, such as jar:file:/app.jar!/BOOT-INF/lib/lib.jar!/
+            // the outer jar changes whenever a nested jar changes
+            int separator = url.indexOf("!/");
+            fileUrl = url.substring("jar:".length(), separator > 0 ? separator : url.length());
+        }
+        if (!fileUrl.startsWith("file:") || !fileUrl.endsWith(".jar")) {
+            // classes in directories may change without any indication on the directory itself
+            return NOT_CACHEABLE;
+        }
+        try {
+            File jar = new File(new URI(fileUrl));
+            if (!jar.isFile()) {
+                return NOT_CACHEABLE;
+            }
+            return url + '|' + jar.length() + '|' + jar.lastModified();
+        } catch (Exception e) {
+            return NOT_CACHEABLE;
+        }
+    }
+
+    /**
+     * Returns {@code true} if a previous run has recorded that the given instrumentation does not match the given class.
+     *
+     * @param codeSourceKey   the {@linkplain #getCodeSourceKey(ProtectionDomain) code source key}
+     * @param className       the name of the class
+     * @param instrumentation the name of the instrumentation
+     * @return {@code true} if the type matching can be skipped, as the type is known to not match
+     */
+    public boolean isKnownMismatch(String codeSourceKey, String className, String instrumentation) {
+        if (!enabled) {
+            return false;
+        }
+        Map<String, Set<String>> classes = previousDecisions.get(codeSourceKey);
+        if (classes == null) {
+            return false;
+        }
+        Set<String> mismatchingInstrumentations = classes.get(className);
+        if (mismatchingInstrumentations == null || !mismatchingInstrumentations.contains(instrumentation)) {
+            return false;
+        }
+        skippedTypeMatches.incrementAndGet();
+        // carry the decision over to the next run, as the type matching that would record it again is skipped
+        recordMismatch(codeSourceKey, className, instrumentation);
+        return true;
+    }
+
+    /**
+     * Records that the type matcher of an instrumentation does not match a class.
+     * Only decisions that don't depend on the runtime state, such as the class loader, may be recorded.
+     *
+     * @param codeSourceKey   the {@linkplain #getCodeSourceKey(ProtectionDomain) code source key}
+     * @param className       the name of the class
+     * @param instrumentation the name of the instrumentation
+     */
+    public void recordMismatch(String codeSourceKey, String className, String instrumentation) {
+        if (!enabled) {
+            return;
+        }
+        ConcurrentMap<String, Set<String>> classes = decisions.get(codeSourceKey);
+        if (classes == null) {
+            decisions.putIfAbsent(codeSourceKey, new ConcurrentHashMap<String, Set<String>>());
+            classes = decisions.get(codeSourceKey);
+        }
+        Set<String> mismatchingInstrumentations = classes.get(className);
+        if (mismatchingInstrumentations == null) {
+            if (recordedClasses.get() >= MAX_CLASSES) {
+                return;
+            }
+            if (classes.putIfAbsent(className, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())) == null) {
+                recordedClasses.incrementAndGet();
+            }
+            mismatchingInstrumentations = classes.get(className);
+        }
+        mismatchingInstrumentations.add(instrumentation);
+    }
+
+    /**
+     * Stops using and recording decisions and prevents the cache from being {@linkplain #persist() persisted}.
+     * Called when the decisions are not valid anymore, for example when the configuration has changed.
+     */
+    public void disable() {
+        enabled = false;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getSkippedTypeMatches() {
+        return skippedTypeMatches.get();
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Writes the decisions of the previous runs, updated with the decisions of the current run, to the cache file.
+     * The file is replaced atomically so that concurrently starting JVMs never see a partially written file.
+     */
+    public synchronized void persist() {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Map<String, Set<String>>> merged = new HashMap<>();
+        int classes = 0;
+        for (Map.Entry<String, ConcurrentMap<String, Set<String>>> entry : decisions.entrySet()) {
+            Map<String, Set<String>> mergedClasses = new HashMap<>();
+            for (Map.Entry<String, Set<String>> clazz : entry.getValue().entrySet()) {
+                mergedClasses.put(clazz.getKey(), new HashSet<>(clazz.getValue()));
+            }
+            merged.put(entry.getKey(), mergedClasses);
+            classes += mergedClasses.size();
+        }
+        for (Map.Entry<String, Map<String, Set<String>>> previous : previousDecisions.entrySet()) {
+            Map<String, Set<String>> mergedClasses = merged.get(previous.getKey());
+            if (mergedClasses == null) {
+                mergedClasses = new HashMap<>();
+                merged.put(previous.getKey(), mergedClasses);
+            }
+            for (Map.Entry<String, Set<String>> previousClass : previous.getValue().entrySet()) {
+                Set<String> mismatchingInstrumentations = mergedClasses.get(previousClass.getKey());
+                if (mismatchingInstrumentations != null) {
+                    mismatchingInstrumentations.addAll(previousClass.getValue());
+                } else if (classes < MAX_CLASSES) {
+                    mergedClasses.put(previousClass.getKey(), previousClass.getValue());
+                    classes++;
+                }
+            }
+        }
+        Path target = cacheFile.toPath();
+        try {
+            Path tempFile = Files.createTempFile(target.getParent(), FILE_PREFIX, ".tmp");
+            try {
+                write(tempFile, merged);
+                try {
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            logger.debug("Persisted class matching decisions for {} classes to {}. Skipped {} type matches in this run.",
+                classes, cacheFile, skippedTypeMatches.get());
+        } catch (IOException e) {
+            logger.warn("Could not persist class matching decisions to {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /*
+     * File format:
+     * # header
+     * <code source key>\t<class name>\t<comma separated list of instrumentations that did not match>
+     */
+    private static void write(Path file, Map<String, Map<String, Set<String>>> decisions) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(FILE_HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Map<String, Set<String>>> codeSource : decisions.entrySet()) {
+                for (Map.Entry<String, Set<String>> clazz : codeSource.getValue().entrySet()) {
+                    writer.write(codeSource.getKey());
+                    writer.write('\t');
+                    writer.write(clazz.getKey());
+                    writer.write('\t');
+                    boolean first = true;
+                    for (String instrumentation : clazz.getValue()) {
+                        if (!first) {
+                            writer.write(',');
+                        }
+                        writer.write(instrumentation);
+                        first = false;
+                    }
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private static Map<String, Map<String, Set<String>>> load(Path file) throws IOException {
+        Map<String, Map<String, Set<String>>> decisions = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!FILE_HEADER.equals(reader.readLine())) {
+                throw new IOException("Unexpected file header");
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int firstTab = line.indexOf('\t');
+                int secondTab = line.indexOf('\t', firstTab + 1);
+                if (firstTab < 0 || secondTab < 0) {
+                    throw new IOException("Malformed line: " + line);
+                }
+                String codeSourceKey = line.substring(0, firstTab);
+                Map<String, Set<String>> classes = decisions.get(codeSourceKey);
+                if (classes == null) {
+                    classes = new HashMap<>();
+                    decisions.put(codeSourceKey, classes);
+                }
+                Set<String> mismatchingInstrumentations = new HashSet<>();
+                int start = secondTab + 1;
+                while (start < line.length()) {
+                    int end = line.indexOf(',', start);
+                    if (end < 0) {
+                        end = line.length();
+                    }
+                    mismatchingInstrumentations.add(line.substring(start, end));
+                    start = end + 1;
+                }
+                classes.put(line.substring(firstTab + 1, secondTab), mismatchingInstrumentations);
+            }
+        }
+        return decisions;
+    }
+}
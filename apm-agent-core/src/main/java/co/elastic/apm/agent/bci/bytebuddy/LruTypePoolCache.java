@@ -21,7 +21,7 @@ package co.elastic.apm.agent.bci.bytebuddy;
 import co.elastic.apm.agent.configuration.converter.ByteValue;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakConcurrent;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
-import co.elastic.apm.agent.util.ExecutorUtils;
+import co.elastic.apm.agent.util.AgentScheduler;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import com.googlecode.concurrentlinkedhashmap.EntryWeigher;
 import net.bytebuddy.agent.builder.AgentBuilder;
@@ -34,7 +34,6 @@ import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -64,7 +63,6 @@ public class LruTypePoolCache extends AgentBuilder.PoolStrategy.WithTypePoolCach
      */
     private final AtomicReference<SoftReference<ConcurrentMap<String, ResolutionsByClassLoader>>> sharedCache;
     private final WeakMap<ClassLoader, TypePool.CacheProvider> cacheProviders;
-    private final ScheduledThreadPoolExecutor executor;
 
     /**
      * Creates a new type locator that creates {@link TypePool}s but provides a custom {@link TypePool.CacheProvider}.
@@ -91,7 +89,6 @@ public class LruTypePoolCache extends AgentBuilder.PoolStrategy.WithTypePoolCach
         this.maxCacheSize = maxCacheSize;
         this.sharedCache = new AtomicReference<>(new SoftReference<>(createCache()));
         this.cacheProviders = WeakConcurrent.buildMap();
-        this.executor = ExecutorUtils.createSingleThreadSchedulingDaemonPool("type-cache-pool-cleaner");
     }
 
     public static int cacheSizeForPercentageOfCommittedHeap(int minCacheSize, int maxCacheSize, double targetPercentOfHeap) {
@@ -118,7 +115,7 @@ public class LruTypePoolCache extends AgentBuilder.PoolStrategy.WithTypePoolCach
      * @return {@code this}
      */
     public LruTypePoolCache scheduleEntryEviction(final long maxAgeMs) {
-        executor.scheduleWithFixedDelay(new Runnable() {
+        AgentScheduler.scheduleWithFixedDelay("type-cache-pool-cleaner", new Runnable() {
                 @Override
                 public void run() {
                     evictStaleEntries(maxAgeMs);
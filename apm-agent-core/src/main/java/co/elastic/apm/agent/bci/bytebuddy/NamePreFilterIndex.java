@@ -0,0 +1,491 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.bci.bytebuddy;
+
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+import net.bytebuddy.description.NamedElement;
+import net.bytebuddy.matcher.BooleanMatcher;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.NameMatcher;
+import net.bytebuddy.matcher.StringMatcher;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compiles the {@linkplain co.elastic.apm.agent.sdk.ElasticApmInstrumentation#getTypeMatcherPreFilter() name pre filters}
+ * of all instrumentations into a single Aho-Corasick automaton.
+ * <p>
+ * Without this index, ByteBuddy evaluates the pre filter of every instrumentation for every loaded class,
+ * which means that the matching cost grows linearly with the number of instrumentations.
+ * With this index, the name of a class is scanned once and the result is the set of instrumentations whose pre filter may match.
+ * Only for those, the actual pre filter is evaluated.
+ * </p>
+ * <p>
+ * The index understands the matchers created by {@link net.bytebuddy.matcher.ElementMatchers#nameStartsWith(String)},
+ * {@link net.bytebuddy.matcher.ElementMatchers#nameContains(String)}, {@link net.bytebuddy.matcher.ElementMatchers#nameEndsWith(String)},
+ * {@link net.bytebuddy.matcher.ElementMatchers#named(String)} (and their case-insensitive variants),
+ * as well as conjunctions and disjunctions thereof.
+ * Pre filters that contain anything else are not indexed and are always evaluated.
+ * The automaton ignores the case of the names, so it may return false positives but never false negatives.
+ * </p>
+ * <p>
+ * ByteBuddy evaluates all transformations for a given type in sequence on the same thread.
+ * The candidates of the last type are therefore remembered per thread,
+ * so that the automaton is only executed once per type rather than once per instrumentation.
+ * </p>
+ */
+public class NamePreFilterIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(NamePreFilterIndex.class);
+
+    private static final int KIND_CONTAINS = 0;
+    private static final int KIND_STARTS_WITH = 1;
+    private static final int KIND_ENDS_WITH = 2;
+    private static final int KIND_EQUALS = 3;
+
+    @Nullable
+    private static final Field NAME_MATCHER_MATCHER = getField(NameMatcher.class, "matcher");
+    @Nullable
+    private static final Field STRING_MATCHER_VALUE = getField(StringMatcher.class, "value");
+    @Nullable
+    private static final Field STRING_MATCHER_MODE = getField(StringMatcher.class, "mode");
+    @Nullable
+    private static final Field BOOLEAN_MATCHER_MATCHES = getField(BooleanMatcher.class, "matches");
+    @Nullable
+    private static final Field CONJUNCTION_MATCHERS = getField(ElementMatcher.Junction.Conjunction.class, "matchers");
+    @Nullable
+    private static final Field DISJUNCTION_MATCHERS = getField(ElementMatcher.Junction.Disjunction.class, "matchers");
+
+    /**
+     * The atoms of the pre filter, by id, or {@code null} if the pre filter could not be indexed
+     */
+    private final List<List<Atom>> atomsById = new ArrayList<>();
+    @Nullable
+    private final MatcherTimer timer;
+    @Nullable
+    private volatile Automaton automaton;
+    private final ThreadLocal<Candidates> lastCandidates = new ThreadLocal<Candidates>() {
+        @Override
+        protected Candidates initialValue() {
+            return new Candidates();
+        }
+    };
+
+    /**
+     * @param timer records the time spent in the automaton, if not {@code null}
+     */
+    public NamePreFilterIndex(@Nullable MatcherTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Adds a pre filter to the index.
+     * Must be called before {@link #compile()}.
+     *
+     * @param preFilter the pre filter of an instrumentation
+     * @return a matcher that only evaluates the provided pre filter if the index determines that the name may match
+     */
+    public synchronized ElementMatcher<NamedElement> add(ElementMatcher<? super NamedElement> preFilter) {
+        if (automaton != null) {
+            throw new IllegalStateException("Can't add pre filters after the index has been compiled");
+        }
+        List<Atom> atoms;
+        try {
+            atoms = extractAtoms(preFilter);
+        } catch (Exception e) {
+            logger.debug("Could not index pre filter {}", preFilter, e);
+            atoms = null;
+        }
+        if (atoms == null) {
+            logger.debug("Pre filter {} can't be indexed and is always evaluated", preFilter);
+        }
+        int id = atomsById.size();
+        atomsById.add(atoms);
+        return new IndexedPreFilter(this, id, preFilter);
+    }
+
+    /**
+     * Compiles the pre filters that have been {@linkplain #add(ElementMatcher) added} into an automaton.
+     * Before this method is called, all pre filters are evaluated as if there was no index.
+     */
+    public synchronized void compile() {
+        automaton = new Automaton(atomsById);
+        logger.debug("Compiled {} of {} name pre filters into an automaton with {} states",
+            automaton.indexedIds, atomsById.size(), automaton.numberOfStates);
+    }
+
+    /**
+     * Returns {@code false} if the pre filter with the given id is known to not match the given name.
+     *
+     * @param id   the id of the pre filter
+     * @param name the name of the type
+     * @return {@code false} if the pre filter definitely doesn't match, {@code true} if it may match
+     */
+    boolean mayMatch(int id, String name) {
+        Automaton automaton = this.automaton;
+        if (automaton == null || !automaton.isIndexed(id)) {
+            return true;
+        }
+        Candidates candidates = lastCandidates.get();
+        if (!name.equals(candidates.name)) {
+            long start = timer != null ? System.nanoTime() : 0;
+            candidates.update(name, automaton);
+            if (timer != null) {
+                timer.addTypeMatchingDuration(System.nanoTime() - start);
+            }
+        }
+        return candidates.contains(id);
+    }
+
+    /**
+     * Returns the atoms the given matcher can be reduced to, so that the matcher can only match if at least one of the atoms matches.
+     *
+     * @return the atoms, an empty list if the matcher never matches, or {@code null} if the matcher can't be indexed
+     */
+    @Nullable
+    static List<Atom> extractAtoms(@Nullable Object matcher) throws IllegalAccessException {
+        if (matcher instanceof NameMatcher && NAME_MATCHER_MATCHER != null) {
+            return extractStringMatcherAtom(NAME_MATCHER_MATCHER.get(matcher));
+        } else if (matcher instanceof BooleanMatcher && BOOLEAN_MATCHER_MATCHES != null) {
+            // none() can be indexed as it never matches, whereas any() always matches
+            return (Boolean) BOOLEAN_MATCHER_MATCHES.get(matcher) ? null : Collections.<Atom>emptyList();
+        } else if (matcher instanceof ElementMatcher.Junction.Disjunction && DISJUNCTION_MATCHERS != null) {
+            // at least one of the matchers has to match
+            List<Atom> atoms = new ArrayList<>();
+            for (Object subMatcher : (Collection<?>) DISJUNCTION_MATCHERS.get(matcher)) {
+                List<Atom> subAtoms = extractAtoms(subMatcher);
+                if (subAtoms == null) {
+                    return null;
+                }
+                atoms.addAll(subAtoms);
+            }
+            return atoms;
+        } else if (matcher instanceof ElementMatcher.Junction.Conjunction && CONJUNCTION_MATCHERS != null) {
+            // all matchers have to match, so it's sufficient to index the most selective one
+            List<Atom> mostSelective = null;
+            for (Object subMatcher : (Collection<?>) CONJUNCTION_MATCHERS.get(matcher)) {
+                List<Atom> subAtoms = extractAtoms(subMatcher);
+                if (subAtoms != null && (mostSelective == null || isMoreSelective(subAtoms, mostSelective))) {
+                    mostSelective = subAtoms;
+                }
+            }
+            return mostSelective;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static List<Atom> extractStringMatcherAtom(@Nullable Object stringMatcher) throws IllegalAccessException {
+        if (!(stringMatcher instanceof StringMatcher) || STRING_MATCHER_VALUE == null || STRING_MATCHER_MODE == null) {
+            return null;
+        }
+        String value = (String) STRING_MATCHER_VALUE.get(stringMatcher);
+        if (value == null || value.isEmpty() || !isAscii(value)) {
+            return null;
+        }
+        int kind;
+        switch (((Enum<?>) STRING_MATCHER_MODE.get(stringMatcher)).name()) {
+            case "CONTAINS":
+            case "CONTAINS_IGNORE_CASE":
+                kind = KIND_CONTAINS;
+                break;
+            case "STARTS_WITH":
+            case "STARTS_WITH_IGNORE_CASE":
+                kind = KIND_STARTS_WITH;
+                break;
+            case "ENDS_WITH":
+            case "ENDS_WITH_IGNORE_CASE":
+                kind = KIND_ENDS_WITH;
+                break;
+            case "EQUALS_FULLY":
+            case "EQUALS_FULLY_IGNORE_CASE":
+                kind = KIND_EQUALS;
+                break;
+            default:
+                // regular expressions
+                return null;
+        }
+        return Collections.singletonList(new Atom(kind, value.toLowerCase(Locale.ROOT)));
+    }
+
+    private static boolean isMoreSelective(List<Atom> atoms, List<Atom> other) {
+        if (atoms.size() != other.size()) {
+            return atoms.size() < other.size();
+        }
+        return minLength(atoms) > minLength(other);
+    }
+
+    private static int minLength(List<Atom> atoms) {
+        int min = Integer.MAX_VALUE;
+        for (Atom atom : atoms) {
+            min = Math.min(min, atom.value.length());
+        }
+        return min;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static Field getField(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            // pre filters relying on this field won't be indexed
+            return null;
+        }
+    }
+
+    static class Atom {
+        private final int kind;
+        private final String value;
+
+        Atom(int kind, String value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return kind + ":" + value;
+        }
+    }
+
+    /**
+     * A deterministic Aho-Corasick automaton over the lower case ASCII characters contained in the atoms.
+     * All other characters are mapped to the character class {@code 0} which always leads back to the root state.
+     */
+    private static class Automaton {
+        private final int[] charClasses = new int[128];
+        private final boolean[] indexed;
+        private final int indexedIds;
+        private final int numberOfCharClasses;
+        private final int numberOfStates;
+        /**
+         * The transitions of the automaton, indexed by {@code state * numberOfCharClasses + charClass}
+         */
+        private final int[] transitions;
+        /**
+         * The matching atoms of each state, including the ones of the states reachable via failure links,
+         * encoded as consecutive triples of pre filter id, atom kind and atom length
+         */
+        private final int[][] outputs;
+
+        private Automaton(List<List<Atom>> atomsById) {
+            indexed = new boolean[atomsById.size()];
+            int charClass = 1;
+            int indexedIds = 0;
+            for (int id = 0; id < atomsById.size(); id++) {
+                List<Atom> atoms = atomsById.get(id);
+                if (atoms == null) {
+                    continue;
+                }
+                indexed[id] = true;
+                indexedIds++;
+                for (Atom atom : atoms) {
+                    for (int i = 0; i < atom.value.length(); i++) {
+                        char c = atom.value.charAt(i);
+                        if (charClasses[c] == 0) {
+                            charClasses[c] = charClass;
+                            if (Character.isLowerCase(c)) {
+                                charClasses[Character.toUpperCase(c)] = charClass;
+                            }
+                            charClass++;
+                        }
+                    }
+                }
+            }
+            this.indexedIds = indexedIds;
+            this.numberOfCharClasses = charClass;
+
+            // build the trie
+            List<int[]> gotos = new ArrayList<>();
+            List<List<Integer>> stateOutputs = new ArrayList<>();
+            gotos.add(newState());
+            stateOutputs.add(new ArrayList<Integer>());
+            for (int id = 0; id < atomsById.size(); id++) {
+                List<Atom> atoms = atomsById.get(id);
+                if (atoms == null) {
+                    continue;
+                }
+                for (Atom atom : atoms) {
+                    int state = 0;
+                    for (int i = 0; i < atom.value.length(); i++) {
+                        int c = charClasses[atom.value.charAt(i)];
+                        if (gotos.get(state)[c] < 0) {
+                            gotos.get(state)[c] = gotos.size();
+                            gotos.add(newState());
+                            stateOutputs.add(new ArrayList<Integer>());
+                        }
+                        state = gotos.get(state)[c];
+                    }
+                    stateOutputs.get(state).addAll(Arrays.asList(id, atom.kind, atom.value.length()));
+                }
+            }
+            numberOfStates = gotos.size();
+
+            // compute the failure links in breadth-first order and turn the trie into a deterministic automaton
+            transitions = new int[numberOfStates * numberOfCharClasses];
+            int[] failure = new int[numberOfStates];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < numberOfCharClasses; c++) {
+                int next = gotos.get(0)[c];
+                if (next < 0) {
+                    transitions[c] = 0;
+                } else {
+                    transitions[c] = next;
+                    failure[next] = 0;
+                    queue.add(next);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+                for (int c = 0; c < numberOfCharClasses; c++) {
+                    int next = gotos.get(state)[c];
+                    if (next < 0) {
+                        transitions[state * numberOfCharClasses + c] = transitions[failure[state] * numberOfCharClasses + c];
+                    } else {
+                        transitions[state * numberOfCharClasses + c] = next;
+                        failure[next] = transitions[failure[state] * numberOfCharClasses + c];
+                        queue.add(next);
+                    }
+                }
+            }
+
+            outputs = new int[numberOfStates][];
+            for (int state = 0; state < numberOfStates; state++) {
+                List<Integer> output = stateOutputs.get(state);
+                if (!output.isEmpty()) {
+                    outputs[state] = new int[output.size()];
+                    for (int i = 0; i < output.size(); i++) {
+                        outputs[state][i] = output.get(i);
+                    }
+                }
+            }
+        }
+
+        private int[] newState() {
+            int[] state = new int[numberOfCharClasses];
+            Arrays.fill(state, -1);
+            return state;
+        }
+
+        private boolean isIndexed(int id) {
+            return id < indexed.length && indexed[id];
+        }
+
+        private void findCandidates(String name, long[] candidates) {
+            Arrays.fill(candidates, 0);
+            int state = 0;
+            int length = name.length();
+            for (int i = 0; i < length; i++) {
+                char c = name.charAt(i);
+                state = transitions[state * numberOfCharClasses + (c < 128 ? charClasses[c] : 0)];
+                int[] output = outputs[state];
+                if (output != null) {
+                    for (int j = 0; j < output.length; j += 3) {
+                        if (matchesPosition(output[j + 1], output[j + 2], i, length)) {
+                            int id = output[j];
+                            candidates[id >>> 6] |= 1L << id;
+                        }
+                    }
+                }
+            }
+        }
+
+        private static boolean matchesPosition(int kind, int atomLength, int endIndex, int nameLength) {
+            switch (kind) {
+                case KIND_STARTS_WITH:
+                    return endIndex + 1 == atomLength;
+                case KIND_ENDS_WITH:
+                    return endIndex + 1 == nameLength;
+                case KIND_EQUALS:
+                    return atomLength == nameLength;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * The ids of the pre filters which may match the last type name that has been looked up on the current thread
+     */
+    private static class Candidates {
+        @Nullable
+        private String name;
+        private long[] ids = new long[0];
+
+        private void update(String name, Automaton automaton) {
+            int words = (automaton.indexed.length + 63) >>> 6;
+            if (ids.length != words) {
+                ids = new long[words];
+            }
+            automaton.findCandidates(name, ids);
+            this.name = name;
+        }
+
+        private boolean contains(int id) {
+            return (ids[id >>> 6] & (1L << id)) != 0;
+        }
+    }
+
+    private static class IndexedPreFilter extends ElementMatcher.Junction.AbstractBase<NamedElement> {
+
+        private final NamePreFilterIndex index;
+        private final int id;
+        private final ElementMatcher<? super NamedElement> preFilter;
+
+        private IndexedPreFilter(NamePreFilterIndex index, int id, ElementMatcher<? super NamedElement> preFilter) {
+            this.index = index;
+            this.id = id;
+            this.preFilter = preFilter;
+        }
+
+        @Override
+        public boolean matches(@Nullable NamedElement target) {
+            if (target != null && !index.mayMatch(id, target.getActualName())) {
+                return false;
+            }
+            return preFilter.matches(target);
+        }
+
+        @Override
+        public String toString() {
+            return "indexed(" + preFilter + ")";
+        }
+    }
+}
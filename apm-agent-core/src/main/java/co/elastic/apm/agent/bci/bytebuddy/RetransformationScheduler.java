@@ -0,0 +1,242 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.bci.bytebuddy;
+
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+import net.bytebuddy.agent.builder.AgentBuilder.RedefinitionStrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the retransformation of already loaded classes over time when the agent is attached at runtime.
+ * <p>
+ * Retransforming classes causes a stop-the-world pause that grows with the number of classes that are retransformed at once.
+ * This scheduler bounds the impact on the application as follows:
+ * </p>
+ * <ul>
+ *     <li>Batches contain at most {@code maxBatchSize} classes.</li>
+ *     <li>
+ *         Whenever a batch takes longer than the pause between batches, the size of the next batch is halved.
+ *         If it was faster, the batch size is doubled again, up to {@code maxBatchSize}.
+ *     </li>
+ *     <li>
+ *         The pause between two batches is at least {@code pauseMs} and at least as long as the previous batch,
+ *         so that retransformation never takes up more than half of the time.
+ *     </li>
+ *     <li>
+ *         Optionally, classes that are currently on the stack of any thread are retransformed first,
+ *         as these are the ones that are likely to be involved in handling requests.
+ *     </li>
+ * </ul>
+ * <p>
+ * The progress is logged and the number of retransformed classes as well as the duration of each batch are reported as metrics.
+ * </p>
+ * <p>
+ * ByteBuddy requests the next batch from the {@link #batch(List) allocator} after the previous one has been applied
+ * and calls {@link #onBatch} right before applying a batch, which is where the duration of the previous batch is measured.
+ * </p>
+ */
+public class RetransformationScheduler extends RedefinitionStrategy.Listener.Adapter implements RedefinitionStrategy.BatchAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetransformationScheduler.class);
+
+    static final String RETRANSFORMED_CLASSES_METRIC = "agent.retransformation.classes";
+    static final String FAILED_CLASSES_METRIC = "agent.retransformation.errors";
+    static final String BATCH_DURATION_METRIC = "agent.retransformation.pause";
+
+    private final MetricRegistry metricRegistry;
+    private final int maxBatchSize;
+    private final long pauseMs;
+    private final boolean prioritizeHotClasses;
+    private final boolean retransformedClassesMetricEnabled;
+    private final boolean failedClassesMetricEnabled;
+    private final boolean batchDurationMetricEnabled;
+
+    private int batchSize;
+    private long batchStart;
+    private long lastBatchDurationNs;
+    private int currentBatchSize;
+    private boolean currentBatchFailed;
+    private int totalClasses;
+    private int retransformedClasses;
+
+    public RetransformationScheduler(MetricRegistry metricRegistry, int maxBatchSize, long pauseMs, boolean prioritizeHotClasses) {
+        this.metricRegistry = metricRegistry;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.pauseMs = Math.max(0, pauseMs);
+        this.prioritizeHotClasses = prioritizeHotClasses;
+        this.retransformedClassesMetricEnabled = !metricRegistry.isDisabled(RETRANSFORMED_CLASSES_METRIC);
+        this.failedClassesMetricEnabled = !metricRegistry.isDisabled(FAILED_CLASSES_METRIC);
+        this.batchDurationMetricEnabled = !metricRegistry.isDisabled(BATCH_DURATION_METRIC);
+        this.batchSize = this.maxBatchSize;
+    }
+
+    @Override
+    public synchronized Iterable<? extends List<Class<?>>> batch(final List<Class<?>> types) {
+        batchSize = maxBatchSize;
+        batchStart = 0;
+        lastBatchDurationNs = 0;
+        retransformedClasses = 0;
+        totalClasses = types.size();
+        final List<Class<?>> orderedTypes = prioritizeHotClasses ? hotClassesFirst(types) : types;
+        logger.debug("Retransforming {} classes in batches of up to {} classes", orderedTypes.size(), maxBatchSize);
+        return new Iterable<List<Class<?>>>() {
+            @Override
+            public Iterator<List<Class<?>>> iterator() {
+                return new Iterator<List<Class<?>>>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < orderedTypes.size();
+                    }
+
+                    @Override
+                    public List<Class<?>> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int size = nextBatchSize();
+                        List<Class<?>> batch = orderedTypes.subList(index, Math.min(index + size, orderedTypes.size()));
+                        index += batch.size();
+                        return batch;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Adapts the batch size based on the duration of the previous batch.
+     * Called after the previous batch has been applied.
+     */
+    private synchronized int nextBatchSize() {
+        onBatchCompleted();
+        return batchSize;
+    }
+
+    @Override
+    public void onBatch(int index, List<Class<?>> batch, List<Class<?>> types) {
+        if (index > 0) {
+            long pauseNs = Math.max(TimeUnit.MILLISECONDS.toNanos(pauseMs), getLastBatchDurationNs());
+            try {
+                TimeUnit.NANOSECONDS.sleep(pauseNs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            currentBatchSize = batch.size();
+            currentBatchFailed = false;
+            totalClasses = types.size();
+            batchStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized Iterable<? extends List<Class<?>>> onError(int index, List<Class<?>> batch, Throwable throwable, List<Class<?>> types) {
+        currentBatchFailed = true;
+        if (failedClassesMetricEnabled) {
+            metricRegistry.addToCounter(FAILED_CLASSES_METRIC, Labels.EMPTY, batch.size());
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized void onComplete(int amount, List<Class<?>> types, Map<List<Class<?>>, Throwable> failures) {
+        onBatchCompleted();
+        logger.debug("Retransformed {} of {} classes in {} batches", retransformedClasses, types.size(), amount);
+    }
+
+    private synchronized void onBatchCompleted() {
+        if (batchStart == 0) {
+            return;
+        }
+        lastBatchDurationNs = System.nanoTime() - batchStart;
+        batchStart = 0;
+        if (lastBatchDurationNs > TimeUnit.MILLISECONDS.toNanos(pauseMs)) {
+            batchSize = Math.max(1, batchSize / 2);
+        } else {
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+        }
+        if (batchDurationMetricEnabled) {
+            metricRegistry.updateTimer(BATCH_DURATION_METRIC, Labels.EMPTY, TimeUnit.NANOSECONDS.toMicros(lastBatchDurationNs));
+        }
+        if (!currentBatchFailed) {
+            retransformedClasses += currentBatchSize;
+            if (retransformedClassesMetricEnabled) {
+                metricRegistry.addToCounter(RETRANSFORMED_CLASSES_METRIC, Labels.EMPTY, currentBatchSize);
+            }
+        }
+        logger.debug("Retransformed {}/{} classes, the last batch of {} classes took {}ms",
+            retransformedClasses, totalClasses, currentBatchSize, TimeUnit.NANOSECONDS.toMillis(lastBatchDurationNs));
+    }
+
+    // visible for testing
+    synchronized long getLastBatchDurationNs() {
+        return lastBatchDurationNs;
+    }
+
+    // visible for testing
+    synchronized int getRetransformedClasses() {
+        return retransformedClasses;
+    }
+
+    private static List<Class<?>> hotClassesFirst(List<Class<?>> types) {
+        Set<String> hotClassNames = new HashSet<>();
+        try {
+            for (StackTraceElement[] stackTrace : Thread.getAllStackTraces().values()) {
+                for (StackTraceElement stackTraceElement : stackTrace) {
+                    hotClassNames.add(stackTraceElement.getClassName());
+                }
+            }
+        } catch (SecurityException e) {
+            logger.debug("Can't determine the classes on the stack of the current threads", e);
+            return types;
+        }
+        List<Class<?>> hotClasses = new ArrayList<>();
+        List<Class<?>> otherClasses = new ArrayList<>();
+        for (Class<?> type : types) {
+            if (hotClassNames.contains(type.getName())) {
+                hotClasses.add(type);
+            } else {
+                otherClasses.add(type);
+            }
+        }
+        logger.debug("Retransforming {} classes that are currently on the stack of a thread first", hotClasses.size());
+        hotClasses.addAll(otherClasses);
+        return hotClasses;
+    }
+}
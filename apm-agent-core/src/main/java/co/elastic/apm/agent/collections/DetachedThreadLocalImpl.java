@@ -18,23 +18,48 @@
  */
 package co.elastic.apm.agent.collections;
 
+import co.elastic.apm.agent.common.ThreadUtils;
 import co.elastic.apm.agent.sdk.weakconcurrent.DetachedThreadLocal;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
 
 import javax.annotation.Nullable;
 
+/**
+ * Stores the values of platform threads in a {@link WeakMap} so that they don't leak into the threads' own thread local maps.
+ * <p>
+ * Virtual threads are cheap and usually short-lived.
+ * Adding millions of them to a global weak map would cause contention on the map
+ * and a lot of work for {@link WeakConcurrentProviderImpl#expungeStaleEntries()}.
+ * That's why the values of virtual threads are stored in a regular {@link ThreadLocal}, which is released along with the virtual thread.
+ * </p>
+ */
 public class DetachedThreadLocalImpl<T> implements DetachedThreadLocal<T> {
 
     private final WeakMap<Thread, T> map;
+    private final ThreadLocal<T> virtualThreadValues = new ThreadLocal<T>();
+    @Nullable
+    private final WeakMap.DefaultValueSupplier<Thread, T> defaultValueSupplier;
 
-    DetachedThreadLocalImpl(WeakMap<Thread, T> map) {
+    DetachedThreadLocalImpl(WeakMap<Thread, T> map, @Nullable WeakMap.DefaultValueSupplier<Thread, T> defaultValueSupplier) {
         this.map = map;
+        this.defaultValueSupplier = defaultValueSupplier;
     }
 
     @Nullable
     @Override
     public T get() {
-        return map.get(Thread.currentThread());
+        Thread thread = Thread.currentThread();
+        if (ThreadUtils.isVirtual(thread)) {
+            T value = virtualThreadValues.get();
+            if (value == null && defaultValueSupplier != null) {
+                value = defaultValueSupplier.getDefaultValue(thread);
+                if (value != null) {
+                    virtualThreadValues.set(value);
+                }
+            }
+            return value;
+        }
+        return map.get(thread);
     }
 
     @Nullable
@@ -51,12 +76,22 @@ public class DetachedThreadLocalImpl<T> implements DetachedThreadLocal<T> {
         if (NullCheck.isNullKey(value)) {
             return;
         }
-        map.put(Thread.currentThread(), value);
+        Thread thread = Thread.currentThread();
+        if (ThreadUtils.isVirtual(thread)) {
+            virtualThreadValues.set(value);
+        } else {
+            map.put(thread, value);
+        }
     }
 
     @Override
     public void remove() {
-        map.remove(Thread.currentThread());
+        Thread thread = Thread.currentThread();
+        if (ThreadUtils.isVirtual(thread)) {
+            virtualThreadValues.remove();
+        } else {
+            map.remove(thread);
+        }
     }
 
 }
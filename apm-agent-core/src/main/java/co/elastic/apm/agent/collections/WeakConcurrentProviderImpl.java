@@ -88,7 +88,7 @@ public class WeakConcurrentProviderImpl implements WeakConcurrent.WeakConcurrent
             public DetachedThreadLocal<T> build() {
                 return new DetachedThreadLocalImpl<T>(WeakConcurrentProviderImpl.this.<Thread, T>weakMapBuilder()
                     .withDefaultValueSupplier(defaultValueSupplier)
-                    .build());
+                    .build(), defaultValueSupplier);
             }
         };
     }
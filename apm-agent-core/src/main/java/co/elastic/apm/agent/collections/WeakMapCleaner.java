@@ -20,11 +20,12 @@ package co.elastic.apm.agent.collections;
 
 import co.elastic.apm.agent.context.AbstractLifecycleListener;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
-import co.elastic.apm.agent.util.ExecutorUtils;
+import co.elastic.apm.agent.util.AgentScheduler;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import javax.annotation.Nullable;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -34,21 +35,19 @@ public class WeakMapCleaner extends AbstractLifecycleListener implements Runnabl
 
     private static final Logger logger = LoggerFactory.getLogger(WeakMapCleaner.class);
 
-    private final ScheduledThreadPoolExecutor scheduler;
-
-    public WeakMapCleaner() {
-        this.scheduler = ExecutorUtils.createSingleThreadSchedulingDaemonPool("weak-map-cleaner");
-    }
+    @Nullable
+    private ScheduledFuture<?> scheduledTask;
 
     @Override
     public void start(ElasticApmTracer tracer) {
-        scheduler.scheduleWithFixedDelay(this, 1, 1, TimeUnit.SECONDS);
+        scheduledTask = AgentScheduler.scheduleWithFixedDelay("weak-map-cleaner", this, 1, 1, TimeUnit.SECONDS);
     }
 
     @Override
     public void stop() throws Exception {
-        scheduler.shutdownNow();
-        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        if (scheduledTask != null) {
+            scheduledTask.cancel(false);
+        }
     }
 
     @Override
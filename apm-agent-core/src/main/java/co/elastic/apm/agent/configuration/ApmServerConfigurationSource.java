@@ -40,7 +40,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -58,6 +60,11 @@ public class ApmServerConfigurationSource extends AbstractConfigurationSource im
     private static final int SC_SERVICE_UNAVAILABLE = 503;
 
     private static final int DEFAULT_POLL_DELAY_SEC = (int) TimeUnit.MINUTES.toSeconds(5);
+    /**
+     * The maximum fraction of the poll delay that is added as jitter,
+     * so that agents which have been started at the same time don't keep polling the APM Server at the same time.
+     */
+    private static final double MAX_JITTER = 0.1;
     private static final Pattern MAX_AGE = Pattern.compile("max-age\\s*=\\s*(\\d+)");
     private final Logger logger;
     private final DslJson<Object> dslJson = new DslJson<>(new DslJson.Settings<>());
@@ -104,6 +111,33 @@ public class ApmServerConfigurationSource extends AbstractConfigurationSource im
         }
     }
 
+    /**
+     * Adds a random jitter of up to {@link #MAX_JITTER} to the poll delay.
+     * The jitter is only ever added so that the agent never polls more frequently than the max-age.
+     */
+    static long jitteredDelayMillis(int pollDelaySec, Random random) {
+        long delayMillis = TimeUnit.SECONDS.toMillis(pollDelaySec);
+        return delayMillis + (long) (delayMillis * MAX_JITTER * random.nextDouble());
+    }
+
+    /**
+     * @return the keys that have been added, removed or whose value has changed
+     */
+    static Set<String> changedKeys(Map<String, String> previous, Map<String, String> next) {
+        Set<String> changedKeys = new HashSet<>();
+        for (Map.Entry<String, String> entry : next.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changedKeys.add(entry.getKey());
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!next.containsKey(key)) {
+                changedKeys.add(key);
+            }
+        }
+        return changedKeys;
+    }
+
     /**
      * We want to reload the configuration in intervals which are determined based on the Cache-Control header from the APM Server
      * That's why we can't rely on the general {@link org.stagemonitor.configuration.ConfigurationRegistry} scheduled reload
@@ -131,20 +165,20 @@ public class ApmServerConfigurationSource extends AbstractConfigurationSource im
     /**
      * Continuously polls the APM Server's remote configuration endpoint
      *
-     * @param configurationRegistry the configuration registry which will be asked to
-     *                              {@link ConfigurationRegistry#reloadDynamicConfigurationOptions()}
+     * @param configurationRegistry the configuration registry whose changed dynamic options will be
+     *                              {@linkplain ConfigurationRegistry#reload(String) reloaded}
      *                              after successfully fetching the configuration
      */
     private void pollConfig(ConfigurationRegistry configurationRegistry) {
         while (!Thread.currentThread().isInterrupted()) {
             String cacheControlHeader = fetchConfig(configurationRegistry);
             // it doesn't make sense to poll more frequently than the max-age
-            int pollDelaySec = pollDelaySec(cacheControlHeader);
+            long pollDelayMillis = jitteredDelayMillis(pollDelaySec(cacheControlHeader), ThreadLocalRandom.current());
             try {
                 if (logger.isDebugEnabled()) {
-                    logger.debug("Scheduling next remote configuration reload in {}s", pollDelaySec);
+                    logger.debug("Scheduling next remote configuration reload in {}ms", pollDelayMillis);
                 }
-                TimeUnit.SECONDS.sleep(pollDelaySec);
+                TimeUnit.MILLISECONDS.sleep(pollDelayMillis);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -154,8 +188,8 @@ public class ApmServerConfigurationSource extends AbstractConfigurationSource im
     /**
      * Fetches the configuration and returns the Cache-Control header which is used to determine the next polling interval
      *
-     * @param configurationRegistry the configuration registry which will be asked to
-     *                              {@link ConfigurationRegistry#reloadDynamicConfigurationOptions()}
+     * @param configurationRegistry the configuration registry whose changed dynamic options will be
+     *                              {@linkplain ConfigurationRegistry#reload(String) reloaded}
      *                              after successfully fetching the configuration
      * @return the Cache-Control header of the HTTP response
      */
@@ -196,27 +230,24 @@ public class ApmServerConfigurationSource extends AbstractConfigurationSource im
         payloadSerializer.setOutputStream(connection.getOutputStream());
         payloadSerializer.appendMetadataToStream();
         payloadSerializer.fullFlush();
-        etag = connection.getHeaderField("ETag");
 
         final int status = connection.getResponseCode();
         switch (status) {
             case SC_OK:
+                // a 304 response does not necessarily repeat the ETag, only a full response replaces it
+                etag = connection.getHeaderField("ETag");
                 InputStream is = connection.getInputStream();
                 final JsonReader<Object> reader = dslJson.newReader(is, buffer);
                 reader.startObject();
-                config = MapConverter.deserialize(reader);
-                configurationRegistry.reloadDynamicConfigurationOptions();
-                logger.info("Received new configuration from APM Server: {}", config);
-                for (Map.Entry<String, String> entry : config.entrySet()) {
-                    ConfigurationOption<?> conf = configurationRegistry.getConfigurationOptionByKey(entry.getKey());
-                    if (IGNORED_REMOTE_KEYS.contains(entry.getKey())) {
-                        logger.debug("Received ignored remote configuration key {}", entry.getKey());
-                    } else if (conf == null) {
-                        logger.warn("Received unknown remote configuration key {}", entry.getKey());
-                    } else if (!conf.isDynamic()) {
-                        logger.warn("Can't apply remote configuration {} as this option is not dynamic (aka. reloadable)", entry.getKey());
-                    }
+                Map<String, String> newConfig = MapConverter.deserialize(reader);
+                Set<String> changedKeys = changedKeys(config, newConfig);
+                config = newConfig;
+                if (changedKeys.isEmpty()) {
+                    logger.debug("Configuration did not change");
+                    break;
                 }
+                logger.info("Received new configuration from APM Server: {}", config);
+                applyChangedKeys(configurationRegistry, changedKeys);
                 break;
             case SC_NOT_MODIFIED:
                 logger.debug("Configuration did not change");
@@ -235,6 +266,25 @@ public class ApmServerConfigurationSource extends AbstractConfigurationSource im
         return connection.getHeaderField("Cache-Control");
     }
 
+    /**
+     * Only reloads the options whose remote value has changed,
+     * so that the change listeners of the other options are not invoked and their values are not re-parsed.
+     */
+    private void applyChangedKeys(ConfigurationRegistry configurationRegistry, Set<String> changedKeys) {
+        for (String key : changedKeys) {
+            ConfigurationOption<?> conf = configurationRegistry.getConfigurationOptionByKey(key);
+            if (IGNORED_REMOTE_KEYS.contains(key)) {
+                logger.debug("Received ignored remote configuration key {}", key);
+            } else if (conf == null) {
+                logger.warn("Received unknown remote configuration key {}", key);
+            } else if (!conf.isDynamic()) {
+                logger.warn("Can't apply remote configuration {} as this option is not dynamic (aka. reloadable)", key);
+            } else {
+                configurationRegistry.reload(key);
+            }
+        }
+    }
+
     @Override
     public String getValue(String key) {
         return config.get(key);
@@ -24,10 +24,12 @@ import co.elastic.apm.agent.configuration.converter.RoundedDoubleConverter;
 import co.elastic.apm.agent.configuration.converter.TimeDuration;
 import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
 import co.elastic.apm.agent.configuration.validation.RegexValidator;
+import co.elastic.apm.agent.impl.transaction.IdGenerator;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.matcher.MethodMatcher;
 import co.elastic.apm.agent.matcher.MethodMatcherValueConverter;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
 import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
@@ -57,6 +59,7 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static co.elastic.apm.agent.configuration.validation.RangeValidator.isInRange;
+import static co.elastic.apm.agent.configuration.validation.RangeValidator.min;
 import static co.elastic.apm.agent.logging.LoggingConfiguration.AGENT_HOME_PLACEHOLDER;
 
 public class CoreConfiguration extends ConfigurationOptionProvider {
@@ -481,6 +484,68 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             "exist and use it to dump bytecode of instrumented classes.")
         .buildWithDefault("");
 
+    private final ConfigurationOption<String> classMatchingCacheDir = ConfigurationOption.stringOption()
+        .key("class_matching_cache_dir")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When set, the agent persists which instrumentations have matched which classes to a file within the provided directory.\n" +
+            "On subsequent starts, the agent skips the type matching of classes that are known to not match an instrumentation,\n" +
+            "which speeds up the startup of applications with many classes.\n" +
+            "Only classes loaded from jar files are cached and the cache is invalidated when the agent version, the class path,\n" +
+            "the instrumentation-related configuration or the jar a class has been loaded from changes.\n" +
+            "Changes of a super type in a different jar are not detected.")
+        .dynamic(false)
+        .buildWithDefault("");
+
+    private final ConfigurationOption<Integer> retransformationBatchSize = ConfigurationOption.integerOption()
+        .key("retransformation_batch_size")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When attaching the agent at runtime, the maximum number of already loaded classes that are retransformed at once.\n" +
+            "Retransformation causes a stop-the-world pause, the batch size is halved whenever a batch takes longer than `retransformation_pause`.")
+        .dynamic(false)
+        .addValidator(min(1))
+        .buildWithDefault(100);
+
+    private final ConfigurationOption<TimeDuration> retransformationPause = TimeDurationValueConverter.durationOption("ms")
+        .key("retransformation_pause")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When attaching the agent at runtime, the minimum pause between two retransformation batches.\n" +
+            "The pause is extended to the duration of the previous batch so that retransformation never takes up more than half of the time.")
+        .dynamic(false)
+        .buildWithDefault(TimeDuration.of("100ms"));
+
+    private final ConfigurationOption<Boolean> retransformationPrioritizeHotClasses = ConfigurationOption.booleanOption()
+        .key("retransformation_prioritize_hot_classes")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When attaching the agent at runtime, first retransform the classes that are currently on the stack of any thread,\n" +
+            "so that the request handling code paths are instrumented first.")
+        .dynamic(false)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> captureBodyAsBytes = ConfigurationOption.booleanOption()
+        .key("capture_body_as_bytes")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When capturing request bodies, record the raw bytes in pooled segments and only decode them when the transaction is reported,\n" +
+            "instead of decoding them into a buffer sized for the maximum body length while the application reads the body.\n" +
+            "This reduces the memory used per captured body, especially under high concurrency.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<IdGenerator> idGenerator = ConfigurationOption.enumOption(IdGenerator.class)
+        .key("id_generator")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("The strategy for generating random trace, transaction and span ids.\n" +
+            "\n" +
+            "* 'thread_local_random': Uses `java.util.concurrent.ThreadLocalRandom`.\n" +
+            "* 'split_mix': Uses a per-thread SplitMix64 generator which is seeded from a `java.security.SecureRandom`.")
+        .dynamic(false)
+        .buildWithDefault(IdGenerator.THREAD_LOCAL_RANDOM);
+
     private final ConfigurationOption<Boolean> typeMatchingWithNamePreFilter = ConfigurationOption.booleanOption()
         .key("enable_type_matching_name_pre_filtering")
         .configurationCategory(CORE_CATEGORY)
@@ -779,6 +844,27 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             "discovery. Rather, it defines the timeout for each metadata discovery task.")
         .buildWithDefault(TimeDuration.of("1000ms"));
 
+    private final ConfigurationOption<String> metadataCacheDir = ConfigurationOption.stringOption()
+        .key("metadata_cache_dir")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When set, the agent persists the results of the slow metadata discovery tasks to a file within the provided directory.\n" +
+            "This includes the cloud provider metadata, or the fact that none has been found, and the hostname discovered by running an external command.\n" +
+            "On subsequent starts on the same host, the agent re-uses these results instead of waiting for the discovery,\n" +
+            "which means that the first events can be sent sooner.\n" +
+            "The cache is only used on Linux and is invalidated when the host reboots, when the hostname changes\n" +
+            "or when it's older than `metadata_cache_ttl`.")
+        .dynamic(false)
+        .buildWithDefault("");
+
+    private final ConfigurationOption<TimeDuration> metadataCacheTtl = TimeDurationValueConverter.durationOption("ms")
+        .key("metadata_cache_ttl")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("The maximum age of the metadata persisted to `metadata_cache_dir` before the metadata is discovered again.")
+        .dynamic(false)
+        .buildWithDefault(TimeDuration.of("60m"));
+
     private final ConfigurationOption<Boolean> enablePublicApiAnnotationInheritance = ConfigurationOption.booleanOption()
         .key("enable_public_api_annotation_inheritance")
         .tags("added[1.25.0]")
@@ -835,6 +921,11 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(ActivationMethod.UNKNOWN);
 
+    private final WildcardMatcherSet.Cache sanitizeFieldNamesMatcherSet = new WildcardMatcherSet.Cache();
+    private final WildcardMatcherSet.Cache unnestExceptionsMatcherSet = new WildcardMatcherSet.Cache();
+    private final WildcardMatcherSet.Cache ignoreExceptionsMatcherSet = new WildcardMatcherSet.Cache();
+    private final WildcardMatcherSet.Cache transactionNameGroupsMatcherSet = new WildcardMatcherSet.Cache();
+
     public boolean isEnabled() {
         return enabled.get();
     }
@@ -899,6 +990,13 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return sanitizeFieldNames.get();
     }
 
+    /**
+     * @return the compiled form of {@link #getSanitizeFieldNames()}, which is re-compiled when the option changes
+     */
+    public WildcardMatcherSet getSanitizeFieldNamesMatcherSet() {
+        return sanitizeFieldNamesMatcherSet.get(getSanitizeFieldNames());
+    }
+
     public boolean isInstrumentationEnabled(String instrumentationGroupName) {
         final Collection<String> enabledInstrumentationGroupNames = enabledInstrumentations.get();
         final Collection<String> disabledInstrumentationGroupNames = disabledInstrumentations.get();
@@ -939,10 +1037,18 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return unnestExceptions.get();
     }
 
+    public WildcardMatcherSet getUnnestExceptionsMatcherSet() {
+        return unnestExceptionsMatcherSet.get(getUnnestExceptions());
+    }
+
     public List<WildcardMatcher> getIgnoreExceptions() {
         return ignoreExceptions.get();
     }
 
+    public WildcardMatcherSet getIgnoreExceptionsMatcherSet() {
+        return ignoreExceptionsMatcherSet.get(getIgnoreExceptions());
+    }
+
     public EventType getCaptureBody() {
         return captureBody.get();
     }
@@ -968,6 +1074,18 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return bytecodeDumpPath.get();
     }
 
+    public int getRetransformationBatchSize() {
+        return retransformationBatchSize.get();
+    }
+
+    public long getRetransformationPauseMs() {
+        return retransformationPause.get().getMillis();
+    }
+
+    public boolean isRetransformationPrioritizeHotClasses() {
+        return retransformationPrioritizeHotClasses.get();
+    }
+
     public boolean isTypeMatchingWithNamePreFilter() {
         return typeMatchingWithNamePreFilter.get();
     }
@@ -976,6 +1094,21 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return classLoadingMatchingPreFilter.get();
     }
 
+    @Nullable
+    public String getClassMatchingCacheDir() {
+        return classMatchingCacheDir.get();
+    }
+
+    /**
+     * @return the options which influence whether a class matches an instrumentation
+     */
+    public List<ConfigurationOption<?>> getClassMatchingOptions() {
+        List<ConfigurationOption<?>> options = new ArrayList<ConfigurationOption<?>>(getInstrumentationOptions());
+        options.addAll(Arrays.<ConfigurationOption<?>>asList(typeMatchingWithNamePreFilter, classLoadingMatchingPreFilter,
+            classesExcludedFromInstrumentation, defaultClassesExcludedFromInstrumentation, instrumentAncientBytecode, pluginsDirLocation));
+        return options;
+    }
+
     public List<WildcardMatcher> getClassesExcludedFromInstrumentation() {
         return classesExcludedFromInstrumentation.get();
     }
@@ -1095,6 +1228,15 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return cloudProvider.get();
     }
 
+    @Nullable
+    public String getMetadataCacheDir() {
+        return metadataCacheDir.get();
+    }
+
+    public long getMetadataCacheTtlMs() {
+        return metadataCacheTtl.get().getMillis();
+    }
+
     public boolean isEnablePublicApiAnnotationInheritance() {
         return enablePublicApiAnnotationInheritance.get();
     }
@@ -1103,6 +1245,18 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return transactionNameGroups.get();
     }
 
+    public WildcardMatcherSet getTransactionNameGroupsMatcherSet() {
+        return transactionNameGroupsMatcherSet.get(getTransactionNameGroups());
+    }
+
+    public boolean isCaptureBodyAsBytes() {
+        return captureBodyAsBytes.get();
+    }
+
+    public IdGenerator getIdGenerator() {
+        return idGenerator.get();
+    }
+
     public TraceContinuationStrategy getTraceContinuationStrategy() {
         return traceContinuationStrategy.get();
     }
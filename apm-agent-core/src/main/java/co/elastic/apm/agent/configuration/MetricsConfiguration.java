@@ -101,6 +101,17 @@ public class MetricsConfiguration extends ConfigurationOptionProvider {
         .dynamic(false)
         .buildWithDefault(false);
 
+    private final ConfigurationOption<Integer> adviceOverheadSamplingInterval = ConfigurationOption.integerOption()
+        .key("agent_advice_overhead_sampling_interval")
+        .configurationCategory(METRICS_CATEGORY)
+        .description("When <<config-agent-background-overhead-metrics,`agent_background_overhead_metrics`>> is enabled,\n" +
+            "one in this many invocations of the instrumentation advices is measured on the application threads.\n" +
+            "The time and the allocations are reported per instrumentation group.\n" +
+            "Set to `0` to disable the measurement.")
+        .tags("internal")
+        .dynamic(false)
+        .buildWithDefault(1000);
+
     public boolean isDedotCustomMetrics() {
         return dedotCustomMetrics.get();
     }
@@ -117,6 +128,10 @@ public class MetricsConfiguration extends ConfigurationOptionProvider {
         return overheadMetricsEnabled.get();
     }
 
+    public int getAdviceOverheadSamplingInterval() {
+        return adviceOverheadSamplingInterval.get();
+    }
+
     public List<Double> getCustomMetricsHistogramBoundaries() {
         return customMetricsHistogramBoundaries.get();
     }
@@ -20,6 +20,7 @@ package co.elastic.apm.agent.context;
 
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.Tracer;
+import co.elastic.apm.agent.util.AgentScheduler;
 
 /**
  * A {@link LifecycleListener} notifies about the start and stop event of the {@link ElasticApmTracer}.
@@ -96,11 +97,11 @@ public interface LifecycleListener {
      *         The order in which lifecycle listeners are called is non-deterministic.
      *     </li>
      *     <li>
-     *         The {@link ElasticApmTracer#getSharedSingleThreadedPool()} is shut down gracefully,
-     *         waiting a moment for the already scheduled tasks to be completed.
-     *         This means that implementations of this method can schedule a last command to this pool that is executed before shutdown.
-     *         The {@link Tracer#getState()} will still be {@link Tracer.TracerState#RUNNING} in the tasks scheduled to
-     *         {@link ElasticApmTracer#getSharedSingleThreadedPool()} within this method.
+     *         The tracer waits a moment for the tasks {@linkplain AgentScheduler#submit(String, Runnable) submitted} to the
+     *         {@link AgentScheduler} to be completed.
+     *         This means that implementations of this method can submit a last task that is executed before shutdown.
+     *         The {@link Tracer#getState()} will still be {@link Tracer.TracerState#RUNNING} in the tasks submitted to
+     *         the {@link AgentScheduler} within this method.
      *     </li>
      *     <li>
      *         The tracer state is set to {@link co.elastic.apm.agent.impl.Tracer.TracerState#STOPPED}.
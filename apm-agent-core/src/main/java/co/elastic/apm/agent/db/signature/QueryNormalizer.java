@@ -0,0 +1,308 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.db.signature;
+
+/**
+ * Creates the key under which the signature of a query is cached in the {@link SignatureCache}.
+ * <p>
+ * Queries that only differ in their literals or in the length of lists of literals have the same signature.
+ * Therefore, this class folds string and numeric literals, as well as {@code ?} placeholders, into a single {@code ?}
+ * and lists of literals like {@code IN (1, 2, 3)} into {@code IN (?)}.
+ * This is done in a single pass over the characters of the query, which is a lot cheaper than {@linkplain Scanner scanning} it.
+ * </p>
+ * <p>
+ * The lexical rules mirror the ones of the {@link Scanner}, so that the folding does not change any token the signature depends on:
+ * quoted identifiers, comments and the first word of the query (which is the signature of unknown statements) are kept as-is.
+ * Queries containing JDBC escape syntax ({@code {call ...}}) are not folded at all,
+ * as the {@code JdbcFilter} depends on the literals within them.
+ * </p>
+ * <p>
+ * Instances are not thread safe and are meant to be re-used by a single thread.
+ * </p>
+ */
+class QueryNormalizer {
+
+    private final StringBuilder normalized = new StringBuilder();
+    private final SignatureCache.Key key = new SignatureCache.Key();
+    /**
+     * The offset of the last opening parenthesis in {@link #normalized} if it only contains literals, separators and whitespace since then,
+     * {@code -1} otherwise.
+     */
+    private int listStart;
+    private boolean listHasLiteral;
+
+    /**
+     * Normalizes the query and returns a key which is only valid until the next invocation.
+     * To store the key in a cache, {@linkplain SignatureCache.Key#copy() copy} it.
+     *
+     * @param query the query to normalize
+     * @return the key of the normalized query
+     */
+    SignatureCache.Key normalize(CharSequence query) {
+        return key.set(normalizeToCharSequence(query));
+    }
+
+    CharSequence normalizeToCharSequence(CharSequence query) {
+        int length = query.length();
+        int start = 0;
+        while (start < length && query.charAt(start) <= ' ') {
+            start++;
+        }
+        int firstSpace = indexOf(query, ' ', start);
+        if (firstSpace < 0 || indexOf(query, '{', 0) >= 0 || indexOf(query, '}', 0) >= 0) {
+            return query;
+        }
+        normalized.setLength(0);
+        normalized.append(query, 0, firstSpace + 1);
+        listStart = -1;
+        listHasLiteral = false;
+        int i = firstSpace + 1;
+        while (i < length) {
+            char c = query.charAt(i);
+            int end;
+            switch (c) {
+                case '\'':
+                    end = skipStringLiteral(query, i + 1);
+                    if (end < 0) {
+                        return appendRemaining(query, i);
+                    }
+                    appendLiteral();
+                    i = end;
+                    continue;
+                case '"':
+                case '`':
+                    end = indexOf(query, c, i + 1);
+                    if (end < 0) {
+                        return appendRemaining(query, i);
+                    }
+                    // escaped double quotes ("") are just two adjacent identifiers
+                    i = appendVerbatim(query, i, end + 1);
+                    continue;
+                case '[':
+                    end = indexOf(query, ']', i + 1);
+                    if (end < 0) {
+                        return appendRemaining(query, i);
+                    }
+                    i = appendVerbatim(query, i, end + 1);
+                    continue;
+                case '-':
+                case '/':
+                    if (i + 1 < length && (query.charAt(i + 1) == c || (c == '/' && query.charAt(i + 1) == '*'))) {
+                        end = c == '/' && query.charAt(i + 1) == '*' ? skipBracketedComment(query, i + 2) : skipSimpleComment(query, i + 2);
+                        if (end < 0) {
+                            return appendRemaining(query, i);
+                        }
+                        i = appendVerbatim(query, i, end);
+                        continue;
+                    }
+                    break;
+                case '$':
+                    end = isIdentifierPart(query.charAt(i - 1)) ? -1 : skipDollarQuotedString(query, i);
+                    if (end > 0) {
+                        appendLiteral();
+                        i = end;
+                        continue;
+                    }
+                    break;
+                case '?':
+                    appendLiteral();
+                    i++;
+                    continue;
+                case '(':
+                    normalized.append(c);
+                    listStart = normalized.length() - 1;
+                    listHasLiteral = false;
+                    i++;
+                    continue;
+                case ')':
+                    if (listStart >= 0 && listHasLiteral) {
+                        normalized.setLength(listStart + 1);
+                        normalized.append('?');
+                    }
+                    normalized.append(c);
+                    listStart = -1;
+                    i++;
+                    continue;
+                case ',':
+                    normalized.append(c);
+                    i++;
+                    continue;
+                default:
+                    if (Scanner.isDigit(c) && !isIdentifierPart(query.charAt(i - 1))) {
+                        appendLiteral();
+                        i = skipNumericLiteral(query, i + 1);
+                        continue;
+                    } else if (Character.isWhitespace(c)) {
+                        normalized.append(c);
+                        i++;
+                        continue;
+                    }
+            }
+            normalized.append(c);
+            listStart = -1;
+            i++;
+        }
+        return normalized;
+    }
+
+    private void appendLiteral() {
+        normalized.append('?');
+        listHasLiteral = true;
+    }
+
+    private int appendVerbatim(CharSequence query, int start, int end) {
+        normalized.append(query, start, end);
+        listStart = -1;
+        return end;
+    }
+
+    private CharSequence appendRemaining(CharSequence query, int start) {
+        normalized.append(query, start, query.length());
+        return normalized;
+    }
+
+    private static int indexOf(CharSequence query, char c, int fromIndex) {
+        for (int i = fromIndex, length = query.length(); i < length; i++) {
+            if (query.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like {@link String#indexOf(String, int)}, with the region from {@code start} to {@code end} as the search string.
+     */
+    private static int indexOf(CharSequence query, int start, int end, int fromIndex) {
+        int length = end - start;
+        for (int i = fromIndex, last = query.length() - length; i <= last; i++) {
+            int j = 0;
+            while (j < length && query.charAt(i + j) == query.charAt(start + j)) {
+                j++;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * @see Scanner#scanStringLiteral
+     */
+    private static int skipStringLiteral(CharSequence query, int i) {
+        int length = query.length();
+        while (i < length) {
+            char c = query.charAt(i++);
+            if (c == '\\' && i < length) {
+                i++;
+            } else if (c == '\'') {
+                if (i < length && query.charAt(i) == '\'') {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @see Scanner#scanNumericLiteral
+     */
+    private static int skipNumericLiteral(CharSequence query, int i) {
+        int length = query.length();
+        boolean hasPeriod = false;
+        boolean hasExponent = false;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isDigit(c)) {
+                i++;
+            } else if (c == '.' && !hasPeriod) {
+                hasPeriod = true;
+                i++;
+            } else if ((c == 'e' || c == 'E') && !hasExponent) {
+                hasExponent = true;
+                i++;
+                if (i < length && (query.charAt(i) == '+' || query.charAt(i) == '-')) {
+                    i++;
+                }
+            } else {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    private static int skipSimpleComment(CharSequence query, int i) {
+        int newLine = indexOf(query, '\n', i);
+        return newLine < 0 ? query.length() : newLine + 1;
+    }
+
+    /**
+     * @see Scanner#scanBracketedComment
+     */
+    private static int skipBracketedComment(CharSequence query, int i) {
+        int length = query.length();
+        int nesting = 1;
+        while (i < length) {
+            char c = query.charAt(i++);
+            if (c == '/' && i < length && query.charAt(i) == '*') {
+                i++;
+                nesting++;
+            } else if (c == '*' && i < length && query.charAt(i) == '/') {
+                i++;
+                nesting--;
+                if (nesting == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * PostgreSQL dollar-quoted string literals, like {@code $foo$...$foo$}
+     *
+     * @return the end of the literal or {@code -1} if this is not a dollar-quoted string literal
+     * @see Scanner#scan()
+     */
+    private static int skipDollarQuotedString(CharSequence query, int start) {
+        int length = query.length();
+        for (int i = start + 1; i < length; i++) {
+            char c = query.charAt(i);
+            if (c == '$') {
+                if (i == start + 1 || !Character.isDigit(query.charAt(start + 1))) {
+                    int end = indexOf(query, start, i + 1, i + 1);
+                    if (end >= 0) {
+                        return end + i + 1 - start;
+                    }
+                }
+                return -1;
+            } else if (!Character.isLetterOrDigit(c) && c != '_') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
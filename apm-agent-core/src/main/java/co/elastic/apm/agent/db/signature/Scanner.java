@@ -18,9 +18,33 @@
  */
 package co.elastic.apm.agent.db.signature;
 
+/**
+ * Tokenizes SQL queries.
+ * <p>
+ * The input is read via {@link CharSequence#charAt(int)} so that queries don't need to be copied to a {@link String}.
+ * Characters are classified via a lookup table for the ASCII range, which covers the vast majority of characters in SQL queries,
+ * before falling back to the {@link Character} methods.
+ * </p>
+ */
 public class Scanner {
 
-    private String input = "";
+    private static final byte SPACE = 1;
+    private static final byte LETTER = 1 << 1;
+    private static final byte DIGIT = 1 << 2;
+    private static final byte[] ASCII_CHAR_CLASSES = new byte[128];
+
+    static {
+        ASCII_CHAR_CLASSES[' '] = SPACE;
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_CHAR_CLASSES[c] = LETTER;
+            ASCII_CHAR_CLASSES[Character.toUpperCase(c)] = LETTER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ASCII_CHAR_CLASSES[c] = DIGIT;
+        }
+    }
+
+    private CharSequence input = "";
     private int start; // text start char offset
     private int end; // text end char offset
     private int pos; // read position char offset
@@ -35,7 +59,7 @@ public class Scanner {
         this.filter = filter;
     }
 
-    public void setQuery(String sql) {
+    public void setQuery(CharSequence sql) {
         this.input = sql;
         filter.reset();
         inputLength = sql.length();
@@ -78,7 +102,7 @@ public class Scanner {
             return Token.EOF;
         }
         char c = next();
-        while (Character.isSpaceChar(c) || filter.skip(this, c)) {
+        while (isSpace(c) || filter.skip(this, c)) {
             if (hasNext()) {
                 c = next();
             } else {
@@ -86,9 +110,9 @@ public class Scanner {
             }
         }
         start = pos - 1;
-        if (c == '_' || Character.isLetter(c)) {
+        if (c == '_' || isLetter(c)) {
             return scanKeywordOrIdentifier(c != '_');
-        } else if (Character.isDigit(c)) {
+        } else if (isDigit(c)) {
             return scanNumericLiteral();
         }
         switch (c) {
@@ -138,33 +162,32 @@ public class Scanner {
                     return Token.OTHER;
                 }
                 char next = peek();
-                if (Character.isDigit(next)) {
+                if (isDigit(next)) {
                     while (hasNext()) {
-                        if (!Character.isDigit(peek())) {
+                        if (!isDigit(peek())) {
                             break;
                         } else {
                             next();
                         }
                     }
                     return Token.OTHER;
-                } else if (next == '$' || next == '_' || Character.isLetter(next)) {
+                } else if (next == '$' || next == '_' || isLetter(next)) {
                     // PostgreSQL supports dollar-quoted string literal syntax, like $foo$...$foo$.
                     // The tag (foo in this case) is optional, and if present follows identifier rules.
                     while (hasNext()) {
                         c = next();
                         if (c == '$') {
                             // This marks the end of the initial $foo$.
-                            final String text = text();
-                            int i = input.indexOf(text, pos);
+                            int i = indexOfCurrentTokenText(pos);
                             if (i >= 0) {
-                                end = i + text.length();
-                                pos = i + text.length();
+                                end = i + textLength();
+                                pos = end;
                                 return Token.STRING;
                             }
                             return Token.OTHER;
-                        } else if (Character.isLetter(c) || Character.isDigit(c) || c == '_') {
+                        } else if (isLetter(c) || isDigit(c) || c == '_') {
                             // Identifier char, consume
-                        } else if (Character.isSpaceChar(c)) {
+                        } else if (isSpace(c)) {
                             end--;
                             return Token.OTHER;
                         }
@@ -180,9 +203,9 @@ public class Scanner {
     private Token scanKeywordOrIdentifier(boolean maybeKeyword) {
         while (hasNext()) {
             char c = peek();
-            if (Character.isDigit(c) || c == '_' || c == '$') {
+            if (isDigit(c) || c == '_' || c == '$') {
                 maybeKeyword = false;
-            } else if (!Character.isLetter(c)) {
+            } else if (!isLetter(c)) {
                 break;
             }
             next();
@@ -203,7 +226,7 @@ public class Scanner {
         boolean hasExponent = false;
         while (hasNext()) {
             char c = peek();
-            if (Character.isDigit(c)) {
+            if (isDigit(c)) {
                 next();
                 continue;
             }
@@ -320,8 +343,46 @@ public class Scanner {
         return pos < inputLength;
     }
 
-    private boolean isTextEqualIgnoreCase(String name) {
-        return input.regionMatches(true, start, name, 0, textLength());
+    /**
+     * @param keyword an upper case keyword which has the same length as the current token
+     */
+    private boolean isTextEqualIgnoreCase(String keyword) {
+        for (int i = 0, length = keyword.length(); i < length; i++) {
+            // the current token only consists of letters and clearing the lower case bit never maps non-ASCII letters to ASCII ones
+            if ((input.charAt(start + i) & ~0x20) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link String#indexOf(String, int)}, with the text of the current token as the search string.
+     */
+    private int indexOfCurrentTokenText(int fromIndex) {
+        int textLength = textLength();
+        for (int i = fromIndex, last = inputLength - textLength; i <= last; i++) {
+            int j = 0;
+            while (j < textLength && input.charAt(i + j) == input.charAt(start + j)) {
+                j++;
+            }
+            if (j == textLength) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isSpace(char c) {
+        return c < 128 ? ASCII_CHAR_CLASSES[c] == SPACE : Character.isSpaceChar(c);
+    }
+
+    static boolean isLetter(char c) {
+        return c < 128 ? ASCII_CHAR_CLASSES[c] == LETTER : Character.isLetter(c);
+    }
+
+    static boolean isDigit(char c) {
+        return c < 128 ? ASCII_CHAR_CLASSES[c] == DIGIT : Character.isDigit(c);
     }
 
     /**
@@ -338,6 +399,16 @@ public class Scanner {
         return sb.toString();
     }
 
+    /**
+     * Checks whether the most recently scanned token consists of the provided character, without allocating memory.
+     *
+     * @param c the character to compare the current token with
+     * @return {@code true} if the current token consists of exactly the provided character
+     */
+    public boolean isCurrentTokenText(char c) {
+        return textLength() == 1 && input.charAt(start) == c;
+    }
+
     /**
      * Appends the portion of the SQL that relates to the most recently scanned token to the provided {@link StringBuilder}.
      *
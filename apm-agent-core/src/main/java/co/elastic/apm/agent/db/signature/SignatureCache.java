@@ -0,0 +1,196 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.db.signature;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of query signatures, keyed by the {@linkplain QueryNormalizer normalized} query.
+ * <p>
+ * The cache is split into segments, each of which is a {@link LinkedHashMap} in access order guarded by its own lock.
+ * When a segment is full, its least recently used entry is evicted.
+ * Splitting the cache reduces the contention when queries are executed on many threads concurrently.
+ * </p>
+ * <p>
+ * The hit and miss statistics are shared by all instances and are reported by
+ * {@link co.elastic.apm.agent.metrics.builtin.SignatureCacheMetrics}.
+ * </p>
+ */
+public class SignatureCache {
+
+    /**
+     * Small segments evict entries that are still in use when the queries are not evenly distributed over the segments
+     */
+    static final int MIN_SEGMENT_SIZE = 64;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private final Segment[] segments;
+
+    SignatureCache(int maxSize, int concurrencyLevel) {
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(concurrencyLevel, maxSize / MIN_SEGMENT_SIZE)));
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(Math.max(1, maxSize / segmentCount));
+        }
+    }
+
+    /**
+     * @param key the key of a normalized query
+     * @return the signature and the db link of the query, or {@code null} if it's not cached
+     */
+    @Nullable
+    String[] get(Key key) {
+        Segment segment = segmentFor(key);
+        String[] signature;
+        synchronized (segment) {
+            signature = segment.get(key);
+        }
+        if (signature != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return signature;
+    }
+
+    void put(Key key, String[] signature) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, signature);
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        // select the segment by other bits than the ones the map uses to select the bucket
+        int hash = key.hashCode() * 0x9E3779B9;
+        return segments[(hash >>> 16) & (segments.length - 1)];
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    private static class Segment extends LinkedHashMap<Key, String[]> {
+
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String[]> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A key that can either wrap a mutable {@link CharSequence} to look up entries without allocating
+     * or an immutable {@link String} to store entries.
+     * Two keys are equal if they contain the same characters.
+     */
+    static class Key {
+
+        private CharSequence chars = "";
+        private int hash;
+
+        Key set(CharSequence chars) {
+            this.chars = chars;
+            int hash = 0;
+            for (int i = 0, length = chars.length(); i < length; i++) {
+                hash = 31 * hash + chars.charAt(i);
+            }
+            this.hash = hash;
+            return this;
+        }
+
+        /**
+         * @return an immutable copy of this key which can be stored in the cache
+         */
+        Key copy() {
+            Key copy = new Key();
+            copy.chars = chars.toString();
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (hash != other.hash || chars.length() != other.chars.length()) {
+                return false;
+            }
+            for (int i = 0, length = chars.length(); i < length; i++) {
+                if (chars.charAt(i) != other.chars.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return chars.toString();
+        }
+    }
+}
@@ -24,8 +24,6 @@ import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
 
 import javax.annotation.Nullable;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import static co.elastic.apm.agent.db.signature.Scanner.Token.EOF;
 import static co.elastic.apm.agent.db.signature.Scanner.Token.FROM;
@@ -37,11 +35,10 @@ import static co.elastic.apm.agent.db.signature.Scanner.Token.RPAREN;
 public class SignatureParser {
 
     /**
-     * If the cache reaches this size we assume that the application creates a lot of dynamic queries.
-     * In that case it's inefficient to try to cache these as they are not likely to be repeated.
-     * But we still pay the price of allocating a Map.Entry and a String for the signature.
+     * The maximum number of cached signatures.
+     * If more distinct queries are executed, the least recently used ones are evicted.
      */
-    private static final int DISABLE_CACHE_THRESHOLD = 512;
+    private static final int CACHE_MAX_SIZE = 1024;
     /**
      * The cache management overhead is probably not worth it for short queries
      */
@@ -53,13 +50,22 @@ public class SignatureParser {
 
     private final DetachedThreadLocal<Scanner> scanner;
 
+    private final DetachedThreadLocal<QueryNormalizer> normalizer = WeakConcurrent
+        .<QueryNormalizer>threadLocalBuilder()
+        .withDefaultValueSupplier(new WeakMap.DefaultValueSupplier<Thread, QueryNormalizer>() {
+            @Override
+            public QueryNormalizer getDefaultValue(Thread key) {
+                return new QueryNormalizer();
+            }
+        })
+        .build();
+
     /**
+     * Keyed by the normalized query, so that dynamic queries which only differ in their literals,
+     * or in the number of elements in an {@code IN} list, share an entry.
      * Not using weak keys because ORMs like Hibernate generate equal SQL strings for the same query but don't reuse the same string instance.
-     * When relying on weak keys, we would not leverage any caching benefits if the query string is collected.
-     * That means that we are leaking Strings but as the size of the map is limited that should not be an issue.
      */
-    private final ConcurrentMap<String, String[]> signatureCache = new ConcurrentHashMap<String, String[]>(DISABLE_CACHE_THRESHOLD,
-            0.5f, Runtime.getRuntime().availableProcessors());
+    private final SignatureCache signatureCache = new SignatureCache(CACHE_MAX_SIZE, 4 * Runtime.getRuntime().availableProcessors());
 
     public SignatureParser() {
         this(new Callable<Scanner>() {
@@ -87,16 +93,20 @@ public class SignatureParser {
             .build();
     }
 
-    public void querySignature(String query, StringBuilder signature, boolean preparedStatement) {
+    public void querySignature(CharSequence query, StringBuilder signature, boolean preparedStatement) {
         querySignature(query, signature, null, preparedStatement);
     }
 
-    public void querySignature(String query, StringBuilder signature, @Nullable StringBuilder dbLink, boolean preparedStatement) {
-        final boolean cacheable = preparedStatement // non-prepared statements are likely to be dynamic strings
-            && QUERY_LENGTH_CACHE_LOWER_THRESHOLD < query.length()
+    /**
+     * @param preparedStatement not used anymore, as non-prepared statements are cached by their normalized form as well
+     */
+    public void querySignature(CharSequence query, StringBuilder signature, @Nullable StringBuilder dbLink, boolean preparedStatement) {
+        final boolean cacheable = QUERY_LENGTH_CACHE_LOWER_THRESHOLD < query.length()
             && query.length() < QUERY_LENGTH_CACHE_UPPER_THRESHOLD;
+        SignatureCache.Key key = null;
         if (cacheable) {
-            final String[] cachedSignature = signatureCache.get(query);
+            key = normalizer.get().normalize(query);
+            final String[] cachedSignature = signatureCache.get(key);
             if (cachedSignature != null) {
                 signature.append(cachedSignature[0]);
                 if (dbLink != null) {
@@ -105,17 +115,20 @@ public class SignatureParser {
                 return;
             }
         }
+        parse(query, signature, dbLink);
+
+        if (key != null) {
+            signatureCache.put(key.copy(), new String[]{signature.toString(), dbLink != null ? dbLink.toString() : ""});
+        }
+    }
+
+    void parse(CharSequence query, StringBuilder signature, @Nullable StringBuilder dbLink) {
         Scanner scanner = this.scanner.get();
         scanner.setQuery(query);
         parse(scanner, query, signature, dbLink);
-
-        if (cacheable && signatureCache.size() <= DISABLE_CACHE_THRESHOLD) {
-            // we don't mind a small overshoot due to race conditions
-            signatureCache.put(query, new String[]{signature.toString(), dbLink != null ? dbLink.toString() : ""});
-        }
     }
 
-    private void parse(Scanner scanner, String query, StringBuilder signature, @Nullable StringBuilder dbLink) {
+    private void parse(Scanner scanner, CharSequence query, StringBuilder signature, @Nullable StringBuilder dbLink) {
         final Scanner.Token firstToken = scanner.scanWhile(Scanner.Token.COMMENT);
         switch (firstToken) {
             case CALL:
@@ -194,7 +207,7 @@ public class SignatureParser {
                                 signature.append('.');
                                 break;
                             default:
-                                if ("@".equals(scanner.text())) {
+                                if (scanner.isCurrentTokenText('@')) {
                                     isDbLink = true;
                                     break;
                                 } else {
@@ -212,10 +225,29 @@ public class SignatureParser {
                 }
                 return;
             default:
-                query = query.trim();
-                final int indexOfWhitespace = query.indexOf(' ');
-                signature.append(query, 0, indexOfWhitespace > 0 ? indexOfWhitespace : query.length());
+                appendFirstWord(query, signature);
+        }
+    }
+
+    /**
+     * Same as {@code query.trim().split(" ")[0]}, without allocating memory
+     */
+    private static void appendFirstWord(CharSequence query, StringBuilder signature) {
+        int start = 0;
+        int end = query.length();
+        while (start < end && query.charAt(start) <= ' ') {
+            start++;
+        }
+        while (start < end && query.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if (query.charAt(i) == ' ') {
+                end = i;
+                break;
+            }
         }
+        signature.append(query, start, end);
     }
 
     private void appendIdentifiers(Scanner scanner, StringBuilder signature, @Nullable StringBuilder dbLink) {
@@ -245,7 +277,7 @@ public class SignatureParser {
                 case USING:
                     return;
                 default:
-                    if ("@".equals(scanner.text())) {
+                    if (scanner.isCurrentTokenText('@')) {
                         isDbLink = true;
                     }
                     break;
@@ -26,9 +26,9 @@ import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 
@@ -41,6 +41,13 @@ class ActiveStack {
 
     private static final Logger logger = LoggerFactory.getLogger(ActiveStack.class);
 
+    private static final ElasticContext<?>[] EMPTY = new ElasticContext<?>[0];
+
+    /**
+     * The initial capacity of the stack. Most threads only ever have a transaction and a few nested spans active at the same time.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
     private final int stackMaxDepth;
 
     /**
@@ -51,12 +58,18 @@ class ActiveStack {
     private long overflowCounter = 0;
 
     /**
-     * Maintains a stack of all the activated spans/contexts.
-     * This way it's easy to retrieve the bottom of the stack (the transaction).
+     * Maintains a stack of all the activated spans/contexts, the bottom of the stack (the transaction) is at index {@code 0}.
+     * This way it's easy to retrieve the bottom of the stack.
      * Also, the caller does not have to keep a reference to the previously active span, as that is maintained by the stack.
      * This makes activating a span allocation-free (assuming the stack has enough pre-allocated slots available).
+     * <p>
+     * The array is only allocated on the first activation and grows up to {@link #stackMaxDepth}.
+     * This keeps the footprint of threads that never activate a context, or only a few, such as short-lived virtual threads, small.
+     * </p>
      */
-    private final Deque<ElasticContext<?>> activeContextStack = new ArrayDeque<ElasticContext<?>>();
+    private ElasticContext<?>[] activeContextStack = EMPTY;
+
+    private int size = 0;
 
     ActiveStack(int stackMaxDepth) {
         this.stackMaxDepth = stackMaxDepth;
@@ -64,7 +77,7 @@ class ActiveStack {
 
     @Nullable
     Transaction currentTransaction() {
-        final ElasticContext<?> bottomOfStack = activeContextStack.peekLast();
+        final ElasticContext<?> bottomOfStack = size > 0 ? activeContextStack[0] : null;
         return bottomOfStack != null ? bottomOfStack.getTransaction() : null;
     }
 
@@ -73,7 +86,7 @@ class ActiveStack {
      */
     @Nullable
     public ElasticContext<?> currentContext() {
-        ElasticContext<?> current = activeContextStack.peek();
+        ElasticContext<?> current = peek();
 
         // When the active context is wrapped, the wrapper should be transparent to the caller, thus we always return
         // the underlying wrapped context.
@@ -88,7 +101,7 @@ class ActiveStack {
             logger.debug("Activating {} on thread {}", context, Thread.currentThread().getId());
         }
 
-        if (activeContextStack.size() == stackMaxDepth) {
+        if (size == stackMaxDepth) {
             if (overflowCounter == 0) {
                 logger.error(String.format("Activation stack depth reached its maximum - %s. This is likely related to activation" +
                         " leak. Current transaction: %s", stackMaxDepth, currentTransaction()),
@@ -105,7 +118,7 @@ class ActiveStack {
             triggerActivationListeners(span, true, activationListeners);
         }
 
-        activeContextStack.push(context);
+        push(context);
         return true;
     }
 
@@ -120,7 +133,7 @@ class ActiveStack {
         }
 
         ElasticContext<?> activeContext = currentContext();
-        activeContextStack.remove();
+        pop();
 
         AbstractSpan<?> span = context.getSpan();
 
@@ -183,7 +196,7 @@ class ActiveStack {
     <T extends ElasticContext<T>> T wrapActiveContextIfRequired(Class<T> wrapperClass, Callable<T> wrapFunction, int approximateContextSize) {
 
         // the current context might be either a "regular" one or a "wrapped" one if it has already been wrapped
-        ElasticContext<?> current = activeContextStack.peek();
+        ElasticContext<?> current = peek();
 
         Objects.requireNonNull(current, "active context required for wrapping");
         ElasticContextWrapper<?> wrapper;
@@ -196,9 +209,36 @@ class ActiveStack {
 
         // replace the currently active on the stack, however currentContext() will make sure to return the original
         // context in order to keep wrapping transparent.
-        activeContextStack.remove();
-        activeContextStack.push(wrapper);
+        activeContextStack[size - 1] = wrapper;
 
         return wrapped;
     }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nullable
+    private ElasticContext<?> peek() {
+        return size > 0 ? activeContextStack[size - 1] : null;
+    }
+
+    private void push(ElasticContext<?> context) {
+        if (size == activeContextStack.length) {
+            int newCapacity = Math.max(INITIAL_CAPACITY, size * 2);
+            if (stackMaxDepth > size) {
+                newCapacity = Math.min(newCapacity, stackMaxDepth);
+            }
+            activeContextStack = Arrays.copyOf(activeContextStack, newCapacity);
+        }
+        activeContextStack[size++] = context;
+    }
+
+    private void pop() {
+        if (size == 0) {
+            // consistent with Deque#remove
+            throw new NoSuchElementException();
+        }
+        activeContextStack[--size] = null;
+    }
 }
@@ -19,6 +19,7 @@
 package co.elastic.apm.agent.impl;
 
 import co.elastic.apm.agent.common.JvmRuntimeInfo;
+import co.elastic.apm.agent.common.ThreadUtils;
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.configuration.ServiceInfo;
 import co.elastic.apm.agent.configuration.SpanConfiguration;
@@ -31,11 +32,11 @@ import co.elastic.apm.agent.impl.sampling.Sampler;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
 import co.elastic.apm.agent.impl.transaction.ElasticContext;
+import co.elastic.apm.agent.impl.transaction.Id;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.logging.LoggingConfiguration;
-import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.ObjectPoolFactory;
@@ -47,6 +48,7 @@ import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakConcurrent;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
 import co.elastic.apm.agent.tracer.GlobalTracer;
+import co.elastic.apm.agent.util.AgentScheduler;
 import co.elastic.apm.agent.util.DependencyInjectingServiceLoader;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import co.elastic.apm.agent.tracer.Scope;
@@ -67,8 +69,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -95,19 +97,17 @@ public class ElasticApmTracer implements Tracer {
     private final Reporter reporter;
     private final ObjectPoolFactory objectPoolFactory;
 
-    private final ThreadLocal<ActiveStack> activeStack = new ThreadLocal<ActiveStack>() {
-        @Override
-        protected ActiveStack initialValue() {
-            return new ActiveStack(transactionMaxSpans);
-        }
-    };
+    /**
+     * Only set for threads that have activated a context, so that looking up the current context on other threads doesn't allocate.
+     * This matters for virtual threads, as there may be millions of them.
+     */
+    private final ThreadLocal<ActiveStack> activeStack = new ThreadLocal<ActiveStack>();
 
     private final CoreConfiguration coreConfiguration;
     private final int transactionMaxSpans;
     private final SpanConfiguration spanConfiguration;
     private final List<ActivationListener> activationListeners;
     private final MetricRegistry metricRegistry;
-    private final ScheduledThreadPoolExecutor sharedPool;
     private final int approximateContextSize;
     private Sampler sampler;
     boolean assertionsEnabled = false;
@@ -200,6 +200,7 @@ public class ElasticApmTracer implements Tracer {
         // span links pool allows for 10X the maximum allowed span links per span
         spanLinkPool = poolFactory.createSpanLinkPool(AbstractSpan.MAX_ALLOWED_SPAN_LINKS * 10, this);
 
+        Id.setGenerator(coreConfiguration.getIdGenerator());
         sampler = ProbabilitySampler.of(coreConfiguration.getSampleRate().get());
         coreConfiguration.getSampleRate().addChangeListener(new ConfigurationOption.ChangeListener<Double>() {
             @Override
@@ -208,7 +209,6 @@ public class ElasticApmTracer implements Tracer {
             }
         });
         this.activationListeners = DependencyInjectingServiceLoader.load(ActivationListener.class, this);
-        sharedPool = ExecutorUtils.createSingleThreadSchedulingDaemonPool("shared");
 
         // The estimated number of wrappers is linear to the number of the number of external/OTel plugins
         // - for an internal agent context, there will be at most one wrapper per external/OTel plugin.
@@ -317,7 +317,8 @@ public class ElasticApmTracer implements Tracer {
     @Override
     @Nullable
     public Transaction currentTransaction() {
-        return activeStack.get().currentTransaction();
+        ActiveStack stack = activeStack.get();
+        return stack != null ? stack.currentTransaction() : null;
     }
 
     /**
@@ -388,12 +389,12 @@ public class ElasticApmTracer implements Tracer {
             return null;
         }
 
-        while (e != null && WildcardMatcher.anyMatch(coreConfiguration.getUnnestExceptions(), e.getClass().getName()) != null) {
+        while (e != null && coreConfiguration.getUnnestExceptionsMatcherSet().isAnyMatch(e.getClass().getName())) {
             e = e.getCause();
         }
 
         // note: if we add inheritance support for exception filtering, caching would be required for performance
-        if (e != null && !WildcardMatcher.isAnyMatch(coreConfiguration.getIgnoreExceptions(), e.getClass().getName())) {
+        if (e != null && coreConfiguration.getIgnoreExceptionsMatcherSet().isNoneMatch(e.getClass().getName())) {
             ErrorCapture error = errorPool.createInstance();
             error.withTimestamp(epochMicros);
             error.setException(e);
@@ -463,8 +464,8 @@ public class ElasticApmTracer implements Tracer {
             }
         }
 
+        Transaction transaction = span.getTransaction();
         if (!span.isSampled()) {
-            Transaction transaction = span.getTransaction();
             if (transaction != null) {
                 transaction.captureDroppedSpan(span);
             }
@@ -472,19 +473,20 @@ public class ElasticApmTracer implements Tracer {
             return;
         }
         if (span.isExit()) {
-            if (span.getDuration() < spanConfiguration.getExitSpanMinDuration().getMicros()) {
+            long exitSpanMinDurationUs = transaction != null ? transaction.getExitSpanMinDurationUs() : spanConfiguration.getExitSpanMinDuration().getMicros();
+            if (span.getDuration() < exitSpanMinDurationUs) {
                 logger.debug("Span faster than exit_span_min_duration. Request discarding {}", span);
                 span.requestDiscarding();
             }
         } else if (!span.isComposite()) {
-            if (span.getDuration() < coreConfiguration.getSpanMinDuration().getMicros()) {
+            long spanMinDurationUs = transaction != null ? transaction.getSpanMinDurationUs() : coreConfiguration.getSpanMinDuration().getMicros();
+            if (span.getDuration() < spanMinDurationUs) {
                 logger.debug("Span faster than span_min_duration. Request discarding {}", span);
                 span.requestDiscarding();
             }
         }
         if (span.isDiscarded()) {
             logger.debug("Discarding span {}", span);
-            Transaction transaction = span.getTransaction();
             if (transaction != null) {
                 transaction.captureDroppedSpan(span);
             }
@@ -507,7 +509,7 @@ public class ElasticApmTracer implements Tracer {
         // makes sure that parents are also non-discardable
         span.setNonDiscardable();
 
-        long spanStackTraceMinDurationMs = stacktraceConfiguration.getSpanStackTraceMinDurationMs();
+        long spanStackTraceMinDurationMs = transaction != null ? transaction.getSpanStackTraceMinDurationMs() : stacktraceConfiguration.getSpanStackTraceMinDurationMs();
         if (spanStackTraceMinDurationMs >= 0 && span.isSampled() && span.getStackFrames() == null) {
             if (span.getDurationMs() >= spanStackTraceMinDurationMs) {
                 span.withStacktrace(new Throwable());
@@ -552,7 +554,7 @@ public class ElasticApmTracer implements Tracer {
                 logger.warn("Suppressed exception while calling stop()", e);
             }
         }
-        ExecutorUtils.shutdownAndWaitTermination(sharedPool);
+        AgentScheduler.awaitSubmittedTasks(1, TimeUnit.SECONDS);
         tracerState = TracerState.STOPPED;
         logger.info("Tracer switched to STOPPED state");
         if (logger.isDebugEnabled()) {
@@ -565,6 +567,7 @@ public class ElasticApmTracer implements Tracer {
         } catch (Exception e) {
             logger.warn("Suppressed exception while calling stop()", e);
         }
+        AgentScheduler.shutdown();
         LoggingConfiguration.shutdown();
     }
 
@@ -794,7 +797,8 @@ public class ElasticApmTracer implements Tracer {
      */
     @Nullable
     public ElasticContext<?> currentContext() {
-        return activeStack.get().currentContext();
+        ActiveStack stack = activeStack.get();
+        return stack != null ? stack.currentContext() : null;
     }
 
     /**
@@ -807,11 +811,11 @@ public class ElasticApmTracer implements Tracer {
      * @return newly (or previously) created wrapper
      */
     public <T extends ElasticContext<T>> T wrapActiveContextIfRequired(Class<T> wrapperClass, Callable<T> wrapFunction) {
-        return activeStack.get().wrapActiveContextIfRequired(wrapperClass, wrapFunction, approximateContextSize);
+        return getOrCreateActiveStack().wrapActiveContextIfRequired(wrapperClass, wrapFunction, approximateContextSize);
     }
 
     public void activate(ElasticContext<?> context) {
-        activeStack.get().activate(context, activationListeners);
+        getOrCreateActiveStack().activate(context, activationListeners);
     }
 
     public Scope activateInScope(final ElasticContext<?> context) {
@@ -834,7 +838,21 @@ public class ElasticApmTracer implements Tracer {
     }
 
     public void deactivate(ElasticContext<?> context) {
-        activeStack.get().deactivate(context, activationListeners, assertionsEnabled);
+        ActiveStack stack = getOrCreateActiveStack();
+        stack.deactivate(context, activationListeners, assertionsEnabled);
+        if (stack.isEmpty() && ThreadUtils.isVirtual(Thread.currentThread())) {
+            // virtual threads are cheap and usually short-lived, don't retain the stack when nothing is active anymore
+            activeStack.remove();
+        }
+    }
+
+    private ActiveStack getOrCreateActiveStack() {
+        ActiveStack stack = activeStack.get();
+        if (stack == null) {
+            stack = new ActiveStack(transactionMaxSpans);
+            activeStack.set(stack);
+        }
+        return stack;
     }
 
     public MetricRegistry getMetricRegistry() {
@@ -891,10 +909,6 @@ public class ElasticApmTracer implements Tracer {
         return metaDataFuture;
     }
 
-    public ScheduledThreadPoolExecutor getSharedSingleThreadedPool() {
-        return sharedPool;
-    }
-
     public void addShutdownHook(Closeable closeable) {
         lifecycleListeners.add(ClosableLifecycleListenerAdapter.of(closeable));
     }
@@ -42,8 +42,8 @@ import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
 import co.elastic.apm.agent.report.serialize.SerializationConstants;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+import co.elastic.apm.agent.util.AgentScheduler;
 import co.elastic.apm.agent.util.DependencyInjectingServiceLoader;
-import co.elastic.apm.agent.util.ExecutorUtils;
 import org.stagemonitor.configuration.ConfigurationOptionProvider;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 import org.stagemonitor.configuration.source.ConfigurationSource;
@@ -55,7 +55,7 @@ import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class ElasticApmTracerBuilder {
@@ -196,8 +196,7 @@ public class ElasticApmTracerBuilder {
     }
 
     private LifecycleListener scheduleReloadAtRate(final ConfigurationRegistry configurationRegistry, final int rate, TimeUnit seconds) {
-        final ScheduledThreadPoolExecutor configurationReloader = ExecutorUtils.createSingleThreadSchedulingDaemonPool("configuration-reloader");
-        configurationReloader.scheduleAtFixedRate(new Runnable() {
+        final ScheduledFuture<?> configurationReloader = AgentScheduler.scheduleAtFixedRate("configuration-reloader", new Runnable() {
             @Override
             public void run() {
                 logger.debug("Beginning scheduled configuration reload (interval is {} sec)...", rate);
@@ -208,7 +207,7 @@ public class ElasticApmTracerBuilder {
         return ClosableLifecycleListenerAdapter.of(new Closeable() {
             @Override
             public void close() {
-                configurationReloader.shutdown();
+                configurationReloader.cancel(false);
             }
         });
     }
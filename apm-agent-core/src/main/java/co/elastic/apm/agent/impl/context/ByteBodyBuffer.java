@@ -0,0 +1,223 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.context;
+
+import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.objectpool.Resetter;
+import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
+import co.elastic.apm.agent.tracer.pooling.Allocator;
+import co.elastic.apm.agent.tracer.pooling.Recyclable;
+import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a body as raw bytes in fixed-size segments which are taken from a global pool.
+ * <p>
+ * Contrary to a {@link CharBuffer} that is sized for the maximum body length,
+ * only as many segments are used as the body needs, and bytes take half the memory of chars.
+ * The bytes are decoded only when serializing, see {@link #decodeUtf8(CharBuffer, CharsetDecoder, ByteBuffer)}.
+ * The segments are pooled as {@link ByteBuffer}s, so that they can be passed to the decoder without wrapping them.
+ * Once the limit is reached, further bytes are ignored so that truncating does not copy anything.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public class ByteBodyBuffer implements Recyclable {
+
+    static final int SEGMENT_SIZE = 2048;
+
+    private static final AtomicLong segmentRequests = new AtomicLong();
+    private static final AtomicLong segmentAllocations = new AtomicLong();
+
+    private static final ObjectPool<ByteBuffer> segmentPool = QueueBasedObjectPool.of(new MpmcAtomicArrayQueue<ByteBuffer>(1024), false,
+        new Allocator<ByteBuffer>() {
+            @Override
+            public ByteBuffer createInstance() {
+                // only called when the pool is empty
+                segmentAllocations.incrementAndGet();
+                return ByteBuffer.allocate(SEGMENT_SIZE);
+            }
+        },
+        new Resetter<ByteBuffer>() {
+            @Override
+            public void recycle(ByteBuffer object) {
+                // the size of a ByteBodyBuffer defines which bytes are valid, no need to clear the segment
+            }
+        });
+
+    private final List<ByteBuffer> segments = new ArrayList<>(4);
+    private int size;
+    private int limit;
+
+    /**
+     * @param limit the maximum number of bytes to record, additional bytes are ignored
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Appends bytes until the limit is reached
+     *
+     * @return {@code false} if not all bytes could be appended because the limit has been reached
+     */
+    public boolean append(byte[] bytes, int offset, int length) {
+        int toCopy = Math.min(length, limit - size);
+        while (toCopy > 0) {
+            int positionInSegment = size % SEGMENT_SIZE;
+            if (positionInSegment == 0 && size / SEGMENT_SIZE == segments.size()) {
+                segments.add(acquireSegment());
+            }
+            int copied = Math.min(toCopy, SEGMENT_SIZE - positionInSegment);
+            System.arraycopy(bytes, offset, segments.get(size / SEGMENT_SIZE).array(), positionInSegment, copied);
+            offset += copied;
+            length -= copied;
+            toCopy -= copied;
+            size += copied;
+        }
+        return length == 0;
+    }
+
+    /**
+     * Appends a single byte if the limit has not been reached yet
+     *
+     * @return {@code false} if the limit has been reached
+     */
+    public boolean append(byte b) {
+        if (size >= limit) {
+            return false;
+        }
+        int positionInSegment = size % SEGMENT_SIZE;
+        if (positionInSegment == 0 && size / SEGMENT_SIZE == segments.size()) {
+            segments.add(acquireSegment());
+        }
+        segments.get(size / SEGMENT_SIZE).array()[positionInSegment] = b;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size >= limit;
+    }
+
+    /**
+     * Decodes the recorded bytes as UTF-8 into the provided buffer.
+     * <p>
+     * A multi-byte sequence may span two segments.
+     * An incomplete sequence at the end, which is usually the result of truncating, is ignored.
+     * </p>
+     * <p>
+     * NOTE: This method does not {@link CharBuffer#flip()} the provided {@link CharBuffer}.
+     * </p>
+     *
+     * @param dest    the buffer to decode into
+     * @param decoder a UTF-8 decoder, which is {@linkplain CharsetDecoder#reset() reset} before decoding
+     * @param carry   a buffer with a capacity of at least 4 bytes which holds a multi-byte sequence that spans two segments,
+     *                it is {@linkplain ByteBuffer#clear() cleared} before decoding.
+     *                The decoder and this buffer are passed in so that the caller can reuse them for all bodies it decodes.
+     * @return {@link CoderResult#UNDERFLOW} if all bytes have been decoded,
+     * an overflow result if {@code dest} is full or an error result if the bytes are not valid UTF-8
+     */
+    public CoderResult decodeUtf8(CharBuffer dest, CharsetDecoder decoder, ByteBuffer carry) {
+        decoder.reset();
+        ((Buffer) carry).clear();
+        for (int i = 0, remaining = size; remaining > 0; i++) {
+            int segmentLength = Math.min(remaining, SEGMENT_SIZE);
+            remaining -= segmentLength;
+            ByteBuffer in = segments.get(i);
+            ((Buffer) in).clear();
+            ((Buffer) in).limit(segmentLength);
+            while (carry.position() > 0 && in.hasRemaining()) {
+                carry.put(in.get());
+                ((Buffer) carry).flip();
+                CoderResult result = decoder.decode(carry, dest, false);
+                if (result.isError() || result.isOverflow()) {
+                    return result;
+                }
+                carry.compact();
+            }
+            CoderResult result = decoder.decode(in, dest, false);
+            if (result.isError() || result.isOverflow()) {
+                return result;
+            }
+            // the remaining bytes, if any, are the start of a sequence that continues in the next segment
+            carry.put(in);
+        }
+        // ignore an incomplete sequence at the end by not passing it as the last input
+        ((Buffer) carry).clear();
+        ((Buffer) carry).flip();
+        CoderResult result = decoder.decode(carry, dest, true);
+        if (result.isError() || result.isOverflow()) {
+            return result;
+        }
+        return decoder.flush(dest);
+    }
+
+    public void copyFrom(ByteBodyBuffer other) {
+        resetState();
+        limit = other.limit;
+        for (int i = 0, remaining = other.size; remaining > 0; i++) {
+            int segmentLength = Math.min(remaining, SEGMENT_SIZE);
+            remaining -= segmentLength;
+            append(other.segments.get(i).array(), 0, segmentLength);
+        }
+    }
+
+    @Override
+    public void resetState() {
+        for (int i = 0; i < segments.size(); i++) {
+            segmentPool.recycle(segments.get(i));
+        }
+        segments.clear();
+        size = 0;
+        limit = 0;
+    }
+
+    private static ByteBuffer acquireSegment() {
+        segmentRequests.incrementAndGet();
+        return segmentPool.createInstance();
+    }
+
+    /**
+     * @return the number of segments that have been requested from the pool
+     */
+    public static long getSegmentRequests() {
+        return segmentRequests.get();
+    }
+
+    /**
+     * @return the number of segments that had to be allocated because the pool was empty
+     */
+    public static long getSegmentAllocations() {
+        return segmentAllocations.get();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.context;
+
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache for the names of captured HTTP headers which is shared across all transactions.
+ * <p>
+ * Header names come from a small set, but most servers create new {@link String} instances for every request.
+ * {@linkplain #intern(String) Interning} them means that queued transactions all reference the same instances
+ * and that the lookups when {@linkplain #isSensitive(String, WildcardMatcherSet) sanitizing} the headers are cheap.
+ * </p>
+ * <p>
+ * Whether a header is sensitive is remembered together with the {@code sanitize_field_names} {@link WildcardMatcherSet} it was matched against.
+ * As a new set is compiled when the configuration changes, the decision is invalidated and re-computed on the next lookup.
+ * </p>
+ * <p>
+ * As header names are controlled by the client, the number of entries is limited to {@link #MAX_SIZE}.
+ * When the cache is full, an entry is evicted using the CLOCK algorithm:
+ * entries are marked as referenced when they are looked up and the clock hand evicts the first entry that hasn't been referenced
+ * since the hand last passed it. That way, names that are only sent once can't displace the names that are sent with every request.
+ * Lookups are lock-free, only inserting a new name takes a lock.
+ * </p>
+ */
+public final class HeaderNameCache {
+
+    static final int MAX_SIZE = 512;
+
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The names of the cached entries in the order the clock hand visits them, guarded by the class monitor
+     */
+    private static final String[] clock = new String[MAX_SIZE];
+    private static int clockSize;
+    private static int clockHand;
+
+    private HeaderNameCache() {
+    }
+
+    /**
+     * @param headerName the name of a header
+     * @return a canonical instance of the header name
+     */
+    public static String intern(String headerName) {
+        Entry entry = entries.get(headerName);
+        if (entry != null) {
+            entry.markReferenced();
+            return entry.name;
+        }
+        return insert(new Entry(headerName, null, false)).name;
+    }
+
+    /**
+     * @param headerName         the name of a header
+     * @param sanitizeFieldNames the current value of {@code sanitize_field_names}
+     * @return {@code true} if the value of the header has to be redacted
+     */
+    public static boolean isSensitive(String headerName, WildcardMatcherSet sanitizeFieldNames) {
+        Entry entry = entries.get(headerName);
+        if (entry != null && entry.sanitizeFieldNames == sanitizeFieldNames) {
+            entry.markReferenced();
+            return entry.sensitive;
+        }
+        boolean sensitive = sanitizeFieldNames.isAnyMatch(headerName);
+        if (entry != null) {
+            Entry updated = new Entry(entry.name, sanitizeFieldNames, sensitive);
+            updated.markReferenced();
+            // not using put, as that would re-add the entry if it has been evicted concurrently
+            entries.replace(entry.name, entry, updated);
+        } else {
+            insert(new Entry(headerName, sanitizeFieldNames, sensitive));
+        }
+        return sensitive;
+    }
+
+    private static synchronized Entry insert(Entry entry) {
+        Entry existing = entries.get(entry.name);
+        if (existing != null) {
+            return existing;
+        }
+        if (clockSize < MAX_SIZE) {
+            clock[clockSize++] = entry.name;
+        } else {
+            evictAndReplace(entry.name);
+        }
+        entries.put(entry.name, entry);
+        return entry;
+    }
+
+    private static void evictAndReplace(String name) {
+        while (true) {
+            Entry candidate = entries.get(clock[clockHand]);
+            if (candidate != null && candidate.referenced) {
+                // second chance
+                candidate.referenced = false;
+                clockHand = (clockHand + 1) % MAX_SIZE;
+            } else {
+                entries.remove(clock[clockHand]);
+                clock[clockHand] = name;
+                clockHand = (clockHand + 1) % MAX_SIZE;
+                return;
+            }
+        }
+    }
+
+    static int size() {
+        return entries.size();
+    }
+
+    static synchronized void clear() {
+        entries.clear();
+        Arrays.fill(clock, null);
+        clockSize = 0;
+        clockHand = 0;
+    }
+
+    /**
+     * The name and the sanitization decision are immutable, so that they can be read consistently without locking.
+     */
+    private static class Entry {
+        private final String name;
+        @Nullable
+        private final WildcardMatcherSet sanitizeFieldNames;
+        private final boolean sensitive;
+        private volatile boolean referenced;
+
+        private Entry(String name, @Nullable WildcardMatcherSet sanitizeFieldNames, boolean sensitive) {
+            this.name = name;
+            this.sanitizeFieldNames = sanitizeFieldNames;
+            this.sensitive = sensitive;
+        }
+
+        private void markReferenced() {
+            // avoids writing to the shared cache line on every lookup
+            if (!referenced) {
+                referenced = true;
+            }
+        }
+    }
+}
@@ -85,6 +85,9 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
     @Nullable
     private CharBuffer bodyBuffer;
     private boolean bodyBufferFinished = false;
+    private final ByteBodyBuffer bodyBytes = new ByteBodyBuffer();
+    private boolean recordingBodyBytes = false;
+    private boolean bodyBytesFinished = false;
 
     /**
      * Data should only contain the request body (not the query string). It can either be a dictionary (for standard HTTP requests) or a raw request body.
@@ -95,6 +98,8 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
             return postParams;
         } else if (rawBody != null) {
             return rawBody;
+        } else if (recordingBodyBytes) {
+            return bodyBytes;
         } else {
             return bodyBuffer;
         }
@@ -112,6 +117,7 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
             charBufferPool.recycle(bodyBuffer);
             bodyBuffer = null;
         }
+        resetBodyBytes();
         this.rawBody = rawBody;
     }
 
@@ -145,6 +151,67 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
             bodyBufferFinished = true;
             ((Buffer) bodyBuffer).flip();
         }
+        if (recordingBodyBytes) {
+            bodyBytesFinished = true;
+        }
+    }
+
+    @Override
+    public void withBodyBytes() {
+        if (!recordingBodyBytes) {
+            recordingBodyBytes = true;
+            bodyBytes.setLimit(SerializationConstants.getMaxLongStringValueLength());
+        }
+    }
+
+    @Override
+    public boolean isRecordingBodyBytes() {
+        return recordingBodyBytes && !bodyBytesFinished;
+    }
+
+    @Override
+    public boolean appendBodyBytes(byte[] bytes, int offset, int length) {
+        if (!isRecordingBodyBytes()) {
+            return false;
+        }
+        if (!bodyBytes.append(bytes, offset, length)) {
+            // truncated, ignore the rest of the body
+            endOfBufferInput();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean appendBodyByte(byte b) {
+        if (!isRecordingBodyBytes()) {
+            return false;
+        }
+        if (!bodyBytes.append(b)) {
+            endOfBufferInput();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the recorded body bytes if recording was finished through {@link Request#endOfBufferInput()}
+     *
+     * @return the body bytes if they were recorded and recording was finished; returns {@code null} otherwise.
+     */
+    @Nullable
+    public ByteBodyBuffer getBodyBytesForSerialization() {
+        if (recordingBodyBytes && bodyBytesFinished) {
+            return bodyBytes;
+        } else {
+            return null;
+        }
+    }
+
+    private void resetBodyBytes() {
+        recordingBodyBytes = false;
+        bodyBytesFinished = false;
+        bodyBytes.resetState();
     }
 
     @Override
@@ -184,7 +251,7 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
      */
     public Request addHeader(String headerName, @Nullable String headerValue) {
         if (headerValue != null) {
-            headers.add(headerName, headerValue);
+            headers.add(HeaderNameCache.intern(headerName), headerValue);
         }
         return this;
     }
@@ -192,6 +259,7 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
     @Override
     public Request addHeader(String headerName, @Nullable Enumeration<String> headerValues) {
         if (headerValues != null) {
+            headerName = HeaderNameCache.intern(headerName);
             while (headerValues.hasMoreElements()) {
                 headers.add(headerName, headerValues.nextElement());
             }
@@ -287,6 +355,7 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
             charBufferPool.recycle(bodyBuffer);
             bodyBuffer = null;
         }
+        resetBodyBytes();
         rawBody = null;
     }
 
@@ -307,6 +376,12 @@ public class Request implements Recyclable, co.elastic.apm.agent.tracer.metadata
             }
             endOfBufferInput();
         }
+        final ByteBodyBuffer otherBytes = other.getBodyBytesForSerialization();
+        if (otherBytes != null) {
+            recordingBodyBytes = true;
+            bodyBytesFinished = true;
+            bodyBytes.copyFrom(otherBytes);
+        }
         this.rawBody = other.rawBody;
     }
 
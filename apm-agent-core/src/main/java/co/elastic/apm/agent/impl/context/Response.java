@@ -61,13 +61,14 @@ public class Response implements Recyclable, co.elastic.apm.agent.tracer.metadat
      * @return {@code this}, for fluent method chaining
      */
     public Response addHeader(String headerName, String headerValue) {
-        headers.add(headerName, headerValue);
+        headers.add(HeaderNameCache.intern(headerName), headerValue);
         return this;
     }
 
     @Override
     public Response addHeader(String headerName, @Nullable Collection<String> headerValues) {
         if (headerValues != null) {
+            headerName = HeaderNameCache.intern(headerName);
             for (String headerValue : headerValues) {
                 headers.add(headerName, headerValue);
             }
@@ -18,10 +18,10 @@
  */
 package co.elastic.apm.agent.impl.context;
 
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
 import co.elastic.apm.agent.impl.transaction.Transaction;
-import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.report.processor.Processor;
 import co.elastic.apm.agent.util.PotentiallyMultiValuedMap;
 import org.stagemonitor.configuration.ConfigurationRegistry;
@@ -50,31 +50,38 @@ public class SanitizingWebProcessor implements Processor {
     }
 
     private void sanitizeContext(TransactionContext context) {
-        sanitizeRequest(context.getRequest());
-        sanitizeMap(context.getResponse().getHeaders());
+        WildcardMatcherSet sanitizeFieldNames = config.getSanitizeFieldNamesMatcherSet();
+        sanitizeRequest(context.getRequest(), sanitizeFieldNames);
+        sanitizeHeaders(context.getResponse().getHeaders(), sanitizeFieldNames);
     }
 
-    private void sanitizeRequest(Request request) {
-        sanitizeMap(request.getHeaders());
+    private void sanitizeRequest(Request request, WildcardMatcherSet sanitizeFieldNames) {
+        sanitizeHeaders(request.getHeaders(), sanitizeFieldNames);
         // cookies are stored in Request.cookies
         // storing it twice would be wasteful
         // also, sanitizing the cookie header value as a string is difficult
         // when you don't want to create garbage
         request.getHeaders().removeIgnoreCase("Cookie");
-        sanitizeMap(request.getFormUrlEncodedParameters());
-        sanitizeMap(request.getCookies());
+        sanitizeMap(request.getFormUrlEncodedParameters(), sanitizeFieldNames);
+        sanitizeMap(request.getCookies(), sanitizeFieldNames);
     }
 
-    private void sanitizeMap(PotentiallyMultiValuedMap map) {
-        for (int i = 0; i < map.size(); i++) {
-            if (isSensitive(map.getKey(i))) {
-                map.set(i, REDACTED_CONTEXT_STRING);
+    /**
+     * Header names come from a small set so that the decision whether they are sensitive is cached
+     */
+    private void sanitizeHeaders(PotentiallyMultiValuedMap headers, WildcardMatcherSet sanitizeFieldNames) {
+        for (int i = 0; i < headers.size(); i++) {
+            if (HeaderNameCache.isSensitive(headers.getKey(i), sanitizeFieldNames)) {
+                headers.set(i, REDACTED_CONTEXT_STRING);
             }
         }
     }
 
-    private boolean isSensitive(String key) {
-        assert config != null;
-        return WildcardMatcher.anyMatch(config.getSanitizeFieldNames(), key) != null;
+    private void sanitizeMap(PotentiallyMultiValuedMap map, WildcardMatcherSet sanitizeFieldNames) {
+        for (int i = 0; i < map.size(); i++) {
+            if (sanitizeFieldNames.isAnyMatch(map.getKey(i))) {
+                map.set(i, REDACTED_CONTEXT_STRING);
+            }
+        }
     }
 }
@@ -19,6 +19,7 @@
 package co.elastic.apm.agent.impl.context.web;
 
 import co.elastic.apm.agent.common.util.WildcardMatcher;
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
 import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
 import org.stagemonitor.configuration.ConfigurationOption;
 import org.stagemonitor.configuration.ConfigurationOptionProvider;
@@ -122,14 +123,27 @@ public class WebConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(Collections.<WildcardMatcher>emptyList());
 
+    private final WildcardMatcherSet.Cache ignoreUrlsMatcherSet = new WildcardMatcherSet.Cache();
+    private final WildcardMatcherSet.Cache ignoreUserAgentsMatcherSet = new WildcardMatcherSet.Cache();
+    private final WildcardMatcherSet.Cache urlGroupsMatcherSet = new WildcardMatcherSet.Cache();
+    private final WildcardMatcherSet.Cache captureContentTypesMatcherSet = new WildcardMatcherSet.Cache();
+
     public List<WildcardMatcher> getIgnoreUrls() {
         return ignoreUrls.get();
     }
 
+    public WildcardMatcherSet getIgnoreUrlsMatcherSet() {
+        return ignoreUrlsMatcherSet.get(getIgnoreUrls());
+    }
+
     public List<WildcardMatcher> getIgnoreUserAgents() {
         return ignoreUserAgents.get();
     }
 
+    public WildcardMatcherSet getIgnoreUserAgentsMatcherSet() {
+        return ignoreUserAgentsMatcherSet.get(getIgnoreUserAgents());
+    }
+
     public boolean isUsePathAsName() {
         return usePathAsName.get();
     }
@@ -138,8 +152,16 @@ public class WebConfiguration extends ConfigurationOptionProvider {
         return urlGroups.get();
     }
 
+    public WildcardMatcherSet getUrlGroupsMatcherSet() {
+        return urlGroupsMatcherSet.get(getUrlGroups());
+    }
+
     public List<WildcardMatcher> getCaptureContentTypes() {
         return captureContentTypes.get();
     }
 
+    public WildcardMatcherSet getCaptureContentTypesMatcherSet() {
+        return captureContentTypesMatcherSet.get(getCaptureContentTypes());
+    }
+
 }
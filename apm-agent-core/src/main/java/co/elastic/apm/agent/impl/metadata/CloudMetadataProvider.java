@@ -33,17 +33,21 @@ import javax.annotation.Nullable;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
+import static co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider.AUTO;
 import static co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider.AWS;
 import static co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider.AZURE;
 import static co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider.GCP;
@@ -66,6 +70,16 @@ public class CloudMetadataProvider {
     @Nullable
     static CloudProviderInfo getCloudInfoProvider(final CoreConfiguration.CloudProvider cloudProvider, final int queryTimeoutMs,
                                                   ServerlessConfiguration serverlessConfiguration) {
+        return getCloudInfoProvider(cloudProvider, queryTimeoutMs, serverlessConfiguration, null);
+    }
+
+    /**
+     * Like {@link #getCloudInfoProvider(CoreConfiguration.CloudProvider, int, ServerlessConfiguration)},
+     * but takes the result of the discovery from the provided cache, if available, instead of querying the metadata APIs.
+     */
+    @Nullable
+    static CloudProviderInfo getCloudInfoProvider(final CoreConfiguration.CloudProvider cloudProvider, final int queryTimeoutMs,
+                                                  ServerlessConfiguration serverlessConfiguration, @Nullable MetadataCache metadataCache) {
 
         if (serverlessConfiguration.runsOnAwsLambda()) {
             CloudProviderInfo awsLambdaInfo = new CloudProviderInfo("aws");
@@ -78,7 +92,17 @@ public class CloudMetadataProvider {
             return null;
         }
 
-        return CloudMetadataProvider.fetchAndParseCloudProviderInfo(cloudProvider, queryTimeoutMs);
+        if (metadataCache != null && metadataCache.hasCloudMetadata()) {
+            try {
+                CloudProviderInfo cloudProviderInfo = parse(metadataCache.getCloudProvider(), metadataCache.getCloudMetadata());
+                logger.debug("Cloud metadata restored from cache: {}", cloudProviderInfo);
+                return cloudProviderInfo;
+            } catch (Exception e) {
+                logger.warn("Ignoring invalid cached cloud metadata", e);
+            }
+        }
+
+        return CloudMetadataProvider.fetchAndParseCloudProviderInfo(cloudProvider, queryTimeoutMs, metadataCache);
     }
 
     /**
@@ -87,8 +111,8 @@ public class CloudMetadataProvider {
      * When a specific {@link co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider} is specified, only
      * the relevant API will be queried.
      * However, when called with {@link co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider#AUTO}, all
-     * known endpoints are queried concurrently. In such cases, blocking is expected to be long, bounded by the
-     * HTTP requests timing out.
+     * known endpoints are queried concurrently. In such cases, this method returns as soon as one of them succeeds,
+     * but blocking is expected to be long if none of them does, bounded by the HTTP requests timing out.
      *
      * @param cloudProvider   the expected {@link CoreConfiguration.CloudProvider}
      * @param queryTimeoutMs  timeout in milliseconds to limit the discovery duration
@@ -96,37 +120,28 @@ public class CloudMetadataProvider {
      */
     @Nullable
     static CloudProviderInfo fetchAndParseCloudProviderInfo(final CoreConfiguration.CloudProvider cloudProvider, final int queryTimeoutMs) {
+        return fetchAndParseCloudProviderInfo(cloudProvider, queryTimeoutMs, null);
+    }
+
+    @Nullable
+    private static CloudProviderInfo fetchAndParseCloudProviderInfo(final CoreConfiguration.CloudProvider cloudProvider, final int queryTimeoutMs,
+                                                                    @Nullable MetadataCache metadataCache) {
 
         Throwable unexpectedError = null;
         CloudProviderInfo cloudProviderInfo = null;
         try {
-            switch (cloudProvider) {
-                case AWS: {
-                    try {
-                        cloudProviderInfo = getAwsMetadata(queryTimeoutMs, cloudProvider);
-                    } catch (Exception e) {
-                        unexpectedError = e;
-                    }
-                    break;
-                }
-                case GCP: {
-                    try {
-                        cloudProviderInfo = getGcpMetadata(queryTimeoutMs);
-                    } catch (Exception e) {
-                        unexpectedError = e;
-                    }
-                    break;
-                }
-                case AZURE: {
-                    try {
-                        cloudProviderInfo = getAzureMetadata(queryTimeoutMs);
-                    } catch (Exception e) {
-                        unexpectedError = e;
-                    }
-                    break;
-                }
-                case AUTO: {
-                    cloudProviderInfo = tryAllCloudProviders(cloudProvider, queryTimeoutMs);
+            RawMetadata rawMetadata = null;
+            if (cloudProvider == AUTO) {
+                rawMetadata = tryAllCloudProviders(queryTimeoutMs);
+            } else if (cloudProvider != NONE) {
+                rawMetadata = fetchRawMetadata(cloudProvider, cloudProvider, queryTimeoutMs);
+            }
+            if (rawMetadata != null) {
+                cloudProviderInfo = parse(rawMetadata.provider, rawMetadata.metadata);
+                // only caching successful lookups, or the fact that all providers have definitively been ruled out,
+                // but never timeouts or other errors, which may be transient
+                if (metadataCache != null) {
+                    metadataCache.putCloudMetadata(rawMetadata.provider, rawMetadata.metadata);
                 }
             }
         } catch (Throwable throwable) {
@@ -136,60 +151,101 @@ public class CloudMetadataProvider {
         return cloudProviderInfo;
     }
 
+    /**
+     * Queries the metadata APIs of all known cloud providers concurrently
+     * and cancels the remaining queries as soon as one of them succeeds.
+     *
+     * @return the metadata of the provider that has been found,
+     * {@link RawMetadata#NOT_FOUND} if all providers have {@linkplain #isNotThisProvider(Exception) definitively been ruled out},
+     * or {@code null} if that's unknown, as some of the queries have timed out or failed for other reasons
+     */
     @Nullable
-    private static CloudProviderInfo tryAllCloudProviders(final CoreConfiguration.CloudProvider cloudProvider, final int queryTimeoutMs)
-        throws InterruptedException, ExecutionException, TimeoutException {
-
-        ExecutorService executor = ExecutorUtils.createThreadDaemonPool("cloud-metadata", 2, 2);
-        CloudProviderInfo cloudProviderInfo = null;
-        Future<CloudProviderInfo> awsMetadata;
-        Future<CloudProviderInfo> gcpMetadata;
+    private static RawMetadata tryAllCloudProviders(final int queryTimeoutMs) throws InterruptedException, ExecutionException {
 
+        CoreConfiguration.CloudProvider[] cloudProviders = {AZURE, AWS, GCP};
+        ExecutorService executor = ExecutorUtils.createThreadDaemonPool("cloud-metadata", cloudProviders.length, cloudProviders.length);
         try {
-            awsMetadata = executor.submit(new Callable<CloudProviderInfo>() {
-                @Nullable
-                @Override
-                public CloudProviderInfo call() {
-                    CloudProviderInfo awsInfo = null;
-                    try {
-                        awsInfo = getAwsMetadata(queryTimeoutMs, cloudProvider);
-                    } catch (Exception e) {
-                        // Expected - trial and error method
+            CompletionService<RawMetadata> completionService = new ExecutorCompletionService<>(executor);
+            for (final CoreConfiguration.CloudProvider cloudProvider : cloudProviders) {
+                completionService.submit(new Callable<RawMetadata>() {
+                    @Nullable
+                    @Override
+                    public RawMetadata call() {
+                        try {
+                            return fetchRawMetadata(cloudProvider, AUTO, queryTimeoutMs);
+                        } catch (Exception e) {
+                            // Expected - trial and error method
+                            return isNotThisProvider(e) ? RawMetadata.NOT_FOUND : null;
+                        }
                     }
-                    return awsInfo;
+                });
+            }
+
+            // the AWS lookup consists of two consecutive requests
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2L * queryTimeoutMs + 200);
+            boolean allRuledOut = true;
+            for (int i = 0; i < cloudProviders.length; i++) {
+                Future<RawMetadata> completed = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (completed == null) {
+                    return null;
                 }
-            });
-
-            gcpMetadata = executor.submit(new Callable<CloudProviderInfo>() {
-                @Nullable
-                @Override
-                public CloudProviderInfo call() {
-                    CloudProviderInfo gcpInfo = null;
-                    try {
-                        gcpInfo = getGcpMetadata(queryTimeoutMs);
-                    } catch (Exception e) {
-                        // Expected - trial and error method
-                    }
-                    return gcpInfo;
+                RawMetadata rawMetadata = completed.get();
+                if (rawMetadata == null) {
+                    allRuledOut = false;
+                } else if (rawMetadata != RawMetadata.NOT_FOUND) {
+                    return rawMetadata;
                 }
-            });
+            }
+            return allRuledOut ? RawMetadata.NOT_FOUND : null;
         } finally {
-            executor.shutdown();
+            executor.shutdownNow();
         }
+    }
 
-        long futureTimeout = queryTimeoutMs + 200;
-        try {
-            cloudProviderInfo = getAzureMetadata(queryTimeoutMs);
-        } catch (Exception e) {
-            // Expected - trial and error method
+    /**
+     * @return {@code true} if the metadata API of a cloud provider is definitively not available on this host,
+     * as the host name can't be resolved, the connection is refused or the response has an error status,
+     * {@code false} for timeouts and other I/O errors, which may be transient
+     */
+    static boolean isNotThisProvider(Exception e) {
+        return e instanceof UnknownHostException || e instanceof ConnectException || e instanceof ErrorStatusException;
+    }
+
+    private static RawMetadata fetchRawMetadata(CoreConfiguration.CloudProvider cloudProvider, CoreConfiguration.CloudProvider configuredProvider,
+                                                int queryTimeoutMs) throws IOException {
+        switch (cloudProvider) {
+            case AWS:
+                return new RawMetadata(AWS.name(), fetchAwsMetadata(queryTimeoutMs, configuredProvider));
+            case GCP:
+                return new RawMetadata(GCP.name(), fetchGcpMetadata(queryTimeoutMs));
+            case AZURE:
+                return new RawMetadata(AZURE.name(), fetchAzureMetadata(queryTimeoutMs));
+            default:
+                throw new IllegalArgumentException("Can't fetch metadata for cloud provider " + cloudProvider);
         }
-        if (cloudProviderInfo == null) {
-            cloudProviderInfo = awsMetadata.get(futureTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param provider    the {@linkplain CoreConfiguration.CloudProvider#name() name} of the cloud provider,
+     *                    or an empty string if no cloud provider has been found
+     * @param rawMetadata the response of the cloud provider's metadata API
+     * @return the parsed metadata, or {@code null} if no cloud provider has been found
+     */
+    @Nullable
+    static CloudProviderInfo parse(String provider, String rawMetadata) throws IOException {
+        if (provider.isEmpty()) {
+            return null;
         }
-        if (cloudProviderInfo == null) {
-            cloudProviderInfo = gcpMetadata.get(futureTimeout, TimeUnit.MILLISECONDS);
+        switch (CoreConfiguration.CloudProvider.valueOf(provider)) {
+            case AWS:
+                return deserializeAwsMetadata(rawMetadata);
+            case GCP:
+                return deserializeGcpMetadata(rawMetadata);
+            case AZURE:
+                return deserializeAzureMetadata(rawMetadata);
+            default:
+                throw new IllegalArgumentException("Unknown cloud provider " + provider);
         }
-        return cloudProviderInfo;
     }
 
     private static void logSummary(CoreConfiguration.CloudProvider cloudProvider,
@@ -212,8 +268,7 @@ public class CloudMetadataProvider {
         }
     }
 
-    @Nullable
-    private static CloudProviderInfo getAwsMetadata(int queryTimeoutMs, CoreConfiguration.CloudProvider configuredProvider) throws IOException {
+    private static String fetchAwsMetadata(int queryTimeoutMs, CoreConfiguration.CloudProvider configuredProvider) throws IOException {
         String awsTokenUrl = "http://169.254.169.254/latest/api/token";
         Map<String, String> headers = new HashMap<>(1);
         headers.put("X-aws-ec2-metadata-token-ttl-seconds", "300");
@@ -235,7 +290,7 @@ public class CloudMetadataProvider {
         }
         String metadata = executeRequest(awsMetadataUrl, "GET", documentHeaders, queryTimeoutMs);
         logger.debug("AWS metadata retrieved");
-        return deserializeAwsMetadata(metadata);
+        return metadata;
     }
 
     /**
@@ -288,14 +343,13 @@ public class CloudMetadataProvider {
         return cloudProviderInfo;
     }
 
-    @Nullable
-    private static CloudProviderInfo getGcpMetadata(int queryTimeoutMs) throws IOException {
+    private static String fetchGcpMetadata(int queryTimeoutMs) throws IOException {
         String gcpUrl = "http://metadata.google.internal/computeMetadata/v1/?recursive=true";
         Map<String, String> headers = new HashMap<>(1);
         headers.put("Metadata-Flavor", "Google");
         String metadata = executeRequest(gcpUrl, "GET", headers, queryTimeoutMs);
         logger.debug("GCP metadata retrieved");
-        return deserializeGcpMetadata(metadata);
+        return metadata;
     }
 
     /**
@@ -351,14 +405,13 @@ public class CloudMetadataProvider {
         return cloudProviderInfo;
     }
 
-    @Nullable
-    private static CloudProviderInfo getAzureMetadata(int queryTimeoutMs) throws IOException {
+    private static String fetchAzureMetadata(int queryTimeoutMs) throws IOException {
         String azureUrl = "http://169.254.169.254/metadata/instance/compute?api-version=2019-08-15";
         Map<String, String> headers = new HashMap<>(1);
         headers.put("Metadata", "true");
         String metadata = executeRequest(azureUrl, "GET", headers, queryTimeoutMs);
         logger.debug("Azure metadata retrieved");
-        return deserializeAzureMetadata(metadata);
+        return metadata;
     }
 
     /**
@@ -426,6 +479,15 @@ public class CloudMetadataProvider {
         urlConnection.setReadTimeout(queryTimeoutMs);
         urlConnection.setConnectTimeout(queryTimeoutMs);
         String response;
+        try {
+            int status = urlConnection.getResponseCode();
+            if (status >= 400) {
+                throw new ErrorStatusException(url, status);
+            }
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
         try (BufferedReader in = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()))) {
             String inputLine;
             StringBuilder content = new StringBuilder();
@@ -438,4 +500,25 @@ public class CloudMetadataProvider {
         }
         return response;
     }
+
+    private static class RawMetadata {
+        /**
+         * The result of the discovery if no cloud provider has been found
+         */
+        private static final RawMetadata NOT_FOUND = new RawMetadata("", "");
+
+        private final String provider;
+        private final String metadata;
+
+        private RawMetadata(String provider, String metadata) {
+            this.provider = provider;
+            this.metadata = metadata;
+        }
+    }
+
+    static class ErrorStatusException extends IOException {
+        ErrorStatusException(String url, int status) {
+            super("Received status " + status + " from " + url);
+        }
+    }
 }
@@ -21,20 +21,26 @@ package co.elastic.apm.agent.impl.metadata;
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.configuration.ServerlessConfiguration;
 import co.elastic.apm.agent.report.ReporterConfiguration;
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 import co.elastic.apm.agent.util.CompletableFuture;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class MetaData {
 
+    private static final Logger logger = LoggerFactory.getLogger(MetaData.class);
+
     /**
      * Service
      * (Required)
@@ -109,15 +115,17 @@ public class MetaData {
             processInformation.getArgv().clear();
         }
 
+        final long discoveryStart = System.nanoTime();
         final ThreadPoolExecutor executor = ExecutorUtils.createThreadDaemonPool("metadata", 2, 3);
         final int metadataDiscoveryTimeoutMs = (int) coreConfiguration.getMetadataDiscoveryTimeoutMs();
+        final MetadataCache metadataCache = createMetadataCache(coreConfiguration);
 
         try {
             // System info creation executes external processes for hostname discovery and reads files for container/k8s metadata discovery
             final Future<SystemInfo> systemInfoFuture = executor.submit(new Callable<SystemInfo>() {
                 @Override
                 public SystemInfo call() {
-                    return SystemInfo.create(coreConfiguration.getHostname(), metadataDiscoveryTimeoutMs, serverlessConfiguration);
+                    return SystemInfo.create(coreConfiguration.getHostname(), metadataDiscoveryTimeoutMs, serverlessConfiguration, metadataCache);
                 }
             });
 
@@ -126,7 +134,7 @@ public class MetaData {
                 @Override
                 @Nullable
                 public CloudProviderInfo call() {
-                    return CloudMetadataProvider.getCloudInfoProvider(coreConfiguration.getCloudProvider(), metadataDiscoveryTimeoutMs, serverlessConfiguration);
+                    return CloudMetadataProvider.getCloudInfoProvider(coreConfiguration.getCloudProvider(), metadataDiscoveryTimeoutMs, serverlessConfiguration, metadataCache);
                 }
             });
 
@@ -139,14 +147,22 @@ public class MetaData {
             Future<MetaData> metaDataFuture = executor.submit(new Callable<MetaData>() {
                 @Override
                 public MetaData call() throws Exception {
-                    return new MetaData(
+                    SystemInfo systemInfo = systemInfoFuture.get();
+                    CloudProviderInfo cloudProviderInfo = cloudProviderInfoFuture.get();
+                    if (metadataCache != null) {
+                        metadataCache.persist();
+                    }
+                    MetaData metaData = new MetaData(
                         processInformation,
                         service,
-                        systemInfoFuture.get(),
-                        cloudProviderInfoFuture.get(),
+                        systemInfo,
+                        cloudProviderInfo,
                         coreConfiguration.getGlobalLabels(),
                         faaSMetaDataExtensionFuture.get()
                     );
+                    // sending events is blocked until the metadata is available
+                    logger.debug("Metadata discovery completed after {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - discoveryStart));
+                    return metaData;
                 }
             });
 
@@ -157,6 +173,15 @@ public class MetaData {
         }
     }
 
+    @Nullable
+    private static MetadataCache createMetadataCache(CoreConfiguration coreConfiguration) {
+        String cacheDir = coreConfiguration.getMetadataCacheDir();
+        if (cacheDir == null || cacheDir.trim().isEmpty()) {
+            return null;
+        }
+        return MetadataCache.create(new File(cacheDir.trim()), coreConfiguration.getMetadataCacheTtlMs(), coreConfiguration.getCloudProvider().name());
+    }
+
     /**
      * Service
      * (Required)
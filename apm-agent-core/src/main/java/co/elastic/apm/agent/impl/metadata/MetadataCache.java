@@ -0,0 +1,260 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.metadata;
+
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+import co.elastic.apm.agent.util.VersionUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Persists the results of the metadata discovery tasks that are slow,
+ * so that subsequent starts of the agent on the same host don't have to wait for them.
+ * These are the cloud provider metadata, which may require waiting for HTTP requests to time out,
+ * and the hostname, which is discovered by executing an external command.
+ * <p>
+ * The cached values are only used if the cache file has been written
+ * </p>
+ * <ul>
+ *     <li>during the same boot of the host, based on {@code /proc/sys/kernel/random/boot_id}</li>
+ *     <li>with the same kernel hostname, which is specific to each container</li>
+ *     <li>with the same agent version and {@code cloud_provider} configuration</li>
+ * </ul>
+ * <p>
+ * and if the value has been discovered no longer than the configured TTL ago.
+ * Each value keeps the timestamp of its discovery, so that persisting a newly discovered value doesn't extend the TTL of the others.
+ * </p>
+ * <p>
+ * As the boot id is only available on Linux, the cache is not used on other operating systems.
+ * </p>
+ */
+class MetadataCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+
+    private static final String FILE_NAME = "elastic-apm-metadata.properties";
+    private static final String BOOT_ID_FILE = "/proc/sys/kernel/random/boot_id";
+    private static final String KERNEL_HOSTNAME_FILE = "/proc/sys/kernel/hostname";
+
+    private static final String KEY = "key";
+    private static final String CREATED_SUFFIX = ".created";
+    private static final String HOSTNAME = "hostname";
+    private static final String CLOUD_PROVIDER = "cloud.provider";
+    private static final String CLOUD_METADATA = "cloud.metadata";
+
+    private final File cacheFile;
+    private final String key;
+    /**
+     * The values loaded from the cache file, empty if there's no valid cache file
+     */
+    private final Properties cached;
+    /**
+     * The values discovered in this run, which are persisted after the discovery has completed
+     */
+    private final Properties discovered = new Properties();
+
+    MetadataCache(File cacheFile, String key, Properties cached) {
+        this.cacheFile = cacheFile;
+        this.key = key;
+        this.cached = cached;
+    }
+
+    /**
+     * @param cacheDir      the directory of the cache file, created if it does not exist
+     * @param ttlMs         the maximum age of the cached values
+     * @param cloudProvider the configured {@code cloud_provider}
+     * @return the cache, or {@code null} if the cache can't be used on this host
+     */
+    @Nullable
+    static MetadataCache create(File cacheDir, long ttlMs, String cloudProvider) {
+        String bootId = readFirstLine(BOOT_ID_FILE);
+        if (bootId == null) {
+            logger.debug("Not using the metadata cache as the boot id of the host can't be determined");
+            return null;
+        }
+        return createForKey(cacheDir, ttlMs, bootId + ' ' + readFirstLine(KERNEL_HOSTNAME_FILE) + ' ' + VersionUtils.getAgentVersion() + ' ' + cloudProvider);
+    }
+
+    /**
+     * @param cacheDir the directory of the cache file, created if it does not exist
+     * @param ttlMs    the maximum age of the cached values
+     * @param key      identifies the host and configuration the cached values are valid for
+     * @return the cache, holding the cached values only if the cache file has been written for the same key
+     * and only those values that have been discovered within the TTL
+     */
+    static MetadataCache createForKey(File cacheDir, long ttlMs, String key) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            logger.warn("Could not create metadata cache directory {}", cacheDir);
+        }
+        File cacheFile = new File(cacheDir, FILE_NAME);
+        Properties cached = new Properties();
+        if (cacheFile.isFile()) {
+            try (InputStream is = Files.newInputStream(cacheFile.toPath())) {
+                cached.load(is);
+            } catch (Exception e) {
+                logger.warn("Ignoring corrupt metadata cache file {}: {}", cacheFile, e.getMessage());
+                cached.clear();
+            }
+            if (!key.equals(cached.getProperty(KEY))) {
+                logger.debug("Ignoring outdated metadata cache file {}", cacheFile);
+                cached.clear();
+            } else {
+                removeIfExpired(cached, ttlMs, HOSTNAME);
+                removeIfExpired(cached, ttlMs, CLOUD_PROVIDER, CLOUD_METADATA);
+            }
+        }
+        return new MetadataCache(cacheFile, key, cached);
+    }
+
+    /**
+     * @param cached       the values loaded from the cache file
+     * @param ttlMs        the maximum age of the value
+     * @param name         the name of the value, which determines the name of its timestamp
+     * @param relatedNames the names of the values that have been discovered together with the value
+     */
+    private static void removeIfExpired(Properties cached, long ttlMs, String name, String... relatedNames) {
+        if (isExpired(cached.getProperty(name + CREATED_SUFFIX), ttlMs)) {
+            cached.remove(name);
+            cached.remove(name + CREATED_SUFFIX);
+            for (String relatedName : relatedNames) {
+                cached.remove(relatedName);
+            }
+        }
+    }
+
+    private static boolean isExpired(@Nullable String created, long ttlMs) {
+        if (created == null) {
+            return true;
+        }
+        try {
+            return System.currentTimeMillis() - Long.parseLong(created) > ttlMs;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    @Nullable
+    private static String readFirstLine(String file) {
+        Path path = Paths.get(file);
+        if (!Files.isReadable(path)) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (!lines.isEmpty()) {
+                return lines.get(0).trim();
+            }
+        } catch (IOException e) {
+            logger.debug("Could not read {}: {}", file, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return the hostname discovered in a previous run, or {@code null} if it's not cached
+     */
+    @Nullable
+    synchronized String getDetectedHostname() {
+        return cached.getProperty(HOSTNAME);
+    }
+
+    synchronized void putDetectedHostname(String hostname) {
+        discovered.setProperty(HOSTNAME, hostname);
+        discovered.setProperty(HOSTNAME + CREATED_SUFFIX, Long.toString(System.currentTimeMillis()));
+    }
+
+    /**
+     * @return {@code true} if the result of the cloud metadata discovery of a previous run is cached,
+     * even if no cloud provider has been found
+     */
+    synchronized boolean hasCloudMetadata() {
+        return cached.containsKey(CLOUD_PROVIDER);
+    }
+
+    /**
+     * @return the name of the cloud provider found in a previous run, or an empty string if none has been found
+     */
+    synchronized String getCloudProvider() {
+        return cached.getProperty(CLOUD_PROVIDER, "");
+    }
+
+    /**
+     * @return the raw metadata returned by the cloud provider's metadata API in a previous run
+     */
+    synchronized String getCloudMetadata() {
+        return cached.getProperty(CLOUD_METADATA, "");
+    }
+
+    /**
+     * @param provider the cloud provider that has been found, or an empty string if it's certain that there is none
+     * @param metadata the raw metadata returned by the cloud provider's metadata API
+     */
+    synchronized void putCloudMetadata(String provider, String metadata) {
+        discovered.setProperty(CLOUD_PROVIDER, provider);
+        discovered.setProperty(CLOUD_METADATA, metadata);
+        discovered.setProperty(CLOUD_PROVIDER + CREATED_SUFFIX, Long.toString(System.currentTimeMillis()));
+    }
+
+    /**
+     * Persists the values discovered in this run, together with the values that are still cached.
+     * If nothing had to be discovered as all values have been cached, the cache file is left as-is.
+     * In any case, the TTL of a value is counted from when it has actually been discovered.
+     */
+    synchronized void persist() {
+        if (discovered.isEmpty()) {
+            return;
+        }
+        Properties merged = new Properties();
+        merged.putAll(cached);
+        merged.putAll(discovered);
+        merged.setProperty(KEY, key);
+        Path target = cacheFile.toPath();
+        try {
+            Path tempFile = Files.createTempFile(target.getParent(), "elastic-apm-metadata-", ".tmp");
+            try {
+                try (OutputStream os = Files.newOutputStream(tempFile)) {
+                    merged.store(os, "elastic-apm-agent metadata cache");
+                }
+                try {
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            logger.debug("Persisted discovered metadata to {}", cacheFile);
+        } catch (IOException e) {
+            logger.warn("Could not persist discovered metadata to {}: {}", cacheFile, e.getMessage());
+        }
+    }
+}
@@ -105,6 +105,15 @@ public class SystemInfo {
      * @return a future from which this system's info can be obtained
      */
     public static SystemInfo create(final @Nullable String configuredHostname, final long timeoutMillis, ServerlessConfiguration serverlessConfiguration) {
+        return create(configuredHostname, timeoutMillis, serverlessConfiguration, null);
+    }
+
+    /**
+     * Like {@link #create(String, long, ServerlessConfiguration)},
+     * but takes the discovered hostname from the provided cache, if available, instead of executing external commands.
+     */
+    static SystemInfo create(final @Nullable String configuredHostname, final long timeoutMillis, ServerlessConfiguration serverlessConfiguration,
+                             @Nullable MetadataCache metadataCache) {
         final String osName = System.getProperty("os.name");
         final String osArch = System.getProperty("os.arch");
 
@@ -116,8 +125,14 @@ public class SystemInfo {
         if (configuredHostname != null && !configuredHostname.isEmpty()) {
             systemInfo = new SystemInfo(osArch, configuredHostname, null, osName);
         } else {
-            // this call is invoking external commands
-            String detectedHostname = discoverHostname(isWindows(osName), timeoutMillis);
+            String detectedHostname = metadataCache != null ? metadataCache.getDetectedHostname() : null;
+            if (detectedHostname == null) {
+                // this call is invoking external commands
+                detectedHostname = discoverHostname(isWindows(osName), timeoutMillis);
+                if (metadataCache != null && detectedHostname != null && !detectedHostname.isEmpty()) {
+                    metadataCache.putDetectedHostname(detectedHostname);
+                }
+            }
             systemInfo = new SystemInfo(osArch, configuredHostname, detectedHostname, osName);
         }
         // this call reads and parses files
@@ -26,7 +26,6 @@ import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A 128 bit globally unique ID of the whole trace forest
@@ -50,9 +49,30 @@ public class Id implements Recyclable, co.elastic.apm.agent.tracer.Id {
         data = new byte[idLengthBytes];
     }
 
+    private static volatile IdGenerator generator = IdGenerator.THREAD_LOCAL_RANDOM;
+
+    public static void setGenerator(IdGenerator generator) {
+        Id.generator = generator;
+    }
+
+    /**
+     * Sets this id to a random value, writing the generated {@code long}s directly into {@link #data}
+     */
     @Override
     public void setToRandomValue() {
-        setToRandomValue(ThreadLocalRandom.current());
+        IdGenerator generator = Id.generator;
+        byte[] data = this.data;
+        for (int offset = 0; offset < data.length; offset += 8) {
+            writeLong(generator.nextLong(), data, offset);
+        }
+        onMutation(false);
+    }
+
+    private static void writeLong(long value, byte[] bytes, int offset) {
+        for (int i = offset + 7; i >= offset; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
     }
 
     public void setToRandomValue(Random random) {
@@ -60,7 +80,7 @@ public class Id implements Recyclable, co.elastic.apm.agent.tracer.Id {
         onMutation(false);
     }
 
-    public void fromHexString(String hexEncodedString, int offset) {
+    public void fromHexString(CharSequence hexEncodedString, int offset) {
         HexUtils.nextBytes(hexEncodedString, offset, data);
         onMutation();
     }
@@ -169,6 +189,15 @@ public class Id implements Recyclable, co.elastic.apm.agent.tracer.Id {
         HexUtils.writeBytesAsHex(data, sb);
     }
 
+    /**
+     * Writes the hex representation of this id into the provided char array
+     *
+     * @return the offset in the char array after the last written char
+     */
+    public int writeAsHex(char[] dest, int offset) {
+        return HexUtils.writeBytesAsHex(data, dest, offset);
+    }
+
     /**
      * Returns the last 8 bytes of this id as a {@code long}.
      * <p>
@@ -0,0 +1,106 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.transaction;
+
+import co.elastic.apm.agent.common.ThreadUtils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the random values of trace, transaction and span {@link Id}s.
+ * <p>
+ * The {@link co.elastic.apm.agent.impl.sampling.ProbabilitySampler} relies on the bits of the generated values, including the lowest ones, to be uniformly distributed.
+ * </p>
+ */
+public enum IdGenerator {
+
+    /**
+     * Uses {@link ThreadLocalRandom}, which is seeded from the current time unless the {@code java.util.secureRandomSeed}
+     * system property is set.
+     */
+    THREAD_LOCAL_RANDOM {
+        @Override
+        public long nextLong() {
+            return ThreadLocalRandom.current().nextLong();
+        }
+    },
+
+    /**
+     * Uses a per-thread SplitMix64 generator, the same algorithm {@link java.util.SplittableRandom} is based on.
+     * The per-thread states are derived from a seed that is obtained from a {@link SecureRandom} once.
+     * <p>
+     * Virtual threads use {@link ThreadLocalRandom} instead, as seeding a thread local state per virtual thread would
+     * cost more than it saves.
+     * </p>
+     */
+    SPLIT_MIX {
+        @Override
+        public long nextLong() {
+            if (ThreadUtils.isVirtual(Thread.currentThread())) {
+                return ThreadLocalRandom.current().nextLong();
+            }
+            return SplitMix64.STATE.get().nextLong();
+        }
+    };
+
+    /**
+     * @return a random {@code long} value
+     */
+    public abstract long nextLong();
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+
+    private static class SplitMix64 {
+
+        private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+        /**
+         * Each thread's state starts at a different point of the sequence of the seeder
+         */
+        private static final AtomicLong SEEDER = new AtomicLong(mix64(new SecureRandom().nextLong()));
+
+        private static final ThreadLocal<SplitMix64> STATE = new ThreadLocal<SplitMix64>() {
+            @Override
+            protected SplitMix64 initialValue() {
+                return new SplitMix64(mix64(SEEDER.getAndAdd(GOLDEN_GAMMA << 1)));
+            }
+        };
+
+        private long seed;
+
+        private SplitMix64(long seed) {
+            this.seed = seed;
+        }
+
+        private long nextLong() {
+            return mix64(seed += GOLDEN_GAMMA);
+        }
+
+        private static long mix64(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
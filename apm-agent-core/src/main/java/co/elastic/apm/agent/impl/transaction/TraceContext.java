@@ -230,7 +230,11 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
     private final Id id;
     private final Id parentId = Id.new64BitId();
     private final Id transactionId = Id.new64BitId();
-    private final StringBuilder outgoingTextHeader = new StringBuilder(TEXT_HEADER_EXPECTED_LENGTH);
+    /**
+     * The outgoing {@code traceparent} header, lazily created on the first propagation and cleared on mutation
+     */
+    @Nullable
+    private volatile String outgoingTextHeader;
     private byte flags;
     private boolean discardable = true;
 
@@ -313,8 +317,8 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
      * @param traceParentHeader traceparent text header value
      * @return {@literal true} if header value is valid, {@literal false} otherwise
      */
-    boolean asChildOf(String traceParentHeader) {
-        traceParentHeader = traceParentHeader.trim();
+    boolean asChildOf(CharSequence traceParentHeader) {
+        traceParentHeader = trim(traceParentHeader);
         try {
             if (traceParentHeader.length() < TEXT_HEADER_EXPECTED_LENGTH) {
                 logger.warn("The traceparent header has to be at least 55 chars long, but was '{}'", traceParentHeader);
@@ -331,7 +335,7 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
                 logger.warn("The traceparent header has an invalid format: '{}'", traceParentHeader);
                 return false;
             }
-            if (traceParentHeader.startsWith("ff")) {
+            if (traceParentHeader.charAt(0) == 'f' && traceParentHeader.charAt(1) == 'f') {
                 logger.warn("Version ff is not supported");
                 return false;
             }
@@ -422,10 +426,25 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
         }
     }
 
-    private boolean noDashAtPosition(String traceParentHeader, int index) {
+    private boolean noDashAtPosition(CharSequence traceParentHeader, int index) {
         return traceParentHeader.charAt(index) != '-';
     }
 
+    /**
+     * Same as {@link String#trim()} but for any {@link CharSequence}, only allocates if there's whitespace to remove
+     */
+    private static CharSequence trim(CharSequence s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return start > 0 || end < s.length() ? s.subSequence(start, end) : s;
+    }
+
     public void asRootSpan(Sampler sampler) {
         traceId.setToRandomValue();
         id.setToRandomValue();
@@ -457,7 +476,7 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
         id.resetState();
         parentId.resetState();
         transactionId.resetState();
-        outgoingTextHeader.setLength(0);
+        outgoingTextHeader = null;
         flags = 0;
         discardable = true;
         clock.resetState();
@@ -528,6 +547,7 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
         } else {
             flags &= ~FLAG_RECORDED;
         }
+        onMutation();
     }
 
     void setNonDiscardable() {
@@ -543,9 +563,7 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
      * Returns the value of the {@code traceparent} header, as it was received.
      */
     String getIncomingTraceParentHeader() {
-        final StringBuilder sb = new StringBuilder(TEXT_HEADER_EXPECTED_LENGTH);
-        fillTraceParentHeader(sb, parentId);
-        return sb.toString();
+        return createTraceParentHeader(parentId);
     }
 
     /**
@@ -561,7 +579,7 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
             return;
         }
 
-        String outgoingTraceParent = getOutgoingTraceParentTextHeader().toString();
+        String outgoingTraceParent = getOutgoingTraceParentTextHeader();
 
         headerSetter.setHeader(W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME, outgoingTraceParent, carrier);
         if (coreConfiguration.isElasticTraceparentHeaderEnabled()) {
@@ -602,29 +620,35 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
     }
 
     /**
+     * The header is only created once per span and re-used for all outgoing requests.
+     * Concurrent callers may create it more than once, which is harmless as the results are equal.
+     *
      * @return  the value of the {@code traceparent} header for downstream services.
      */
-    StringBuilder getOutgoingTraceParentTextHeader() {
-        if (outgoingTextHeader.length() == 0) {
-            synchronized (outgoingTextHeader) {
-                if (outgoingTextHeader.length() == 0) {
-                    // for unsampled traces, propagate the ID of the transaction in calls to downstream services
-                    // such that the parentID of those transactions point to a transaction that exists
-                    // remember that we do report unsampled transactions
-                    fillTraceParentHeader(outgoingTextHeader, isSampled() ? id : transactionId);
-                }
-            }
+    String getOutgoingTraceParentTextHeader() {
+        String header = outgoingTextHeader;
+        if (header == null) {
+            // for unsampled traces, propagate the ID of the transaction in calls to downstream services
+            // such that the parentID of those transactions point to a transaction that exists
+            // remember that we do report unsampled transactions
+            header = createTraceParentHeader(isSampled() ? id : transactionId);
+            outgoingTextHeader = header;
         }
-        return outgoingTextHeader;
+        return header;
     }
 
-    private void fillTraceParentHeader(StringBuilder sb, Id spanId) {
-        sb.append("00-");
-        traceId.writeAsHex(sb);
-        sb.append('-');
-        spanId.writeAsHex(sb);
-        sb.append('-');
-        HexUtils.writeByteAsHex(flags, sb);
+    private String createTraceParentHeader(Id spanId) {
+        // the id of error trace contexts is 128 bit, so the header may be longer than TEXT_HEADER_EXPECTED_LENGTH
+        char[] header = new char[TEXT_HEADER_PARENT_ID_OFFSET + spanId.getLength() * 2 + 3];
+        header[0] = '0';
+        header[1] = '0';
+        header[2] = '-';
+        int offset = traceId.writeAsHex(header, TEXT_HEADER_TRACE_ID_OFFSET);
+        header[offset++] = '-';
+        offset = spanId.writeAsHex(header, offset);
+        header[offset++] = '-';
+        HexUtils.writeByteAsHex(flags, header, offset);
+        return new String(header);
     }
 
     /**
@@ -672,15 +696,17 @@ public class TraceContext implements Recyclable, co.elastic.apm.agent.tracer.Tra
         serviceVersion = other.serviceVersion;
         traceState.copyFrom(other.traceState);
         onMutation();
+        // ids and flags are equal, so is the header
+        outgoingTextHeader = other.outgoingTextHeader;
     }
 
     @Override
     public String toString() {
-        return getOutgoingTraceParentTextHeader().toString();
+        return getOutgoingTraceParentTextHeader();
     }
 
     private void onMutation() {
-        outgoingTextHeader.setLength(0);
+        outgoingTextHeader = null;
     }
 
     public boolean isRoot() {
@@ -48,6 +48,12 @@ public class TraceState implements Recyclable {
 
     private final List<String> tracestate;
 
+    /**
+     * The joined {@link #tracestate} entries, lazily created by {@link #toTextHeader()} and shared with copies
+     */
+    @Nullable
+    private String textHeader;
+
     /**
      * sample rate, {@link Double#NaN} if unknown or not set
      */
@@ -68,6 +74,7 @@ public class TraceState implements Recyclable {
             //noinspection UseBulkOperation
             tracestate.add(other.tracestate.get(i));
         }
+        textHeader = other.textHeader;
         rewriteBuffer.setLength(0);
     }
 
@@ -76,6 +83,7 @@ public class TraceState implements Recyclable {
     }
 
     public void addTextHeader(String headerValue) {
+        textHeader = null;
         int vendorStart = headerValue.indexOf(VENDOR_PREFIX);
 
         if (vendorStart < 0) {
@@ -182,6 +190,7 @@ public class TraceState implements Recyclable {
 
         sampleRate = rate;
         tracestate.add(headerValue);
+        textHeader = null;
     }
 
     /**
@@ -205,13 +214,23 @@ public class TraceState implements Recyclable {
         return sampleRate;
     }
 
+    /**
+     * Returns the outgoing {@code tracestate} header.
+     * The result is cached so that multiple entries are only joined once per trace, not once per outgoing request.
+     *
+     * @return the outgoing {@code tracestate} header, or {@code null} if there are no entries
+     */
     @Nullable
     public String toTextHeader() {
         if (tracestate.isEmpty()) {
             return null;
-        } else {
-            return TextTracestateAppender.INSTANCE.join(tracestate, sizeLimit);
         }
+        String header = textHeader;
+        if (header == null) {
+            header = TextTracestateAppender.INSTANCE.join(tracestate, sizeLimit);
+            textHeader = header;
+        }
+        return header;
     }
 
     @Override
@@ -220,6 +239,7 @@ public class TraceState implements Recyclable {
         sizeLimit = DEFAULT_SIZE_LIMIT;
         rewriteBuffer.setLength(0);
         tracestate.clear();
+        textHeader = null;
     }
 
     public void setSizeLimit(int limit) {
@@ -24,6 +24,7 @@ import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.context.TransactionContext;
 import co.elastic.apm.agent.impl.context.web.ResultUtil;
+import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.impl.sampling.Sampler;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.metrics.Labels;
@@ -73,6 +74,7 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
     private final WriterReaderPhaser phaser = new WriterReaderPhaser();
     private final CoreConfiguration coreConfig;
     private final SpanConfiguration spanConfig;
+    private final StacktraceConfiguration stacktraceConfig;
 
     /**
      * The result of the transaction. HTTP status code for HTTP-related
@@ -86,6 +88,11 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
      */
     private boolean noop;
 
+    /*
+     * A snapshot of the configuration that is taken when the transaction starts,
+     * so that ending a span does not need to look up the configuration options
+     * and so that all spans of a transaction are handled consistently, even if the configuration changes in between.
+     */
     private int maxSpans;
 
     private boolean spanCompressionEnabled;
@@ -94,6 +101,12 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
 
     private long spanCompressionSameKindMaxDurationUs;
 
+    private long spanMinDurationUs;
+
+    private long exitSpanMinDurationUs;
+
+    private long spanStackTraceMinDurationMs;
+
     @Nullable
     private String frameworkName;
 
@@ -118,6 +131,7 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
         super(tracer);
         coreConfig = tracer.getConfig(CoreConfiguration.class);
         spanConfig = tracer.getConfig(SpanConfiguration.class);
+        stacktraceConfig = tracer.getConfig(StacktraceConfiguration.class);
     }
 
     public <T> Transaction startRoot(long epochMicros, Sampler sampler) {
@@ -163,6 +177,9 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
         spanCompressionEnabled = spanConfig.isSpanCompressionEnabled();
         spanCompressionExactMatchMaxDurationUs = spanConfig.getSpanCompressionExactMatchMaxDuration().getMicros();
         spanCompressionSameKindMaxDurationUs = spanConfig.getSpanCompressionSameKindMaxDuration().getMicros();
+        spanMinDurationUs = coreConfig.getSpanMinDuration().getMicros();
+        exitSpanMinDurationUs = spanConfig.getExitSpanMinDuration().getMicros();
+        spanStackTraceMinDurationMs = stacktraceConfig.getSpanStackTraceMinDurationMs();
 
         if (epochMicros >= 0) {
             setStartTimestamp(epochMicros);
@@ -292,6 +309,9 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
         spanCompressionEnabled = false;
         spanCompressionExactMatchMaxDurationUs = 0L;
         spanCompressionSameKindMaxDurationUs = 0L;
+        spanMinDurationUs = 0L;
+        exitSpanMinDurationUs = 0L;
+        spanStackTraceMinDurationMs = 0L;
         frameworkName = null;
         frameworkVersion = null;
         faas.resetState();
@@ -394,9 +414,21 @@ public class Transaction extends AbstractSpan<Transaction> implements co.elastic
         return spanCompressionSameKindMaxDurationUs;
     }
 
+    public long getSpanMinDurationUs() {
+        return spanMinDurationUs;
+    }
+
+    public long getExitSpanMinDurationUs() {
+        return exitSpanMinDurationUs;
+    }
+
+    public long getSpanStackTraceMinDurationMs() {
+        return spanStackTraceMinDurationMs;
+    }
+
     @Override
     public CharSequence getNameForSerialization() {
-        WildcardMatcher match = WildcardMatcher.anyMatch(coreConfig.getTransactionNameGroups(), this.name);
+        WildcardMatcher match = coreConfig.getTransactionNameGroupsMatcherSet().anyMatch(this.name);
         if (match != null) {
             this.name.setLength(0);
             this.name.append(match);
@@ -21,6 +21,8 @@ package co.elastic.apm.agent.logging;
 import co.elastic.apm.agent.common.util.SystemStandardOutputLogger;
 import co.elastic.apm.agent.configuration.converter.ByteValue;
 import co.elastic.apm.agent.configuration.converter.ByteValueConverter;
+import co.elastic.apm.agent.configuration.converter.TimeDuration;
+import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
@@ -279,6 +281,49 @@ public class LoggingConfiguration extends ConfigurationOptionProvider {
         .tags("added[1.36.0]", "experimental")
         .buildWithDefault(false);
 
+    private final ConfigurationOption<Integer> logSendingRateLimit = ConfigurationOption.integerOption()
+        .key("log_sending_rate_limit")
+        .configurationCategory(LOGGING_CATEGORY)
+        .description("The maximum number of log events per second and per logger and level that are sent when\n" +
+            "<<config-log-sending,`log_sending`>> is enabled.\n" +
+            "Further log events of that logger and level are dropped until the next second starts.\n" +
+            "Set to `0` to disable rate limiting.")
+        .dynamic(true)
+        .tags("internal")
+        .buildWithDefault(0);
+
+    private final ConfigurationOption<TimeDuration> logSendingDedupWindow = TimeDurationValueConverter.durationOption("ms")
+        .key("log_sending_dedup_window")
+        .configurationCategory(LOGGING_CATEGORY)
+        .description("When <<config-log-sending,`log_sending`>> is enabled, repetitions of the same message from the same logger and level\n" +
+            "are not sent within this window.\n" +
+            "The first log event after the window has passed is sent with the number of suppressed repetitions in `log.repeat_count`.\n" +
+            "Set to `0ms` to disable de-duplication.")
+        .dynamic(true)
+        .tags("internal")
+        .buildWithDefault(TimeDuration.of("0ms"));
+
+    private final ConfigurationOption<Boolean> logSendingTailSampling = ConfigurationOption.booleanOption()
+        .key("log_sending_tail_sampling")
+        .configurationCategory(LOGGING_CATEGORY)
+        .description("When <<config-log-sending,`log_sending`>> is enabled, log events below the `WARN` level that happen within a transaction\n" +
+            "are buffered and only sent if the transaction fails, if it takes longer than\n" +
+            "<<config-log-sending-tail-slow-threshold,`log_sending_tail_slow_threshold`>>,\n" +
+            "or if a `WARN` or `ERROR` event is logged within the same transaction.\n" +
+            "The buffer is limited per thread, so that the oldest buffered events are dropped for very chatty transactions.")
+        .dynamic(true)
+        .tags("internal")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<TimeDuration> logSendingTailSlowThreshold = TimeDurationValueConverter.durationOption("ms")
+        .key("log_sending_tail_slow_threshold")
+        .configurationCategory(LOGGING_CATEGORY)
+        .description("The duration after which a transaction is considered slow,\n" +
+            "so that its buffered log events are sent when <<config-log-sending-tail-sampling,`log_sending_tail_sampling`>> is enabled.")
+        .dynamic(true)
+        .tags("internal")
+        .buildWithDefault(TimeDuration.of("1s"));
+
     public static void init(List<ConfigurationSource> sources, String ephemeralId) {
         // The initialization of log4j may produce errors if the traced application uses log4j settings (for
         // example - through file in the classpath or System properties) that configures specific properties for
@@ -384,4 +429,20 @@ public class LoggingConfiguration extends ConfigurationOptionProvider {
     public boolean getSendLogs() {
         return sendLogs.get();
     }
+
+    public int getLogSendingRateLimit() {
+        return logSendingRateLimit.get();
+    }
+
+    public TimeDuration getLogSendingDedupWindow() {
+        return logSendingDedupWindow.get();
+    }
+
+    public boolean isLogSendingTailSampling() {
+        return logSendingTailSampling.get();
+    }
+
+    public TimeDuration getLogSendingTailSlowThreshold() {
+        return logSendingTailSlowThreshold.get();
+    }
 }
@@ -0,0 +1,275 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.configuration.MetricsConfiguration;
+import co.elastic.apm.agent.context.AbstractLifecycleListener;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricCollector;
+import co.elastic.apm.agent.metrics.MetricsProvider;
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+import co.elastic.apm.agent.sdk.weakconcurrent.DetachedThreadLocal;
+import co.elastic.apm.agent.sdk.weakconcurrent.WeakConcurrent;
+import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time and the allocations of the instrumentation advices on the application threads,
+ * aggregated per instrumentation group.
+ * <p>
+ * When enabled, {@link co.elastic.apm.agent.bci.IndyBootstrap} links the advice methods through {@link #measure(String, MethodHandle)},
+ * which surrounds them with {@link #onEnter(Stats)} and {@link #onExit(Stats)}.
+ * Only one in {@link MetricsConfiguration#getAdviceOverheadSamplingInterval()} invocations per thread is measured,
+ * the other invocations only decrement a counter.
+ * The reported values are extrapolated from the measured invocations.
+ * </p>
+ * <p>
+ * Call sites that have been linked while the measurement was disabled are never measured,
+ * so that there is no overhead when it is disabled.
+ * </p>
+ */
+public class AdviceOverheadMetrics extends AbstractLifecycleListener implements MetricsProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdviceOverheadMetrics.class);
+
+    private static final String TIME_SUM_METRIC = "agent.advice.time.sum.us";
+    private static final String TIME_COUNT_METRIC = "agent.advice.time.count";
+    private static final String ALLOCATION_METRIC = "agent.advice.memory.allocation.bytes";
+
+    private static final MethodHandle ON_ENTER;
+    private static final MethodHandle ON_EXIT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ON_ENTER = lookup.findStatic(AdviceOverheadMetrics.class, "onEnter", MethodType.methodType(void.class, Stats.class));
+            ON_EXIT = lookup.findStatic(AdviceOverheadMetrics.class, "onExit", MethodType.methodType(void.class, Stats.class));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * {@code 0} if the measurement is disabled
+     */
+    private static volatile int samplingInterval = 0;
+
+    private static final boolean allocationSupported = HotspotAllocation.isSupported();
+
+    private static final ConcurrentMap<String, String> adviceClassName2instrumentationGroup = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Stats> statsByInstrumentationGroup = new ConcurrentHashMap<>();
+
+    private static final DetachedThreadLocal<Sampler> samplers = WeakConcurrent
+        .<Sampler>threadLocalBuilder()
+        .withDefaultValueSupplier(new WeakMap.DefaultValueSupplier<Thread, Sampler>() {
+            @Override
+            public Sampler getDefaultValue(Thread key) {
+                return new Sampler();
+            }
+        })
+        .build();
+
+    @Override
+    public void init(ElasticApmTracer tracer) {
+        MetricsConfiguration config = tracer.getConfig(MetricsConfiguration.class);
+        if (config.isOverheadMetricsEnabled()) {
+            samplingInterval = Math.max(0, config.getAdviceOverheadSamplingInterval());
+        }
+    }
+
+    @Override
+    public void start(ElasticApmTracer tracer) {
+        if (samplingInterval > 0) {
+            tracer.getMetricRegistry().addMetricsProvider(this);
+        }
+    }
+
+    @Override
+    public void stop() {
+        samplingInterval = 0;
+    }
+
+    /**
+     * Registers the instrumentation group an advice is reported under.
+     * If an instrumentation has multiple group names, the first one is used.
+     */
+    public static void registerAdvice(String adviceClassName, Collection<String> instrumentationGroupNames) {
+        if (!instrumentationGroupNames.isEmpty()) {
+            adviceClassName2instrumentationGroup.put(adviceClassName, instrumentationGroupNames.iterator().next());
+        }
+    }
+
+    /**
+     * @param adviceClassName the name of the class declaring the advice
+     * @param adviceMethod    the advice method
+     * @return a method handle that measures the invocations of the advice method if the measurement is enabled,
+     * the advice method itself otherwise
+     */
+    public static MethodHandle measure(String adviceClassName, MethodHandle adviceMethod) {
+        if (samplingInterval <= 0) {
+            return adviceMethod;
+        }
+        try {
+            Stats stats = getStats(adviceClassName);
+            MethodHandle onExit = ON_EXIT.bindTo(stats);
+            Class<?> returnType = adviceMethod.type().returnType();
+            if (returnType != void.class) {
+                // passes through the return value of the advice after invoking onExit
+                onExit = MethodHandles.foldArguments(MethodHandles.identity(returnType), onExit);
+            }
+            return MethodHandles.foldArguments(MethodHandles.filterReturnValue(adviceMethod, onExit), ON_ENTER.bindTo(stats));
+        } catch (Exception e) {
+            logger.warn("Failed to measure the overhead of " + adviceClassName, e);
+            return adviceMethod;
+        }
+    }
+
+    private static Stats getStats(String adviceClassName) {
+        String instrumentationGroup = adviceClassName2instrumentationGroup.get(adviceClassName);
+        if (instrumentationGroup == null) {
+            instrumentationGroup = adviceClassName;
+        }
+        Stats stats = statsByInstrumentationGroup.get(instrumentationGroup);
+        if (stats == null) {
+            statsByInstrumentationGroup.putIfAbsent(instrumentationGroup, new Stats());
+            stats = statsByInstrumentationGroup.get(instrumentationGroup);
+        }
+        return stats;
+    }
+
+    private static void onEnter(Stats stats) {
+        Sampler sampler = samplers.get();
+        if (--sampler.countdown > 0) {
+            return;
+        }
+        int interval = samplingInterval;
+        if (interval <= 0) {
+            sampler.countdown = Integer.MAX_VALUE;
+            return;
+        }
+        sampler.countdown = interval;
+        // if a nested advice is sampled, it overrides the measurement of the outer one, which is then discarded
+        sampler.measuring = stats;
+        sampler.startAllocatedBytes = allocationSupported ? HotspotAllocation.getCurrentThreadAllocatedBytes() : 0;
+        sampler.startNanos = System.nanoTime();
+    }
+
+    private static void onExit(Stats stats) {
+        Sampler sampler = samplers.get();
+        if (sampler.measuring != stats) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - sampler.startNanos;
+        long allocatedBytes = allocationSupported ? HotspotAllocation.getCurrentThreadAllocatedBytes() - sampler.startAllocatedBytes : 0;
+        sampler.measuring = null;
+        stats.count.incrementAndGet();
+        stats.durationNanos.addAndGet(durationNanos);
+        stats.allocatedBytes.addAndGet(allocatedBytes);
+    }
+
+    @Override
+    public void collectAndReset(MetricCollector collector) {
+        int interval = samplingInterval;
+        if (interval <= 0) {
+            return;
+        }
+        for (Map.Entry<String, Stats> entry : statsByInstrumentationGroup.entrySet()) {
+            Stats stats = entry.getValue();
+            long count = stats.count.getAndSet(0);
+            long durationNanos = stats.durationNanos.getAndSet(0);
+            long allocatedBytes = stats.allocatedBytes.getAndSet(0);
+            if (count > 0) {
+                Labels labels = Labels.Mutable.of("instrumentation_group", entry.getKey()).immutableCopy();
+                collector.addMetricValue(TIME_SUM_METRIC, labels, durationNanos / 1000 * interval);
+                collector.addMetricValue(TIME_COUNT_METRIC, labels, count * interval);
+                if (allocationSupported) {
+                    collector.addMetricValue(ALLOCATION_METRIC, labels, allocatedBytes * interval);
+                }
+            }
+        }
+    }
+
+    static void reset() {
+        samplingInterval = 0;
+        statsByInstrumentationGroup.clear();
+    }
+
+    static void setSamplingInterval(int interval) {
+        samplingInterval = interval;
+    }
+
+    /**
+     * The measurements of an instrumentation group since the last report
+     */
+    static class Stats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong durationNanos = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+    }
+
+    /**
+     * The sampling state of a thread
+     */
+    private static class Sampler {
+        private int countdown = 1;
+        @Nullable
+        private Stats measuring;
+        private long startNanos;
+        private long startAllocatedBytes;
+    }
+
+    /**
+     * Only refers to the HotSpot specific class in a nested class to avoid linkage errors on other JVMs
+     */
+    @IgnoreJRERequirement
+    private static class HotspotAllocation {
+
+        private static boolean isSupported() {
+            try {
+                Class<?> sunBeanClass = Class.forName("com.sun.management.ThreadMXBean");
+                return sunBeanClass.isInstance(ManagementFactory.getThreadMXBean()) && isEnabled();
+            } catch (Throwable ignore) {
+                return false;
+            }
+        }
+
+        private static boolean isEnabled() {
+            com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled();
+        }
+
+        private static long getCurrentThreadAllocatedBytes() {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
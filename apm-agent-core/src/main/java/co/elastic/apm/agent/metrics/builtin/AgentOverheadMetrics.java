@@ -25,6 +25,7 @@ import co.elastic.apm.agent.metrics.Labels;
 import co.elastic.apm.agent.metrics.MetricCollector;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.metrics.MetricsProvider;
+import co.elastic.apm.agent.util.AgentScheduler;
 import co.elastic.apm.agent.util.ElasticThreadStateListener;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import co.elastic.apm.agent.util.JmxUtils;
@@ -145,6 +146,8 @@ public class AgentOverheadMetrics extends AbstractLifecycleListener implements E
                 cpuOverheadMetricEnabled = false;
                 cpuUsageMetricEnabled = false;
             }
+            // the threads of the AgentScheduler are shared by many tasks, the CPU time is accounted per task instead
+            AgentScheduler.setCpuAccountingEnabled(cpuTimeMeasurementEnabled);
         }
 
         if (anyMetricEnabled()) {
@@ -307,6 +310,7 @@ public class AgentOverheadMetrics extends AbstractLifecycleListener implements E
                 addToCounter(cpuTimeIncreaseByPurpose, threadPurpose, cpuTimeDelta);
             }
         }
+        AgentScheduler.collectTaskCpuTime(cpuTimeIncreaseByPurpose);
 
         long processCpuTimeDelta = getProcessCpuTimeDelta();
         if (processCpuTimeDelta == NO_VALUE) {
@@ -0,0 +1,73 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.context.AbstractLifecycleListener;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.ByteBodyBuffer;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricCollector;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.MetricsProvider;
+
+/**
+ * Reports how well the segment pool of {@link ByteBodyBuffer} serves the request bodies that are recorded as bytes.
+ * Only reports values for intervals in which segments have been requested.
+ */
+public class BodyCaptureMetrics extends AbstractLifecycleListener implements MetricsProvider {
+
+    private static final String SEGMENT_REQUESTS_METRIC = "agent.body_capture.segment.requests";
+    private static final String SEGMENT_ALLOCATIONS_METRIC = "agent.body_capture.segment.allocations";
+    private static final String POOL_HIT_RATE_METRIC = "agent.body_capture.pool.hit_rate";
+
+    private long lastRequests;
+    private long lastAllocations;
+
+    @Override
+    public void start(ElasticApmTracer tracer) {
+        bindTo(tracer.getMetricRegistry());
+    }
+
+    void bindTo(MetricRegistry registry) {
+        if (registry.isDisabled(SEGMENT_REQUESTS_METRIC)
+            && registry.isDisabled(SEGMENT_ALLOCATIONS_METRIC)
+            && registry.isDisabled(POOL_HIT_RATE_METRIC)) {
+            return;
+        }
+        lastRequests = ByteBodyBuffer.getSegmentRequests();
+        lastAllocations = ByteBodyBuffer.getSegmentAllocations();
+        registry.addMetricsProvider(this);
+    }
+
+    @Override
+    public synchronized void collectAndReset(MetricCollector collector) {
+        long requests = ByteBodyBuffer.getSegmentRequests();
+        long allocations = ByteBodyBuffer.getSegmentAllocations();
+        long intervalRequests = requests - lastRequests;
+        long intervalAllocations = allocations - lastAllocations;
+        lastRequests = requests;
+        lastAllocations = allocations;
+        if (intervalRequests <= 0) {
+            return;
+        }
+        collector.addMetricValue(SEGMENT_REQUESTS_METRIC, Labels.EMPTY, intervalRequests);
+        collector.addMetricValue(SEGMENT_ALLOCATIONS_METRIC, Labels.EMPTY, intervalAllocations);
+        collector.addMetricValue(POOL_HIT_RATE_METRIC, Labels.EMPTY, 1 - (double) intervalAllocations / intervalRequests);
+    }
+}
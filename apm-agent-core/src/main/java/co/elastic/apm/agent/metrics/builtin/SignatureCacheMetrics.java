@@ -0,0 +1,82 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.context.AbstractLifecycleListener;
+import co.elastic.apm.agent.db.signature.SignatureCache;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricCollector;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.MetricsProvider;
+
+/**
+ * Reports how effective the {@link SignatureCache} of the SQL signature parser is.
+ * Only reports values for intervals in which signatures have been looked up.
+ */
+public class SignatureCacheMetrics extends AbstractLifecycleListener implements MetricsProvider {
+
+    private static final String HITS_METRIC = "agent.sql_signature_cache.hits";
+    private static final String MISSES_METRIC = "agent.sql_signature_cache.misses";
+    private static final String EVICTIONS_METRIC = "agent.sql_signature_cache.evictions";
+    private static final String HIT_RATE_METRIC = "agent.sql_signature_cache.hit_rate";
+
+    private long lastHits;
+    private long lastMisses;
+    private long lastEvictions;
+
+    @Override
+    public void start(ElasticApmTracer tracer) {
+        bindTo(tracer.getMetricRegistry());
+    }
+
+    void bindTo(MetricRegistry registry) {
+        if (registry.isDisabled(HITS_METRIC)
+            && registry.isDisabled(MISSES_METRIC)
+            && registry.isDisabled(EVICTIONS_METRIC)
+            && registry.isDisabled(HIT_RATE_METRIC)) {
+            return;
+        }
+        lastHits = SignatureCache.getHits();
+        lastMisses = SignatureCache.getMisses();
+        lastEvictions = SignatureCache.getEvictions();
+        registry.addMetricsProvider(this);
+    }
+
+    @Override
+    public synchronized void collectAndReset(MetricCollector collector) {
+        long hits = SignatureCache.getHits();
+        long misses = SignatureCache.getMisses();
+        long evictions = SignatureCache.getEvictions();
+        long intervalHits = hits - lastHits;
+        long intervalMisses = misses - lastMisses;
+        long intervalEvictions = evictions - lastEvictions;
+        lastHits = hits;
+        lastMisses = misses;
+        lastEvictions = evictions;
+        long lookups = intervalHits + intervalMisses;
+        if (lookups <= 0) {
+            return;
+        }
+        collector.addMetricValue(HITS_METRIC, Labels.EMPTY, intervalHits);
+        collector.addMetricValue(MISSES_METRIC, Labels.EMPTY, intervalMisses);
+        collector.addMetricValue(EVICTIONS_METRIC, Labels.EMPTY, intervalEvictions);
+        collector.addMetricValue(HIT_RATE_METRIC, Labels.EMPTY, (double) intervalHits / lookups);
+    }
+}
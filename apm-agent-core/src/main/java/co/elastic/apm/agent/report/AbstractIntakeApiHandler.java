@@ -34,7 +34,6 @@ import java.net.HttpURLConnection;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
 public class AbstractIntakeApiHandler {
     private static final Logger logger = LoggerFactory.getLogger(AbstractIntakeApiHandler.class);
@@ -43,8 +42,13 @@ public class AbstractIntakeApiHandler {
     protected final ReporterConfiguration reporterConfiguration;
     protected final PayloadSerializer payloadSerializer;
     protected final ApmServerClient apmServerClient;
+    /**
+     * A raw deflater, see {@link MetaDataDeflaterOutputStream}
+     */
     protected Deflater deflater;
     @Nullable
+    private MetaDataDeflaterOutputStream.CompressedMetaData compressedMetaData;
+    @Nullable
     protected HttpURLConnection connection;
     @Nullable
     protected OutputStream os;
@@ -59,7 +63,7 @@ public class AbstractIntakeApiHandler {
         this.reporterConfiguration = reporterConfiguration;
         this.payloadSerializer = payloadSerializer;
         this.apmServerClient = apmServerClient;
-        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.deflater = new Deflater(Deflater.BEST_SPEED, true);
     }
 
     /*
@@ -110,12 +114,14 @@ public class AbstractIntakeApiHandler {
                 connection.connect();
                 countingOs = new CountingOutputStream(connection.getOutputStream());
                 if (useCompression) {
-                    os = new DeflaterOutputStream(countingOs, deflater, true);
+                    // the metadata is part of the pre-compressed beginning of the stream
+                    os = new MetaDataDeflaterOutputStream(countingOs, deflater, getCompressedMetaData());
+                    payloadSerializer.setOutputStream(os);
                 } else {
                     os = countingOs;
+                    payloadSerializer.setOutputStream(os);
+                    payloadSerializer.appendMetaDataNdJsonToStream();
                 }
-                payloadSerializer.setOutputStream(os);
-                payloadSerializer.appendMetaDataNdJsonToStream();
                 payloadSerializer.flushToOutputStream();
                 requestStartedNanos = System.nanoTime();
             } catch (IOException e) {
@@ -154,6 +160,19 @@ public class AbstractIntakeApiHandler {
         return connection;
     }
 
+    /**
+     * Compresses the metadata only when it has been serialized again, instead of for every request.
+     */
+    private MetaDataDeflaterOutputStream.CompressedMetaData getCompressedMetaData() throws PayloadSerializer.UninitializedException {
+        byte[] metaDataNdJson = payloadSerializer.getMetaDataNdJson();
+        MetaDataDeflaterOutputStream.CompressedMetaData compressedMetaData = this.compressedMetaData;
+        if (compressedMetaData == null || !compressedMetaData.isFor(metaDataNdJson)) {
+            compressedMetaData = MetaDataDeflaterOutputStream.CompressedMetaData.compress(metaDataNdJson, Deflater.BEST_SPEED);
+            this.compressedMetaData = compressedMetaData;
+        }
+        return compressedMetaData;
+    }
+
     private void closeAndSuppressErrors(HttpURLConnection connection) {
         try {
             connection.disconnect();
@@ -18,7 +18,7 @@
  */
 package co.elastic.apm.agent.report;
 
-import co.elastic.apm.agent.util.ExecutorUtils;
+import co.elastic.apm.agent.util.AgentScheduler;
 import co.elastic.apm.agent.common.util.Version;
 import com.dslplatform.json.DslJson;
 import com.dslplatform.json.JsonReader;
@@ -35,7 +35,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -53,12 +52,7 @@ public class ApmServerHealthChecker implements Callable<Version> {
     }
 
     public Future<Version> checkHealthAndGetMinVersion() {
-        ThreadPoolExecutor pool = ExecutorUtils.createSingleThreadDaemonPool("server-healthcheck", 1);
-        try {
-            return pool.submit(this);
-        } finally {
-            pool.shutdown();
-        }
+        return AgentScheduler.submitBlocking("server-healthcheck", this);
     }
 
     @Nullable
@@ -21,12 +21,11 @@ package co.elastic.apm.agent.report;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.Transaction;
-import co.elastic.apm.agent.report.disruptor.ExponentionallyIncreasingSleepingWaitStrategy;
+import co.elastic.apm.agent.report.disruptor.AdaptiveSleepingWaitStrategy;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import co.elastic.apm.agent.util.MathUtils;
 import com.dslplatform.json.JsonWriter;
 import com.lmax.disruptor.EventFactory;
-import com.lmax.disruptor.EventTranslator;
 import com.lmax.disruptor.EventTranslatorOneArg;
 import com.lmax.disruptor.IgnoreExceptionHandler;
 import com.lmax.disruptor.InsufficientCapacityException;
@@ -39,17 +38,30 @@ import javax.annotation.Nullable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This reporter asynchronously reports {@link Transaction}s to the APM server
  * <p>
  * It uses a Disruptor/ring buffer to decouple the {@link Transaction} producing threads from the thread that actually sends the payload
  * </p>
+ * <p>
+ * When {@linkplain #ApmServerReporter(boolean, boolean, ReporterConfiguration, ReportingEventHandler, ReporterMonitor) reporting directly},
+ * the ring buffer is bypassed and events are serialized and written to the request body on the thread reporting them.
+ * The hand-over to and from the {@code server-reporter} thread adds latency to each {@link #flush()},
+ * which is a bad trade-off if the data is flushed at the end of every request anyway,
+ * like in AWS Lambda, where the flush is part of the billed duration of each invocation.
+ * </p>
  */
 public class ApmServerReporter implements Reporter {
 
     private static final Logger logger = LoggerFactory.getLogger(ApmServerReporter.class);
 
+    /**
+     * Used as the threshold of {@link #handleDirectly} to not wait for other threads reporting directly
+     */
+    private static final long NO_WAIT = Long.MIN_VALUE;
+
     private static final EventTranslatorOneArg<ReportingEvent, Transaction> TRANSACTION_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, Transaction>() {
         @Override
         public void translateTo(ReportingEvent event, long sequence, Transaction t) {
@@ -76,9 +88,9 @@ public class ApmServerReporter implements Reporter {
             event.unparkAfterProcessed(unparkAfterProcessed);
         }
     };
-    private static final EventTranslator<ReportingEvent> WAKEUP_EVENT_TRANSLATOR = new EventTranslator<ReportingEvent>() {
+    private static final EventTranslatorOneArg<ReportingEvent, Thread> WAKEUP_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, Thread>() {
         @Override
-        public void translateTo(ReportingEvent event, long sequence) {
+        public void translateTo(ReportingEvent event, long sequence, @Nullable Thread unparkAfterProcessed) {
             event.setWakeupEvent();
         }
     };
@@ -98,7 +110,7 @@ public class ApmServerReporter implements Reporter {
         @Override
         public void translateTo(ReportingEvent event, long sequence, @Nullable Thread unparkAfterProcessed) {
             event.shutdownEvent();
-            event.unparkAfterProcessed(Thread.currentThread());
+            event.unparkAfterProcessed(unparkAfterProcessed);
         }
     };
     private static final EventTranslatorOneArg<ReportingEvent, String> LOG_STRING_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, String>() {
@@ -113,6 +125,12 @@ public class ApmServerReporter implements Reporter {
             event.setBytesLog(bytes, false);
         }
     };
+    private static final EventTranslatorOneArg<ReportingEvent, LogBatcher.Slab> LOG_BATCH_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, LogBatcher.Slab>() {
+        @Override
+        public void translateTo(ReportingEvent event, long sequence, LogBatcher.Slab logBatch) {
+            event.setLogBatch(logBatch);
+        }
+    };
     private static final EventTranslatorOneArg<ReportingEvent, byte[]> AGENT_LOG_BYTES_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, byte[]>() {
         @Override
         public void translateTo(ReportingEvent event, long sequence, byte[] bytes) {
@@ -121,24 +139,48 @@ public class ApmServerReporter implements Reporter {
     };
 
     private final Disruptor<ReportingEvent> disruptor;
+    private final AdaptiveSleepingWaitStrategy waitStrategy;
     private final AtomicLong dropped = new AtomicLong();
     private final boolean dropTransactionIfQueueFull;
     private final ReportingEventHandler reportingEventHandler;
     private final boolean syncReport;
 
     private final ReporterMonitor monitor;
+    private final LogBatcher logBatcher;
+
+    private final boolean directReporting;
+    /**
+     * Guards the {@link #reportingEventHandler}, {@link #directReportingEvent} and {@link #directReportingSequence}
+     * when {@linkplain #directReporting reporting directly}
+     */
+    private final ReentrantLock directReportingLock = new ReentrantLock();
+    private final ReportingEvent directReportingEvent = new ReportingEvent();
+    private long directReportingSequence;
 
     public ApmServerReporter(boolean dropTransactionIfQueueFull, ReporterConfiguration reporterConfiguration,
                              ReportingEventHandler reportingEventHandler, ReporterMonitor monitor) {
+        this(dropTransactionIfQueueFull, false, reporterConfiguration, reportingEventHandler, monitor);
+    }
+
+    /**
+     * @param directReporting {@code true} to handle the events on the reporting thread instead of the {@code server-reporter} thread.
+     *                        The reporting threads are then serialized by a lock and may block on the APM server (or the Lambda extension)
+     *                        while a request is ended, which is why this is only meant for environments where each request ends with a flush.
+     */
+    public ApmServerReporter(boolean dropTransactionIfQueueFull, boolean directReporting, ReporterConfiguration reporterConfiguration,
+                             ReportingEventHandler reportingEventHandler, ReporterMonitor monitor) {
         this.dropTransactionIfQueueFull = dropTransactionIfQueueFull;
+        this.directReporting = directReporting;
         this.syncReport = reporterConfiguration.isReportSynchronously();
         this.monitor = monitor;
+        this.logBatcher = new LogBatcher(this);
+        waitStrategy = new AdaptiveSleepingWaitStrategy(100_000, 10_000_000, 50_000);
         disruptor = new Disruptor<>(
             new TransactionEventFactory(),
             MathUtils.getNextPowerOf2(reporterConfiguration.getMaxQueueSize()),
             new ExecutorUtils.SingleNamedThreadFactory("server-reporter"),
             ProducerType.MULTI,
-            new ExponentionallyIncreasingSleepingWaitStrategy(100_000, 10_000_000));
+            waitStrategy);
         this.reportingEventHandler = reportingEventHandler;
         disruptor.setDefaultExceptionHandler(new IgnoreExceptionHandler());
         disruptor.handleEventsWith(this.reportingEventHandler);
@@ -146,7 +188,9 @@ public class ApmServerReporter implements Reporter {
 
     @Override
     public void start() {
-        disruptor.start();
+        if (!directReporting) {
+            disruptor.start();
+        }
         reportingEventHandler.init(this);
     }
 
@@ -190,11 +234,18 @@ public class ApmServerReporter implements Reporter {
     }
 
     public void scheduleWakeupEvent() {
-        disruptor.getRingBuffer().tryPublishEvent(WAKEUP_EVENT_TRANSLATOR);
+        if (directReporting) {
+            // called from the timeout timer, which must not be blocked by an application thread sending a request;
+            // when the lock is held, the request is already being taken care of
+            handleDirectly(WAKEUP_EVENT_TRANSLATOR, null, NO_WAIT);
+            return;
+        }
+        disruptor.getRingBuffer().tryPublishEvent(WAKEUP_EVENT_TRANSLATOR, null);
     }
 
     @Override
     public boolean flush(long timeout, TimeUnit unit, boolean followupWithFlushRequest) {
+        logBatcher.flush();
         if (followupWithFlushRequest) {
             return publishAndWaitForEvent(timeout, unit, MAKE_FLUSH_REQUEST_EVENT_TRANSLATOR);
         }
@@ -213,6 +264,9 @@ public class ApmServerReporter implements Reporter {
         } else {
             thresholdNs = unit.toNanos(timeout) + startNs;
         }
+        if (directReporting) {
+            return handleDirectly(eventTranslator, null, thresholdNs);
+        }
         do {
             try {
                 long sequence = disruptor.getRingBuffer().tryNext();
@@ -221,8 +275,12 @@ public class ApmServerReporter implements Reporter {
                 } finally {
                     disruptor.getRingBuffer().publish(sequence);
                 }
+                // the reporter thread may be sleeping for up to 10ms otherwise
+                waitStrategy.wakeUp();
                 return waitForEventProcessed(sequence, thresholdNs);
             } catch (InsufficientCapacityException e) {
+                // the ring buffer may have filled up while the reporter thread was sleeping
+                waitStrategy.wakeUp();
                 LockSupport.parkNanos(100_000);
                 if (Thread.currentThread().isInterrupted()) {
                     break;
@@ -250,11 +308,63 @@ public class ApmServerReporter implements Reporter {
         return reportingEventHandler.isProcessed(sequence);
     }
 
+    /**
+     * Handles an event on the current thread, as if it has been published to and consumed from the ring buffer.
+     *
+     * @param thresholdNs the {@link System#nanoTime()} until which to wait for other threads reporting directly,
+     *                    {@link Long#MAX_VALUE} to wait uninterruptibly,
+     *                    {@link #NO_WAIT} to only handle the event if no other thread is currently reporting
+     * @return {@code true} if the event has been handled,
+     * {@code false} if it has been dropped as the lock could not be acquired in time
+     */
+    private <E> boolean handleDirectly(EventTranslatorOneArg<ReportingEvent, E> eventTranslator, @Nullable E event, long thresholdNs) {
+        ReentrantLock lock = this.directReportingLock;
+        if (lock.isHeldByCurrentThread()) {
+            // events that are created while handling another one, like the agent's own log events,
+            // can't be handled until the handler is done with the current event
+            return false;
+        }
+        if (thresholdNs == Long.MAX_VALUE) {
+            lock.lock();
+        } else if (thresholdNs == NO_WAIT) {
+            if (!lock.tryLock()) {
+                return false;
+            }
+        } else {
+            try {
+                if (!lock.tryLock(thresholdNs - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        try {
+            long sequence = ++directReportingSequence;
+            eventTranslator.translateTo(directReportingEvent, sequence, event);
+            try {
+                reportingEventHandler.onEvent(directReportingEvent, sequence, true);
+            } catch (Exception e) {
+                // same as the IgnoreExceptionHandler of the disruptor
+                logger.debug("Exception while handling event", e);
+            }
+            return reportingEventHandler.isProcessed(sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void close() {
+        logBatcher.close();
         logger.info("dropped events because of full queue: {}", dropped.get());
+        logger.info("dropped log lines: {}", logBatcher.getDroppedLogs());
         publishAndWaitForEvent(5, TimeUnit.SECONDS, SHUTDOWN_EVENT_TRANSLATOR);
         reportingEventHandler.close();
+        if (directReporting) {
+            return;
+        }
         try {
             disruptor.shutdown(1, TimeUnit.SECONDS);
         } catch (com.lmax.disruptor.TimeoutException e) {
@@ -288,6 +398,9 @@ public class ApmServerReporter implements Reporter {
         if (log.isEmpty()) {
             return;
         }
+        if (!syncReport && logBatcher.add(log)) {
+            return;
+        }
         tryAddEventToRingBuffer(log, LOG_STRING_EVENT_TRANSLATOR, ReportingEvent.ReportingEventType.STRING_LOG);
         if (syncReport) {
             flush();
@@ -296,9 +409,49 @@ public class ApmServerReporter implements Reporter {
 
     @Override
     public void reportLog(byte[] log) {
+        if (log.length == 0) {
+            return;
+        }
+        if (!syncReport && logBatcher.add(log)) {
+            return;
+        }
         reportLogBytes(log, LOG_BYTES_EVENT_TRANSLATOR);
     }
 
+    /**
+     * Reports a batch of log lines as a single event
+     *
+     * @param logBatch   the batch to report
+     * @param background whether the batch is reported by a background thread, such as the periodic flush of the {@link LogBatcher}.
+     *                   When reporting directly, background threads don't wait for application threads that are currently reporting.
+     * @return {@code false} if the ring buffer is full and the batch has been dropped
+     */
+    boolean reportLogBatch(LogBatcher.Slab logBatch, boolean background) {
+        // not using tryAddEventToRingBuffer, as dropped log lines are counted by the LogBatcher, separately from tracing events
+        long capacity = getQueueCapacity();
+        monitor.eventCreated(ReportingEvent.ReportingEventType.BYTES_LOG, capacity, getQueueElementCount());
+        if (directReporting) {
+            if (!handleDirectly(LOG_BATCH_EVENT_TRANSLATOR, logBatch, background ? NO_WAIT : Long.MAX_VALUE)) {
+                monitor.eventDroppedBeforeQueue(ReportingEvent.ReportingEventType.BYTES_LOG, capacity);
+                return false;
+            }
+            return true;
+        }
+        if (dropTransactionIfQueueFull) {
+            if (!disruptor.getRingBuffer().tryPublishEvent(LOG_BATCH_EVENT_TRANSLATOR, logBatch)) {
+                monitor.eventDroppedBeforeQueue(ReportingEvent.ReportingEventType.BYTES_LOG, capacity);
+                return false;
+            }
+        } else {
+            disruptor.getRingBuffer().publishEvent(LOG_BATCH_EVENT_TRANSLATOR, logBatch);
+        }
+        return true;
+    }
+
+    LogBatcher getLogBatcher() {
+        return logBatcher;
+    }
+
     @Override
     public void reportAgentLog(byte[] bytes) {
         reportLogBytes(bytes, AGENT_LOG_BYTES_EVENT_TRANSLATOR);
@@ -325,9 +478,14 @@ public class ApmServerReporter implements Reporter {
     private <E> boolean tryAddEventToRingBuffer(E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator, ReportingEvent.ReportingEventType targetType) {
         long capacity = getQueueCapacity();
         monitor.eventCreated(targetType, capacity, getQueueElementCount());
+        if (directReporting) {
+            return handleDirectly(eventTranslator, event, Long.MAX_VALUE);
+        }
         if (dropTransactionIfQueueFull) {
             boolean queueFull = !disruptor.getRingBuffer().tryPublishEvent(eventTranslator, event);
             if (queueFull) {
+                // make room for subsequent events, as the ring buffer may have filled up while the reporter thread was sleeping
+                waitStrategy.wakeUp();
                 if (logger.isDebugEnabled()) {
                     logger.debug("Could not add {} {} to ring buffer as no slots are available", event.getClass().getSimpleName(), event);
                 }
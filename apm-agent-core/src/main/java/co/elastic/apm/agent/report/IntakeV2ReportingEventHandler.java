@@ -22,14 +22,14 @@ import co.elastic.apm.agent.report.processor.ProcessorEventHandler;
 import co.elastic.apm.agent.report.serialize.PayloadSerializer;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
-import co.elastic.apm.agent.util.ExecutorUtils;
+import co.elastic.apm.agent.util.AgentScheduler;
 import co.elastic.apm.agent.util.LoggerUtils;
 import com.dslplatform.json.DslJson;
 
 import javax.annotation.Nullable;
 import java.net.HttpURLConnection;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -46,7 +46,8 @@ public class IntakeV2ReportingEventHandler extends AbstractIntakeApiHandler impl
     private static final Logger logsSupportLogger = LoggerUtils.logOnce(LoggerFactory.getLogger(IntakeV2ReportingEventHandler.class));
 
     private final ProcessorEventHandler processorEventHandler;
-    private final ScheduledExecutorService timeoutTimer;
+    @Nullable
+    private volatile ScheduledFuture<?> pendingTimeout;
     @Nullable
     private Runnable timeoutTask;
 
@@ -65,7 +66,6 @@ public class IntakeV2ReportingEventHandler extends AbstractIntakeApiHandler impl
         super(reporterConfiguration, payloadSerializer, apmServerClient);
         this.processorEventHandler = processorEventHandler;
         this.dslJson = new DslJson<>(new DslJson.Settings<>());
-        this.timeoutTimer = ExecutorUtils.createSingleThreadSchedulingDaemonPool("request-timeout-timer");
     }
 
     @Override
@@ -188,6 +188,8 @@ public class IntakeV2ReportingEventHandler extends AbstractIntakeApiHandler impl
             payloadSerializer.serializeErrorNdJson(event.getError());
         } else if (event.getJsonWriter() != null) {
             payloadSerializer.writeBytes(event.getJsonWriter().getByteBuffer(), event.getJsonWriter().size());
+        } else if (event.getLogBatch() != null && logsSupported()) {
+            payloadSerializer.writeBytes(event.getLogBatch().getBuffer(), event.getLogBatch().getSize());
         } else if (event.getBytesLog() != null && logsSupported()) {
             payloadSerializer.serializeLogNdJson(event.getBytesLog());
         } else if (event.getStringLog() != null && logsSupported()) {
@@ -214,7 +216,8 @@ public class IntakeV2ReportingEventHandler extends AbstractIntakeApiHandler impl
                 if (logger.isDebugEnabled()) {
                     logger.debug("Scheduling request timeout in {} seconds", TimeUnit.MILLISECONDS.toSeconds(requestTimeoutMillis));
                 }
-                timeoutTimer.schedule(timeoutTask, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+                cancelPendingTimeout();
+                pendingTimeout = AgentScheduler.schedule("request-timeout-timer", timeoutTask, requestTimeoutMillis, TimeUnit.MILLISECONDS);
             }
         }
         return connection;
@@ -270,7 +273,15 @@ public class IntakeV2ReportingEventHandler extends AbstractIntakeApiHandler impl
         super.close();
         logger.info("Reported events: {}", reported);
         logger.info("Dropped events: {}", dropped);
-        timeoutTimer.shutdownNow();
+        cancelPendingTimeout();
+    }
+
+    private void cancelPendingTimeout() {
+        ScheduledFuture<?> timeout = pendingTimeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+            pendingTimeout = null;
+        }
     }
 
     /**
@@ -0,0 +1,388 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.report;
+
+import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.objectpool.Resetter;
+import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
+import co.elastic.apm.agent.tracer.pooling.Allocator;
+import co.elastic.apm.agent.tracer.pooling.Recyclable;
+import co.elastic.apm.agent.util.AgentScheduler;
+import co.elastic.apm.agent.util.MathUtils;
+import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batches the application logs sent via {@code log_sending}, so that they don't take up one slot in the ring buffer per log line.
+ * <p>
+ * Log lines are encoded as intake API ND-JSON directly into pooled, fixed-size {@linkplain Slab slabs}.
+ * A full slab is handed to the {@link ApmServerReporter} as a single event and is returned to the pool once it has been serialized.
+ * Partially filled slabs are handed over when the reporter is flushed and every {@link #FLUSH_INTERVAL_MS} milliseconds.
+ * </p>
+ * <p>
+ * Batching only saves the allocations after a log line has been formatted:
+ * the sending appenders still get each line as a {@link String} or {@code byte[]} from the ECS formatter of the logging framework,
+ * which is also what the tail sampling of the log sending policy holds on to.
+ * </p>
+ * <p>
+ * To reduce contention between logging threads, threads are spread over multiple lanes, each with their own slab.
+ * The lines logged by a single thread always go through the same lane and therefore keep their order,
+ * as the slabs of a lane are handed over while holding the lock of the lane.
+ * </p>
+ * <p>
+ * The number of slabs is limited to {@link #MAX_SLABS}, so that a chatty application can't use up an unbounded amount of memory.
+ * When all slabs are in use, log lines are dropped, which is counted separately from dropped tracing events.
+ * </p>
+ */
+class LogBatcher {
+
+    static final int SLAB_SIZE = 16 * 1024;
+    static final int MAX_SLABS = 64;
+    static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final byte[] LOG_PREFIX = "{\"log\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LOG_SUFFIX = {'}', '\n'};
+
+    private final ApmServerReporter reporter;
+    private final long flushIntervalMs;
+    private final Lane[] lanes;
+    private final AtomicInteger slabsInUse = new AtomicInteger();
+    private final AtomicLong batchedLogs = new AtomicLong();
+    private final AtomicLong droppedLogs = new AtomicLong();
+    private final ObjectPool<Slab> slabPool;
+    @Nullable
+    private volatile ScheduledFuture<?> flushTimer;
+    private volatile boolean closed;
+
+    LogBatcher(ApmServerReporter reporter) {
+        this(reporter, Runtime.getRuntime().availableProcessors(), FLUSH_INTERVAL_MS);
+    }
+
+    LogBatcher(ApmServerReporter reporter, int concurrency, long flushIntervalMs) {
+        this.reporter = reporter;
+        this.flushIntervalMs = flushIntervalMs;
+        lanes = new Lane[MathUtils.getNextPowerOf2(Math.min(Math.max(concurrency, 1), 16))];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+        slabPool = QueueBasedObjectPool.of(new MpmcAtomicArrayQueue<Slab>(MAX_SLABS), false,
+            new Allocator<Slab>() {
+                @Override
+                public Slab createInstance() {
+                    return new Slab(LogBatcher.this);
+                }
+            },
+            new Resetter<Slab>() {
+                @Override
+                public void recycle(Slab object) {
+                    object.resetState();
+                }
+            });
+    }
+
+    /**
+     * @param log a log line in ECS JSON format
+     * @return {@code false} if the log line is larger than a slab and has to be reported on its own
+     */
+    boolean add(String log) {
+        int length = log.length();
+        if (length > 0 && log.charAt(length - 1) == '\n') {
+            length--;
+        }
+        int encodedLength = utf8Length(log, length);
+        if (encodedLength < 0 || !fitsIntoSlab(encodedLength)) {
+            return false;
+        }
+        Lane lane = currentLane();
+        boolean appended = false;
+        synchronized (lane) {
+            Slab slab = lane.slab;
+            if (slab != null && !slab.hasCapacity(encodedLength)) {
+                // handing over while holding the lock, so that the next slab of this lane can't be reported before
+                handOver(slab, false);
+                slab = lane.slab = null;
+            }
+            if (slab == null) {
+                slab = lane.slab = acquireSlab();
+            }
+            if (slab != null) {
+                slab.append(log, length, encodedLength);
+                appended = true;
+            }
+        }
+        afterAppend(appended);
+        return true;
+    }
+
+    /**
+     * @param log a log line in ECS JSON format, encoded as UTF-8
+     * @return {@code false} if the log line is larger than a slab and has to be reported on its own
+     */
+    boolean add(byte[] log) {
+        int length = log.length;
+        if (length > 0 && log[length - 1] == '\n') {
+            length--;
+        }
+        if (!fitsIntoSlab(length)) {
+            return false;
+        }
+        Lane lane = currentLane();
+        boolean appended = false;
+        synchronized (lane) {
+            Slab slab = lane.slab;
+            if (slab != null && !slab.hasCapacity(length)) {
+                // handing over while holding the lock, so that the next slab of this lane can't be reported before
+                handOver(slab, false);
+                slab = lane.slab = null;
+            }
+            if (slab == null) {
+                slab = lane.slab = acquireSlab();
+            }
+            if (slab != null) {
+                slab.append(log, length);
+                appended = true;
+            }
+        }
+        afterAppend(appended);
+        return true;
+    }
+
+    private void afterAppend(boolean appended) {
+        if (appended) {
+            batchedLogs.incrementAndGet();
+        } else {
+            // all slabs are in use
+            droppedLogs.incrementAndGet();
+        }
+        if (flushTimer == null) {
+            startFlushTimer();
+        }
+    }
+
+    private static boolean fitsIntoSlab(int encodedLength) {
+        return LOG_PREFIX.length + encodedLength + LOG_SUFFIX.length <= SLAB_SIZE;
+    }
+
+    private Lane currentLane() {
+        return lanes[(int) (Thread.currentThread().getId() & (lanes.length - 1))];
+    }
+
+    @Nullable
+    private Slab acquireSlab() {
+        if (slabsInUse.incrementAndGet() > MAX_SLABS) {
+            slabsInUse.decrementAndGet();
+            return null;
+        }
+        return slabPool.createInstance();
+    }
+
+    /**
+     * Hands all partially filled slabs over to the reporter
+     */
+    void flush() {
+        flush(false);
+    }
+
+    /**
+     * @param background whether this is the periodic flush, see {@link ApmServerReporter#reportLogBatch(Slab, boolean)}
+     */
+    private void flush(boolean background) {
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                Slab slab = lane.slab;
+                lane.slab = null;
+                if (slab != null) {
+                    // under the lock for the same reason as in add
+                    handOver(slab, background);
+                }
+            }
+        }
+    }
+
+    private void handOver(Slab slab, boolean background) {
+        if (!reporter.reportLogBatch(slab, background)) {
+            droppedLogs.addAndGet(slab.count);
+            batchedLogs.addAndGet(-slab.count);
+            release(slab);
+        }
+    }
+
+    void release(Slab slab) {
+        slabPool.recycle(slab);
+        slabsInUse.decrementAndGet();
+    }
+
+    private synchronized void startFlushTimer() {
+        if (flushTimer != null || closed) {
+            return;
+        }
+        flushTimer = AgentScheduler.scheduleWithFixedDelay("log-batch-flusher", new Runnable() {
+            @Override
+            public void run() {
+                flush(true);
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void close() {
+        closed = true;
+        ScheduledFuture<?> timer = flushTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        flush();
+    }
+
+    /**
+     * @return the number of log lines that have been added to a batch and have not been dropped
+     */
+    long getBatchedLogs() {
+        return batchedLogs.get();
+    }
+
+    /**
+     * @return the number of log lines that have been dropped because all slabs were in use or because the ring buffer was full
+     */
+    long getDroppedLogs() {
+        return droppedLogs.get();
+    }
+
+    int getSlabsInUse() {
+        return slabsInUse.get();
+    }
+
+    /**
+     * @return the number of bytes the first {@code length} chars of the string take up in UTF-8,
+     * or {@code -1} if it is larger than a slab
+     */
+    private static int utf8Length(String s, int length) {
+        int utf8Length = 0;
+        for (int i = 0; i < length && utf8Length <= SLAB_SIZE; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced by '?'
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        return utf8Length <= SLAB_SIZE ? utf8Length : -1;
+    }
+
+    private static class Lane {
+        @Nullable
+        private Slab slab;
+    }
+
+    /**
+     * A fixed-size buffer which contains a number of complete ND-JSON log events
+     */
+    static class Slab implements Recyclable {
+
+        private final LogBatcher batcher;
+        private final byte[] buffer = new byte[SLAB_SIZE];
+        private int size;
+        private int count;
+
+        private Slab(LogBatcher batcher) {
+            this.batcher = batcher;
+        }
+
+        private boolean hasCapacity(int encodedLength) {
+            return size + LOG_PREFIX.length + encodedLength + LOG_SUFFIX.length <= SLAB_SIZE;
+        }
+
+        private void append(byte[] log, int length) {
+            appendBytes(LOG_PREFIX, LOG_PREFIX.length);
+            appendBytes(log, length);
+            appendBytes(LOG_SUFFIX, LOG_SUFFIX.length);
+            count++;
+        }
+
+        private void append(String log, int length, int encodedLength) {
+            appendBytes(LOG_PREFIX, LOG_PREFIX.length);
+            for (int i = 0; i < length; i++) {
+                char c = log.charAt(i);
+                if (c < 0x80) {
+                    buffer[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[size++] = (byte) (0xC0 | (c >> 6));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(log.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, log.charAt(++i));
+                    buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[size++] = '?';
+                } else {
+                    buffer[size++] = (byte) (0xE0 | (c >> 12));
+                    buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            appendBytes(LOG_SUFFIX, LOG_SUFFIX.length);
+            count++;
+        }
+
+        private void appendBytes(byte[] bytes, int length) {
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+
+        byte[] getBuffer() {
+            return buffer;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns this slab to the pool once its content has been serialized
+         */
+        void release() {
+            batcher.release(this);
+        }
+
+        @Override
+        public void resetState() {
+            size = 0;
+            count = 0;
+        }
+    }
+}
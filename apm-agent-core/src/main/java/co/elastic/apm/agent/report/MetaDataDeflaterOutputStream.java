@@ -0,0 +1,127 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.report;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses an intake request body that starts with the {@code metadata} line without compressing the metadata for every request.
+ * <p>
+ * The resulting zlib stream ({@code Content-Encoding: deflate}) consists of
+ * </p>
+ * <ul>
+ *     <li>the {@linkplain CompressedMetaData pre-compressed} zlib header and metadata, ending with a sync flush</li>
+ *     <li>
+ *         the events, compressed with a raw deflater that uses the metadata as its dictionary,
+ *         so that the events can reference the metadata just like when compressing everything with the same deflater
+ *     </li>
+ *     <li>the Adler-32 checksum of the uncompressed metadata and events</li>
+ * </ul>
+ */
+class MetaDataDeflaterOutputStream extends DeflaterOutputStream {
+
+    private final Adler32 checksum = new Adler32();
+    private boolean finished;
+
+    /**
+     * @param out                the stream to write the compressed request body to
+     * @param rawDeflater        a deflater which has been created with {@code nowrap}, as the zlib header is part of the compressed metadata
+     * @param compressedMetaData the pre-compressed metadata, which is written to {@code out} immediately
+     */
+    MetaDataDeflaterOutputStream(OutputStream out, Deflater rawDeflater, CompressedMetaData compressedMetaData) throws IOException {
+        super(out, rawDeflater, true);
+        rawDeflater.reset();
+        rawDeflater.setDictionary(compressedMetaData.uncompressed);
+        checksum.update(compressedMetaData.uncompressed, 0, compressedMetaData.uncompressed.length);
+        out.write(compressedMetaData.compressed);
+    }
+
+    @Override
+    public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+        // DeflaterOutputStream#write(int) delegates to this method
+        checksum.update(b, off, len);
+        super.write(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        super.finish();
+        long value = checksum.getValue();
+        out.write((int) (value >>> 24) & 0xFF);
+        out.write((int) (value >>> 16) & 0xFF);
+        out.write((int) (value >>> 8) & 0xFF);
+        out.write((int) value & 0xFF);
+    }
+
+    /**
+     * The metadata line, compressed as the beginning of a zlib stream.
+     * As the metadata only changes in rare cases, it's compressed once and re-used for all requests.
+     */
+    static class CompressedMetaData {
+
+        private final byte[] uncompressed;
+        private final byte[] compressed;
+
+        private CompressedMetaData(byte[] uncompressed, byte[] compressed) {
+            this.uncompressed = uncompressed;
+            this.compressed = compressed;
+        }
+
+        /**
+         * @param metaDataNdJson the {@code metadata} ND-JSON line
+         * @param level          the compression level
+         * @return the compressed metadata
+         */
+        static CompressedMetaData compress(byte[] metaDataNdJson, int level) {
+            Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(metaDataNdJson);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(metaDataNdJson.length);
+                byte[] buffer = new byte[1024];
+                int length;
+                do {
+                    // a sync flush aligns the output to a byte boundary without marking the final block
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, length);
+                } while (length == buffer.length);
+                return new CompressedMetaData(metaDataNdJson, compressed.toByteArray());
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * @param metaDataNdJson the current {@code metadata} ND-JSON line
+         * @return {@code true} if this instance has been created for the provided metadata instance
+         */
+        boolean isFor(byte[] metaDataNdJson) {
+            return uncompressed == metaDataNdJson;
+        }
+    }
+}
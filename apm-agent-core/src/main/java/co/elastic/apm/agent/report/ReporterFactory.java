@@ -18,6 +18,7 @@
  */
 package co.elastic.apm.agent.report;
 
+import co.elastic.apm.agent.configuration.ServerlessConfiguration;
 import co.elastic.apm.agent.impl.metadata.MetaData;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.report.processor.ProcessorEventHandler;
@@ -36,7 +37,9 @@ public class ReporterFactory {
 
         ReporterConfiguration reporterConfiguration = configurationRegistry.getConfig(ReporterConfiguration.class);
         ReportingEventHandler reportingEventHandler = getReportingEventHandler(configurationRegistry, reporterConfiguration, metaData, apmServerClient);
-        return new ApmServerReporter(true, reporterConfiguration, reportingEventHandler, monitor);
+        // in AWS Lambda, the data is flushed at the end of each invocation, so handing the events over to another thread only adds latency
+        boolean directReporting = configurationRegistry.getConfig(ServerlessConfiguration.class).runsOnAwsLambda();
+        return new ApmServerReporter(true, directReporting, reporterConfiguration, reportingEventHandler, monitor);
     }
 
     @Nonnull
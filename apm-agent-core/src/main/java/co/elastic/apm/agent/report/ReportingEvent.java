@@ -56,6 +56,8 @@ public class ReportingEvent {
     private String stringLog;
     @Nullable
     private byte[] bytesLog;
+    @Nullable
+    private LogBatcher.Slab logBatch;
     private boolean agentLog;
 
     public void resetState() {
@@ -67,6 +69,7 @@ public class ReportingEvent {
         this.unparkAfterProcessed = null;
         this.agentLog = false;
         this.bytesLog = null;
+        this.logBatch = null;
         this.stringLog = null;
     }
 
@@ -135,6 +138,17 @@ public class ReportingEvent {
         return bytesLog;
     }
 
+    void setLogBatch(LogBatcher.Slab logBatch) {
+        this.logBatch = logBatch;
+        this.type = BYTES_LOG;
+        this.agentLog = false;
+    }
+
+    @Nullable
+    LogBatcher.Slab getLogBatch() {
+        return logBatch;
+    }
+
     public boolean isAgentLog() {
         return type != null
             && (type == BYTES_LOG || type == STRING_LOG)
@@ -174,6 +188,8 @@ public class ReportingEvent {
             span.decrementReferences();
         } else if (error != null) {
             error.recycle();
+        } else if (logBatch != null) {
+            logBatch.release();
         }
         if (unparkAfterProcessed != null) {
             LockSupport.unpark(unparkAfterProcessed);
@@ -0,0 +1,138 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.report.disruptor;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.WaitStrategy;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wait strategy that spins, yields and then sleeps (<code>LockSupport.parkNanos(n)</code>) for an exponentially increasing
+ * number of nanos while the {@link com.lmax.disruptor.EventProcessor} is waiting on a barrier.
+ * <p>
+ * Whether to spin and yield before sleeping depends on the measured event rate.
+ * After each wait, the time between two events is estimated by dividing the wait time by the number of events that became available.
+ * Only if the moving average of that is below the busy wait threshold, the next event is likely to arrive within a few spins or yields,
+ * which is quicker than a park/unpark roundtrip.
+ * Otherwise, the consumer goes straight to sleeping, so that the strategy consumes very little CPU when the agent is idle
+ * or only sees a few events per second.
+ * </p>
+ * <p>
+ * The agent does not require to transfer events with low latency from producers to the consumer.
+ * Therefore, producers don't signal the consumer when publishing regular events,
+ * which keeps the impact on the producing (application) threads low.
+ * The exception are events a producer waits for, like flush requests.
+ * After publishing them, the producer calls {@link #wakeUp()} so that the latency is not bound by the max sleep time.
+ * </p>
+ */
+public final class AdaptiveSleepingWaitStrategy implements WaitStrategy {
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    /**
+     * The weight of the latest sample in the moving average is 1/2^AVERAGE_SHIFT
+     */
+    private static final int AVERAGE_SHIFT = 3;
+
+    private final int sleepTimeNsStart;
+    private final int sleepTimeNsMax;
+    private final long busyWaitThresholdNs;
+    @Nullable
+    private volatile Thread sleepingConsumer;
+    /**
+     * Only accessed by the consumer thread
+     */
+    private long averageNsBetweenEvents;
+
+    public AdaptiveSleepingWaitStrategy(int sleepTimeNsStart, int sleepTimeNsMax, long busyWaitThresholdNs) {
+        this.sleepTimeNsStart = sleepTimeNsStart;
+        this.sleepTimeNsMax = sleepTimeNsMax;
+        this.busyWaitThresholdNs = busyWaitThresholdNs;
+        this.averageNsBetweenEvents = sleepTimeNsMax;
+    }
+
+    @Override
+    public long waitFor(final long sequence, Sequence cursor, final Sequence dependentSequence, final SequenceBarrier barrier) throws AlertException {
+        long availableSequence = dependentSequence.get();
+        if (availableSequence >= sequence) {
+            return availableSequence;
+        }
+        long startNs = System.nanoTime();
+        if (averageNsBetweenEvents < busyWaitThresholdNs) {
+            for (int i = 0; i < SPIN_TRIES + YIELD_TRIES; i++) {
+                barrier.checkAlert();
+                if ((availableSequence = dependentSequence.get()) >= sequence) {
+                    return onEventsAvailable(sequence, availableSequence, startNs);
+                }
+                if (i >= SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        }
+        // set before re-checking the sequence so that a producer either sees the sleeping consumer or the consumer sees the new event
+        sleepingConsumer = Thread.currentThread();
+        try {
+            int currentSleep = sleepTimeNsStart;
+            while ((availableSequence = dependentSequence.get()) < sequence) {
+                barrier.checkAlert();
+                LockSupport.parkNanos(currentSleep);
+                currentSleep = (int) Math.min(currentSleep * 2L, sleepTimeNsMax);
+            }
+        } finally {
+            sleepingConsumer = null;
+        }
+        return onEventsAvailable(sequence, availableSequence, startNs);
+    }
+
+    private long onEventsAvailable(long sequence, long availableSequence, long startNs) {
+        long nsBetweenEvents = (System.nanoTime() - startNs) / (availableSequence - sequence + 1);
+        averageNsBetweenEvents += (nsBetweenEvents - averageNsBetweenEvents) >> AVERAGE_SHIFT;
+        return availableSequence;
+    }
+
+    /**
+     * Producers don't signal the consumer when publishing, see {@link #wakeUp()}
+     */
+    @Override
+    public void signalAllWhenBlocking() {
+    }
+
+    /**
+     * Wakes up the consumer if it's sleeping.
+     * To be called after publishing an event that should be handled with low latency.
+     */
+    public void wakeUp() {
+        Thread consumer = sleepingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    boolean isConsumerSleeping() {
+        return sleepingConsumer != null;
+    }
+
+    long getAverageNsBetweenEvents() {
+        return averageNsBetweenEvents;
+    }
+}
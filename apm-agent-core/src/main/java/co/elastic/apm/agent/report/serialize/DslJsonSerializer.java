@@ -20,6 +20,7 @@ package co.elastic.apm.agent.report.serialize;
 
 import co.elastic.apm.agent.collections.LongList;
 import co.elastic.apm.agent.impl.context.AbstractContext;
+import co.elastic.apm.agent.impl.context.ByteBodyBuffer;
 import co.elastic.apm.agent.impl.context.CloudOrigin;
 import co.elastic.apm.agent.impl.context.Db;
 import co.elastic.apm.agent.impl.context.Destination;
@@ -77,7 +78,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -114,7 +118,16 @@ public class DslJsonSerializer implements PayloadSerializer {
     private final Future<MetaData> metaData;
     @Nullable
     private byte[] serializedMetaData;
+    @Nullable
+    private byte[] serializedMetaDataNdJson;
     private boolean serializedActivationMethod;
+    /**
+     * Lazily allocated buffer to decode bodies that have been recorded as bytes, see {@link Request#withBodyBytes()}
+     */
+    @Nullable
+    private CharBuffer bodyBytesDecodeBuffer;
+    private final CharsetDecoder utf8Decoder = StandardCharsets.UTF_8.newDecoder();
+    private final ByteBuffer utf8Carry = ByteBuffer.allocate(4);
 
     public DslJsonSerializer(StacktraceConfiguration stacktraceConfiguration, ApmServerClient apmServerClient, final Future<MetaData> metaData) {
         this.stacktraceConfiguration = stacktraceConfiguration;
@@ -177,12 +190,14 @@ public class DslJsonSerializer implements PayloadSerializer {
      */
     @Override
     public void appendMetaDataNdJsonToStream() throws UninitializedException {
+        jw.writeAscii(getMetaDataNdJson());
+    }
+
+    @Override
+    public byte[] getMetaDataNdJson() throws UninitializedException {
         assertMetaDataReady();
-        jw.writeByte(JsonWriter.OBJECT_START);
-        writeFieldName("metadata");
-        appendMetadataToStream();
-        jw.writeByte(JsonWriter.OBJECT_END);
-        jw.writeByte(NEW_LINE);
+        //noinspection ConstantConditions
+        return serializedMetaDataNdJson;
     }
 
     static void serializeMetadata(MetaData metaData, JsonWriter metadataJW, boolean supportsConfiguredAndDetectedHostname, boolean supportsAgentActivationMethod) {
@@ -218,7 +233,7 @@ public class DslJsonSerializer implements PayloadSerializer {
     }
 
     private void assertMetaDataReady() throws UninitializedException {
-        if (serializedMetaData == null) {
+        if (serializedMetaData == null || serializedMetaDataNdJson == null) {
             throw new UninitializedException("Cannot serialize metadata as it is not ready yet. Call blockUntilReady()");
         }
     }
@@ -246,7 +261,16 @@ public class DslJsonSerializer implements PayloadSerializer {
         boolean supportsConfiguredAndDetectedHostname = apmServerClient.supportsConfiguredAndDetectedHostname();
 
         serializeMetadata(meta, metadataJW, supportsConfiguredAndDetectedHostname, supportsActivationMethod);
-        serializedMetaData = metadataJW.toByteArray();
+        byte[] serializedMetaData = metadataJW.toByteArray();
+
+        metadataJW.reset();
+        metadataJW.writeByte(JsonWriter.OBJECT_START);
+        writeFieldName("metadata", metadataJW);
+        metadataJW.writeAscii(serializedMetaData);
+        metadataJW.writeByte(JsonWriter.OBJECT_END);
+        metadataJW.writeByte(NEW_LINE);
+        serializedMetaDataNdJson = metadataJW.toByteArray();
+        this.serializedMetaData = serializedMetaData;
     }
 
     private static void serializeGlobalLabels(ArrayList<String> globalLabelKeys, ArrayList<String> globalLabelValues,
@@ -1520,6 +1544,8 @@ public class DslJsonSerializer implements PayloadSerializer {
                     writeFieldName("body");
                     jw.writeString(bodyBuffer);
                     jw.writeByte(COMMA);
+                } else {
+                    serializeBodyBytes(request.getBodyBytesForSerialization());
                 }
             }
             if (request.getUrl().hasContent()) {
@@ -1536,6 +1562,25 @@ public class DslJsonSerializer implements PayloadSerializer {
         }
     }
 
+    private void serializeBodyBytes(@Nullable ByteBodyBuffer bodyBytes) {
+        if (bodyBytes == null || bodyBytes.size() == 0) {
+            return;
+        }
+        CharBuffer decoded = bodyBytesDecodeBuffer;
+        if (decoded == null) {
+            decoded = bodyBytesDecodeBuffer = CharBuffer.allocate(SerializationConstants.getMaxLongStringValueLength());
+        }
+        ((Buffer) decoded).clear();
+        if (bodyBytes.decodeUtf8(decoded, utf8Decoder, utf8Carry).isError()) {
+            writeField("body", "[Non UTF-8 data]");
+        } else {
+            ((Buffer) decoded).flip();
+            writeFieldName("body");
+            jw.writeString(decoded);
+            jw.writeByte(COMMA);
+        }
+    }
+
     // visible for testing
     void serializeUrl(final Url url) {
         jw.writeByte(OBJECT_START);
@@ -26,10 +26,13 @@ import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.metrics.MetricSet;
 import co.elastic.apm.agent.report.Reporter;
 import co.elastic.apm.agent.report.ReporterConfiguration;
+import co.elastic.apm.agent.util.AgentScheduler;
 import com.dslplatform.json.JsonWriter;
 
+import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class MetricRegistryReporter extends AbstractLifecycleListener implements MetricRegistry.MetricsReporter, Runnable {
@@ -38,6 +41,8 @@ public class MetricRegistryReporter extends AbstractLifecycleListener implements
     private final ElasticApmTracer tracer;
     private final MetricRegistry metricRegistry;
     private final MetricRegistrySerializer serializer;
+    @Nullable
+    private ScheduledFuture<?> reportingTask;
 
     public MetricRegistryReporter(ElasticApmTracer tracer) {
         this.tracer = tracer;
@@ -50,7 +55,7 @@ public class MetricRegistryReporter extends AbstractLifecycleListener implements
     public void start(ElasticApmTracer tracer) {
         long intervalMs = tracer.getConfig(ReporterConfiguration.class).getMetricsIntervalMs();
         if (intervalMs > 0) {
-            tracer.getSharedSingleThreadedPool().scheduleAtFixedRate(this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            reportingTask = AgentScheduler.scheduleAtFixedRate("metrics-reporter", this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -61,9 +66,12 @@ public class MetricRegistryReporter extends AbstractLifecycleListener implements
 
     @Override
     public void stop() throws Exception {
+        if (reportingTask != null) {
+            reportingTask.cancel(false);
+        }
         // flushing out metrics before shutting down
         // this is especially important for counters as the counts that were accumulated between the last report and the shutdown would otherwise get lost
-        tracer.getSharedSingleThreadedPool().submit(this);
+        AgentScheduler.submit("metrics-reporter", this);
     }
 
     @Override
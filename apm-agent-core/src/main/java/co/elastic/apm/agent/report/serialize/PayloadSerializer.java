@@ -54,6 +54,21 @@ public interface PayloadSerializer {
      */
     void appendMetaDataNdJsonToStream() throws UninitializedException;
 
+    /**
+     * Returns the serialized metadata as a {@code metadata} ND-JSON line.
+     * <p>
+     * The returned array is cached and must not be modified.
+     * A different instance is returned whenever the metadata had to be serialized again.
+     * </p>
+     * <p>
+     * NOTE: Must be called after {@link PayloadSerializer#blockUntilReady()} was called and returned.
+     * </p>
+     *
+     * @return the {@code metadata} ND-JSON line, including the trailing new line
+     * @throws UninitializedException may be thrown if {@link PayloadSerializer#blockUntilReady()} was not invoked
+     */
+    byte[] getMetaDataNdJson() throws UninitializedException;
+
     /**
      * Appends the serialized metadata to the underlying {@link OutputStream}.
      * <p>
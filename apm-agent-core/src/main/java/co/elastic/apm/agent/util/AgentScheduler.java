@@ -0,0 +1,288 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.util;
+
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A scheduler that is shared by the background tasks of the agent, so that they don't need a dedicated thread each.
+ * <p>
+ * Short, non-blocking tasks are executed on a single {@value #SCHEDULER_THREAD_PURPOSE} thread.
+ * Tasks that block on I/O, like HTTP requests to APM Server, are {@linkplain #submitBlocking(String, Callable) submitted}
+ * to a separate {@value #IO_THREAD_PURPOSE} thread, so that they can't delay the other tasks.
+ * Tasks that block for their whole lifetime, like the reporter or the remote config poller, should still use a dedicated thread.
+ * Both threads are only started when the first task is submitted.
+ * They are {@linkplain #shutdown() shut down} when the tracer is stopped and started again if a task is submitted afterwards.
+ * </p>
+ * <p>
+ * Tasks are not allowed to outlive the component that submitted them:
+ * the returned {@link Future} has to be cancelled when the component is stopped.
+ * Periodic tasks keep running if an execution throws an exception.
+ * </p>
+ * <p>
+ * As multiple tasks share a thread, the CPU time the thread uses can't be attributed to a single task purpose.
+ * When {@linkplain #setCpuAccountingEnabled(boolean) enabled}, the CPU time of each execution is measured and accounted to
+ * the name of the task, which is {@linkplain #collectTaskCpuTime(Map) collected} by the
+ * {@link co.elastic.apm.agent.metrics.builtin.AgentOverheadMetrics}.
+ * </p>
+ */
+public final class AgentScheduler {
+
+    static final String SCHEDULER_THREAD_PURPOSE = "scheduler";
+    static final String IO_THREAD_PURPOSE = "scheduler-io";
+
+    private static final Logger logger = LoggerFactory.getLogger(AgentScheduler.class);
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private static final ConcurrentMap<String, TaskCpuTime> cpuTimeByTask = new ConcurrentHashMap<>();
+
+    private static volatile boolean cpuAccountingEnabled = false;
+
+    @Nullable
+    private static volatile SchedulerExecutors executors;
+
+    private AgentScheduler() {
+        // don't instantiate
+    }
+
+    /**
+     * The executors are created when the first task is submitted, so that they are not created if no task is ever scheduled.
+     */
+    private static class SchedulerExecutors {
+        private final ScheduledThreadPoolExecutor scheduler = createExecutor(SCHEDULER_THREAD_PURPOSE);
+        private final ScheduledThreadPoolExecutor io = createExecutor(IO_THREAD_PURPOSE);
+
+        private static ScheduledThreadPoolExecutor createExecutor(String threadPurpose) {
+            ScheduledThreadPoolExecutor executor = ExecutorUtils.createSingleThreadSchedulingDaemonPool(threadPurpose);
+            // avoids that cancelled tasks, like request timeouts, accumulate in the queue until their delay has expired
+            executor.setRemoveOnCancelPolicy(true);
+            // pending delayed tasks belong to components that are already stopped, they must not delay the shutdown
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            return executor;
+        }
+    }
+
+    private static SchedulerExecutors getExecutors() {
+        SchedulerExecutors current = executors;
+        if (current == null) {
+            synchronized (AgentScheduler.class) {
+                current = executors;
+                if (current == null) {
+                    executors = current = new SchedulerExecutors();
+                }
+            }
+        }
+        return current;
+    }
+
+    public static ScheduledFuture<?> schedule(String taskName, Runnable task, long delay, TimeUnit unit) {
+        return getExecutors().scheduler.schedule(new AccountedTask(SCHEDULER_THREAD_PURPOSE, taskName, task), delay, unit);
+    }
+
+    public static ScheduledFuture<?> scheduleWithFixedDelay(String taskName, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return getExecutors().scheduler.scheduleWithFixedDelay(new AccountedTask(SCHEDULER_THREAD_PURPOSE, taskName, task), initialDelay, delay, unit);
+    }
+
+    public static ScheduledFuture<?> scheduleAtFixedRate(String taskName, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return getExecutors().scheduler.scheduleAtFixedRate(new AccountedTask(SCHEDULER_THREAD_PURPOSE, taskName, task), initialDelay, period, unit);
+    }
+
+    /**
+     * Submits a task to be executed as soon as possible, for example to report the state of a component when it is stopped.
+     * The tracer {@linkplain #awaitSubmittedTasks(long, TimeUnit) waits} for such tasks to complete before it switches
+     * to the stopped state.
+     */
+    public static Future<?> submit(String taskName, Runnable task) {
+        return getExecutors().scheduler.submit(new AccountedTask(SCHEDULER_THREAD_PURPOSE, taskName, task));
+    }
+
+    /**
+     * Waits until the tasks that have been {@linkplain #submit(String, Runnable) submitted} before are completed.
+     * Periodic and delayed tasks that are not due yet are not waited for.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     */
+    public static void awaitSubmittedTasks(long timeout, TimeUnit unit) {
+        SchedulerExecutors current = executors;
+        if (current == null) {
+            return;
+        }
+        try {
+            // tasks that are due at the same time are executed in the order they are submitted
+            current.scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RejectedExecutionException e) {
+            logger.warn("Submitted agent tasks did not complete in time", e);
+        }
+    }
+
+    /**
+     * Submits a task that may block on I/O.
+     * Unlike the other tasks, exceptions are not logged but propagated to the returned {@link Future}.
+     */
+    public static <T> Future<T> submitBlocking(String taskName, Callable<T> task) {
+        return getExecutors().io.submit(new AccountedCallable<T>(IO_THREAD_PURPOSE, taskName, task));
+    }
+
+    /**
+     * Stops the scheduler threads, cancelling all tasks that are still scheduled.
+     * Should only be called after all components that have submitted tasks are stopped,
+     * as submitting a task concurrently to shutting down may fail with a {@link java.util.concurrent.RejectedExecutionException}.
+     * Tasks that are submitted afterwards start new threads.
+     */
+    public static void shutdown() {
+        SchedulerExecutors current;
+        synchronized (AgentScheduler.class) {
+            current = executors;
+            executors = null;
+        }
+        if (current != null) {
+            ExecutorUtils.shutdownAndWaitTermination(current.scheduler);
+            ExecutorUtils.shutdownAndWaitTermination(current.io);
+        }
+    }
+
+    public static void setCpuAccountingEnabled(boolean enabled) {
+        cpuAccountingEnabled = enabled && threadBean.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * Adds the CPU time the tasks have used since the last invocation to the provided counters, keyed by the task name.
+     * The CPU time of the tasks is subtracted from the counter of the thread the tasks have been executed on,
+     * so that it's not accounted twice.
+     *
+     * @param cpuTimeByPurpose the CPU time in nanoseconds per thread purpose
+     */
+    public static void collectTaskCpuTime(Map<String, AtomicLong> cpuTimeByPurpose) {
+        for (Map.Entry<String, TaskCpuTime> entry : cpuTimeByTask.entrySet()) {
+            TaskCpuTime taskCpuTime = entry.getValue();
+            long cpuTime = taskCpuTime.cpuTime.getAndSet(0);
+            if (cpuTime > 0) {
+                addToCounter(cpuTimeByPurpose, entry.getKey(), cpuTime);
+                addToCounter(cpuTimeByPurpose, taskCpuTime.threadPurpose, -cpuTime);
+            }
+        }
+    }
+
+    private static void addToCounter(Map<String, AtomicLong> counters, String key, long delta) {
+        AtomicLong counter = counters.get(key);
+        if (counter != null) {
+            counter.addAndGet(delta);
+        } else {
+            counters.put(key, new AtomicLong(delta));
+        }
+    }
+
+    private static long startCpuTime() {
+        return cpuAccountingEnabled ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static void accountCpuTime(String threadPurpose, String taskName, long startCpuTime) {
+        if (startCpuTime < 0) {
+            return;
+        }
+        long cpuTime = threadBean.getCurrentThreadCpuTime() - startCpuTime;
+        TaskCpuTime taskCpuTime = cpuTimeByTask.get(taskName);
+        if (taskCpuTime == null) {
+            cpuTimeByTask.putIfAbsent(taskName, new TaskCpuTime(threadPurpose));
+            taskCpuTime = cpuTimeByTask.get(taskName);
+        }
+        taskCpuTime.cpuTime.addAndGet(cpuTime);
+    }
+
+    private static class TaskCpuTime {
+        private final String threadPurpose;
+        private final AtomicLong cpuTime = new AtomicLong();
+
+        private TaskCpuTime(String threadPurpose) {
+            this.threadPurpose = threadPurpose;
+        }
+    }
+
+    private static class AccountedTask implements Runnable {
+        private final String threadPurpose;
+        private final String taskName;
+        private final Runnable task;
+
+        private AccountedTask(String threadPurpose, String taskName, Runnable task) {
+            this.threadPurpose = threadPurpose;
+            this.taskName = taskName;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long startCpuTime = startCpuTime();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // not re-throwing as that would silently cancel periodic tasks
+                logger.error("Error in agent task " + taskName, t);
+            } finally {
+                accountCpuTime(threadPurpose, taskName, startCpuTime);
+            }
+        }
+    }
+
+    private static class AccountedCallable<T> implements Callable<T> {
+        private final String threadPurpose;
+        private final String taskName;
+        private final Callable<T> task;
+
+        private AccountedCallable(String threadPurpose, String taskName, Callable<T> task) {
+            this.threadPurpose = threadPurpose;
+            this.taskName = taskName;
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            long startCpuTime = startCpuTime();
+            try {
+                return task.call();
+            } finally {
+                accountCpuTime(threadPurpose, taskName, startCpuTime);
+            }
+        }
+    }
+}
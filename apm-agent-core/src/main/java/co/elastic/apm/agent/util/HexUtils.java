@@ -71,7 +71,29 @@ public class HexUtils {
         sb.append(hexArray[v & 0x0F]);
     }
 
-    public static byte getNextByte(String hexEncodedString, int offset) {
+    /**
+     * Writes the hex representation of the provided bytes into the provided char array
+     *
+     * @param bytes  the bytes to write
+     * @param dest   the char array to write to, must have room for {@code bytes.length * 2} chars after {@code offset}
+     * @param offset the offset in the char array
+     * @return the offset in the char array after the last written char
+     */
+    public static int writeBytesAsHex(byte[] bytes, char[] dest, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            offset = writeByteAsHex(bytes[i], dest, offset);
+        }
+        return offset;
+    }
+
+    public static int writeByteAsHex(byte b, char[] dest, int offset) {
+        int v = b & 0xFF;
+        dest[offset++] = hexArray[v >>> 4];
+        dest[offset++] = hexArray[v & 0x0F];
+        return offset;
+    }
+
+    public static byte getNextByte(CharSequence hexEncodedString, int offset) {
         final int hi = hexCharToBinary(hexEncodedString.charAt(offset));
         final int lo = hexCharToBinary(hexEncodedString.charAt(offset + 1));
         if (hi == -1 || lo == -1) {
@@ -93,7 +115,7 @@ public class HexUtils {
         return -1;
     }
 
-    public static void nextBytes(String hexEncodedString, int offset, byte[] bytes) {
+    public static void nextBytes(CharSequence hexEncodedString, int offset, byte[] bytes) {
         final int charsToRead = bytes.length * 2;
         if (hexEncodedString.length() < offset + charsToRead) {
             throw new IllegalArgumentException(String.format("Can't read %d bytes from string %s with offset %d", bytes.length, hexEncodedString, offset));
@@ -19,6 +19,7 @@
 package co.elastic.apm.agent.util;
 
 import co.elastic.apm.agent.common.util.WildcardMatcher;
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -83,7 +84,21 @@ public class TransactionNameUtils {
         if (transactionName == null) {
             return;
         }
-        WildcardMatcher groupMatcher = WildcardMatcher.anyMatch(urlGroups, pathFirstPart, pathSecondPart);
+        setNameFromHttpRequestPath(method, pathFirstPart, pathSecondPart, transactionName, WildcardMatcher.anyMatch(urlGroups, pathFirstPart, pathSecondPart));
+    }
+
+    public static void setNameFromHttpRequestPath(String method, String path, @Nullable StringBuilder transactionName, WildcardMatcherSet urlGroups) {
+        setNameFromHttpRequestPath(method, path, null, transactionName, urlGroups);
+    }
+
+    public static void setNameFromHttpRequestPath(String method, String pathFirstPart, @Nullable String pathSecondPart, @Nullable StringBuilder transactionName, WildcardMatcherSet urlGroups) {
+        if (transactionName == null) {
+            return;
+        }
+        setNameFromHttpRequestPath(method, pathFirstPart, pathSecondPart, transactionName, urlGroups.anyMatch(pathFirstPart, pathSecondPart));
+    }
+
+    private static void setNameFromHttpRequestPath(String method, String pathFirstPart, @Nullable String pathSecondPart, StringBuilder transactionName, @Nullable WildcardMatcher groupMatcher) {
         if (groupMatcher != null) {
             transactionName.append(method).append(' ').append(groupMatcher);
         } else {
@@ -0,0 +1,140 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.bci.bytebuddy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClassMatchingDecisionCacheTest {
+
+    private static final String FINGERPRINT = ClassMatchingDecisionCache.fingerprint("1.0.0", "11");
+
+    @Test
+    void testKnownMismatchesAreSkippedInSubsequentRuns(@TempDir Path tempDir) throws Exception {
+        ProtectionDomain protectionDomain = protectionDomain(createJar(tempDir, "lib.jar"));
+
+        ClassMatchingDecisionCache firstRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        String codeSourceKey = firstRun.getCodeSourceKey(protectionDomain);
+        assertThat(codeSourceKey).isNotNull();
+        assertThat(firstRun.isKnownMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation")).isFalse();
+        firstRun.recordMismatch(codeSourceKey, "com.example.Foo", "BarInstrumentation");
+        firstRun.persist();
+        assertThat(firstRun.getCacheFile()).isFile();
+
+        ClassMatchingDecisionCache secondRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        codeSourceKey = secondRun.getCodeSourceKey(protectionDomain);
+        assertThat(codeSourceKey).isNotNull();
+        // no decision has been recorded for this instrumentation, so it's unknown whether it matches
+        assertThat(secondRun.isKnownMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation")).isFalse();
+        assertThat(secondRun.isKnownMismatch(codeSourceKey, "com.example.Foo", "BarInstrumentation")).isTrue();
+        // unknown classes always have to be matched
+        assertThat(secondRun.isKnownMismatch(codeSourceKey, "com.example.Baz", "BarInstrumentation")).isFalse();
+        assertThat(secondRun.getSkippedTypeMatches()).isEqualTo(1);
+    }
+
+    @Test
+    void testSkippedDecisionsAreCarriedOver(@TempDir Path tempDir) throws Exception {
+        ProtectionDomain protectionDomain = protectionDomain(createJar(tempDir, "lib.jar"));
+        ClassMatchingDecisionCache firstRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        String codeSourceKey = firstRun.getCodeSourceKey(protectionDomain);
+        assertThat(codeSourceKey).isNotNull();
+        firstRun.recordMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation");
+        firstRun.persist();
+
+        ClassMatchingDecisionCache secondRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        assertThat(secondRun.isKnownMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation")).isTrue();
+        secondRun.recordMismatch(codeSourceKey, "com.example.Foo", "BarInstrumentation");
+        secondRun.persist();
+
+        ClassMatchingDecisionCache thirdRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        assertThat(thirdRun.isKnownMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation")).isTrue();
+        assertThat(thirdRun.isKnownMismatch(codeSourceKey, "com.example.Foo", "BarInstrumentation")).isTrue();
+    }
+
+    @Test
+    void testChangedJarInvalidatesDecisions(@TempDir Path tempDir) throws Exception {
+        Path jar = createJar(tempDir, "lib.jar");
+        ClassMatchingDecisionCache firstRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        String codeSourceKey = firstRun.getCodeSourceKey(protectionDomain(jar));
+        assertThat(codeSourceKey).isNotNull();
+        firstRun.recordMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation");
+        firstRun.persist();
+
+        Files.write(jar, "changed contents".getBytes(StandardCharsets.UTF_8));
+
+        ClassMatchingDecisionCache secondRun = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        String changedCodeSourceKey = secondRun.getCodeSourceKey(protectionDomain(jar));
+        assertThat(changedCodeSourceKey).isNotNull().isNotEqualTo(codeSourceKey);
+        assertThat(secondRun.isKnownMismatch(changedCodeSourceKey, "com.example.Foo", "FooInstrumentation")).isFalse();
+    }
+
+    @Test
+    void testDifferentFingerprintUsesDifferentFile(@TempDir Path tempDir) {
+        File cacheFile = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT).getCacheFile();
+        File otherCacheFile = ClassMatchingDecisionCache.create(tempDir.toFile(), ClassMatchingDecisionCache.fingerprint("1.0.1", "11")).getCacheFile();
+        assertThat(cacheFile).isNotEqualTo(otherCacheFile);
+    }
+
+    @Test
+    void testDirectoriesAreNotCacheable(@TempDir Path tempDir) throws Exception {
+        assertThat(ClassMatchingDecisionCache.computeCodeSourceKey(null)).isEmpty();
+        assertThat(ClassMatchingDecisionCache.computeCodeSourceKey(new CodeSource(tempDir.toUri().toURL(), (Certificate[]) null))).isEmpty();
+        assertThat(ClassMatchingDecisionCache.computeCodeSourceKey(new CodeSource(tempDir.resolve("missing.jar").toUri().toURL(), (Certificate[]) null))).isEmpty();
+    }
+
+    @Test
+    void testDisabledCacheIsNotPersisted(@TempDir Path tempDir) throws Exception {
+        ClassMatchingDecisionCache cache = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        String codeSourceKey = cache.getCodeSourceKey(protectionDomain(createJar(tempDir, "lib.jar")));
+        assertThat(codeSourceKey).isNotNull();
+        cache.recordMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation");
+        cache.disable();
+        cache.persist();
+        assertThat(cache.getCacheFile()).doesNotExist();
+        assertThat(cache.getCodeSourceKey(protectionDomain(createJar(tempDir, "other.jar")))).isNull();
+    }
+
+    @Test
+    void testCorruptFileIsIgnored(@TempDir Path tempDir) throws Exception {
+        File cacheFile = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT).getCacheFile();
+        Files.write(cacheFile.toPath(), "not a cache file".getBytes(StandardCharsets.UTF_8));
+        ClassMatchingDecisionCache cache = ClassMatchingDecisionCache.create(tempDir.toFile(), FINGERPRINT);
+        String codeSourceKey = cache.getCodeSourceKey(protectionDomain(createJar(tempDir, "lib.jar")));
+        assertThat(codeSourceKey).isNotNull();
+        assertThat(cache.isKnownMismatch(codeSourceKey, "com.example.Foo", "FooInstrumentation")).isFalse();
+    }
+
+    private static Path createJar(Path dir, String name) throws Exception {
+        return Files.write(dir.resolve(name), "jar".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ProtectionDomain protectionDomain(Path jar) throws Exception {
+        return new ProtectionDomain(new CodeSource(jar.toUri().toURL(), (Certificate[]) null), null);
+    }
+}
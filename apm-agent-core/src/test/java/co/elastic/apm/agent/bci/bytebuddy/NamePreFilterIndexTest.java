@@ -0,0 +1,142 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.bci.bytebuddy;
+
+import net.bytebuddy.description.NamedElement;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.ElementMatchers;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static co.elastic.apm.agent.bci.bytebuddy.CustomElementMatchers.isInAnyPackage;
+import static net.bytebuddy.matcher.ElementMatchers.any;
+import static net.bytebuddy.matcher.ElementMatchers.nameContains;
+import static net.bytebuddy.matcher.ElementMatchers.nameContainsIgnoreCase;
+import static net.bytebuddy.matcher.ElementMatchers.nameEndsWith;
+import static net.bytebuddy.matcher.ElementMatchers.nameMatches;
+import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.none;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NamePreFilterIndexTest {
+
+    @Test
+    void testExtractAtoms() throws Exception {
+        assertThat(NamePreFilterIndex.extractAtoms(nameContains("Servlet"))).hasSize(1);
+        assertThat(NamePreFilterIndex.extractAtoms(nameContains("Servlet").or(nameContainsIgnoreCase("jsp")))).hasSize(2);
+        assertThat(NamePreFilterIndex.extractAtoms(nameStartsWith("io.lettuce").and(nameContains("Command")))).hasSize(1);
+        assertThat(NamePreFilterIndex.extractAtoms(isInAnyPackage(Arrays.asList("com.foo", "org.bar"), ElementMatchers.<NamedElement>any()))).hasSize(2);
+        assertThat(NamePreFilterIndex.extractAtoms(none())).isEmpty();
+
+        assertThat(NamePreFilterIndex.extractAtoms(any())).isNull();
+        assertThat(NamePreFilterIndex.extractAtoms(not(nameStartsWith("org.springframework.")))).isNull();
+        assertThat(NamePreFilterIndex.extractAtoms(nameMatches(".*Foo"))).isNull();
+        assertThat(NamePreFilterIndex.extractAtoms(nameContains("Foo").or(any()))).isNull();
+        assertThat(NamePreFilterIndex.extractAtoms(nameContains(""))).isNull();
+    }
+
+    @Test
+    void testIndexedPreFiltersAreEquivalent() {
+        List<ElementMatcher<? super NamedElement>> preFilters = Arrays.<ElementMatcher<? super NamedElement>>asList(
+            nameContains("Servlet").or(nameContainsIgnoreCase("jsp")),
+            nameStartsWith("io.lettuce").and(nameContains("Command")),
+            nameStartsWith("java.util.logging."),
+            nameEndsWith("ApplicationContext"),
+            named("com.example.Foo"),
+            nameContains("Exec").or(nameContains("Chain")),
+            not(nameStartsWith("org.springframework.")),
+            nameContains("Executor"),
+            none()
+        );
+        NamePreFilterIndex index = new NamePreFilterIndex(null);
+        List<ElementMatcher<NamedElement>> indexed = new ArrayList<>();
+        for (ElementMatcher<? super NamedElement> preFilter : preFilters) {
+            indexed.add(index.add(preFilter));
+        }
+        index.compile();
+
+        List<String> names = Arrays.asList(
+            "javax.servlet.http.HttpServlet",
+            "org.apache.jasper.runtime.HttpJspBase",
+            "io.lettuce.core.protocol.CommandHandler",
+            "io.lettuce.core.RedisClient",
+            "java.util.logging.Logger",
+            "com.example.java.util.logging.Logger",
+            "org.springframework.context.support.AbstractApplicationContext",
+            "org.springframework.context.ApplicationContextAware",
+            "com.example.Foo",
+            "com.example.Foo$Bar",
+            "com.example.foo",
+            "java.util.concurrent.ThreadPoolExecutor",
+            "javax.servlet.FilterChain",
+            "java.lang.String",
+            "com.example.étéServlet",
+            "");
+        for (String name : names) {
+            TypeDescription type = new TypeDescription.Latent(name, 0, null);
+            for (int i = 0; i < preFilters.size(); i++) {
+                assertThat(indexed.get(i).matches(type))
+                    .describedAs("%s should match %s: %s", preFilters.get(i), name, preFilters.get(i).matches(type))
+                    .isEqualTo(preFilters.get(i).matches(type));
+            }
+        }
+    }
+
+    @Test
+    void testIndexRejectsNonMatchingNames() {
+        NamePreFilterIndex index = new NamePreFilterIndex(null);
+        index.add(nameContains("Servlet"));
+        index.add(nameStartsWith("io.lettuce"));
+        index.add(any());
+        index.compile();
+
+        assertThat(index.mayMatch(0, "javax.servlet.http.HttpServlet")).isTrue();
+        assertThat(index.mayMatch(1, "javax.servlet.http.HttpServlet")).isFalse();
+        assertThat(index.mayMatch(2, "javax.servlet.http.HttpServlet")).isTrue();
+
+        assertThat(index.mayMatch(0, "com.example.io.lettuce.Foo")).isFalse();
+        assertThat(index.mayMatch(1, "com.example.io.lettuce.Foo")).isFalse();
+        assertThat(index.mayMatch(1, "io.lettuce.Foo")).isTrue();
+        // the automaton ignores the case, the actual pre filter is evaluated on top of that
+        assertThat(index.mayMatch(0, "com.example.servlet.Foo")).isTrue();
+    }
+
+    @Test
+    void testNotCompiledIndexMatchesEverything() {
+        NamePreFilterIndex index = new NamePreFilterIndex(null);
+        index.add(nameContains("Servlet"));
+        assertThat(index.mayMatch(0, "java.lang.String")).isTrue();
+    }
+
+    @Test
+    void testMatchingTimeIsRecorded() {
+        MatcherTimer timer = new MatcherTimer(NamePreFilterIndex.class.getName());
+        NamePreFilterIndex index = new NamePreFilterIndex(timer);
+        index.add(nameContains("Servlet"));
+        index.compile();
+        index.mayMatch(0, "javax.servlet.http.HttpServlet");
+        assertThat(timer.getTotalTime()).isPositive();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.bci.bytebuddy;
+
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class RetransformationSchedulerTest {
+
+    private MetricRegistry metricRegistry;
+    private List<Class<?>> types;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = mock(MetricRegistry.class);
+        types = Arrays.<Class<?>>asList(String.class, Integer.class, Long.class, Short.class, Byte.class,
+            Double.class, Float.class, Character.class, Boolean.class, Object.class);
+    }
+
+    @Test
+    void testBatchesAreBoundedAndPaused() {
+        RetransformationScheduler scheduler = new RetransformationScheduler(metricRegistry, 3, 10, false);
+
+        long start = System.nanoTime();
+        List<List<Class<?>>> batches = retransform(scheduler, types, 0);
+        long durationMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(batches).hasSize(4);
+        for (List<Class<?>> batch : batches) {
+            assertThat(batch).hasSizeLessThanOrEqualTo(3);
+        }
+        assertThat(flatten(batches)).containsExactlyElementsOf(types);
+        // three pauses between four batches
+        assertThat(durationMs).isGreaterThanOrEqualTo(30);
+        assertThat(scheduler.getRetransformedClasses()).isEqualTo(types.size());
+        verify(metricRegistry, times(3)).addToCounter(RetransformationScheduler.RETRANSFORMED_CLASSES_METRIC, Labels.EMPTY, 3);
+        verify(metricRegistry).addToCounter(RetransformationScheduler.RETRANSFORMED_CLASSES_METRIC, Labels.EMPTY, 1);
+        verify(metricRegistry, times(4)).updateTimer(eq(RetransformationScheduler.BATCH_DURATION_METRIC), eq(Labels.EMPTY), anyLong());
+    }
+
+    @Test
+    void testSlowBatchesReduceBatchSize() {
+        RetransformationScheduler scheduler = new RetransformationScheduler(metricRegistry, 4, 1, false);
+
+        List<List<Class<?>>> batches = retransform(scheduler, types, 5);
+
+        assertThat(batches.get(0)).hasSize(4);
+        assertThat(batches.get(1)).hasSize(2);
+        assertThat(batches.get(2)).hasSize(1);
+        assertThat(flatten(batches)).containsExactlyElementsOf(types);
+        assertThat(scheduler.getLastBatchDurationNs()).isGreaterThanOrEqualTo(5_000_000);
+    }
+
+    @Test
+    void testFailedBatchesAreNotCountedAsRetransformed() {
+        RetransformationScheduler scheduler = new RetransformationScheduler(metricRegistry, 5, 0, false);
+
+        int index = 0;
+        for (List<Class<?>> batch : scheduler.batch(types)) {
+            scheduler.onBatch(index, batch, types);
+            if (index == 0) {
+                scheduler.onError(index, batch, new IllegalStateException(), types);
+            }
+            index++;
+        }
+        scheduler.onComplete(index, types, Collections.<List<Class<?>>, Throwable>emptyMap());
+
+        assertThat(scheduler.getRetransformedClasses()).isEqualTo(5);
+        verify(metricRegistry).addToCounter(RetransformationScheduler.FAILED_CLASSES_METRIC, Labels.EMPTY, 5);
+    }
+
+    @Test
+    void testHotClassesFirst() {
+        RetransformationScheduler scheduler = new RetransformationScheduler(metricRegistry, 100, 0, true);
+        List<Class<?>> typesWithHotClass = new ArrayList<>(types);
+        typesWithHotClass.add(RetransformationSchedulerTest.class);
+
+        List<List<Class<?>>> batches = retransform(scheduler, typesWithHotClass, 0);
+
+        assertThat(batches).hasSize(1);
+        // this test class is on the stack of the current thread, it has been added last but is moved to the front
+        assertThat(batches.get(0).indexOf(RetransformationSchedulerTest.class)).isLessThan(types.size());
+        assertThat(batches.get(0)).containsExactlyInAnyOrderElementsOf(typesWithHotClass);
+    }
+
+    /**
+     * Emulates how ByteBuddy uses the batch allocator and listener
+     */
+    private static List<List<Class<?>>> retransform(RetransformationScheduler scheduler, List<Class<?>> types, long batchDurationMs) {
+        List<List<Class<?>>> batches = new ArrayList<>();
+        int index = 0;
+        for (List<Class<?>> batch : scheduler.batch(types)) {
+            scheduler.onBatch(index++, batch, types);
+            batches.add(new ArrayList<>(batch));
+            sleep(batchDurationMs);
+        }
+        scheduler.onComplete(index, types, Collections.<List<Class<?>>, Throwable>emptyMap());
+        return batches;
+    }
+
+    private static List<Class<?>> flatten(List<List<Class<?>>> batches) {
+        List<Class<?>> result = new ArrayList<>();
+        for (List<Class<?>> batch : batches) {
+            result.addAll(batch);
+        }
+        return result;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
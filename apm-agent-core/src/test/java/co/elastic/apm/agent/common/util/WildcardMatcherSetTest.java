@@ -0,0 +1,141 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.common.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import specs.TestJsonSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WildcardMatcherSetTest {
+
+    @Test
+    void testJsonSpecSingleMatcher() {
+        JsonNode json = TestJsonSpec.getJson("wildcard_matcher_tests.json");
+        json.fieldNames().forEachRemaining(testName -> {
+            JsonNode testNode = json.get(testName);
+            String pattern = testNode.fieldNames().next();
+            WildcardMatcherSet matcherSet = WildcardMatcherSet.of(List.of(WildcardMatcher.valueOf(pattern)));
+            JsonNode patternNode = testNode.get(pattern);
+            patternNode.fieldNames().forEachRemaining(s ->
+                assertThat(matcherSet.isAnyMatch(s))
+                    .describedAs("%s: %s matches %s", testName, pattern, s)
+                    .isEqualTo(patternNode.get(s).asBoolean()));
+        });
+    }
+
+    @Test
+    void testAllKindsOfMatchers() {
+        WildcardMatcherSet matcherSet = WildcardMatcherSet.of(matchers("password", "foo*", "*key", "*token*", "(?-i)Secret", "/foo/*/bar"));
+
+        assertThat(matcherSet.anyMatch("PassWord")).hasToString("password");
+        assertThat(matcherSet.anyMatch("passwords")).isNull();
+        assertThat(matcherSet.anyMatch("FOObar")).hasToString("foo*");
+        assertThat(matcherSet.anyMatch("api-KEY")).hasToString("*key");
+        assertThat(matcherSet.anyMatch("keys")).isNull();
+        assertThat(matcherSet.anyMatch("x-auth-Token-id")).hasToString("*token*");
+        assertThat(matcherSet.anyMatch("Secret")).hasToString("(?-i)Secret");
+        assertThat(matcherSet.anyMatch("secret")).isNull();
+        assertThat(matcherSet.anyMatch("/foo/baz/bar")).hasToString("/foo/*/bar");
+        assertThat(matcherSet.anyMatch("")).isNull();
+        assertThat(matcherSet.anyMatch(null)).isNull();
+        assertThat(matcherSet.isNoneMatch("bar")).isTrue();
+    }
+
+    @Test
+    void testReturnsFirstMatchingMatcher() {
+        WildcardMatcherSet matcherSet = WildcardMatcherSet.of(matchers("*ab*", "(?-i)xabx", "*b*", "x*", "*x", "xabx"));
+
+        assertThat(matcherSet.anyMatch("xabx")).hasToString("*ab*");
+        assertThat(matcherSet.anyMatch("xbx")).hasToString("*b*");
+        assertThat(matcherSet.anyMatch("xaax")).hasToString("x*");
+        assertThat(matcherSet.anyMatch("aax")).hasToString("*x");
+    }
+
+    @Test
+    void testOverlappingInfixMatchers() {
+        // requires following failure links of the Aho-Corasick automaton
+        WildcardMatcherSet matcherSet = WildcardMatcherSet.of(matchers("*abcd*", "*bce*", "*cf*"));
+
+        assertThat(matcherSet.anyMatch("abce")).hasToString("*bce*");
+        assertThat(matcherSet.anyMatch("abcf")).hasToString("*cf*");
+        assertThat(matcherSet.anyMatch("abcabcd")).hasToString("*abcd*");
+        assertThat(matcherSet.anyMatch("abcabd")).isNull();
+    }
+
+    @Test
+    void testPartitionedString() {
+        WildcardMatcherSet matcherSet = WildcardMatcherSet.of(matchers("/foo/bar", "*/baz*"));
+
+        assertThat(matcherSet.anyMatch("/foo", "/bar")).hasToString("/foo/bar");
+        assertThat(matcherSet.anyMatch("/foo/b", "ar")).hasToString("/foo/bar");
+        assertThat(matcherSet.anyMatch("/foo/", "baz/qux")).hasToString("*/baz*");
+        assertThat(matcherSet.anyMatch("/foo", null)).isNull();
+    }
+
+    @Test
+    void testSameResultAsLinearMatching() {
+        List<WildcardMatcher> matchers = matchers("*pass*", "pwd", "*key", "*token*", "*session*", "*credit*", "*card*",
+            "*auth*", "set-cookie", "*principal*", "x-*", "(?-i)*Api*", "a*b*c", "*");
+        Random random = new Random(42);
+        char[] alphabet = "abcdeiknoprstwyxAKPST-*".toCharArray();
+        for (int matchersSize = 0; matchersSize <= matchers.size(); matchersSize++) {
+            List<WildcardMatcher> subList = matchers.subList(0, matchersSize);
+            WildcardMatcherSet matcherSet = WildcardMatcherSet.of(subList);
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(16);
+                for (int j = 0; j < length; j++) {
+                    sb.append(alphabet[random.nextInt(alphabet.length)]);
+                }
+                String s = sb.toString();
+                assertThat(matcherSet.anyMatch(s))
+                    .describedAs("%s matches %s", subList, s)
+                    .isEqualTo(WildcardMatcher.anyMatch(subList, s));
+                assertThat(matcherSet.isAnyMatch(s))
+                    .describedAs("%s matches %s", subList, s)
+                    .isEqualTo(WildcardMatcher.isAnyMatch(subList, s));
+            }
+        }
+    }
+
+    @Test
+    void testCacheOnlyRecompilesOnChange() {
+        WildcardMatcherSet.Cache cache = new WildcardMatcherSet.Cache();
+        List<WildcardMatcher> matchers = matchers("foo*");
+        WildcardMatcherSet matcherSet = cache.get(matchers);
+
+        assertThat(cache.get(matchers)).isSameAs(matcherSet);
+        assertThat(cache.get(matchers("bar*"))).isNotSameAs(matcherSet);
+    }
+
+    private static List<WildcardMatcher> matchers(String... patterns) {
+        List<WildcardMatcher> matchers = new ArrayList<>();
+        for (String pattern : Arrays.asList(patterns)) {
+            matchers.add(WildcardMatcher.valueOf(pattern));
+        }
+        return matchers;
+    }
+}
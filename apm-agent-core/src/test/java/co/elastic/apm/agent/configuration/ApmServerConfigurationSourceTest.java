@@ -39,6 +39,7 @@ import org.stagemonitor.configuration.ConfigurationRegistry;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder.okForJson;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
@@ -159,4 +160,20 @@ public class ApmServerConfigurationSourceTest {
         assertThat(ApmServerConfigurationSource.pollDelaySec("max-age=3")).isEqualTo(5);
     }
 
+    @Test
+    public void testPollDelayJitter() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(ApmServerConfigurationSource.jitteredDelayMillis(30, random)).isBetween(30_000L, 33_000L);
+        }
+    }
+
+    @Test
+    public void testChangedKeys() {
+        Map<String, String> previous = Map.of("foo", "bar", "baz", "qux", "removed", "value");
+        Map<String, String> next = Map.of("foo", "bar", "baz", "changed", "added", "value");
+        assertThat(ApmServerConfigurationSource.changedKeys(previous, next)).containsExactlyInAnyOrder("baz", "removed", "added");
+        assertThat(ApmServerConfigurationSource.changedKeys(previous, previous)).isEmpty();
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.db.signature;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import specs.TestJsonSpec;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryNormalizerTest {
+
+    private final QueryNormalizer normalizer = new QueryNormalizer();
+
+    @Test
+    void testNormalize() {
+        assertNormalized("SELECT * FROM foo WHERE id = 42", "SELECT * FROM foo WHERE id = ?");
+        assertNormalized("SELECT * FROM foo WHERE id = 4.2e-1", "SELECT * FROM foo WHERE id = ?");
+        assertNormalized("SELECT * FROM foo WHERE name = 'it''s' AND x = 'a\\'b'", "SELECT * FROM foo WHERE name = ? AND x = ?");
+        assertNormalized("SELECT * FROM foo WHERE id IN (1, 2, 3)", "SELECT * FROM foo WHERE id IN (?)");
+        assertNormalized("SELECT * FROM foo WHERE id IN (?, ?)", "SELECT * FROM foo WHERE id IN (?)");
+        assertNormalized("SELECT * FROM foo WHERE (a, b) IN ((1, 'x'), (2, 'y'))", "SELECT * FROM foo WHERE (a, b) IN ((?), (?))");
+        assertNormalized("SELECT count(*) FROM foo2 WHERE bar1 = 1", "SELECT count(*) FROM foo2 WHERE bar1 = ?");
+        assertNormalized("SELECT * FROM \"foo 1\" WHERE `bar 2` = [baz 3]", "SELECT * FROM \"foo 1\" WHERE `bar 2` = [baz 3]");
+        assertNormalized("SELECT /* 'quoted' 1 */ * FROM foo -- 'also' 2", "SELECT /* 'quoted' 1 */ * FROM foo -- 'also' 2");
+        assertNormalized("SELECT $tag$it's$tag$, $1 FROM foo", "SELECT ?, $1 FROM foo");
+        assertNormalized("SELECT * FROM foo WHERE bar = 'unterminated", "SELECT * FROM foo WHERE bar = 'unterminated");
+        assertNormalized("42 is the answer", "42 is the answer");
+        assertNormalized("{call foo(1, 'bar')}", "{call foo(1, 'bar')}");
+    }
+
+    private void assertNormalized(String query, String expected) {
+        assertThat(normalizer.normalizeToCharSequence(query).toString()).isEqualTo(expected);
+    }
+
+    /**
+     * The signature of a normalized query has to be the same as the one of the original query,
+     * as the signature of a query is cached under its normalized form.
+     */
+    @ParameterizedTest
+    @MethodSource("getTestSignatures")
+    void testNormalizationDoesNotChangeSignature(String input, String output) {
+        String normalized = normalizer.normalizeToCharSequence(input).toString();
+        StringBuilder signature = new StringBuilder();
+        // not using SignatureParser#querySignature as that would use the cache
+        new SignatureParser().parse(normalized, signature, null);
+        assertThat(signature.toString()).describedAs(normalized).isEqualTo(output);
+    }
+
+    private static Stream<Arguments> getTestSignatures() {
+        return Stream.concat(
+            SignatureParserTest.parseTestParameters(TestJsonSpec.getJson("sql_signature_examples.json")),
+            SignatureParserTest.parseTestParameters(TestJsonSpec.getJson(SignatureParserTest.class, "signature_tests.json")))
+            .map(arguments -> Arguments.of(arguments.get()[0], arguments.get()[1]));
+    }
+
+    @Test
+    void testKeysOfQueriesWithDifferentLiteralsAreEqual() {
+        SignatureCache.Key key = normalizer.normalize("SELECT * FROM foo WHERE id IN (1, 2, 3) AND name = 'foo'").copy();
+        assertThat(normalizer.normalize("SELECT * FROM foo WHERE id IN (4) AND name = 'bar'")).isEqualTo(key).hasSameHashCodeAs(key);
+        assertThat(normalizer.normalize("SELECT * FROM bar WHERE id IN (4) AND name = 'bar'")).isNotEqualTo(key);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.db.signature;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignatureCacheTest {
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        SignatureCache cache = new SignatureCache(2, 1);
+        SignatureCache.Key foo = new SignatureCache.Key().set("foo");
+        SignatureCache.Key bar = new SignatureCache.Key().set("bar");
+        SignatureCache.Key baz = new SignatureCache.Key().set("baz");
+        cache.put(foo, new String[]{"FOO", ""});
+        cache.put(bar, new String[]{"BAR", ""});
+        assertThat(cache.get(foo)).containsExactly("FOO", "");
+
+        long evictions = SignatureCache.getEvictions();
+        cache.put(baz, new String[]{"BAZ", ""});
+
+        assertThat(SignatureCache.getEvictions()).isEqualTo(evictions + 1);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(foo)).isNotNull();
+        assertThat(cache.get(bar)).isNull();
+        assertThat(cache.get(baz)).isNotNull();
+    }
+
+    @Test
+    void testSegmentsHaveMinimumSize() {
+        assertThat(new SignatureCache(1024, 64).segmentCount()).isEqualTo(1024 / SignatureCache.MIN_SEGMENT_SIZE);
+        assertThat(new SignatureCache(1024, 4).segmentCount()).isEqualTo(4);
+        assertThat(new SignatureCache(16, 4).segmentCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testLookupWithMutableKey() {
+        SignatureCache cache = new SignatureCache(16, 4);
+        StringBuilder sb = new StringBuilder("SELECT * FROM foo");
+        SignatureCache.Key lookupKey = new SignatureCache.Key().set(sb);
+        cache.put(lookupKey.copy(), new String[]{"SELECT FROM foo", ""});
+
+        long hits = SignatureCache.getHits();
+        assertThat(cache.get(new SignatureCache.Key().set("SELECT * FROM foo"))).containsExactly("SELECT FROM foo", "");
+        assertThat(SignatureCache.getHits()).isEqualTo(hits + 1);
+
+        sb.setLength(0);
+        sb.append("SELECT * FROM bar");
+        assertThat(cache.get(lookupKey.set(sb))).isNull();
+    }
+
+    @Test
+    void testDynamicQueriesShareEntry() {
+        SignatureParser signatureParser = new SignatureParser();
+        StringBuilder signature = new StringBuilder();
+        signatureParser.querySignature("SELECT * FROM foo WHERE id IN (1, 2, 3) AND name = 'foo' AND description IS NOT NULL", signature, false);
+        assertThat(signature.toString()).isEqualTo("SELECT FROM foo");
+
+        long hits = SignatureCache.getHits();
+        signature.setLength(0);
+        signatureParser.querySignature("SELECT * FROM foo WHERE id IN (4, 5) AND name = 'bar' AND description IS NOT NULL", signature, false);
+        assertThat(signature.toString()).isEqualTo("SELECT FROM foo");
+        assertThat(SignatureCache.getHits()).isEqualTo(hits + 1);
+    }
+}
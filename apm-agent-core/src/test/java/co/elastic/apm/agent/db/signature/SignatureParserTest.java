@@ -51,6 +51,17 @@ public class SignatureParserTest {
         return parseTestParameters(TestJsonSpec.getJson("sql_signature_examples.json"));
     }
 
+    @ParameterizedTest
+    @MethodSource("getTestSignatures_shared")
+    void testSignature_charSequence(String input, String output, String comment) {
+        final StringBuilder signature = new StringBuilder();
+        // the query must not be copied to a String, so this works with mutable and non-String inputs as well
+        signatureParser.querySignature(new StringBuilder(input), signature, false);
+        assertThat(signature.toString())
+            .describedAs(comment)
+            .isEqualTo(output);
+    }
+
     @ParameterizedTest
     @MethodSource("getTestSignatures_java")
     void testSignature_java(String input, String output, String comment) {
@@ -20,6 +20,7 @@ package co.elastic.apm.agent.impl;
 
 import co.elastic.apm.agent.MockReporter;
 import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.util.AgentScheduler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -44,9 +45,9 @@ class ElasticApmTracerShutdownTest {
     }
 
     @Test
-    void testUsingSharedPoolOnShutdown() {
+    void testUsingSchedulerOnShutdown() {
         AtomicBoolean shutdownHookExecuted = new AtomicBoolean(false);
-        tracerImpl.addShutdownHook(() -> tracerImpl.getSharedSingleThreadedPool().submit(() -> shutdownHookExecuted.set(true)));
+        tracerImpl.addShutdownHook(() -> AgentScheduler.submit("test-task", () -> shutdownHookExecuted.set(true)));
         tracerImpl.stop();
         await().untilTrue(shutdownHookExecuted);
     }
@@ -54,7 +55,7 @@ class ElasticApmTracerShutdownTest {
     @Test
     void testTracerStateIsRunningInTaskSubmittedInShutdownHook() {
         AtomicReference<Tracer.TracerState> tracerStateInShutdownHook = new AtomicReference<>();
-        tracerImpl.addShutdownHook(() -> tracerImpl.getSharedSingleThreadedPool().submit(() -> tracerStateInShutdownHook.set(tracerImpl.getState())));
+        tracerImpl.addShutdownHook(() -> AgentScheduler.submit("test-task", () -> tracerStateInShutdownHook.set(tracerImpl.getState())));
         tracerImpl.stop();
         reporter.awaitUntilAsserted(() -> assertThat(tracerStateInShutdownHook.get()).isNotNull());
         assertThat(tracerStateInShutdownHook.get()).isEqualTo(Tracer.TracerState.RUNNING);
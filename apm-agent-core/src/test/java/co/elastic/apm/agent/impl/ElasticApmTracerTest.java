@@ -23,6 +23,7 @@ import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.configuration.ServiceInfo;
 import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.configuration.converter.TimeDuration;
 import co.elastic.apm.agent.configuration.source.ConfigSources;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
 import co.elastic.apm.agent.impl.sampling.ConstantSampler;
@@ -46,6 +47,7 @@ import org.stagemonitor.configuration.ConfigurationRegistry;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -195,6 +197,24 @@ class ElasticApmTracerTest {
         assertThat(reporter.getFirstSpan().getStacktrace()).isNotNull();
     }
 
+    @Test
+    void testConfigurationSnapshotTakenOnTransactionStart() {
+        Transaction transaction = startTestRootTransaction();
+        doReturn(TimeDuration.of("1h")).when(tracerImpl.getConfig(CoreConfiguration.class)).getSpanMinDuration();
+        try (Scope scope = transaction.activateInScope()) {
+            tracerImpl.getActive().createSpan().end();
+            transaction.end();
+        }
+        assertThat(reporter.getNumReportedSpans()).isEqualTo(1);
+
+        transaction = startTestRootTransaction();
+        try (Scope scope = transaction.activateInScope()) {
+            tracerImpl.getActive().createSpan().end();
+            transaction.end();
+        }
+        assertThat(reporter.getNumReportedSpans()).isEqualTo(1);
+    }
+
     @Nullable
     private Transaction startTestRootTransaction() {
         return tracerImpl.startRootTransaction(getClass().getClassLoader());
@@ -337,6 +357,34 @@ class ElasticApmTracerTest {
         assertThat(reporter.getSpans()).hasSize(1);
     }
 
+    @Test
+    void testActivationStackGrowsBeyondInitialCapacity() {
+        assertThat(tracerImpl.currentContext()).isNull();
+        assertThat(tracerImpl.currentTransaction()).isNull();
+
+        Transaction transaction = startTestRootTransaction();
+        transaction.activate();
+        List<Span> spans = new ArrayList<>();
+        AbstractSpan<?> parent = transaction;
+        for (int i = 0; i < 10; i++) {
+            Span span = parent.createSpan();
+            span.activate();
+            spans.add(span);
+            assertThat(tracerImpl.getActive()).isSameAs(span);
+            assertThat(tracerImpl.currentTransaction()).isSameAs(transaction);
+            parent = span;
+        }
+        for (int i = spans.size() - 1; i >= 0; i--) {
+            Span span = spans.get(i);
+            assertThat(tracerImpl.getActive()).isSameAs(span);
+            span.deactivate().end();
+        }
+        assertThat(tracerImpl.getActive()).isSameAs(transaction);
+        transaction.deactivate().end();
+        assertThat(tracerImpl.currentContext()).isNull();
+        assertThat(tracerImpl.currentTransaction()).isNull();
+    }
+
     @Test
     void testActivationStackOverflow() {
         doReturn(2).when(config.getConfig(CoreConfiguration.class)).getTransactionMaxSpans();
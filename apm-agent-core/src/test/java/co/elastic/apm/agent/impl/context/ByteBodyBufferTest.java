@@ -0,0 +1,153 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.context;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ByteBodyBufferTest {
+
+    private final ByteBodyBuffer buffer = new ByteBodyBuffer();
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private final ByteBuffer carry = ByteBuffer.allocate(4);
+
+    @AfterEach
+    void tearDown() {
+        buffer.resetState();
+        assertThat(buffer.size()).isZero();
+    }
+
+    @Test
+    void testAppendAcrossSegments() {
+        buffer.setLimit(10_000);
+        byte[] bytes = new byte[ByteBodyBuffer.SEGMENT_SIZE * 2 + 10];
+        Arrays.fill(bytes, (byte) 'a');
+        assertThat(buffer.append(bytes, 0, 5)).isTrue();
+        assertThat(buffer.append((byte) 'a')).isTrue();
+        assertThat(buffer.append(bytes, 6, bytes.length - 6)).isTrue();
+        assertThat(buffer.size()).isEqualTo(bytes.length);
+        assertThat(decode()).isEqualTo(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testTruncate() {
+        buffer.setLimit(4);
+        assertThat(buffer.append("abc".getBytes(StandardCharsets.UTF_8), 0, 3)).isTrue();
+        assertThat(buffer.append("def".getBytes(StandardCharsets.UTF_8), 0, 3)).isFalse();
+        assertThat(buffer.isFull()).isTrue();
+        assertThat(buffer.append((byte) 'g')).isFalse();
+        assertThat(decode()).isEqualTo("abcd");
+    }
+
+    @Test
+    void testMultiByteSequenceSpanningSegments() {
+        buffer.setLimit(10_000);
+        byte[] padding = new byte[ByteBodyBuffer.SEGMENT_SIZE - 1];
+        Arrays.fill(padding, (byte) 'a');
+        buffer.append(padding, 0, padding.length);
+        // the euro sign is encoded as three bytes, the first one is the last byte of the first segment
+        byte[] euro = "\u20ac".getBytes(StandardCharsets.UTF_8);
+        buffer.append(euro, 0, euro.length);
+        assertThat(decode()).isEqualTo(new String(padding, StandardCharsets.US_ASCII) + "\u20ac");
+    }
+
+    @Test
+    void testIncompleteSequenceAtTheEndIsIgnored() {
+        // truncated in the middle of the euro sign
+        buffer.setLimit(3);
+        byte[] bytes = "a\u20ac".getBytes(StandardCharsets.UTF_8);
+        assertThat(buffer.append(bytes, 0, bytes.length)).isFalse();
+        assertThat(decode()).isEqualTo("a");
+    }
+
+    @Test
+    void testInvalidUtf8() {
+        buffer.setLimit(10);
+        buffer.append(new byte[]{'a', (byte) 0xff}, 0, 2);
+        CharBuffer chars = CharBuffer.allocate(10);
+        assertThat(buffer.decodeUtf8(chars, decoder, ByteBuffer.allocate(4)).isError()).isTrue();
+    }
+
+    @Test
+    void testOverflow() {
+        buffer.setLimit(10);
+        buffer.append("abcdef".getBytes(StandardCharsets.UTF_8), 0, 6);
+        CharBuffer chars = CharBuffer.allocate(3);
+        assertThat(buffer.decodeUtf8(chars, decoder, ByteBuffer.allocate(4)).isOverflow()).isTrue();
+    }
+
+    @Test
+    void testCopyFrom() {
+        buffer.setLimit(10);
+        buffer.append("abc".getBytes(StandardCharsets.UTF_8), 0, 3);
+        ByteBodyBuffer copy = new ByteBodyBuffer();
+        copy.copyFrom(buffer);
+        buffer.resetState();
+        CharBuffer chars = CharBuffer.allocate(10);
+        assertThat(copy.decodeUtf8(chars, decoder, ByteBuffer.allocate(4))).isEqualTo(CoderResult.UNDERFLOW);
+        ((Buffer) chars).flip();
+        assertThat(chars.toString()).isEqualTo("abc");
+        copy.resetState();
+    }
+
+    @Test
+    void testSegmentsAreReused() {
+        buffer.setLimit(10);
+        buffer.append((byte) 'a');
+        buffer.resetState();
+        long allocations = ByteBodyBuffer.getSegmentAllocations();
+        buffer.setLimit(10);
+        buffer.append((byte) 'a');
+        assertThat(ByteBodyBuffer.getSegmentAllocations()).isEqualTo(allocations);
+    }
+
+    @Test
+    void testDecoderAndCarryAreReusable() {
+        // the last segment ends with an incomplete sequence
+        buffer.setLimit(ByteBodyBuffer.SEGMENT_SIZE + 1);
+        byte[] padding = new byte[ByteBodyBuffer.SEGMENT_SIZE - 1];
+        Arrays.fill(padding, (byte) 'a');
+        buffer.append(padding, 0, padding.length);
+        byte[] euro = "\u20ac".getBytes(StandardCharsets.UTF_8);
+        buffer.append(euro, 0, euro.length);
+        assertThat(decode()).isEqualTo(new String(padding, StandardCharsets.US_ASCII));
+
+        buffer.resetState();
+        buffer.setLimit(10);
+        buffer.append((byte) 'b');
+        assertThat(decode()).isEqualTo("b");
+    }
+
+    private String decode() {
+        CharBuffer chars = CharBuffer.allocate(buffer.size());
+        assertThat(buffer.decodeUtf8(chars, decoder, carry)).isEqualTo(CoderResult.UNDERFLOW);
+        ((Buffer) chars).flip();
+        return chars.toString();
+    }
+}
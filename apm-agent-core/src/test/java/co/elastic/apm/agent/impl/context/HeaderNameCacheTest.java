@@ -0,0 +1,88 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.context;
+
+import co.elastic.apm.agent.common.util.WildcardMatcher;
+import co.elastic.apm.agent.common.util.WildcardMatcherSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeaderNameCacheTest {
+
+    @BeforeEach
+    @AfterEach
+    void clear() {
+        HeaderNameCache.clear();
+    }
+
+    @Test
+    void testIntern() {
+        String name = new String("Content-Type");
+        assertThat(HeaderNameCache.intern(name)).isSameAs(name);
+        assertThat(HeaderNameCache.intern(new String("Content-Type"))).isSameAs(name);
+    }
+
+    @Test
+    void testSensitiveDecisionInvalidatedOnConfigChange() {
+        WildcardMatcherSet authorization = WildcardMatcherSet.of(List.of(WildcardMatcher.valueOf("*auth*")));
+        WildcardMatcherSet token = WildcardMatcherSet.of(List.of(WildcardMatcher.valueOf("*token*")));
+
+        assertThat(HeaderNameCache.isSensitive("Authorization", authorization)).isTrue();
+        assertThat(HeaderNameCache.isSensitive("Authorization", authorization)).isTrue();
+        assertThat(HeaderNameCache.isSensitive("Authorization", token)).isFalse();
+        assertThat(HeaderNameCache.isSensitive("X-Token", token)).isTrue();
+        assertThat(HeaderNameCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testBounded() {
+        WildcardMatcherSet matcherSet = WildcardMatcherSet.of(List.of(WildcardMatcher.valueOf("*secret*")));
+        for (int i = 0; i < HeaderNameCache.MAX_SIZE * 2; i++) {
+            HeaderNameCache.intern("X-Custom-" + i);
+            HeaderNameCache.isSensitive("X-Secret-" + i, matcherSet);
+        }
+        assertThat(HeaderNameCache.size()).isEqualTo(HeaderNameCache.MAX_SIZE);
+
+        // new names are still cached by evicting others
+        String name = new String("X-Cached");
+        assertThat(HeaderNameCache.intern(name)).isSameAs(name);
+        assertThat(HeaderNameCache.intern(new String("X-Cached"))).isSameAs(name);
+        assertThat(HeaderNameCache.isSensitive("X-Secret-Cached", matcherSet)).isTrue();
+        assertThat(HeaderNameCache.size()).isEqualTo(HeaderNameCache.MAX_SIZE);
+    }
+
+    @Test
+    void testFrequentlyUsedNamesAreNotEvictedByJunk() {
+        String contentType = new String("Content-Type");
+        assertThat(HeaderNameCache.intern(contentType)).isSameAs(contentType);
+        for (int i = 0; i < HeaderNameCache.MAX_SIZE * 4; i++) {
+            HeaderNameCache.intern("X-Junk-" + i);
+            if (i % 16 == 0) {
+                assertThat(HeaderNameCache.intern(new String("Content-Type"))).isSameAs(contentType);
+            }
+        }
+        assertThat(HeaderNameCache.intern(new String("Content-Type"))).isSameAs(contentType);
+        assertThat(HeaderNameCache.size()).isEqualTo(HeaderNameCache.MAX_SIZE);
+    }
+}
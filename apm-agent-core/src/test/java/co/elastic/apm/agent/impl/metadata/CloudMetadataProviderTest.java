@@ -22,6 +22,9 @@ import org.junit.jupiter.api.Test;
 import specs.TestJsonSpec;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -74,4 +77,13 @@ class CloudMetadataProviderTest {
         assertThat(azureMetadata.getProject().getId()).isNull();
         assertThat(azureMetadata.getMachine().getType()).isEqualTo("Standard_D2s_v3");
     }
+
+    @Test
+    void testOnlyDefinitiveFailuresRuleOutProvider() {
+        assertThat(CloudMetadataProvider.isNotThisProvider(new UnknownHostException("metadata.google.internal"))).isTrue();
+        assertThat(CloudMetadataProvider.isNotThisProvider(new ConnectException("Connection refused"))).isTrue();
+        assertThat(CloudMetadataProvider.isNotThisProvider(new CloudMetadataProvider.ErrorStatusException("http://169.254.169.254", 404))).isTrue();
+        assertThat(CloudMetadataProvider.isNotThisProvider(new SocketTimeoutException("connect timed out"))).isFalse();
+        assertThat(CloudMetadataProvider.isNotThisProvider(new IOException("Connection reset"))).isFalse();
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.metadata;
+
+import co.elastic.apm.agent.configuration.ServerlessConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import specs.TestJsonSpec;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static co.elastic.apm.agent.configuration.CoreConfiguration.CloudProvider.AUTO;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class MetadataCacheTest {
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void testRestoreDiscoveredMetadata() throws Exception {
+        String awsMetadata = TestJsonSpec.getJson(CloudMetadataProviderTest.class, "cloud_metadata/aws.json").toString();
+        MetadataCache cache = MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key");
+        assertThat(cache.getDetectedHostname()).isNull();
+        assertThat(cache.hasCloudMetadata()).isFalse();
+        cache.putDetectedHostname("my-host");
+        cache.putCloudMetadata("AWS", awsMetadata);
+        cache.persist();
+
+        cache = MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key");
+        assertThat(cache.getDetectedHostname()).isEqualTo("my-host");
+        assertThat(cache.hasCloudMetadata()).isTrue();
+
+        SystemInfo systemInfo = SystemInfo.create(null, 0, mock(ServerlessConfiguration.class), cache);
+        assertThat(systemInfo.getDetectedHostname()).isEqualTo("my-host");
+        CloudProviderInfo cloudProviderInfo = CloudMetadataProvider.getCloudInfoProvider(AUTO, 0, mock(ServerlessConfiguration.class), cache);
+        assertThat(cloudProviderInfo).isNotNull();
+        assertThat(cloudProviderInfo.getProvider()).isEqualTo("aws");
+        assertThat(cloudProviderInfo.getRegion()).isEqualTo("us-east-2");
+    }
+
+    @Test
+    void testRestoreNoCloudProvider() {
+        MetadataCache cache = MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key");
+        cache.putCloudMetadata("", "");
+        cache.persist();
+
+        cache = MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key");
+        assertThat(cache.hasCloudMetadata()).isTrue();
+        long start = System.nanoTime();
+        assertThat(CloudMetadataProvider.getCloudInfoProvider(AUTO, 10_000, mock(ServerlessConfiguration.class), cache)).isNull();
+        assertThat(System.nanoTime() - start).isLessThan(5_000_000_000L);
+    }
+
+    @Test
+    void testInvalidation() {
+        MetadataCache cache = MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key");
+        cache.putDetectedHostname("my-host");
+        cache.persist();
+
+        assertThat(MetadataCache.createForKey(cacheDir.toFile(), 60_000, "other-key").getDetectedHostname()).isNull();
+        assertThat(MetadataCache.createForKey(cacheDir.toFile(), -1, "key").getDetectedHostname()).isNull();
+        assertThat(MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key").getDetectedHostname()).isEqualTo("my-host");
+    }
+
+    @Test
+    void testPersistingKeepsTimestampOfCachedValues() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("key", "key");
+        properties.setProperty("hostname", "my-host");
+        properties.setProperty("hostname.created", Long.toString(System.currentTimeMillis() - 50_000));
+        try (OutputStream os = Files.newOutputStream(cacheDir.resolve("elastic-apm-metadata.properties"))) {
+            properties.store(os, null);
+        }
+        MetadataCache cache = MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key");
+        assertThat(cache.getDetectedHostname()).isEqualTo("my-host");
+        assertThat(cache.hasCloudMetadata()).isFalse();
+        cache.putCloudMetadata("", "");
+        cache.persist();
+
+        cache = MetadataCache.createForKey(cacheDir.toFile(), 40_000, "key");
+        assertThat(cache.getDetectedHostname()).isNull();
+        assertThat(cache.hasCloudMetadata()).isTrue();
+    }
+
+    @Test
+    void testNothingDiscovered() {
+        MetadataCache.createForKey(cacheDir.toFile(), 60_000, "key").persist();
+        assertThat(new File(cacheDir.toFile(), "elastic-apm-metadata.properties")).doesNotExist();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.impl.transaction;
+
+import co.elastic.apm.agent.impl.sampling.ProbabilitySampler;
+import co.elastic.apm.agent.impl.sampling.Sampler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Statistical sanity checks for the {@link IdGenerator}s.
+ * The thresholds are chosen so that a correct generator fails with a negligible probability.
+ */
+class IdGeneratorTest {
+
+    private static final int SAMPLES = 100_000;
+
+    @AfterEach
+    void tearDown() {
+        Id.setGenerator(IdGenerator.THREAD_LOCAL_RANDOM);
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdGenerator.class)
+    void testBitsAreBalanced(IdGenerator generator) {
+        int[] ones = new int[64];
+        for (int i = 0; i < SAMPLES; i++) {
+            long value = generator.nextLong();
+            for (int bit = 0; bit < 64; bit++) {
+                if ((value & (1L << bit)) != 0) {
+                    ones[bit]++;
+                }
+            }
+        }
+        // the standard deviation is sqrt(SAMPLES) / 2 is about 158, allow for more than 6 standard deviations
+        for (int bit = 0; bit < 64; bit++) {
+            assertThat(ones[bit]).describedAs("bit %d", bit).isBetween(SAMPLES / 2 - 1000, SAMPLES / 2 + 1000);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdGenerator.class)
+    void testLowestByteIsUniform(IdGenerator generator) {
+        int[] buckets = new int[256];
+        for (int i = 0; i < SAMPLES; i++) {
+            buckets[(int) (generator.nextLong() & 0xff)]++;
+        }
+        double expected = SAMPLES / 256d;
+        double chiSquare = 0;
+        for (int bucket : buckets) {
+            chiSquare += (bucket - expected) * (bucket - expected) / expected;
+        }
+        // 255 degrees of freedom, the probability of exceeding 400 is in the order of 1e-8
+        assertThat(chiSquare).isLessThan(400);
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdGenerator.class)
+    void testConsecutiveValuesAreNotCorrelated(IdGenerator generator) {
+        // for each bit, count how often it is equal in two consecutive values
+        int[] equalBits = new int[64];
+        long previous = generator.nextLong();
+        for (int i = 0; i < SAMPLES; i++) {
+            long value = generator.nextLong();
+            long equal = ~(previous ^ value);
+            for (int bit = 0; bit < 64; bit++) {
+                if ((equal & (1L << bit)) != 0) {
+                    equalBits[bit]++;
+                }
+            }
+            previous = value;
+        }
+        for (int bit = 0; bit < 64; bit++) {
+            assertThat(equalBits[bit]).describedAs("bit %d", bit).isBetween(SAMPLES / 2 - 1000, SAMPLES / 2 + 1000);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdGenerator.class)
+    void testSampleRateIsMet(IdGenerator generator) {
+        Id.setGenerator(generator);
+        Sampler sampler = ProbabilitySampler.of(0.1);
+        Id traceId = Id.new128BitId();
+        int sampled = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            traceId.setToRandomValue();
+            if (sampler.isSampled(traceId)) {
+                sampled++;
+            }
+        }
+        // the standard deviation is sqrt(SAMPLES * 0.1 * 0.9) is about 95
+        assertThat(sampled).isBetween(SAMPLES / 10 - 600, SAMPLES / 10 + 600);
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdGenerator.class)
+    void testIdsAreUnique(IdGenerator generator) {
+        Id.setGenerator(generator);
+        Set<String> ids = new HashSet<>();
+        Id id = Id.new64BitId();
+        for (int i = 0; i < SAMPLES; i++) {
+            id.setToRandomValue();
+            assertThat(id.isEmpty()).isFalse();
+            assertThat(ids.add(id.toString())).isTrue();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdGenerator.class)
+    void testThreadsGenerateDifferentSequences(IdGenerator generator) throws Exception {
+        long[] otherThreadValues = new long[16];
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < otherThreadValues.length; i++) {
+                otherThreadValues[i] = generator.nextLong();
+            }
+        });
+        thread.start();
+        thread.join();
+        Set<Long> values = new HashSet<>();
+        for (long value : otherThreadValues) {
+            values.add(value);
+        }
+        for (int i = 0; i < otherThreadValues.length; i++) {
+            assertThat(values.add(generator.nextLong())).isTrue();
+        }
+    }
+}
@@ -385,6 +385,32 @@ class TraceContextTest {
         assertThat(traceContext.getOutgoingTraceParentTextHeader().toString()).isNotEqualTo(traceParentHeader);
     }
 
+    @Test
+    void testOutgoingTextHeaderIsCached() {
+        final TraceContext traceContext = TraceContext.with64BitId(tracer);
+        traceContext.asChildOf("00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+        String traceParentHeader = traceContext.getOutgoingTraceParentTextHeader();
+        assertThat(traceContext.getOutgoingTraceParentTextHeader()).isSameAs(traceParentHeader);
+        assertThat(traceParentHeader).isEqualTo("00-0af7651916cd43dd8448eb211c80319c-" + traceContext.getId() + "-01");
+
+        traceContext.setRecorded(false);
+        assertThat(traceContext.getOutgoingTraceParentTextHeader()).isEqualTo("00-0af7651916cd43dd8448eb211c80319c-" + traceContext.getId() + "-00");
+    }
+
+    @Test
+    void testParseFromCharSequence() {
+        final TraceContext traceContext = TraceContext.with64BitId(tracer);
+        assertThat(traceContext.asChildOf(new StringBuilder(" 00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01\t"))).isTrue();
+        assertThat(traceContext.getIncomingTraceParentHeader()).isEqualTo("00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+    }
+
+    @Test
+    void testTextHeaderOf128BitId() {
+        final TraceContext traceContext = TraceContext.with128BitId(tracer);
+        traceContext.asChildOf("00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+        assertThat(traceContext.toString()).isEqualTo("00-0af7651916cd43dd8448eb211c80319c-" + traceContext.getId() + "-01");
+    }
+
     @Test
     void testResetOutgoingBinaryHeader() {
         final TraceContext traceContext = TraceContext.with64BitId(tracer);
@@ -131,6 +131,23 @@ class TraceStateTest {
         assertThat(TraceState.getHeaderValue(0.0000001d)).isEqualTo("es=s:0.0001");
     }
 
+    @Test
+    void textHeaderIsCached() {
+        traceState.addTextHeader("aa=1");
+        traceState.addTextHeader("bb=2");
+        String header = traceState.toTextHeader();
+        assertThat(header).isEqualTo("aa=1,bb=2");
+        assertThat(traceState.toTextHeader()).isSameAs(header);
+
+        TraceState copy = new TraceState();
+        copy.copyFrom(traceState);
+        assertThat(copy.toTextHeader()).isSameAs(header);
+
+        traceState.addTextHeader("cc=3");
+        assertThat(traceState.toTextHeader()).isEqualTo("aa=1,bb=2,cc=3");
+        assertThat(copy.toTextHeader()).isSameAs(header);
+    }
+
     @Test
     void multipleVendorsInSameHeader() {
         traceState.addTextHeader("aa=1|2|3,es=s:0.5,bb=4|5|6");
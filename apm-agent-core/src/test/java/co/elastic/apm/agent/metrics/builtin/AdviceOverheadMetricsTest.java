@@ -0,0 +1,106 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.metrics.Labels;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdviceOverheadMetricsTest {
+
+    private static int voidAdviceInvocations;
+
+    @AfterEach
+    void tearDown() {
+        AdviceOverheadMetrics.reset();
+    }
+
+    @Test
+    void testNotMeasuredWhenDisabled() throws Exception {
+        MethodHandle advice = findAdvice("returningAdvice", MethodType.methodType(String.class, String.class));
+        assertThat(AdviceOverheadMetrics.measure("co.elastic.apm.agent.FooAdvice", advice)).isSameAs(advice);
+    }
+
+    @Test
+    void testMeasureReturningAdvice() throws Throwable {
+        AdviceOverheadMetrics.setSamplingInterval(2);
+        AdviceOverheadMetrics.registerAdvice("co.elastic.apm.agent.FooAdvice", List.of("foo", "bar"));
+        MethodHandle advice = findAdvice("returningAdvice", MethodType.methodType(String.class, String.class));
+        MethodHandle measured = AdviceOverheadMetrics.measure("co.elastic.apm.agent.FooAdvice", advice);
+        assertThat(measured.type()).isEqualTo(advice.type());
+
+        for (int i = 0; i < 4; i++) {
+            assertThat((String) measured.invokeExact("foo")).isEqualTo("foofoo");
+        }
+
+        Map<String, Double> metrics = collect(new AdviceOverheadMetrics(), "foo");
+        // two invocations are measured and extrapolated to four
+        assertThat(metrics).containsEntry("agent.advice.time.count", 4.0);
+        assertThat(metrics.get("agent.advice.time.sum.us")).isNotNegative();
+
+        assertThat(collect(new AdviceOverheadMetrics(), "foo")).isEmpty();
+    }
+
+    @Test
+    void testMeasureVoidAdvice() throws Throwable {
+        AdviceOverheadMetrics.setSamplingInterval(1);
+        MethodHandle advice = findAdvice("voidAdvice", MethodType.methodType(void.class));
+        MethodHandle measured = AdviceOverheadMetrics.measure("co.elastic.apm.agent.BarAdvice", advice);
+
+        int invocations = voidAdviceInvocations;
+        measured.invokeExact();
+        assertThat(voidAdviceInvocations).isEqualTo(invocations + 1);
+
+        // unregistered advices are reported under their class name
+        assertThat(collect(new AdviceOverheadMetrics(), "co.elastic.apm.agent.BarAdvice"))
+            .containsEntry("agent.advice.time.count", 1.0);
+    }
+
+    public static String returningAdvice(String arg) {
+        return arg + arg;
+    }
+
+    public static void voidAdvice() {
+        voidAdviceInvocations++;
+    }
+
+    private static MethodHandle findAdvice(String name, MethodType type) throws Exception {
+        return MethodHandles.lookup().findStatic(AdviceOverheadMetricsTest.class, name, type);
+    }
+
+    private static Map<String, Double> collect(AdviceOverheadMetrics metrics, String instrumentationGroup) {
+        Labels expectedLabels = Labels.Mutable.of("instrumentation_group", instrumentationGroup);
+        Map<String, Double> values = new HashMap<>();
+        metrics.collectAndReset((metric, labels, value) -> {
+            if (labels.equals(expectedLabels)) {
+                values.put(metric, value);
+            }
+        });
+        return values;
+    }
+}
@@ -52,6 +52,7 @@ import java.util.Collections;
 import java.util.Deque;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -86,6 +87,7 @@ class ApmServerReporterIntegrationTest {
     private ReporterMonitor mockMonitor;
 
     private IntakeV2ReportingEventHandler v2handler;
+    private ApmServerClient apmServerClient;
 
     private final AtomicReference<String> token = new AtomicReference<>();
     private final AtomicReference<TimeDuration> timeout = new AtomicReference<>();
@@ -146,15 +148,18 @@ class ApmServerReporterIntegrationTest {
         doReturn(64).when(reporterConfiguration).getMaxQueueSize();
 
         doReturn(Collections.singletonList(new URL("http://localhost:" + port))).when(reporterConfiguration).getServerUrls();
+        apmServerClient = new ApmServerClient(reporterConfiguration, config.getConfig(CoreConfiguration.class));
+        apmServerClient.start();
+        startReporter(false);
+    }
+
+    private void startReporter(boolean directReporting) {
         SystemInfo system = new SystemInfo("x64", "localhost", null, "platform");
         final Service service = new Service();
         final ProcessInfo title = new ProcessInfo("title");
-        final ProcessorEventHandler processorEventHandler = ProcessorEventHandler.loadProcessors(config);
-        ApmServerClient apmServerClient = new ApmServerClient(reporterConfiguration, config.getConfig(CoreConfiguration.class));
-        apmServerClient.start();
         v2handler = new IntakeV2ReportingEventHandler(
             reporterConfiguration,
-            processorEventHandler,
+            ProcessorEventHandler.loadProcessors(tracer.getConfigurationRegistry()),
             new DslJsonSerializer(
                 mock(StacktraceConfiguration.class),
                 apmServerClient,
@@ -162,7 +167,7 @@ class ApmServerReporterIntegrationTest {
             ),
             apmServerClient);
         mockMonitor = Mockito.mock(ReporterMonitor.class);
-        reporter = new ApmServerReporter(false, reporterConfiguration, v2handler, mockMonitor);
+        reporter = new ApmServerReporter(false, directReporting, reporterConfiguration, v2handler, mockMonitor);
         reporter.start();
     }
 
@@ -211,6 +216,57 @@ class ApmServerReporterIntegrationTest {
         verify(mockMonitor).requestFinished(eq(new ReportingEventCounter()), eq(0L), gt(0L), eq(true));
     }
 
+    @Test
+    void testDirectReporting() {
+        reporter.close();
+        startReporter(true);
+        AtomicReference<Thread> handledBy = new AtomicReference<>();
+        doAnswer(invocationOnMock -> {
+            handledBy.set(Thread.currentThread());
+            return null;
+        }).when(mockMonitor).eventDequeued(eq(ReportingEvent.ReportingEventType.TRANSACTION), anyLong(), anyLong());
+
+        reporter.report(new Transaction(tracer));
+        assertThat(handledBy.get()).isSameAs(Thread.currentThread());
+        assertThat(reporter.flush(5, TimeUnit.SECONDS, true)).isTrue();
+        // the data has been received as soon as the flush returns
+        assertThat(receivedIntakeApiCalls.get()).isEqualTo(2);
+        assertThat(receivedIntakeApiCallsWithFlushParam.get()).isEqualTo(1);
+        assertThat(reporter.getReported()).isEqualTo(1);
+        assertThat(reporter.getDropped()).isEqualTo(0);
+
+        ReportingEventCounter payload = new ReportingEventCounter();
+        payload.increment(ReportingEvent.ReportingEventType.TRANSACTION);
+        verify(mockMonitor).requestFinished(eq(payload), eq(1L), gt(0L), eq(true));
+    }
+
+    @Test
+    void testDirectReportingWakeupDoesNotWaitForApplicationThreads() throws Exception {
+        reporter.close();
+        startReporter(true);
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocationOnMock -> {
+            handling.countDown();
+            release.await();
+            return null;
+        }).when(mockMonitor).eventDequeued(eq(ReportingEvent.ReportingEventType.TRANSACTION), anyLong(), anyLong());
+
+        Thread applicationThread = new Thread(() -> reporter.report(new Transaction(tracer)));
+        applicationThread.start();
+        try {
+            assertThat(handling.await(5, TimeUnit.SECONDS)).isTrue();
+            long startNs = System.nanoTime();
+            reporter.scheduleWakeupEvent();
+            assertThat(System.nanoTime() - startNs).isLessThan(TimeUnit.SECONDS.toNanos(1));
+        } finally {
+            release.countDown();
+            applicationThread.join();
+        }
+        assertThat(reporter.flush(5, TimeUnit.SECONDS, false)).isTrue();
+        assertThat(reporter.getReported()).isEqualTo(1);
+    }
+
     @Test
     void testReportSpan() {
         reporter.report(new Span(tracer));
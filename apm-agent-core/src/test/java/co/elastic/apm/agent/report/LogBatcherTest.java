@@ -0,0 +1,193 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.report;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LogBatcherTest {
+
+    private final List<String> reportedBatches = new ArrayList<>();
+    private final List<LogBatcher.Slab> reportedSlabs = new ArrayList<>();
+    private ApmServerReporter reporter;
+    private LogBatcher logBatcher;
+    private boolean ringBufferFull;
+
+    @BeforeEach
+    void setUp() {
+        reporter = mock(ApmServerReporter.class);
+        when(reporter.reportLogBatch(any(), anyBoolean())).thenAnswer(invocation -> {
+            if (ringBufferFull) {
+                return false;
+            }
+            LogBatcher.Slab slab = invocation.getArgument(0);
+            reportedBatches.add(new String(slab.getBuffer(), 0, slab.getSize(), StandardCharsets.UTF_8));
+            reportedSlabs.add(slab);
+            return true;
+        });
+        // flushing is triggered manually in tests
+        logBatcher = new LogBatcher(reporter, 1, TimeUnit.DAYS.toMillis(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        logBatcher.close();
+    }
+
+    @Test
+    void testBatchesLogLines() {
+        assertThat(logBatcher.add("{\"message\":\"foo\"}\n")).isTrue();
+        assertThat(logBatcher.add("{\"message\":\"bar\"}".getBytes(StandardCharsets.UTF_8))).isTrue();
+        assertThat(reportedBatches).isEmpty();
+
+        logBatcher.flush();
+
+        assertThat(reportedBatches).containsExactly("{\"log\":{\"message\":\"foo\"}}\n{\"log\":{\"message\":\"bar\"}}\n");
+        assertThat(reportedSlabs.get(0).getCount()).isEqualTo(2);
+        assertThat(logBatcher.getBatchedLogs()).isEqualTo(2);
+
+        reportedSlabs.get(0).release();
+        assertThat(logBatcher.getSlabsInUse()).isZero();
+    }
+
+    @Test
+    void testEncodesUtf8() {
+        String log = "{\"message\":\"ä€😀\"}";
+        logBatcher.add(log);
+        logBatcher.flush();
+
+        assertThat(reportedBatches).containsExactly("{\"log\":" + log + "}\n");
+    }
+
+    @Test
+    void testHandsOverFullSlab() {
+        char[] chars = new char[LogBatcher.SLAB_SIZE / 4];
+        Arrays.fill(chars, 'a');
+        String log = "\"" + new String(chars) + "\"";
+        for (int i = 0; i < 4; i++) {
+            logBatcher.add(log);
+        }
+        assertThat(reportedBatches).hasSize(1);
+        assertThat(reportedSlabs.get(0).getCount()).isEqualTo(3);
+
+        logBatcher.flush();
+        assertThat(reportedBatches).hasSize(2);
+        assertThat(reportedSlabs.get(1).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testLogLargerThanSlabIsNotBatched() {
+        char[] chars = new char[LogBatcher.SLAB_SIZE];
+        Arrays.fill(chars, 'a');
+        assertThat(logBatcher.add("\"" + new String(chars) + "\"")).isFalse();
+        assertThat(logBatcher.getSlabsInUse()).isZero();
+    }
+
+    @Test
+    void testDropsBatchIfRingBufferIsFull() {
+        ringBufferFull = true;
+        logBatcher.add("{}");
+        logBatcher.add("{}");
+        logBatcher.flush();
+
+        assertThat(logBatcher.getDroppedLogs()).isEqualTo(2);
+        assertThat(logBatcher.getBatchedLogs()).isZero();
+        assertThat(logBatcher.getSlabsInUse()).isZero();
+    }
+
+    @Test
+    void testDropsLogsIfAllSlabsAreInUse() {
+        // the reported slabs are never released
+        for (int i = 0; i < LogBatcher.MAX_SLABS; i++) {
+            logBatcher.add("{}");
+            logBatcher.flush();
+        }
+        assertThat(logBatcher.getSlabsInUse()).isEqualTo(LogBatcher.MAX_SLABS);
+
+        assertThat(logBatcher.add("{}")).isTrue();
+        assertThat(logBatcher.getDroppedLogs()).isEqualTo(1);
+
+        reportedSlabs.get(0).release();
+        logBatcher.add("{}");
+        assertThat(logBatcher.getDroppedLogs()).isEqualTo(1);
+        assertThat(logBatcher.getBatchedLogs()).isEqualTo(LogBatcher.MAX_SLABS + 1);
+    }
+
+    @Test
+    void testKeepsOrderOfThreadsSharingALane() throws Exception {
+        List<String> batches = new ArrayList<>();
+        when(reporter.reportLogBatch(any(), anyBoolean())).thenAnswer(invocation -> {
+            LogBatcher.Slab slab = invocation.getArgument(0);
+            synchronized (batches) {
+                batches.add(new String(slab.getBuffer(), 0, slab.getSize(), StandardCharsets.UTF_8));
+            }
+            // gives other threads of the lane the chance to fill and hand over the next slab
+            Thread.yield();
+            slab.release();
+            return true;
+        });
+        int threads = 4;
+        int linesPerThread = 5_000;
+        List<Thread> loggers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            loggers.add(new Thread(() -> {
+                for (int i = 0; i < linesPerThread; i++) {
+                    logBatcher.add("{\"thread\":" + thread + ",\"line\":" + i + "}");
+                }
+            }));
+        }
+        loggers.forEach(Thread::start);
+        for (Thread logger : loggers) {
+            logger.join();
+        }
+        logBatcher.flush();
+
+        int[] lastLine = new int[threads];
+        Arrays.fill(lastLine, -1);
+        Pattern pattern = Pattern.compile("\\{\"log\":\\{\"thread\":(\\d+),\"line\":(\\d+)}}");
+        int lines = 0;
+        for (String batch : batches) {
+            Matcher matcher = pattern.matcher(batch);
+            while (matcher.find()) {
+                int thread = Integer.parseInt(matcher.group(1));
+                int line = Integer.parseInt(matcher.group(2));
+                assertThat(line).isGreaterThan(lastLine[thread]);
+                lastLine[thread] = line;
+                lines++;
+            }
+        }
+        assertThat(lines).isEqualTo((int) (threads * linesPerThread - logBatcher.getDroppedLogs()));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.report;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetaDataDeflaterOutputStreamTest {
+
+    private static final byte[] METADATA = "{\"metadata\":{\"service\":{\"name\":\"my-service\",\"agent\":{\"name\":\"java\"}}}}\n".getBytes(UTF_8);
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final MetaDataDeflaterOutputStream.CompressedMetaData compressedMetaData =
+        MetaDataDeflaterOutputStream.CompressedMetaData.compress(METADATA, Deflater.BEST_SPEED);
+
+    @Test
+    void testRoundTrip() throws IOException {
+        String events = "{\"transaction\":{\"name\":\"my-service GET /\"}}\n".repeat(100);
+        assertThat(inflate(compress(events))).isEqualTo(new String(METADATA, UTF_8) + events);
+    }
+
+    @Test
+    void testNoEvents() throws IOException {
+        assertThat(inflate(compress(""))).isEqualTo(new String(METADATA, UTF_8));
+    }
+
+    @Test
+    void testReuseDeflaterAndCompressedMetaData() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            String events = "{\"span\":{\"id\":\"" + i + "\"}}\n";
+            assertThat(inflate(compress(events))).isEqualTo(new String(METADATA, UTF_8) + events);
+            deflater.reset();
+        }
+    }
+
+    @Test
+    void testIsFor() {
+        assertThat(compressedMetaData.isFor(METADATA)).isTrue();
+        assertThat(compressedMetaData.isFor(METADATA.clone())).isFalse();
+    }
+
+    private byte[] compress(String events) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (MetaDataDeflaterOutputStream os = new MetaDataDeflaterOutputStream(compressed, deflater, compressedMetaData)) {
+            byte[] bytes = events.getBytes(UTF_8);
+            // write in chunks and flush in between, like the serializer does
+            for (int i = 0; i < bytes.length; i += 100) {
+                os.write(bytes, i, Math.min(100, bytes.length - i));
+                os.flush();
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String inflate(byte[] compressed) throws IOException {
+        // verifies the zlib header and the Adler-32 checksum
+        try (InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(is.readAllBytes(), UTF_8);
+        }
+    }
+}
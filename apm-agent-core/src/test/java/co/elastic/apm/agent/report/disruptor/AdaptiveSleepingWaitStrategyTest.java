@@ -0,0 +1,85 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.report.disruptor;
+
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+class AdaptiveSleepingWaitStrategyTest {
+
+    private final SequenceBarrier barrier = mock(SequenceBarrier.class);
+
+    @Test
+    void testWakeUpSleepingConsumer() throws Exception {
+        // the longest sleep time that fits into an int, about 2.1s
+        int sleepTimeNs = Integer.MAX_VALUE;
+        AdaptiveSleepingWaitStrategy waitStrategy = new AdaptiveSleepingWaitStrategy(sleepTimeNs, sleepTimeNs, 0);
+        Sequence cursor = new Sequence();
+
+        long startNs = System.nanoTime();
+        CompletableFuture<Long> availableSequence = CompletableFuture.supplyAsync(() -> {
+            try {
+                return waitStrategy.waitFor(0, cursor, cursor, barrier);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        await().until(() -> waitStrategy.isConsumerSleeping());
+
+        cursor.set(0);
+        assertThat(waitStrategy.isConsumerSleeping()).isTrue();
+        waitStrategy.wakeUp();
+        assertThat(availableSequence.get(1, TimeUnit.SECONDS)).isEqualTo(0);
+        // the consumer has been woken up, as it returned before it could have finished sleeping on its own
+        assertThat(System.nanoTime() - startNs).isLessThan(sleepTimeNs);
+        assertThat(waitStrategy.isConsumerSleeping()).isFalse();
+    }
+
+    @Test
+    void testAverageTimeBetweenEventsFollowsEventRate() throws Exception {
+        AdaptiveSleepingWaitStrategy waitStrategy = new AdaptiveSleepingWaitStrategy(1_000_000, 1_000_000, 50_000);
+        Sequence dependentSequence = mock(Sequence.class);
+
+        // high event rate: a batch of 100 events is available right away
+        for (int i = 0; i < 100; i++) {
+            doReturn(-1L, 99L).when(dependentSequence).get();
+            assertThat(waitStrategy.waitFor(0, dependentSequence, dependentSequence, barrier)).isEqualTo(99);
+        }
+        assertThat(waitStrategy.getAverageNsBetweenEvents()).isLessThan(50_000);
+
+        // low event rate: a single event after a millisecond
+        long[] availableAtNs = new long[1];
+        doAnswer(invocation -> System.nanoTime() >= availableAtNs[0] ? 0L : -1L).when(dependentSequence).get();
+        for (int i = 0; i < 20; i++) {
+            availableAtNs[0] = System.nanoTime() + 1_000_000;
+            assertThat(waitStrategy.waitFor(0, dependentSequence, dependentSequence, barrier)).isEqualTo(0);
+        }
+        assertThat(waitStrategy.getAverageNsBetweenEvents()).isGreaterThan(50_000);
+    }
+}
@@ -1017,6 +1017,41 @@ class DslJsonSerializerTest {
         assertThat(transactionJson.get("context").get("request").get("body")).isNull();
     }
 
+    @Test
+    void testBodyBytes() throws IOException {
+        final Transaction transaction = createRootTransaction();
+        Request request = transaction.getContext().getRequest();
+        request.withBodyBytes();
+        byte[] bytes = "{\"f\u00f6\u00f6\": \"\u20ac\"}".getBytes(StandardCharsets.UTF_8);
+        request.appendBodyBytes(bytes, 0, 3);
+        request.appendBodyByte(bytes[3]);
+        request.appendBodyBytes(bytes, 4, bytes.length - 4);
+        request.endOfBufferInput();
+        assertThat(request.isRecordingBodyBytes()).isFalse();
+
+        final JsonNode transactionJson = objectMapper.readTree(serializer.toJsonString(transaction));
+        assertThat(transactionJson.get("context").get("request").get("body").textValue()).isEqualTo("{\"f\u00f6\u00f6\": \"\u20ac\"}");
+
+        Transaction copy = createRootTransaction();
+        copy.getContext().copyFrom(transaction.getContext());
+        assertThat(objectMapper.readTree(serializer.toJsonString(copy)).get("context"))
+            .isEqualTo(transactionJson.get("context"));
+
+        transaction.resetState();
+        assertThat(request.getBodyBytesForSerialization()).isNull();
+    }
+
+    @Test
+    void testNonUtf8BodyBytes() throws IOException {
+        final Transaction transaction = createRootTransaction();
+        Request request = transaction.getContext().getRequest();
+        request.withBodyBytes();
+        request.appendBodyBytes(new byte[]{'a', (byte) 0xff, 'b'}, 0, 3);
+        request.endOfBufferInput();
+        final JsonNode transactionJson = objectMapper.readTree(serializer.toJsonString(transaction));
+        assertThat(transactionJson.get("context").get("request").get("body").textValue()).isEqualTo("[Non UTF-8 data]");
+    }
+
     @Test
     void testBodyBufferCopy() throws IOException {
         final Transaction transaction = createRootTransaction();
@@ -0,0 +1,112 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AgentSchedulerTest {
+
+    @AfterEach
+    void tearDown() {
+        AgentScheduler.setCpuAccountingEnabled(false);
+        AgentScheduler.shutdown();
+    }
+
+    @Test
+    void testPeriodicTaskSurvivesExceptions() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(3);
+        ScheduledFuture<?> future = AgentScheduler.scheduleWithFixedDelay("test-failing-task", () -> {
+            executions.incrementAndGet();
+            latch.countDown();
+            throw new IllegalStateException("expected");
+        }, 0, 1, TimeUnit.MILLISECONDS);
+
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        future.cancel(false);
+        assertThat(future.isCancelled()).isTrue();
+        assertThat(executions.get()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    void testShutdownCancelsTasksAndRestartsOnDemand() throws Exception {
+        AtomicReference<Thread> threadBeforeShutdown = new AtomicReference<>();
+        AgentScheduler.schedule("test-task", () -> threadBeforeShutdown.set(Thread.currentThread()), 0, TimeUnit.MILLISECONDS)
+            .get(10, TimeUnit.SECONDS);
+        ScheduledFuture<?> pending = AgentScheduler.schedule("test-pending-task", () -> {
+        }, 1, TimeUnit.HOURS);
+
+        AgentScheduler.shutdown();
+        assertThat(pending.isCancelled()).isTrue();
+        threadBeforeShutdown.get().join(TimeUnit.SECONDS.toMillis(10));
+        assertThat(threadBeforeShutdown.get().isAlive()).isFalse();
+
+        AtomicReference<Thread> threadAfterShutdown = new AtomicReference<>();
+        AgentScheduler.schedule("test-task", () -> threadAfterShutdown.set(Thread.currentThread()), 0, TimeUnit.MILLISECONDS)
+            .get(10, TimeUnit.SECONDS);
+        assertThat(threadAfterShutdown.get()).isNotSameAs(threadBeforeShutdown.get());
+    }
+
+    @Test
+    void testBlockingTaskRunsOnSeparateThread() throws Exception {
+        AtomicReference<Thread> schedulerThread = new AtomicReference<>();
+        AgentScheduler.schedule("test-task", () -> schedulerThread.set(Thread.currentThread()), 0, TimeUnit.MILLISECONDS)
+            .get(10, TimeUnit.SECONDS);
+        Thread ioThread = AgentScheduler.submitBlocking("test-io-task", Thread::currentThread).get(10, TimeUnit.SECONDS);
+
+        assertThat(schedulerThread.get().getName()).endsWith(AgentScheduler.SCHEDULER_THREAD_PURPOSE);
+        assertThat(ioThread.getName()).endsWith(AgentScheduler.IO_THREAD_PURPOSE);
+        assertThat(ioThread).isNotSameAs(schedulerThread.get());
+    }
+
+    @Test
+    void testCpuTimeIsAccountedPerTask() throws Exception {
+        AgentScheduler.setCpuAccountingEnabled(true);
+        AgentScheduler.collectTaskCpuTime(new HashMap<>());
+
+        AgentScheduler.schedule("test-cpu-task", () -> {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+            long sum = 0;
+            while (System.nanoTime() < deadline) {
+                sum += System.nanoTime() % 7;
+            }
+            assertThat(sum).isNotNegative();
+        }, 0, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+
+        Map<String, AtomicLong> cpuTimeByPurpose = new HashMap<>();
+        cpuTimeByPurpose.put(AgentScheduler.SCHEDULER_THREAD_PURPOSE, new AtomicLong(TimeUnit.SECONDS.toNanos(1)));
+        AgentScheduler.collectTaskCpuTime(cpuTimeByPurpose);
+
+        long taskCpuTime = cpuTimeByPurpose.get("test-cpu-task").get();
+        assertThat(taskCpuTime).isPositive();
+        assertThat(cpuTimeByPurpose.get(AgentScheduler.SCHEDULER_THREAD_PURPOSE).get()).isEqualTo(TimeUnit.SECONDS.toNanos(1) - taskCpuTime);
+    }
+}
@@ -24,7 +24,6 @@ import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.tracer.AbstractSpan;
 import co.elastic.apm.agent.tracer.GlobalTracer;
 import co.elastic.apm.agent.tracer.Span;
-import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.tracer.Tracer;
 import co.elastic.apm.agent.tracer.dispatch.TextHeaderSetter;
 import com.amazonaws.AmazonWebServiceRequest;
@@ -141,7 +140,7 @@ public class SQSHelper extends AbstractSQSInstrumentationHelper<Request<?>, Exec
                     String key = entry.getKey();
                     if (!tracer.getTraceHeaderNames().contains(key) &&
                         entry.getValue().getDataType().equals(ATTRIBUTE_DATA_TYPE_STRING) &&
-                        WildcardMatcher.anyMatch(coreConfiguration.getSanitizeFieldNames(), key) == null) {
+                        coreConfiguration.getSanitizeFieldNamesMatcherSet().isNoneMatch(key)) {
                         message.addHeader(key, entry.getValue().getStringValue());
                     }
                 }
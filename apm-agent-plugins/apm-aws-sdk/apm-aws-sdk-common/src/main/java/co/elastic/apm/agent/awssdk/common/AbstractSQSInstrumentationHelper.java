@@ -195,7 +195,7 @@ public abstract class AbstractSQSInstrumentationHelper<R, C, MessageT> extends A
                     String value = getMessageAttribute(sqsMessage, key);
                     if (!tracer.getTraceHeaderNames().contains(key) &&
                         value != null &&
-                        WildcardMatcher.anyMatch(coreConfiguration.getSanitizeFieldNames(), key) == null) {
+                        coreConfiguration.getSanitizeFieldNamesMatcherSet().isNoneMatch(key)) {
                         message.addHeader(key, value);
                     }
                 }
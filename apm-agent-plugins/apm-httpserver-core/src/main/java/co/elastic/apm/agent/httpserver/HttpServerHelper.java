@@ -36,12 +36,12 @@ public class HttpServerHelper {
     }
 
     public boolean isRequestExcluded(String path, @Nullable String userAgentHeader){
-        final WildcardMatcher excludeUrlMatcher = WildcardMatcher.anyMatch(configuration.getIgnoreUrls(), path);
+        final WildcardMatcher excludeUrlMatcher = configuration.getIgnoreUrlsMatcherSet().anyMatch(path);
         if (excludeUrlMatcher != null && logger.isDebugEnabled()) {
             logger.debug("Not tracing this request as the path {} is ignored by the matcher {}",
                 path, excludeUrlMatcher);
         }
-        final WildcardMatcher excludeAgentMatcher = userAgentHeader != null ? WildcardMatcher.anyMatch(configuration.getIgnoreUserAgents(), userAgentHeader) : null;
+        final WildcardMatcher excludeAgentMatcher = userAgentHeader != null ? configuration.getIgnoreUserAgentsMatcherSet().anyMatch(userAgentHeader) : null;
         if (excludeAgentMatcher != null) {
             logger.debug("Not tracing this request as the User-Agent {} is ignored by the matcher {}",
                 userAgentHeader, excludeAgentMatcher);
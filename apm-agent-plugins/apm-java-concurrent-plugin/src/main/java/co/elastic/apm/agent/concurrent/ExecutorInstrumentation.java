@@ -67,6 +67,8 @@ public abstract class ExecutorInstrumentation extends TracerAwareInstrumentation
         // because that is the Runnable for the actual request processor thread.
         // Wrapping that leaks transactions and spans to other requests.
         excludedClasses.add("org.apache.tomcat.util.threads.ThreadPoolExecutor");
+        // Propagates the context by wrapping the task of each created thread, see ThreadPerTaskExecutorInstrumentation
+        excludedClasses.add(ThreadPerTaskInstrumentation.ThreadPerTaskExecutorInstrumentation.THREAD_PER_TASK_EXECUTOR);
     }
 
 
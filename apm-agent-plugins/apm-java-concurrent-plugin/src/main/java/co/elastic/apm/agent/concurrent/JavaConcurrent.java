@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 // Not strictly necessary as AbstractJavaConcurrentInstrumentation returns an empty collection for pluginClassLoaderRootPackages
 // but this signals the intent that this class must not be loaded from the IndyBootstrapClassLoader so that the state in this class applies globally
@@ -54,6 +55,7 @@ public class JavaConcurrent {
         EXCLUDED_EXECUTABLE_TYPES = new HashSet<String>();
         EXCLUDED_EXECUTABLE_TYPES.add(RunnableLambdaWrapper.class.getName());
         EXCLUDED_EXECUTABLE_TYPES.add(CallableLambdaWrapper.class.getName());
+        EXCLUDED_EXECUTABLE_TYPES.add(ContextPropagatingRunnable.class.getName());
         // Spring-JMS polling mechanism that translates to passive onMessage handling
         EXCLUDED_EXECUTABLE_TYPES.add("org.springframework.jms.listener.DefaultMessageListenerContainer$AsyncMessageListenerInvoker");
         EXCLUDED_EXECUTABLE_TYPES.add("com.zaxxer.hikari.pool.HikariPool$PoolEntryCreator");
@@ -122,6 +124,28 @@ public class JavaConcurrent {
         return runnable;
     }
 
+    /**
+     * Wraps the task of a new thread so that the currently active {@link AbstractSpan} is made active in its {@link Runnable#run()} method.
+     * <p>
+     * Contrary to {@link #withContext(Runnable, Tracer)}, the context is held by the returned wrapper instead of the global {@link #contextMap}.
+     * This is used for threads that are created per task, such as virtual threads,
+     * where the task is guaranteed to be run at most once and a map insert and removal per task would dominate the overhead.
+     * </p>
+     */
+    @Nullable
+    public static Runnable withContextForNewThread(@Nullable Runnable task, Tracer tracer) {
+        if (shouldAvoidContextPropagation(task)) {
+            return task;
+        }
+        AbstractSpan<?> active = tracer.getActive();
+        if (active == null) {
+            return task;
+        }
+        // Do no discard branches leading to async operations so not to break span references
+        active.setNonDiscardable();
+        return new ContextPropagatingRunnable(task, active);
+    }
+
     private static void captureContext(Object task, AbstractSpan<?> active) {
         DynamicTransformer.ensureInstrumented(task.getClass(), RUNNABLE_CALLABLE_FJTASK_INSTRUMENTATION);
         contextMap.put(task, active);
@@ -241,6 +265,41 @@ public class JavaConcurrent {
         }
     }
 
+    /**
+     * Holds a reference to the context of the thread that created it and activates that context while running the delegate.
+     * The reference is released after the first run.
+     * If the wrapper is never run, the context is only released when the wrapper is garbage collected.
+     */
+    public static class ContextPropagatingRunnable implements Runnable {
+
+        private final Runnable delegate;
+        private final AtomicReference<AbstractSpan<?>> context;
+
+        ContextPropagatingRunnable(Runnable delegate, AbstractSpan<?> context) {
+            this.delegate = delegate;
+            this.context = new AtomicReference<AbstractSpan<?>>(context);
+            context.incrementReferences();
+        }
+
+        @Override
+        public void run() {
+            // only one concurrent run may take over the reference
+            AbstractSpan<?> context = this.context.getAndSet(null);
+            if (context == null) {
+                delegate.run();
+                return;
+            }
+            context.activate();
+            // the activation holds its own reference
+            context.decrementReferences();
+            try {
+                delegate.run();
+            } finally {
+                context.deactivate();
+            }
+        }
+    }
+
     public static class CallableLambdaWrapper<V> implements Callable<V> {
         private final Callable<V> delegate;
 
@@ -0,0 +1,130 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.concurrent;
+
+import co.elastic.apm.agent.bci.TracerAwareInstrumentation;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.asm.Advice.AssignReturned.ToArguments.ToArgument;
+import net.bytebuddy.description.NamedElement;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static net.bytebuddy.matcher.ElementMatchers.isConstructor;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.returns;
+import static net.bytebuddy.matcher.ElementMatchers.takesArgument;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Propagates the context to threads that are created per task, for example by
+ * {@code Executors.newVirtualThreadPerTaskExecutor()} or {@code StructuredTaskScope#fork}.
+ * <p>
+ * Instead of mapping each task to its context in a global weak map, like {@link ExecutorInstrumentation} does,
+ * the task of the new thread is wrapped in a {@link JavaConcurrent.ContextPropagatingRunnable} which holds the context itself.
+ * As such a thread runs its task exactly once, this saves a map insert and removal per task.
+ * </p>
+ * <p>
+ * The instrumented JDK classes only exist as of Java 21 (or Java 19 with preview features enabled).
+ * </p>
+ */
+public abstract class ThreadPerTaskInstrumentation extends TracerAwareInstrumentation {
+
+    @Override
+    public Collection<String> getInstrumentationGroupNames() {
+        return Arrays.asList("concurrent", "executor", "virtual-thread");
+    }
+
+    /**
+     * Instruments the constructor {@code java.lang.VirtualThread(Executor, String, int, Runnable)}.
+     * All ways of creating a virtual thread end up in this constructor,
+     * including {@code Thread.ofVirtual()}, {@code Executors.newVirtualThreadPerTaskExecutor()} and {@code StructuredTaskScope#fork}.
+     */
+    public static class VirtualThreadInstrumentation extends ThreadPerTaskInstrumentation {
+
+        @Override
+        public ElementMatcher<? super NamedElement> getTypeMatcherPreFilter() {
+            return named("java.lang.VirtualThread");
+        }
+
+        @Override
+        public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+            return named("java.lang.VirtualThread");
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return isConstructor()
+                .and(takesArguments(4))
+                .and(takesArgument(3, Runnable.class));
+        }
+
+        public static class AdviceClass {
+            @Nullable
+            @Advice.AssignReturned.ToArguments(@ToArgument(3))
+            @Advice.OnMethodEnter(suppress = Throwable.class, inline = false)
+            public static Runnable onEnter(@Advice.Argument(3) @Nullable Runnable task) {
+                return JavaConcurrent.withContextForNewThread(task, tracer);
+            }
+        }
+    }
+
+    /**
+     * Instruments {@code java.util.concurrent.ThreadPerTaskExecutor#newThread(Runnable)},
+     * which covers {@code Executors.newThreadPerTaskExecutor(ThreadFactory)} with factories creating platform threads.
+     */
+    public static class ThreadPerTaskExecutorInstrumentation extends ThreadPerTaskInstrumentation {
+
+        static final String THREAD_PER_TASK_EXECUTOR = "java.util.concurrent.ThreadPerTaskExecutor";
+
+        @Override
+        public ElementMatcher<? super NamedElement> getTypeMatcherPreFilter() {
+            return named(THREAD_PER_TASK_EXECUTOR);
+        }
+
+        /**
+         * The executor is excluded from {@link ExecutorInstrumentation},
+         * as the context is propagated by wrapping the task of the created thread instead.
+         */
+        @Override
+        public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+            return named(THREAD_PER_TASK_EXECUTOR);
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("newThread")
+                .and(returns(Thread.class))
+                .and(takesArguments(Runnable.class));
+        }
+
+        public static class AdviceClass {
+            @Nullable
+            @Advice.AssignReturned.ToArguments(@ToArgument(0))
+            @Advice.OnMethodEnter(suppress = Throwable.class, inline = false)
+            public static Runnable onEnter(@Advice.Argument(0) @Nullable Runnable task) {
+                return JavaConcurrent.withContextForNewThread(task, tracer);
+            }
+        }
+    }
+}
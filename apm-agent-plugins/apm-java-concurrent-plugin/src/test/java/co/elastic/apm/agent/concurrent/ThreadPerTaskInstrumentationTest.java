@@ -0,0 +1,181 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.concurrent;
+
+import co.elastic.apm.agent.AbstractInstrumentationTest;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class ThreadPerTaskInstrumentationTest extends AbstractInstrumentationTest {
+
+    private Transaction transaction;
+
+    @Before
+    public void setUp() {
+        transaction = tracer.startRootTransaction(null).withName("Transaction").activate();
+    }
+
+    @After
+    public void tearDown() {
+        transaction.deactivate().end();
+        assertThat(tracer.getActive()).isNull();
+    }
+
+    @Test
+    public void testContextPropagatingRunnable() throws Exception {
+        Runnable task = JavaConcurrent.withContextForNewThread(this::createAsyncSpan, tracer);
+        assertThat(task).isInstanceOf(JavaConcurrent.ContextPropagatingRunnable.class);
+        Thread thread = new Thread(task);
+        thread.start();
+        thread.join();
+        Span span = reporter.getFirstSpan(500);
+        assertThat(span.getNameAsString()).isEqualTo("Async");
+        assertThat(span.getTraceContext().getParentId()).isEqualTo(transaction.getTraceContext().getId());
+    }
+
+    @Test
+    public void testContextIsOnlyActivatedOnFirstRun() throws Exception {
+        final AtomicReference<Object> activeOnSecondRun = new AtomicReference<>();
+        final Runnable task = JavaConcurrent.withContextForNewThread(() -> activeOnSecondRun.set(tracer.getActive()), tracer);
+        Thread thread = new Thread(() -> {
+            task.run();
+            activeOnSecondRun.set(new Object());
+            task.run();
+        });
+        thread.start();
+        thread.join();
+        assertThat(activeOnSecondRun.get()).isNull();
+    }
+
+    @Test
+    public void testContextIsOnlyActivatedOnceOnConcurrentRuns() throws Exception {
+        final int threads = 8;
+        final AtomicInteger activations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Runnable task = JavaConcurrent.withContextForNewThread(() -> {
+            if (tracer.getActive() != null) {
+                activations.incrementAndGet();
+            }
+        }, tracer);
+        List<Thread> runners = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                task.run();
+            });
+            thread.start();
+            runners.add(thread);
+        }
+        start.countDown();
+        for (Thread runner : runners) {
+            runner.join();
+        }
+        assertThat(activations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNoWrappingWithoutActiveContext() {
+        transaction.deactivate();
+        try {
+            Runnable runnable = () -> {
+            };
+            assertThat(JavaConcurrent.withContextForNewThread(runnable, tracer)).isSameAs(runnable);
+        } finally {
+            transaction.activate();
+        }
+    }
+
+    @Test
+    public void testNoDoubleWrapping() {
+        Runnable task = JavaConcurrent.withContextForNewThread(() -> {
+        }, tracer);
+        assertThat(JavaConcurrent.withContextForNewThread(task, tracer)).isSameAs(task);
+        // releases the reference held by the wrapper
+        task.run();
+    }
+
+    @Test
+    public void testVirtualThreadPerTaskExecutor() throws Exception {
+        Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            factory = null;
+        }
+        assumeTrue("virtual threads are not supported on this JVM", factory != null);
+        ExecutorService executor = (ExecutorService) factory.invoke(null);
+        try {
+            Future<?> future = executor.submit(this::createAsyncSpan);
+            assertThat(future.get()).isNull();
+        } finally {
+            executor.shutdown();
+        }
+        Span span = reporter.getFirstSpan(500);
+        assertThat(span.getNameAsString()).isEqualTo("Async");
+        assertThat(span.getTraceContext().getParentId()).isEqualTo(transaction.getTraceContext().getId());
+    }
+
+    @Test
+    public void testPlatformThreadPerTaskExecutor() throws Exception {
+        Method factory;
+        try {
+            factory = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException e) {
+            factory = null;
+        }
+        assumeTrue("thread-per-task executors are not supported on this JVM", factory != null);
+        ExecutorService executor = (ExecutorService) factory.invoke(null, Executors.defaultThreadFactory());
+        try {
+            Future<?> future = executor.submit(this::createAsyncSpan);
+            assertThat(future.get()).isNull();
+        } finally {
+            executor.shutdown();
+        }
+        Span span = reporter.getFirstSpan(500);
+        assertThat(span.getNameAsString()).isEqualTo("Async");
+        assertThat(span.getTraceContext().getParentId()).isEqualTo(transaction.getTraceContext().getId());
+        assertThat(ExecutorInstrumentation.excludedClasses).contains("java.util.concurrent.ThreadPerTaskExecutor");
+    }
+
+    private void createAsyncSpan() {
+        assertThat(tracer.currentTransaction()).isEqualTo(transaction);
+        tracer.getActive().createSpan().withName("Async").end();
+    }
+}
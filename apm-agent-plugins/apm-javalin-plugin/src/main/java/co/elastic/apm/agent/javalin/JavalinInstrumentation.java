@@ -160,7 +160,7 @@ public class JavalinInstrumentation extends TracerAwareInstrumentation {
                         handlerType.name(),
                         ctx.endpointHandlerPath(),
                         name,
-                        webConfig.getUrlGroups()
+                        webConfig.getUrlGroupsMatcherSet()
                     );
                 }
             }
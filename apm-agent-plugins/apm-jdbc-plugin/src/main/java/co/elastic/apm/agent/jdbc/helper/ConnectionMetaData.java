@@ -42,6 +42,12 @@ public class ConnectionMetaData {
 
     private static final Logger logger = LoggerFactory.getLogger(ConnectionMetaData.class);
 
+    /**
+     * Limits the number of {@linkplain JdbcGlobalState#sharedMetaData shared} instances,
+     * in case an application connects to a large number of different databases.
+     */
+    static final int MAX_SHARED_METADATA = 256;
+
     private final String dbVendor;
     @Nullable
     private final String host;
@@ -767,6 +773,37 @@ public class ConnectionMetaData {
         }
     }
 
+    /**
+     * Returns the metadata for a connection, re-using the instance of other connections to the same database with the same user.
+     * This avoids parsing the connection URL for each physical connection of a connection pool.
+     *
+     * @param url               the connection URL, as returned by {@link java.sql.DatabaseMetaData#getURL()}
+     * @param connectionCatalog the catalog of the connection, used as the instance if the URL doesn't contain it
+     * @param connectionUser    the user of the connection, used as the user if the URL doesn't contain it
+     * @return the metadata of the connection
+     */
+    public static ConnectionMetaData getOrParse(String url, @Nullable String connectionCatalog, @Nullable String connectionUser) {
+        Key key = new Key(url, connectionCatalog, connectionUser);
+        ConnectionMetaData connectionMetaData = JdbcGlobalState.sharedMetaData.get(key);
+        if (connectionMetaData != null) {
+            return connectionMetaData;
+        }
+        connectionMetaData = parse(url)
+            .withConnectionInstance(connectionCatalog)
+            .withConnectionUser(connectionUser)
+            .build();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Based on the connection URL {}, parsed metadata is: {}", url, connectionMetaData);
+        }
+        if (JdbcGlobalState.sharedMetaData.size() < MAX_SHARED_METADATA) {
+            ConnectionMetaData previous = JdbcGlobalState.sharedMetaData.putIfAbsent(key, connectionMetaData);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return connectionMetaData;
+    }
+
     public static Builder parse(String url) {
 
         String vendor = "unknown";
@@ -917,4 +954,47 @@ public class ConnectionMetaData {
             return instance != null;
         }
     }
+
+    /**
+     * The inputs from which the {@link ConnectionMetaData} of a connection is derived
+     */
+    public static final class Key {
+
+        private final String url;
+        @Nullable
+        private final String catalog;
+        @Nullable
+        private final String user;
+        private final int hashCode;
+
+        private Key(String url, @Nullable String catalog, @Nullable String user) {
+            // surrounding whitespace doesn't change how the URL is parsed
+            this.url = url.trim();
+            this.catalog = catalog;
+            this.user = user;
+            int hash = this.url.hashCode();
+            hash = 31 * hash + (catalog != null ? catalog.hashCode() : 0);
+            hash = 31 * hash + (user != null ? user.hashCode() : 0);
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return url.equals(key.url)
+                && (catalog != null ? catalog.equals(key.catalog) : key.catalog == null)
+                && (user != null ? user.equals(key.user) : key.user == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
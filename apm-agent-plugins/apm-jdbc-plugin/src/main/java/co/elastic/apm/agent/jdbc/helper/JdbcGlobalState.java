@@ -23,21 +23,31 @@ import co.elastic.apm.agent.sdk.weakconcurrent.WeakConcurrent;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
 
 import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 @GlobalState
 public class JdbcGlobalState {
 
     public static final WeakMap<Object, String> statementSqlMap = WeakConcurrent.buildMap();
     public static final WeakMap<Connection, ConnectionMetaData> metaDataMap = WeakConcurrent.buildMap();
+    /**
+     * Shares the immutable {@link ConnectionMetaData} between all connections to the same database with the same user,
+     * so that the connection URL of a pool's connections only needs to be parsed once.
+     */
+    public static final ConcurrentMap<ConnectionMetaData.Key, ConnectionMetaData> sharedMetaData = new ConcurrentHashMap<>();
     public static final WeakMap<Class<?>, Boolean> metadataSupported = WeakConcurrent.buildMap();
     public static final WeakMap<Class<?>, Boolean> catalogSupported = WeakConcurrent.buildMap();
     public static final WeakMap<Class<?>, Boolean> connectionSupported = WeakConcurrent.buildMap();
+    public static final WeakMap<Class<?>, Boolean> unwrapSupported = WeakConcurrent.buildMap();
 
     public static void clearInternalStorage() {
         metaDataMap.clear();
+        sharedMetaData.clear();
         metadataSupported.clear();
         catalogSupported.clear();
         connectionSupported.clear();
+        unwrapSupported.clear();
     }
 
 }
@@ -170,6 +170,15 @@ public class JdbcHelper {
             return connectionMetaData;
         }
 
+        // connection pools like HikariCP hand out a new proxy each time a physical connection is borrowed
+        Connection physicalConnection = safeUnwrap(connection);
+        if (physicalConnection != connection) {
+            connectionMetaData = metaDataMap.get(physicalConnection);
+            if (connectionMetaData != null) {
+                return connectionMetaData;
+            }
+        }
+
         Class<?> type = connection.getClass();
         Boolean supported = isSupported(JdbcFeature.METADATA, type);
         if (supported == Boolean.FALSE) {
@@ -178,14 +187,7 @@ public class JdbcHelper {
 
         try {
             DatabaseMetaData metaData = connection.getMetaData();
-            connectionMetaData = ConnectionMetaData.parse(metaData.getURL())
-                .withConnectionInstance(safeGetCatalog(connection))
-                .withConnectionUser(metaData.getUserName())
-                .build();
-
-            if (logger.isDebugEnabled()) {
-                logger.debug("Based on the connection URL {}, parsed metadata is: {}", metaData.getURL(), connectionMetaData);
-            }
+            connectionMetaData = ConnectionMetaData.getOrParse(metaData.getURL(), safeGetCatalog(connection), metaData.getUserName());
 
             if (supported == null) {
                 markSupported(JdbcFeature.METADATA, type);
@@ -195,11 +197,40 @@ public class JdbcHelper {
         }
 
         if (connectionMetaData != null) {
-            metaDataMap.put(connection, connectionMetaData);
+            metaDataMap.put(physicalConnection, connectionMetaData);
         }
         return connectionMetaData;
     }
 
+    /**
+     * Unwraps connection proxies, so that the metadata can be cached for the physical connection.
+     *
+     * @param connection a connection, possibly a proxy
+     * @return the physical connection, or the provided connection if it isn't a proxy
+     */
+    private Connection safeUnwrap(Connection connection) {
+        Class<?> type = connection.getClass();
+        Boolean supported = isSupported(JdbcFeature.UNWRAP, type);
+        if (supported == Boolean.FALSE) {
+            return connection;
+        }
+
+        Connection unwrapped = null;
+        try {
+            unwrapped = connection.unwrap(Connection.class);
+            if (supported == null) {
+                markSupported(JdbcFeature.UNWRAP, type);
+            }
+        } catch (SQLException e) {
+            markNotSupported(JdbcFeature.UNWRAP, type, e);
+        } catch (AbstractMethodError e) {
+            // drivers compiled against JDBC 3 don't implement java.sql.Wrapper
+            markNotSupported(JdbcFeature.UNWRAP, type, e);
+        }
+
+        return unwrapped != null ? unwrapped : connection;
+    }
+
     @Nullable
     private String safeGetCatalog(Connection connection) {
         String catalog = null;
@@ -249,7 +280,7 @@ public class JdbcHelper {
         feature.classSupport.put(type, Boolean.TRUE);
     }
 
-    private static void markNotSupported(JdbcFeature feature, Class<?> type, SQLException e) {
+    private static void markNotSupported(JdbcFeature feature, Class<?> type, Throwable e) {
         Boolean previous = feature.classSupport.put(type, Boolean.FALSE);
         if (previous == null) {
             logger.warn("JDBC feature not supported on class " + type, e);
@@ -275,7 +306,11 @@ public class JdbcHelper {
         /**
          * {@link Statement#getConnection()}
          */
-        CONNECTION(JdbcGlobalState.connectionSupported);
+        CONNECTION(JdbcGlobalState.connectionSupported),
+        /**
+         * {@link java.sql.Wrapper#unwrap(Class)}
+         */
+        UNWRAP(JdbcGlobalState.unwrapSupported);
 
         private final WeakMap<Class<?>, Boolean> classSupport;
 
@@ -449,6 +449,40 @@ class ConnectionMetaDataTest {
         assertThat(metaData.getPort()).isEqualTo(42);
     }
 
+    @Test
+    void sharedMetaData() {
+        try {
+            ConnectionMetaData metaData = ConnectionMetaData.getOrParse("jdbc:postgresql://host:666/database", "catalog", "user");
+            assertThat(metaData.getHost()).isEqualTo("host");
+            assertThat(metaData.getPort()).isEqualTo(666);
+            assertThat(metaData.getInstance()).isEqualTo("database");
+            assertThat(metaData.getUser()).isEqualTo("user");
+
+            assertThat(ConnectionMetaData.getOrParse(" jdbc:postgresql://host:666/database ", "catalog", "user")).isSameAs(metaData);
+            assertThat(ConnectionMetaData.getOrParse("jdbc:postgresql://host:666/database", "catalog", "other-user"))
+                .isNotSameAs(metaData)
+                .satisfies(m -> assertThat(m.getUser()).isEqualTo("other-user"));
+            assertThat(ConnectionMetaData.getOrParse("jdbc:postgresql://host:666/", null, "user"))
+                .satisfies(m -> assertThat(m.getInstance()).isNull());
+            assertThat(ConnectionMetaData.getOrParse("jdbc:postgresql://host:666/", "catalog", "user"))
+                .satisfies(m -> assertThat(m.getInstance()).isEqualTo("catalog"));
+        } finally {
+            JdbcGlobalState.clearInternalStorage();
+        }
+    }
+
+    @Test
+    void sharedMetaDataIsBounded() {
+        try {
+            for (int i = 0; i < ConnectionMetaData.MAX_SHARED_METADATA * 2; i++) {
+                ConnectionMetaData.getOrParse("jdbc:postgresql://host:666/database" + i, null, null);
+            }
+            assertThat(JdbcGlobalState.sharedMetaData).hasSize(ConnectionMetaData.MAX_SHARED_METADATA);
+        } finally {
+            JdbcGlobalState.clearInternalStorage();
+        }
+    }
+
     @ParameterizedTest
     @CsvSource(nullValues = {"null"}, delimiter = '|', value = {
         "database|localhost|-1|database",
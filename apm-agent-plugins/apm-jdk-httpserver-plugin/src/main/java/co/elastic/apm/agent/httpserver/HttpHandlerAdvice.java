@@ -70,7 +70,7 @@ public class HttpHandlerAdvice {
             exchange.getRequestMethod(),
             exchange.getRequestURI().getPath(),
             transaction.getAndOverrideName(AbstractSpan.PRIORITY_LOW_LEVEL_FRAMEWORK),
-            webConfiguration.getUrlGroups());
+            webConfiguration.getUrlGroupsMatcherSet());
 
         transaction.withType(Transaction.TYPE_REQUEST)
             .setFrameworkName("JDK HTTP Server");
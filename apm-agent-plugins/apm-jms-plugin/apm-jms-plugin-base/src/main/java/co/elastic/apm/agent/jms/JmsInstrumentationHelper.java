@@ -281,7 +281,7 @@ public class JmsInstrumentationHelper {
                         String propertyName = String.valueOf(properties.nextElement());
                         if (!propertyName.equals(JMS_DESTINATION_NAME_PROPERTY) &&
                             !jmsTraceHeaders.contains(propertyName) &&
-                            WildcardMatcher.anyMatch(coreConfiguration.getSanitizeFieldNames(), propertyName) == null) {
+                            coreConfiguration.getSanitizeFieldNamesMatcherSet().isNoneMatch(propertyName)) {
                             messageContext.addHeader(propertyName, String.valueOf(message.getObjectProperty(propertyName)));
                         }
                     }
@@ -92,7 +92,7 @@ class ConsumerRecordsIteratorWrapper implements Iterator<ConsumerRecord<?, ?>> {
                         for (Header header : record.headers()) {
                             String key = header.key();
                             if (!binaryTraceHeaders.contains(key) &&
-                                WildcardMatcher.anyMatch(coreConfiguration.getSanitizeFieldNames(), key) == null) {
+                                coreConfiguration.getSanitizeFieldNamesMatcherSet().isNoneMatch(key)) {
                                 message.addHeader(key, header.value());
                             }
                         }
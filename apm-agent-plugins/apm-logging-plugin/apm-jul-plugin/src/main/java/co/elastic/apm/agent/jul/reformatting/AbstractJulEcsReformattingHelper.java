@@ -21,6 +21,7 @@ package co.elastic.apm.agent.jul.reformatting;
 import co.elastic.apm.agent.jul.sending.JulLogSenderHandler;
 import co.elastic.apm.agent.loginstr.correlation.CorrelationIdMapAdapter;
 import co.elastic.apm.agent.loginstr.reformatting.AbstractEcsReformattingHelper;
+import co.elastic.apm.agent.loginstr.sending.LogSeverity;
 import co.elastic.apm.agent.report.Reporter;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
@@ -39,6 +40,7 @@ import java.util.Map;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.StreamHandler;
 
@@ -159,4 +161,40 @@ public abstract class AbstractJulEcsReformattingHelper<T extends Handler> extend
     protected void append(LogRecord logEvent, Handler appender) {
         appender.publish(logEvent);
     }
+
+    @Nullable
+    @Override
+    protected String getLoggerName(LogRecord logEvent) {
+        return logEvent.getLoggerName();
+    }
+
+    @Override
+    protected long getTimestamp(LogRecord logEvent) {
+        return logEvent.getMillis();
+    }
+
+    @Override
+    protected LogSeverity getLogSeverity(LogRecord logEvent) {
+        int level = logEvent.getLevel().intValue();
+        if (level >= Level.SEVERE.intValue()) {
+            return LogSeverity.ERROR;
+        } else if (level >= Level.WARNING.intValue()) {
+            return LogSeverity.WARN;
+        } else if (level >= Level.INFO.intValue()) {
+            return LogSeverity.INFO;
+        } else if (level >= Level.FINE.intValue()) {
+            return LogSeverity.DEBUG;
+        }
+        return LogSeverity.TRACE;
+    }
+
+    /**
+     * Parameterized messages are not formatted here, so they are not de-duplicated.
+     */
+    @Nullable
+    @Override
+    protected String getFormattedMessage(LogRecord logEvent) {
+        Object[] parameters = logEvent.getParameters();
+        return parameters == null || parameters.length == 0 ? logEvent.getMessage() : null;
+    }
 }
@@ -21,6 +21,7 @@ package co.elastic.apm.agent.log4j1.reformatting;
 import co.elastic.apm.agent.log4j1.sending.LogSenderAppender;
 import co.elastic.apm.agent.loginstr.reformatting.AbstractEcsReformattingHelper;
 import co.elastic.apm.agent.loginstr.reformatting.Utils;
+import co.elastic.apm.agent.loginstr.sending.LogSeverity;
 
 import co.elastic.apm.agent.report.Reporter;
 import co.elastic.apm.agent.sdk.logging.Logger;
@@ -29,6 +30,7 @@ import co.elastic.logging.log4j.EcsLayout;
 import org.apache.log4j.Appender;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
 import org.apache.log4j.RollingFileAppender;
 import org.apache.log4j.WriterAppender;
 import org.apache.log4j.spi.LoggingEvent;
@@ -121,4 +123,35 @@ class Log4J1EcsReformattingHelper extends AbstractEcsReformattingHelper<WriterAp
         appender.doAppend(logEvent);
     }
 
+    @Override
+    protected String getLoggerName(LoggingEvent logEvent) {
+        return logEvent.getLoggerName();
+    }
+
+    @Override
+    protected long getTimestamp(LoggingEvent logEvent) {
+        return logEvent.timeStamp;
+    }
+
+    @Override
+    protected LogSeverity getLogSeverity(LoggingEvent logEvent) {
+        int level = logEvent.getLevel().toInt();
+        if (level >= Level.ERROR_INT) {
+            return LogSeverity.ERROR;
+        } else if (level >= Level.WARN_INT) {
+            return LogSeverity.WARN;
+        } else if (level >= Level.INFO_INT) {
+            return LogSeverity.INFO;
+        } else if (level >= Level.DEBUG_INT) {
+            return LogSeverity.DEBUG;
+        }
+        return LogSeverity.TRACE;
+    }
+
+    @Nullable
+    @Override
+    protected String getFormattedMessage(LoggingEvent logEvent) {
+        return logEvent.getRenderedMessage();
+    }
+
 }
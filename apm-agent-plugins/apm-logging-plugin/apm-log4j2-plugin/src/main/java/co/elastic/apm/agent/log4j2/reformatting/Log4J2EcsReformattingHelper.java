@@ -21,10 +21,12 @@ package co.elastic.apm.agent.log4j2.reformatting;
 import co.elastic.apm.agent.log4j2.sending.Log4j2LogSenderAppender;
 import co.elastic.apm.agent.loginstr.reformatting.AbstractEcsReformattingHelper;
 import co.elastic.apm.agent.loginstr.reformatting.Utils;
+import co.elastic.apm.agent.loginstr.sending.LogSeverity;
 import co.elastic.apm.agent.report.Reporter;
 import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 import co.elastic.logging.log4j2.EcsLayout;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
@@ -39,6 +41,7 @@ import org.apache.logging.log4j.core.config.DefaultConfiguration;
 import org.apache.logging.log4j.core.config.NullConfiguration;
 import org.apache.logging.log4j.core.layout.AbstractLayout;
 import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.Message;
 
 import javax.annotation.Nullable;
 import java.io.Serializable;
@@ -165,4 +168,36 @@ class Log4J2EcsReformattingHelper extends AbstractEcsReformattingHelper<Appender
     protected void append(LogEvent logEvent, Appender appender) {
         appender.append(logEvent);
     }
+
+    @Override
+    protected String getLoggerName(LogEvent logEvent) {
+        return logEvent.getLoggerName();
+    }
+
+    @Override
+    protected long getTimestamp(LogEvent logEvent) {
+        return logEvent.getTimeMillis();
+    }
+
+    @Override
+    protected LogSeverity getLogSeverity(LogEvent logEvent) {
+        Level level = logEvent.getLevel();
+        if (level.isMoreSpecificThan(Level.ERROR)) {
+            return LogSeverity.ERROR;
+        } else if (level.isMoreSpecificThan(Level.WARN)) {
+            return LogSeverity.WARN;
+        } else if (level.isMoreSpecificThan(Level.INFO)) {
+            return LogSeverity.INFO;
+        } else if (level.isMoreSpecificThan(Level.DEBUG)) {
+            return LogSeverity.DEBUG;
+        }
+        return LogSeverity.TRACE;
+    }
+
+    @Nullable
+    @Override
+    protected String getFormattedMessage(LogEvent logEvent) {
+        Message message = logEvent.getMessage();
+        return message != null ? message.getFormattedMessage() : null;
+    }
 }
@@ -18,6 +18,7 @@
  */
 package co.elastic.apm.agent.logback.reformatting;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
@@ -31,6 +32,7 @@ import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
 import co.elastic.apm.agent.logback.sending.LogbackLogSenderAppender;
 import co.elastic.apm.agent.loginstr.reformatting.AbstractEcsReformattingHelper;
 import co.elastic.apm.agent.loginstr.reformatting.Utils;
+import co.elastic.apm.agent.loginstr.sending.LogSeverity;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.report.Reporter;
 import co.elastic.apm.agent.sdk.logging.Logger;
@@ -170,4 +172,35 @@ class LogbackEcsReformattingHelper extends AbstractEcsReformattingHelper<OutputS
         appender.doAppend(logEvent);
     }
 
+    @Override
+    protected String getLoggerName(ILoggingEvent logEvent) {
+        return logEvent.getLoggerName();
+    }
+
+    @Override
+    protected long getTimestamp(ILoggingEvent logEvent) {
+        return logEvent.getTimeStamp();
+    }
+
+    @Override
+    protected LogSeverity getLogSeverity(ILoggingEvent logEvent) {
+        int level = logEvent.getLevel().toInt();
+        if (level >= Level.ERROR_INT) {
+            return LogSeverity.ERROR;
+        } else if (level >= Level.WARN_INT) {
+            return LogSeverity.WARN;
+        } else if (level >= Level.INFO_INT) {
+            return LogSeverity.INFO;
+        } else if (level >= Level.DEBUG_INT) {
+            return LogSeverity.DEBUG;
+        }
+        return LogSeverity.TRACE;
+    }
+
+    @Nullable
+    @Override
+    protected String getFormattedMessage(ILoggingEvent logEvent) {
+        return logEvent.getFormattedMessage();
+    }
+
 }
@@ -27,6 +27,8 @@ import co.elastic.apm.agent.impl.metadata.Service;
 import co.elastic.apm.agent.impl.metadata.ServiceFactory;
 import co.elastic.apm.agent.logging.LogEcsReformatting;
 import co.elastic.apm.agent.logging.LoggingConfiguration;
+import co.elastic.apm.agent.loginstr.sending.LogSendingPolicy;
+import co.elastic.apm.agent.loginstr.sending.LogSeverity;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.report.Reporter;
 import co.elastic.apm.agent.sdk.logging.Logger;
@@ -153,6 +155,18 @@ public abstract class AbstractEcsReformattingHelper<A, B, F, L> {
      */
     private static final ThreadLocal<LogEcsReformatting> configForCurrentLogEvent = new ThreadLocal<>();
 
+    /**
+     * Identifies the last log event for which a send decision has been made on the current thread.
+     * A log event that is passed to multiple appenders exits {@link #onAppendExit(Object, Object)} once per appender,
+     * but must only be deduplicated and rate-limited once.
+     */
+    private static final ThreadLocal<LogEventKey> lastSentLogEvent = new ThreadLocal<LogEventKey>() {
+        @Override
+        protected LogEventKey initialValue() {
+            return new LogEventKey();
+        }
+    };
+
     private final LoggingConfiguration loggingConfiguration;
 
     @Nullable
@@ -169,7 +183,7 @@ public abstract class AbstractEcsReformattingHelper<A, B, F, L> {
 
     @Nullable
     private final Map<String, String> additionalFields;
-    private final Reporter reporter;
+    private final LogSendingPolicy logSendingPolicy;
 
     public AbstractEcsReformattingHelper() {
         Tracer tracer = GlobalTracer.get();
@@ -188,7 +202,8 @@ public abstract class AbstractEcsReformattingHelper<A, B, F, L> {
             configuredServiceNodeName = null;
         }
         environment = service.getEnvironment();
-        reporter = tracer.require(ElasticApmTracer.class).getReporter();
+        ElasticApmTracer elasticApmTracer = tracer.require(ElasticApmTracer.class);
+        logSendingPolicy = new LogSendingPolicy(loggingConfiguration, elasticApmTracer, elasticApmTracer.getReporter());
     }
 
     /**
@@ -299,18 +314,30 @@ public abstract class AbstractEcsReformattingHelper<A, B, F, L> {
                 Object mappedAppender = originalAppender2ecsAppender.get(appender);
                 invokeAppender(logEvent, mappedAppender);
             }
-            if (loggingConfiguration.getSendLogs()) {
-                Object mappedAppender = originalAppender2sendingAppender.get(appender);
-                if (mappedAppender == null) {
-                    mappedAppender = createAndMapSendingAppenderFor(appender);
+            if (loggingConfiguration.getSendLogs() && beforeSend(logEvent)) {
+                try {
+                    Object mappedAppender = originalAppender2sendingAppender.get(appender);
+                    if (mappedAppender == null) {
+                        mappedAppender = createAndMapSendingAppenderFor(appender);
+                    }
+                    invokeAppender(logEvent, mappedAppender);
+                } finally {
+                    logSendingPolicy.afterSend();
                 }
-                invokeAppender(logEvent, mappedAppender);
             }
         } finally {
             configForCurrentLogEvent.remove();
         }
     }
 
+    private boolean beforeSend(L logEvent) {
+        if (lastSentLogEvent.get().update(logEvent, getTimestamp(logEvent))) {
+            return logSendingPolicy.beforeSend(getLoggerName(logEvent), getLogSeverity(logEvent),
+                logSendingPolicy.isMessageRequired() ? getFormattedMessage(logEvent) : null);
+        }
+        return logSendingPolicy.beforeSendAgain();
+    }
+
     @SuppressWarnings("unchecked")
     private void invokeAppender(L logEvent, @Nullable Object mappedAppender) {
         if (mappedAppender != null && mappedAppender != NULL_APPENDER) {
@@ -331,7 +358,7 @@ public abstract class AbstractEcsReformattingHelper<A, B, F, L> {
             }
             sendingAppender = NULL_APPENDER;
             try {
-                sendingAppender = createAndStartLogSendingAppender(reporter, createEcsFormatter(originalAppender));
+                sendingAppender = createAndStartLogSendingAppender(logSendingPolicy.getReporter(), createEcsFormatter(originalAppender));
                 originalAppender2sendingAppender.put(originalAppender, sendingAppender);
             } catch (Throwable throwable) {
                 logger.warn(String.format("Failed to create ECS shipper appender for log appender %s.%s. " +
@@ -542,4 +569,35 @@ public abstract class AbstractEcsReformattingHelper<A, B, F, L> {
     protected abstract B createAndStartLogSendingAppender(Reporter reporter, F formatter);
 
     protected abstract void append(L logEvent, B appender);
+
+    @Nullable
+    protected abstract String getLoggerName(L logEvent);
+
+    protected abstract LogSeverity getLogSeverity(L logEvent);
+
+    @Nullable
+    protected abstract String getFormattedMessage(L logEvent);
+
+    protected abstract long getTimestamp(L logEvent);
+
+    /**
+     * Identifies a log event by its identity hash code and its timestamp, without holding a reference to it.
+     */
+    private static class LogEventKey {
+        private int identityHashCode;
+        private long timestamp = Long.MIN_VALUE;
+
+        /**
+         * @return {@code true} if the provided log event differs from the previous one
+         */
+        private boolean update(Object logEvent, long timestamp) {
+            int identityHashCode = System.identityHashCode(logEvent);
+            if (identityHashCode == this.identityHashCode && timestamp == this.timestamp) {
+                return false;
+            }
+            this.identityHashCode = identityHashCode;
+            this.timestamp = timestamp;
+            return true;
+        }
+    }
 }
@@ -0,0 +1,481 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.loginstr.sending;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.logging.LoggingConfiguration;
+import co.elastic.apm.agent.report.Reporter;
+import co.elastic.apm.agent.sdk.state.GlobalState;
+import co.elastic.apm.agent.tracer.Outcome;
+import co.elastic.apm.agent.util.AgentScheduler;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which log events are sent to APM Server when {@code log_sending} is enabled.
+ * <p>
+ * The log events of each logger and level can be
+ * </p>
+ * <ul>
+ *     <li>rate limited ({@link LoggingConfiguration#getLogSendingRateLimit()}): events exceeding the limit within a second are dropped</li>
+ *     <li>
+ *         de-duplicated ({@link LoggingConfiguration#getLogSendingDedupWindow()}): repetitions of the last message are dropped within the window,
+ *         the next repetition after the window is sent with the number of dropped repetitions in {@code log.repeat_count}
+ *     </li>
+ *     <li>
+ *         tail sampled ({@link LoggingConfiguration#isLogSendingTailSampling()}): events below {@link LogSeverity#WARN} that are logged
+ *         within a transaction are buffered and only sent if the transaction fails, is slow, or logs a {@link LogSeverity#WARN} or
+ *         {@link LogSeverity#ERROR} event
+ *     </li>
+ * </ul>
+ * <p>
+ * The sending appenders report to the {@link #getReporter() reporter of this policy},
+ * which applies the decision taken in {@link #beforeSend(String, LogSeverity, String)} to the formatted event.
+ * </p>
+ * <p>
+ * There is no callback when a transaction ends, so the buffered events of a transaction are either sent or discarded
+ * when the thread logs the next event outside of it, or by a periodic task on the {@link AgentScheduler} once the transaction has ended,
+ * whichever comes first. The latter covers pool threads that don't log again after the transaction.
+ * To prevent the transaction from being recycled in the meantime, the buffer holds a reference to it.
+ * The memory used is bounded by the number of tracked loggers ({@link #MAX_TRACKED_LOGGERS}) and, per thread,
+ * by the number and size of the buffered events ({@link #MAX_TAIL_EVENTS}, {@link #MAX_TAIL_BYTES}).
+ * </p>
+ * <p>
+ * No need to use {@code DetachedThreadLocal} because we already annotate the class with {@link GlobalState}.
+ * </p>
+ */
+@GlobalState
+public class LogSendingPolicy {
+
+    static final int MAX_TRACKED_LOGGERS = 1024;
+    static final int MAX_DEDUP_MESSAGE_LENGTH = 1024;
+    static final int MAX_TAIL_EVENTS = 128;
+    static final int MAX_TAIL_BYTES = 64 * 1024;
+
+    static final long TAIL_RELEASE_INTERVAL_MS = 1000;
+
+    private static final String REPEAT_COUNT_FIELD = "\"log.repeat_count\":";
+
+    private final LoggingConfiguration loggingConfiguration;
+    private final ElasticApmTracer tracer;
+    private final Reporter reporter;
+    private final Reporter sendingReporter;
+
+    /**
+     * The state per logger name, with one entry per {@link LogSeverity}
+     */
+    private final ConcurrentMap<String, LoggerState[]> loggerStates = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<CurrentEvent> currentEvent = new ThreadLocal<CurrentEvent>() {
+        @Override
+        protected CurrentEvent initialValue() {
+            return new CurrentEvent();
+        }
+    };
+
+    private final ThreadLocal<TailBuffer> tailBuffer = new ThreadLocal<TailBuffer>() {
+        @Override
+        protected TailBuffer initialValue() {
+            return new TailBuffer();
+        }
+    };
+
+    /**
+     * The tail buffers that currently hold a reference to a transaction
+     */
+    private final Set<TailBuffer> boundTailBuffers = Collections.newSetFromMap(new ConcurrentHashMap<TailBuffer, Boolean>());
+
+    @Nullable
+    private volatile ScheduledFuture<?> tailReleaseTask;
+
+    /**
+     * The number of buffered events that have been dropped as they exceeded the bounds of the tail buffer
+     */
+    private final AtomicLong droppedTailLogs = new AtomicLong();
+
+    public LogSendingPolicy(LoggingConfiguration loggingConfiguration, ElasticApmTracer tracer, Reporter reporter) {
+        this.loggingConfiguration = loggingConfiguration;
+        this.tracer = tracer;
+        this.reporter = reporter;
+        this.sendingReporter = new LogSendingReporter(this, reporter);
+    }
+
+    /**
+     * @return the reporter the sending appenders should report to
+     */
+    public Reporter getReporter() {
+        return sendingReporter;
+    }
+
+    /**
+     * @return the number of log events that have been dropped as they exceeded the bounds of the tail sampling buffer
+     */
+    public long getDroppedTailLogs() {
+        return droppedTailLogs.get();
+    }
+
+    /**
+     * @return whether {@link #beforeSend(String, LogSeverity, String)} needs the formatted message,
+     * which is only the case when de-duplication is enabled
+     */
+    public boolean isMessageRequired() {
+        return loggingConfiguration.getLogSendingDedupWindow().getMillis() > 0;
+    }
+
+    /**
+     * Must be called before a log event is passed to the sending appender.
+     * If this method returns {@code true}, {@link #afterSend()} must be called after the event has been passed to the appender.
+     *
+     * @param loggerName the name of the logger, may be {@code null} for anonymous loggers
+     * @param severity   the severity of the log event
+     * @param message    the formatted message of the log event, only required if {@link #isMessageRequired()}
+     * @return {@code true} if the log event should be passed to the sending appender, {@code false} if it should be dropped
+     */
+    public boolean beforeSend(@Nullable String loggerName, LogSeverity severity, @Nullable String message) {
+        CurrentEvent event = currentEvent.get();
+        int rateLimit = loggingConfiguration.getLogSendingRateLimit();
+        long dedupWindowMillis = loggingConfiguration.getLogSendingDedupWindow().getMillis();
+        boolean tailSampling = loggingConfiguration.isLogSendingTailSampling();
+        if (rateLimit <= 0 && dedupWindowMillis <= 0 && !tailSampling) {
+            return event.decide(true, 0, false);
+        }
+        int repeatCount = 0;
+        if (rateLimit > 0 || dedupWindowMillis > 0) {
+            LoggerState state = getLoggerState(loggerName, severity);
+            if (state != null) {
+                long now = System.currentTimeMillis();
+                synchronized (state) {
+                    if (dedupWindowMillis > 0) {
+                        repeatCount = state.deduplicate(message, now, dedupWindowMillis);
+                        if (repeatCount < 0) {
+                            return event.decide(false, 0, false);
+                        }
+                    }
+                    if (rateLimit > 0 && !state.tryAcquire(now, rateLimit)) {
+                        return event.decide(false, 0, false);
+                    }
+                }
+            }
+        }
+        boolean buffered = tailSampling && tailBuffer.get().shouldBuffer(severity);
+        return event.decide(true, repeatCount, buffered);
+    }
+
+    /**
+     * Applies the decision of the last {@link #beforeSend(String, LogSeverity, String)} call on this thread again.
+     * Must be called instead of {@link #beforeSend(String, LogSeverity, String)} when the same log event is passed to
+     * the sending appender of another appender, so that it doesn't count as a repetition or against the rate limit.
+     * If this method returns {@code true}, {@link #afterSend()} must be called after the event has been passed to the appender.
+     *
+     * @return {@code true} if the log event should be passed to the sending appender, {@code false} if it should be dropped
+     */
+    public boolean beforeSendAgain() {
+        CurrentEvent event = currentEvent.get();
+        event.sending = event.send;
+        return event.send;
+    }
+
+    /**
+     * Must be called after a log event for which {@link #beforeSend(String, LogSeverity, String)} or {@link #beforeSendAgain()}
+     * returned {@code true} has been passed to the sending appender.
+     */
+    public void afterSend() {
+        currentEvent.get().sending = false;
+    }
+
+    @Nullable
+    private LoggerState getLoggerState(@Nullable String loggerName, LogSeverity severity) {
+        if (loggerName == null) {
+            loggerName = "";
+        }
+        LoggerState[] states = loggerStates.get(loggerName);
+        if (states == null) {
+            if (loggerStates.size() >= MAX_TRACKED_LOGGERS) {
+                return null;
+            }
+            states = new LoggerState[LogSeverity.values().length];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new LoggerState();
+            }
+            LoggerState[] previous = loggerStates.putIfAbsent(loggerName, states);
+            if (previous != null) {
+                states = previous;
+            }
+        }
+        return states[severity.ordinal()];
+    }
+
+    void reportLog(String log) {
+        CurrentEvent event = currentEvent.get();
+        if (!event.sending) {
+            reporter.reportLog(log);
+            return;
+        }
+        if (event.repeatCount > 0 && log.startsWith("{")) {
+            log = "{" + REPEAT_COUNT_FIELD + event.repeatCount + "," + log.substring(1);
+        }
+        if (event.buffered) {
+            tailBuffer.get().add(log, log.length());
+        } else {
+            reporter.reportLog(log);
+        }
+    }
+
+    void reportLog(byte[] log) {
+        CurrentEvent event = currentEvent.get();
+        if (!event.sending) {
+            reporter.reportLog(log);
+            return;
+        }
+        if (event.repeatCount > 0 && log.length > 0 && log[0] == '{') {
+            byte[] field = ("{" + REPEAT_COUNT_FIELD + event.repeatCount + ",").getBytes(StandardCharsets.UTF_8);
+            byte[] withRepeatCount = new byte[field.length + log.length - 1];
+            System.arraycopy(field, 0, withRepeatCount, 0, field.length);
+            System.arraycopy(log, 1, withRepeatCount, field.length, log.length - 1);
+            log = withRepeatCount;
+        }
+        if (event.buffered) {
+            tailBuffer.get().add(log, log.length);
+        } else {
+            reporter.reportLog(log);
+        }
+    }
+
+    private void onTailBufferBound(TailBuffer buffer) {
+        boundTailBuffers.add(buffer);
+        ScheduledFuture<?> task = tailReleaseTask;
+        if (task == null || task.isDone()) {
+            startTailReleaseTask();
+        }
+    }
+
+    private synchronized void startTailReleaseTask() {
+        ScheduledFuture<?> task = tailReleaseTask;
+        if (task != null && !task.isDone()) {
+            return;
+        }
+        // the scheduler cancels the task when the tracer is stopped
+        tailReleaseTask = AgentScheduler.scheduleWithFixedDelay("log-sending-tail-release", new Runnable() {
+            @Override
+            public void run() {
+                releaseEndedTailBuffers();
+            }
+        }, TAIL_RELEASE_INTERVAL_MS, TAIL_RELEASE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // visible for testing
+    void releaseEndedTailBuffers() {
+        for (TailBuffer buffer : boundTailBuffers) {
+            buffer.releaseIfEnded();
+        }
+    }
+
+    /**
+     * The decision for the last log event of this thread,
+     * which is kept after the event has been sent so that it can be {@linkplain #beforeSendAgain() applied again}.
+     */
+    private static class CurrentEvent {
+        private boolean send;
+        private int repeatCount;
+        private boolean buffered;
+        /**
+         * Whether the event is currently passed to a sending appender
+         */
+        private boolean sending;
+
+        private boolean decide(boolean send, int repeatCount, boolean buffered) {
+            this.send = send;
+            this.repeatCount = repeatCount;
+            this.buffered = buffered;
+            this.sending = send;
+            return send;
+        }
+    }
+
+    /**
+     * The rate limiting and de-duplication state of a logger and level.
+     * Guarded by its own monitor.
+     */
+    private static class LoggerState {
+        private long rateWindowStart;
+        private int rateWindowCount;
+
+        @Nullable
+        private String lastMessage;
+        private long dedupWindowStart;
+        private int suppressed;
+
+        private boolean tryAcquire(long now, int rateLimit) {
+            if (now - rateWindowStart >= 1000) {
+                rateWindowStart = now;
+                rateWindowCount = 0;
+            }
+            if (rateWindowCount >= rateLimit) {
+                return false;
+            }
+            rateWindowCount++;
+            return true;
+        }
+
+        /**
+         * @return {@code -1} if the message is a repetition within the window and should be dropped,
+         * otherwise the number of dropped repetitions of the message
+         */
+        private int deduplicate(@Nullable String message, long now, long windowMillis) {
+            if (message == null || message.length() > MAX_DEDUP_MESSAGE_LENGTH) {
+                lastMessage = null;
+                suppressed = 0;
+                return 0;
+            }
+            if (message.equals(lastMessage)) {
+                if (now - dedupWindowStart < windowMillis) {
+                    suppressed++;
+                    return -1;
+                }
+                int repeatCount = suppressed;
+                dedupWindowStart = now;
+                suppressed = 0;
+                return repeatCount;
+            }
+            lastMessage = message;
+            dedupWindowStart = now;
+            suppressed = 0;
+            return 0;
+        }
+    }
+
+    /**
+     * Buffers the log events of the current transaction of a thread.
+     * Guarded by its own monitor, as ended transactions are released by the {@link #tailReleaseTask}.
+     */
+    private class TailBuffer {
+        private final ArrayDeque<Object> events = new ArrayDeque<>();
+        private int bytes;
+        @Nullable
+        private Transaction transaction;
+        /**
+         * Set once the transaction is known to be retained, so that subsequent events are sent without buffering
+         */
+        private boolean retained;
+
+        private synchronized boolean shouldBuffer(LogSeverity severity) {
+            Transaction current = tracer.currentTransaction();
+            if (transaction != null && transaction != current) {
+                if (!retained && isRetained(transaction)) {
+                    sendAll();
+                }
+                unbind();
+            }
+            if (current == null) {
+                return false;
+            }
+            if (transaction == null) {
+                current.incrementReferences();
+                transaction = current;
+                onTailBufferBound(this);
+            }
+            if (retained) {
+                return false;
+            }
+            if (severity.isWarnOrAbove() || isRetained(current)) {
+                retained = true;
+                sendAll();
+                return false;
+            }
+            return true;
+        }
+
+        private boolean isRetained(Transaction transaction) {
+            if (transaction.getOutcome() == Outcome.FAILURE) {
+                return true;
+            }
+            long durationMicros = transaction.isFinished()
+                ? transaction.getDuration()
+                : transaction.getTraceContext().getClock().getEpochMicros() - transaction.getTimestamp();
+            return durationMicros >= loggingConfiguration.getLogSendingTailSlowThreshold().getMillis() * 1000;
+        }
+
+        private synchronized void add(Object event, int size) {
+            if (transaction == null) {
+                // the transaction has ended and has been released in the meantime, it's too late to decide
+                send(event);
+                return;
+            }
+            if (size > MAX_TAIL_BYTES) {
+                droppedTailLogs.incrementAndGet();
+                return;
+            }
+            while (!events.isEmpty() && (events.size() >= MAX_TAIL_EVENTS || bytes + size > MAX_TAIL_BYTES)) {
+                bytes -= sizeOf(events.removeFirst());
+                droppedTailLogs.incrementAndGet();
+            }
+            events.addLast(event);
+            bytes += size;
+        }
+
+        private void sendAll() {
+            for (Object event = events.pollFirst(); event != null; event = events.pollFirst()) {
+                send(event);
+            }
+            bytes = 0;
+        }
+
+        private void send(Object event) {
+            if (event instanceof String) {
+                reporter.reportLog((String) event);
+            } else {
+                reporter.reportLog((byte[]) event);
+            }
+        }
+
+        private synchronized void releaseIfEnded() {
+            if (transaction != null && transaction.isFinished()) {
+                if (!retained && isRetained(transaction)) {
+                    sendAll();
+                }
+                unbind();
+            }
+        }
+
+        private void unbind() {
+            boundTailBuffers.remove(this);
+            events.clear();
+            bytes = 0;
+            retained = false;
+            if (transaction != null) {
+                transaction.decrementReferences();
+                transaction = null;
+            }
+        }
+
+        private int sizeOf(Object event) {
+            return event instanceof String ? ((String) event).length() : ((byte[]) event).length;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.loginstr.sending;
+
+import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.report.Reporter;
+import com.dslplatform.json.JsonWriter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the decisions of the {@link LogSendingPolicy} to the log events reported by the sending appenders
+ * and delegates everything else to the actual {@link Reporter}.
+ */
+class LogSendingReporter implements Reporter {
+
+    private final LogSendingPolicy policy;
+    private final Reporter delegate;
+
+    LogSendingReporter(LogSendingPolicy policy, Reporter delegate) {
+        this.policy = policy;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void report(Transaction transaction) {
+        delegate.report(transaction);
+    }
+
+    @Override
+    public void report(Span span) {
+        delegate.report(span);
+    }
+
+    @Override
+    public void report(ErrorCapture error) {
+        delegate.report(error);
+    }
+
+    @Override
+    public void reportMetrics(JsonWriter jsonWriter) {
+        delegate.reportMetrics(jsonWriter);
+    }
+
+    @Override
+    public void reportLog(String log) {
+        policy.reportLog(log);
+    }
+
+    @Override
+    public void reportLog(byte[] log) {
+        policy.reportLog(log);
+    }
+
+    @Override
+    public void reportAgentLog(byte[] log) {
+        delegate.reportAgentLog(log);
+    }
+
+    @Override
+    public long getDropped() {
+        return delegate.getDropped();
+    }
+
+    @Override
+    public long getReported() {
+        return delegate.getReported();
+    }
+
+    @Override
+    public boolean flush(long timeout, TimeUnit unit, boolean followupWithFlushRequest) {
+        return delegate.flush(timeout, unit, followupWithFlushRequest);
+    }
+
+    @Override
+    public boolean flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
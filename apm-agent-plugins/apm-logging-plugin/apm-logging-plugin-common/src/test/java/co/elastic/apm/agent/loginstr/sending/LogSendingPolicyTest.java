@@ -0,0 +1,237 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.loginstr.sending;
+
+import co.elastic.apm.agent.AbstractInstrumentationTest;
+import co.elastic.apm.agent.configuration.converter.TimeDuration;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.logging.LoggingConfiguration;
+import co.elastic.apm.agent.tracer.Outcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+
+class LogSendingPolicyTest extends AbstractInstrumentationTest {
+
+    private LoggingConfiguration loggingConfig;
+    private LogSendingPolicy policy;
+
+    @BeforeEach
+    void setUp() {
+        loggingConfig = config.getConfig(LoggingConfiguration.class);
+        policy = new LogSendingPolicy(loggingConfig, tracer, reporter);
+    }
+
+    @Test
+    void testSendAllByDefault() {
+        log("logger", LogSeverity.DEBUG, "foo");
+        log("logger", LogSeverity.DEBUG, "foo");
+        assertThat(reportedMessages()).containsExactly("foo", "foo");
+    }
+
+    @Test
+    void testRateLimitPerLoggerAndLevel() {
+        doReturn(2).when(loggingConfig).getLogSendingRateLimit();
+        for (int i = 0; i < 5; i++) {
+            log("logger", LogSeverity.INFO, "info-" + i);
+        }
+        log("logger", LogSeverity.WARN, "warn");
+        log("other", LogSeverity.INFO, "other");
+        assertThat(reportedMessages()).containsExactly("info-0", "info-1", "warn", "other");
+    }
+
+    @Test
+    void testDeduplication() throws Exception {
+        doReturn(TimeDuration.of("100ms")).when(loggingConfig).getLogSendingDedupWindow();
+        log("logger", LogSeverity.INFO, "foo");
+        log("logger", LogSeverity.INFO, "foo");
+        log("logger", LogSeverity.INFO, "foo");
+        log("logger", LogSeverity.INFO, "bar");
+        log("logger", LogSeverity.INFO, "bar");
+        Thread.sleep(150);
+        log("logger", LogSeverity.INFO, "bar");
+
+        assertThat(reportedMessages()).containsExactly("foo", "bar", "bar");
+        assertThat(reporter.getLogs().get(1).get("log.repeat_count")).isNull();
+        assertThat(reporter.getLogs().get(2).get("log.repeat_count").intValue()).isEqualTo(1);
+    }
+
+    @Test
+    void testTailSamplingDiscardsSuccessfulTransactions() {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        Transaction transaction = tracer.startRootTransaction(null).activate();
+        log("logger", LogSeverity.INFO, "in-transaction");
+        transaction.deactivate().end();
+        log("logger", LogSeverity.INFO, "outside");
+
+        assertThat(reportedMessages()).containsExactly("outside");
+    }
+
+    @Test
+    void testTailSamplingRetainsFailedTransactions() {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        Transaction transaction = tracer.startRootTransaction(null).activate();
+        log("logger", LogSeverity.DEBUG, "in-transaction");
+        transaction.withOutcome(Outcome.FAILURE).deactivate().end();
+        log("logger", LogSeverity.INFO, "outside");
+
+        assertThat(reportedMessages()).containsExactly("in-transaction", "outside");
+    }
+
+    @Test
+    void testTailSamplingRetainsSlowTransactions() {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        long twoSecondsAgo = (System.currentTimeMillis() - 2000) * 1000;
+        Transaction transaction = tracer.startRootTransaction(null, twoSecondsAgo).activate();
+        log("logger", LogSeverity.INFO, "in-transaction");
+        assertThat(reportedMessages()).containsExactly("in-transaction");
+        transaction.deactivate().end();
+        log("logger", LogSeverity.INFO, "outside");
+    }
+
+    @Test
+    void testTailSamplingFlushedOnWarning() {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        Transaction transaction = tracer.startRootTransaction(null).activate();
+        log("logger", LogSeverity.INFO, "info");
+        assertThat(reportedMessages()).isEmpty();
+        log("logger", LogSeverity.WARN, "warn");
+        log("logger", LogSeverity.INFO, "after-warn");
+        transaction.deactivate().end();
+        log("logger", LogSeverity.INFO, "outside");
+
+        assertThat(reportedMessages()).containsExactly("info", "warn", "after-warn", "outside");
+    }
+
+    @Test
+    void testTailSamplingReleasedAfterTransactionEndWithoutFurtherLogs() throws Exception {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        Transaction failed = tracer.startRootTransaction(null);
+        Transaction successful = tracer.startRootTransaction(null);
+        Thread failedThread = new Thread(() -> {
+            failed.activate();
+            log("logger", LogSeverity.INFO, "in-failed-transaction");
+            failed.withOutcome(Outcome.FAILURE).deactivate().end();
+        });
+        Thread successfulThread = new Thread(() -> {
+            successful.activate();
+            log("logger", LogSeverity.INFO, "in-successful-transaction");
+            successful.deactivate().end();
+        });
+        failedThread.start();
+        successfulThread.start();
+        failedThread.join();
+        successfulThread.join();
+        assertThat(reportedMessages()).isEmpty();
+        int failedReferences = failed.getReferenceCount();
+        int successfulReferences = successful.getReferenceCount();
+
+        // neither thread logs again
+        policy.releaseEndedTailBuffers();
+        assertThat(reportedMessages()).containsExactly("in-failed-transaction");
+        assertThat(failed.getReferenceCount()).isEqualTo(failedReferences - 1);
+        assertThat(successful.getReferenceCount()).isEqualTo(successfulReferences - 1);
+    }
+
+    @Test
+    void testMessageOnlyRequiredForDeduplication() {
+        assertThat(policy.isMessageRequired()).isFalse();
+        doReturn(TimeDuration.of("100ms")).when(loggingConfig).getLogSendingDedupWindow();
+        assertThat(policy.isMessageRequired()).isTrue();
+    }
+
+    @Test
+    void testTailBufferIsBounded() {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        Transaction transaction = tracer.startRootTransaction(null).activate();
+        for (int i = 0; i < LogSendingPolicy.MAX_TAIL_EVENTS + 10; i++) {
+            log("logger", LogSeverity.INFO, "info-" + i);
+        }
+        log("logger", LogSeverity.ERROR, "error");
+        transaction.deactivate().end();
+        log("logger", LogSeverity.INFO, "outside");
+
+        assertThat(reportedMessages())
+            .hasSize(LogSendingPolicy.MAX_TAIL_EVENTS + 2)
+            .startsWith("info-10")
+            .endsWith("error", "outside");
+        assertThat(policy.getDroppedTailLogs()).isEqualTo(10);
+    }
+
+    @Test
+    void testTailEventSentWhenReleasedConcurrently() {
+        doReturn(true).when(loggingConfig).isLogSendingTailSampling();
+        Transaction transaction = tracer.startRootTransaction(null).activate();
+        assertThat(policy.beforeSend("logger", LogSeverity.INFO, null)).isTrue();
+        transaction.deactivate().end();
+        policy.releaseEndedTailBuffers();
+        try {
+            policy.getReporter().reportLog("{\"message\":\"released\"}");
+        } finally {
+            policy.afterSend();
+        }
+
+        assertThat(reportedMessages()).containsExactly("released");
+        assertThat(policy.getDroppedTailLogs()).isZero();
+    }
+
+    @Test
+    void testDecisionReusedForOtherAppenders() {
+        doReturn(1).when(loggingConfig).getLogSendingRateLimit();
+        doReturn(TimeDuration.of("1s")).when(loggingConfig).getLogSendingDedupWindow();
+        log("logger", LogSeverity.INFO, "foo");
+        logAgain("foo");
+        log("logger", LogSeverity.INFO, "bar");
+        logAgain("bar");
+
+        assertThat(reportedMessages()).containsExactly("foo", "foo");
+        assertThat(reporter.getLogs()).allSatisfy(log -> assertThat(log.get("log.repeat_count")).isNull());
+    }
+
+    private void log(String loggerName, LogSeverity severity, String message) {
+        if (policy.beforeSend(loggerName, severity, message)) {
+            try {
+                policy.getReporter().reportLog("{\"message\":\"" + message + "\"}");
+            } finally {
+                policy.afterSend();
+            }
+        }
+    }
+
+    private void logAgain(String message) {
+        if (policy.beforeSendAgain()) {
+            try {
+                policy.getReporter().reportLog("{\"message\":\"" + message + "\"}");
+            } finally {
+                policy.afterSend();
+            }
+        }
+    }
+
+    private List<String> reportedMessages() {
+        return reporter.getLogs().stream()
+            .map(log -> log.get("message").textValue())
+            .collect(Collectors.toList());
+    }
+}
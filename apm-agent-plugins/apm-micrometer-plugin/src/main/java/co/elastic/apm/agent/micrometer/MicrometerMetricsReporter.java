@@ -28,6 +28,7 @@ import co.elastic.apm.agent.sdk.logging.Logger;
 import co.elastic.apm.agent.sdk.logging.LoggerFactory;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakConcurrent;
 import co.elastic.apm.agent.sdk.weakconcurrent.WeakMap;
+import co.elastic.apm.agent.util.AgentScheduler;
 import com.dslplatform.json.JsonWriter;
 import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -37,6 +38,7 @@ import io.micrometer.core.instrument.simple.SimpleConfig;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.micrometer.core.instrument.step.StepRegistryConfig;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.time.Duration;
 import java.util.HashMap;
@@ -45,6 +47,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -94,6 +97,8 @@ public class MicrometerMetricsReporter implements Runnable, Closeable {
     private final ElasticApmTracer tracer;
     private final AtomicBoolean scheduledReporting = new AtomicBoolean();
     private final boolean disableScheduler;
+    @Nullable
+    private volatile ScheduledFuture<?> reportingTask;
 
     public MicrometerMetricsReporter(ElasticApmTracer tracer) {
         this(tracer, false);
@@ -135,7 +140,7 @@ public class MicrometerMetricsReporter implements Runnable, Closeable {
             // called for every class loader that loaded micrometer
             // that's because a new MicrometerMetricsReporter instance is created in every IndyPluginClassLoader
             // for example if multiple webapps use potentially different versions of Micrometer
-            tracer.getSharedSingleThreadedPool().scheduleAtFixedRate(this, 0, INTERVAL_BETWEEN_CHECKS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            reportingTask = AgentScheduler.scheduleAtFixedRate("micrometer-reporter", this, 0, INTERVAL_BETWEEN_CHECKS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -218,9 +223,13 @@ public class MicrometerMetricsReporter implements Runnable, Closeable {
 
     @Override
     public void close() {
+        ScheduledFuture<?> reportingTask = this.reportingTask;
+        if (reportingTask != null) {
+            reportingTask.cancel(false);
+        }
         // flushing out metrics before shutting down
         // this is especially important for counters as the counts that were accumulated between the last report and the shutdown would otherwise get lost
-        tracer.getSharedSingleThreadedPool().submit(this);
+        AgentScheduler.submit("micrometer-reporter", this);
     }
 
     private static class MeterMapConsumer implements Consumer<Meter> {
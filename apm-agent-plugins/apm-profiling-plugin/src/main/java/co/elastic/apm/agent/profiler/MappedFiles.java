@@ -0,0 +1,116 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.sdk.logging.Logger;
+import co.elastic.apm.agent.sdk.logging.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Utilities for files that are mapped into memory.
+ */
+final class MappedFiles {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedFiles.class);
+
+    private static final int ZEROS_CHUNK_SIZE = 64 * 1024;
+
+    @Nullable
+    private static final Object unsafe;
+    @Nullable
+    private static final Method invokeCleaner;
+
+    static {
+        Object theUnsafe = null;
+        Method cleanerMethod = null;
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            cleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafeField.setAccessible(true);
+            theUnsafe = theUnsafeField.get(null);
+        } catch (Exception e) {
+            // Java 7 and 8, see unmap
+            cleanerMethod = null;
+        }
+        unsafe = theUnsafe;
+        invokeCleaner = cleanerMethod;
+    }
+
+    private MappedFiles() {
+    }
+
+    /**
+     * Writes zeros to a region of the file, so that its disk space is allocated.
+     * Mapping a region beyond the end of a file only extends it sparsely,
+     * which makes the JVM crash with a {@code SIGBUS} when writing to the mapped memory while the disk is full.
+     * If the disk is full, this method fails with an {@link IOException} instead.
+     * <p>
+     * The zeros are not forced to disk, the allocation happens when they are written to the file.
+     * </p>
+     *
+     * @param channel the channel of the file to preallocate
+     * @param from    the start of the region
+     * @param to      the end of the region, exclusive
+     */
+    static void preallocate(FileChannel channel, long from, long to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(ZEROS_CHUNK_SIZE, to - from));
+        for (long position = from; position < to; ) {
+            ((Buffer) zeros).clear();
+            ((Buffer) zeros).limit((int) Math.min(zeros.capacity(), to - position));
+            position += channel.write(zeros, position);
+        }
+    }
+
+    /**
+     * Releases the memory of the mapping immediately, instead of when the buffer is garbage collected.
+     * Any access to the buffer after this method has been called crashes the JVM,
+     * so this must only be called when no thread is going to use the buffer anymore.
+     *
+     * @param buffer the buffer to unmap
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (invokeCleaner != null) {
+                invokeCleaner.invoke(unsafe, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Could not unmap buffer, the memory is released when the buffer is garbage collected", e);
+        }
+    }
+}
@@ -26,10 +26,13 @@ import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.StackFrame;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.impl.ListBasedObjectPool;
 import co.elastic.apm.agent.profiler.asyncprofiler.AsyncProfiler;
 import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
+import co.elastic.apm.agent.profiler.asyncprofiler.StackFrameCache;
 import co.elastic.apm.agent.profiler.collections.Long2ObjectHashMap;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import co.elastic.apm.agent.tracer.pooling.Allocator;
@@ -48,6 +51,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
@@ -79,8 +83,8 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * The {@link #onActivation} and {@link #onDeactivation} methods are called by {@link ProfilingActivationListener}
  * which register an {@link ActivationEvent} to a {@linkplain #eventBuffer ring buffer} whenever a {@link Span}
  * gets {@link Span#activate()}d or {@link Span#deactivate()}d while a {@linkplain #profilingSessionOngoing profiling session is ongoing}.
- * A background thread consumes the {@link ActivationEvent}s and writes them to a {@linkplain #activationEventsBuffer direct buffer}
- * which is flushed to a {@linkplain #activationEventsFileChannel file}.
+ * A background thread consumes the {@link ActivationEvent}s and writes them to a {@linkplain #activationEventsBuffer memory-mapped}
+ * {@linkplain #activationEventsFile file}.
  * That is necessary because within a profiling session (which lasts 10s by default) there may be many more {@link ActivationEvent}s
  * than the ring buffer {@link #RING_BUFFER_SIZE can hold}.
  * The file can hold {@link #ACTIVATION_EVENTS_IN_FILE} events and each is {@link ActivationEvent#SERIALIZED_SIZE} in size.
@@ -122,9 +126,11 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
     private static final Logger logger = LoggerFactory.getLogger(SamplingProfiler.class);
     private static final int ACTIVATION_EVENTS_IN_FILE = 1_000_000;
     private static final int MAX_STACK_DEPTH = 256;
-    private static final int PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB = 10;
     private static final int MAX_ACTIVATION_EVENTS_FILE_SIZE = ACTIVATION_EVENTS_IN_FILE * ActivationEvent.SERIALIZED_SIZE;
-    private static final int ACTIVATION_EVENTS_BUFFER_SIZE = ActivationEvent.SERIALIZED_SIZE * 4 * 1024;
+    private static final int PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB = 10;
+    private static final String STACK_FRAME_CACHE_HITS_METRIC = "agent.profiling.stack_frame_cache.hits";
+    private static final String STACK_FRAME_CACHE_MISSES_METRIC = "agent.profiling.stack_frame_cache.misses";
+    private static final String STACK_FRAME_CACHE_EVICTIONS_METRIC = "agent.profiling.stack_frame_cache.evictions";
     private final EventTranslatorTwoArg<ActivationEvent, TraceContext, TraceContext> ACTIVATION_EVENT_TRANSLATOR =
         new EventTranslatorTwoArg<ActivationEvent, TraceContext, TraceContext>() {
             @Override
@@ -162,13 +168,33 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
     private JfrParser jfrParser;
     private volatile int profilingSessions;
 
-    private final ByteBuffer activationEventsBuffer;
     /**
-     * Used to efficiently write {@link #activationEventsBuffer} via {@link FileChannel#write(ByteBuffer)}
+     * A memory-mapped view of the {@link #activationEventsFile}.
+     * Events are serialized directly into the mapped memory and are read from it when processing the traces.
+     * Compared to writing to a buffer that is flushed to a file and later read back in, this avoids copying the events back and forth.
+     * Paging out the memory in case of memory pressure is left to the OS.
+     * Mapping the file extends it sparsely, so the disk space is {@linkplain MappedFiles#preallocate allocated}
+     * in chunks of {@link #PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB} before events are written to them, see {@link #hasActivationEventsCapacity()}.
+     * The mapping is released when the profiler is stopped.
      */
     @Nullable
+    private MappedByteBuffer activationEventsBuffer;
+    @Nullable
     private File activationEventsFile;
     private boolean canDeleteActivationEventsFile;
+    /**
+     * The size of the {@link #activationEventsFile} before it has been mapped into memory,
+     * which extends the file to {@link #MAX_ACTIVATION_EVENTS_FILE_SIZE}.
+     */
+    private long activationEventsFileSizeBeforeMapping;
+    /**
+     * The part of the {@link #activationEventsFile} that is backed by allocated disk space and can safely be written to
+     */
+    private long activationEventsFileAllocatedSize;
+    /**
+     * Set if allocating more disk space failed, for example because the disk is full, reset when a new profiling session starts
+     */
+    private boolean activationEventsFileAllocationFailed;
 
     @Nullable
     private FileChannel activationEventsFileChannel;
@@ -223,7 +249,6 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             }
         });
         this.jfrFile = jfrFile;
-        activationEventsBuffer = ByteBuffer.allocateDirect(ACTIVATION_EVENTS_BUFFER_SIZE);
         this.activationEventsFile = activationEventsFile;
     }
 
@@ -239,29 +264,62 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             canDeleteActivationEventsFile = true;
         }
         if (activationEventsFileChannel == null || !activationEventsFileChannel.isOpen()) {
-            activationEventsFileChannel = FileChannel.open(activationEventsFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
-        }
-        if (activationEventsFileChannel.size() == 0) {
-            preAllocate(activationEventsFileChannel, PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB);
+            unmapActivationEventsBuffer();
+            FileChannel channel = FileChannel.open(activationEventsFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                activationEventsFileSizeBeforeMapping = channel.size();
+                // existing content is assumed to be allocated
+                long allocatedSize = Math.min(activationEventsFileSizeBeforeMapping, MAX_ACTIVATION_EVENTS_FILE_SIZE);
+                activationEventsBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, MAX_ACTIVATION_EVENTS_FILE_SIZE);
+                activationEventsFileAllocatedSize = Math.min(allocatedSize + PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB * 1024 * 1024, MAX_ACTIVATION_EVENTS_FILE_SIZE);
+                MappedFiles.preallocate(channel, allocatedSize, activationEventsFileAllocatedSize);
+            } catch (IOException e) {
+                unmapActivationEventsBuffer();
+                channel.close();
+                throw e;
+            }
+            activationEventsFileChannel = channel;
         }
     }
 
-    // visible for benchmarks
-    public void skipToEndOfActivationEventsFile() throws IOException {
-        activationEventsFileChannel.position(activationEventsFileChannel.size());
-    }
-
     /**
-     * Makes sure that the first blocks of the file are contiguous to provide fast sequential access
+     * Makes sure that the next event can be written to the {@link #activationEventsBuffer} without writing to an unallocated part of the file.
+     * Allocates the next chunk of the file if required.
+     *
+     * @return {@code false} if the file is full or if it could not be grown
      */
-    private static void preAllocate(FileChannel channel, int mb) throws IOException {
-        long initialPos = channel.position();
-        ByteBuffer oneKb = ByteBuffer.allocate(1024);
-        for (int i = 0; i < mb * 1024; i++) {
-            channel.write(oneKb);
-            ((Buffer) oneKb).clear();
+    private boolean hasActivationEventsCapacity() {
+        long required = activationEventsBuffer.position() + ActivationEvent.SERIALIZED_SIZE;
+        if (required <= activationEventsFileAllocatedSize) {
+            return true;
+        }
+        if (required > MAX_ACTIVATION_EVENTS_FILE_SIZE || activationEventsFileAllocationFailed) {
+            return false;
+        }
+        long newSize = Math.min(activationEventsFileAllocatedSize + PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB * 1024 * 1024, MAX_ACTIVATION_EVENTS_FILE_SIZE);
+        try {
+            MappedFiles.preallocate(activationEventsFileChannel, activationEventsFileAllocatedSize, newSize);
+            activationEventsFileAllocatedSize = newSize;
+            return true;
+        } catch (IOException e) {
+            activationEventsFileAllocationFailed = true;
+            logger.warn("Unable to grow the activation events file, dropping activation events until the next profiling session", e);
+            return false;
         }
-        channel.position(initialPos);
+    }
+
+    private void unmapActivationEventsBuffer() {
+        MappedByteBuffer buffer = activationEventsBuffer;
+        if (buffer != null) {
+            activationEventsBuffer = null;
+            MappedFiles.unmap(buffer);
+        }
+    }
+
+    // visible for benchmarks
+    public void skipToEndOfActivationEventsFile() throws IOException {
+        createFilesIfRequired();
+        ((Buffer) activationEventsBuffer).position((int) Math.min(activationEventsFileSizeBeforeMapping, MAX_ACTIVATION_EVENTS_FILE_SIZE));
     }
 
     private RingBuffer<ActivationEvent> createRingBuffer() {
@@ -465,7 +523,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         long maxSleep = 10_000_000;
         long sleep = initialSleep;
         while (System.currentTimeMillis() < threshold && !Thread.currentThread().isInterrupted()) {
-            if (activationEventsFileChannel.position() < MAX_ACTIVATION_EVENTS_FILE_SIZE) {
+            if (hasActivationEventsCapacity()) {
                 EventPoller.PollState poll = consumeActivationEventsFromRingBufferAndWriteToFile();
                 if (poll == EventPoller.PollState.PROCESSING) {
                     sleep = initialSleep;
@@ -477,7 +535,9 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
                     LockSupport.parkNanos(sleep);
                 }
             } else {
-                logger.warn("The activation events file is full. Try lowering the profiling_duration.");
+                if (!activationEventsFileAllocationFailed) {
+                    logger.warn("The activation events file is full. Try lowering the profiling_duration.");
+                }
                 // the file is full, sleep the rest of the profilingDuration
                 Thread.sleep(Math.max(0, threshold - System.currentTimeMillis()));
             }
@@ -499,7 +559,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         createFilesIfRequired();
 
         long eof = startProcessingActivationEventsFile();
-        if (eof == 0 && activationEventsBuffer.limit() == 0 && profiledThreads.isEmpty()) {
+        if (eof == 0 && profiledThreads.isEmpty()) {
             logger.debug("No activation events during this period. Skip processing stack traces.");
             return;
         }
@@ -520,7 +580,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             ActivationEvent event = new ActivationEvent();
             long inferredSpansMinDuration = getInferredSpansMinDurationNs();
             for (StackTraceEvent stackTrace : stackTraceEvents) {
-                processActivationEventsUpTo(stackTrace.nanoTime, event, eof);
+                processActivationEventsUpTo(stackTrace.nanoTime, event);
                 CallTree.Root root = profiledThreads.get(stackTrace.threadId);
                 if (root != null) {
                     jfrParser.resolveStackTrace(stackTrace.stackTraceId, true, stackFrames, MAX_STACK_DEPTH);
@@ -544,28 +604,48 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             }
             // process all activation events that happened after the last stack trace event
             // otherwise we may miss root deactivations
-            processActivationEventsUpTo(System.nanoTime(), event, eof);
+            processActivationEventsUpTo(System.nanoTime(), event);
         } finally {
             if (logger.isDebugEnabled()) {
                 logger.debug("Processing traces took {}µs", (System.nanoTime() - start) / 1000);
             }
+            reportStackFrameCacheStatistics(jfrParser.getStackFrameCache());
             jfrParser.resetState();
             resetActivationEventBuffer();
         }
     }
 
+    private void reportStackFrameCacheStatistics(StackFrameCache stackFrameCache) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Stack frame cache size={} hits={} misses={} evictions={} hit rate={}",
+                stackFrameCache.size(), stackFrameCache.getHits(), stackFrameCache.getMisses(), stackFrameCache.getEvictions(), stackFrameCache.getHitRate());
+        }
+        MetricRegistry metricRegistry = tracer.getMetricRegistry();
+        if (metricRegistry != null) {
+            addToCounterIfPositive(metricRegistry, STACK_FRAME_CACHE_HITS_METRIC, stackFrameCache.getHits());
+            addToCounterIfPositive(metricRegistry, STACK_FRAME_CACHE_MISSES_METRIC, stackFrameCache.getMisses());
+            addToCounterIfPositive(metricRegistry, STACK_FRAME_CACHE_EVICTIONS_METRIC, stackFrameCache.getEvictions());
+        }
+        stackFrameCache.resetStatistics();
+    }
+
+    private static void addToCounterIfPositive(MetricRegistry metricRegistry, String metric, long count) {
+        if (count > 0 && !metricRegistry.isDisabled(metric)) {
+            metricRegistry.addToCounter(metric, Labels.EMPTY, count);
+        }
+    }
+
     private void backupDiagnosticFiles(long eof) throws IOException {
         String now = String.format("%tFT%<tT.%<tL", new Date());
         Path profilerDir = Paths.get(System.getProperty("java.io.tmpdir"), "profiler");
         profilerDir.toFile().mkdir();
 
         try (FileChannel activationsFile = FileChannel.open(profilerDir.resolve(now + "-activations.dat"), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
-            if (eof > 0) {
-                activationEventsFileChannel.transferTo(0, eof, activationsFile);
-            } else {
-                int position = activationEventsBuffer.position();
-                activationsFile.write(activationEventsBuffer);
-                activationEventsBuffer.position(position);
+            // the duplicate shares the content but has an independent position
+            ByteBuffer activationEvents = activationEventsBuffer.duplicate();
+            ((Buffer) activationEvents).position(0).limit((int) eof);
+            while (activationEvents.hasRemaining()) {
+                activationsFile.write(activationEvents);
             }
         }
         Files.copy(jfrFile.toPath(), profilerDir.resolve(now + "-traces.jfr"));
@@ -595,18 +675,14 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         return stackTraceEvents;
     }
 
-    void processActivationEventsUpTo(long timestamp, long eof) throws IOException {
-        processActivationEventsUpTo(timestamp, new ActivationEvent(), eof);
+    void processActivationEventsUpTo(long timestamp) throws IOException {
+        processActivationEventsUpTo(timestamp, new ActivationEvent());
     }
 
-    public void processActivationEventsUpTo(long timestamp, ActivationEvent event, long eof) throws IOException {
-        FileChannel activationEventsFileChannel = this.activationEventsFileChannel;
+    public void processActivationEventsUpTo(long timestamp, ActivationEvent event) throws IOException {
         ByteBuffer buf = activationEventsBuffer;
         long previousTimestamp = 0;
-        while (buf.hasRemaining() || activationEventsFileChannel.position() < eof) {
-            if (!buf.hasRemaining()) {
-                readActivationEventsToBuffer(activationEventsFileChannel, eof, buf);
-            }
+        while (buf.hasRemaining()) {
             long eventTimestamp = peekLong(buf);
             if (eventTimestamp < previousTimestamp && logger.isDebugEnabled()) {
                 logger.debug("Timestamp of current activation event ({}) is lower than the one from the previous event ({})", eventTimestamp, previousTimestamp);
@@ -628,17 +704,6 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
-    private void readActivationEventsToBuffer(FileChannel activationEventsFileChannel, long eof, ByteBuffer byteBuffer) throws IOException {
-        Buffer buf = byteBuffer;
-        buf.clear();
-        long remaining = eof - activationEventsFileChannel.position();
-        activationEventsFileChannel.read(byteBuffer);
-        buf.flip();
-        if (remaining < buf.capacity()) {
-            buf.limit((int) remaining);
-        }
-    }
-
     private static long peekLong(ByteBuffer buf) {
         int pos = buf.position();
         try {
@@ -648,40 +713,39 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
-    public void resetActivationEventBuffer() throws IOException {
-        ((Buffer) activationEventsBuffer).clear();
-        if (activationEventsFileChannel != null && activationEventsFileChannel.isOpen()) {
-            activationEventsFileChannel.position(0L);
-        }
-    }
-
-    private void flushActivationEvents() throws IOException {
-        if (activationEventsBuffer.position() > 0) {
-            ((Buffer) activationEventsBuffer).flip();
-            activationEventsFileChannel.write(activationEventsBuffer);
+    public void resetActivationEventBuffer() {
+        if (activationEventsBuffer != null) {
             ((Buffer) activationEventsBuffer).clear();
         }
+        activationEventsFileAllocationFailed = false;
     }
 
-    long startProcessingActivationEventsFile() throws IOException {
+    /**
+     * Prepares the {@link #activationEventsBuffer} to be read from.
+     *
+     * @return the number of bytes that have been written to the activation events file
+     */
+    long startProcessingActivationEventsFile() {
         Buffer activationEventsBuffer = this.activationEventsBuffer;
-        if (activationEventsFileChannel.position() > 0) {
-            flushActivationEvents();
-            activationEventsBuffer.limit(0);
-        } else {
-            activationEventsBuffer.flip();
-        }
-        long eof = activationEventsFileChannel.position();
-        activationEventsFileChannel.position(0);
-        return eof;
+        activationEventsBuffer.flip();
+        return activationEventsBuffer.limit();
     }
 
     void copyFromFiles(Path activationEvents, Path traces) throws IOException {
         createFilesIfRequired();
 
-        FileChannel otherActivationsChannel = FileChannel.open(activationEvents, READ);
-        activationEventsFileChannel.transferFrom(otherActivationsChannel, 0, otherActivationsChannel.size());
-        activationEventsFileChannel.position(otherActivationsChannel.size());
+        ByteBuffer activationEventsBuffer = this.activationEventsBuffer;
+        ((Buffer) activationEventsBuffer).clear();
+        try (FileChannel otherActivationsChannel = FileChannel.open(activationEvents, READ)) {
+            long size = Math.min(otherActivationsChannel.size(), MAX_ACTIVATION_EVENTS_FILE_SIZE);
+            if (size > activationEventsFileAllocatedSize) {
+                MappedFiles.preallocate(activationEventsFileChannel, activationEventsFileAllocatedSize, size);
+                activationEventsFileAllocatedSize = size;
+            }
+            while (activationEventsBuffer.hasRemaining() && otherActivationsChannel.read(activationEventsBuffer) != -1) {
+                // read until either the buffer is full or the end of the file has been reached
+            }
+        }
         FileChannel otherTracesChannel = FileChannel.open(traces, READ);
         FileChannel.open(jfrFile.toPath(), WRITE).transferFrom(otherTracesChannel, 0, otherTracesChannel.size());
     }
@@ -697,6 +761,12 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         // implicitly clears profiled threads
         ExecutorUtils.shutdownAndWaitTermination(scheduler);
 
+        if (scheduler.isTerminated()) {
+            unmapActivationEventsBuffer();
+        } else {
+            // the profiling thread may still access the buffer, the mapping is released when it's garbage collected
+            logger.warn("Profiling thread did not terminate in time, not unmapping the activation events file");
+        }
         if (activationEventsFileChannel != null) {
             activationEventsFileChannel.close();
         }
@@ -983,15 +1053,12 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
     // extracting to a class instead of instantiating an anonymous inner class makes a huge difference in allocations
     private class WriteActivationEventToFileHandler implements EventPoller.Handler<ActivationEvent> {
         @Override
-        public boolean onEvent(ActivationEvent event, long sequence, boolean endOfBatch) throws IOException {
+        public boolean onEvent(ActivationEvent event, long sequence, boolean endOfBatch) {
             if (endOfBatch) {
                 SamplingProfiler.this.sequence.set(sequence);
             }
-            if (activationEventsFileChannel.size() < MAX_ACTIVATION_EVENTS_FILE_SIZE) {
-                event.serialize(activationEventsBuffer);
-                if (!activationEventsBuffer.hasRemaining()) {
-                    flushActivationEvents();
-                }
+            if (hasActivationEventsCapacity()) {
+                event.serialize(SamplingProfiler.this.activationEventsBuffer);
                 return true;
             }
             return false;
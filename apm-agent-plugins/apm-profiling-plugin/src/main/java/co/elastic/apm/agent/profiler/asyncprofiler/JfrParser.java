@@ -21,7 +21,6 @@ package co.elastic.apm.agent.profiler.asyncprofiler;
 import co.elastic.apm.agent.impl.transaction.StackFrame;
 import co.elastic.apm.agent.common.util.WildcardMatcher;
 import co.elastic.apm.agent.profiler.collections.Int2IntHashMap;
-import co.elastic.apm.agent.profiler.collections.Int2ObjectHashMap;
 import co.elastic.apm.agent.profiler.collections.Long2LongHashMap;
 import co.elastic.apm.agent.profiler.collections.Long2ObjectHashMap;
 import co.elastic.apm.agent.sdk.logging.Logger;
@@ -35,7 +34,6 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -46,6 +44,10 @@ import java.util.Set;
  * Most data structures can be reused by first {@linkplain #resetState() resetting the state} and then {@linkplain #parse(File, List, List) parsing}
  * another file.
  * </p>
+ * <p>
+ * Resolved {@link StackFrame}s are kept in a {@link StackFrameCache} which is not cleared when resetting the state.
+ * That way, frames that have already been resolved in a previous session don't need to be allocated again.
+ * </p>
  */
 public class JfrParser implements Recyclable {
 
@@ -55,15 +57,16 @@ public class JfrParser implements Recyclable {
     private static final Set<String> JAVA_FRAME_TYPES = new HashSet<>(Arrays.asList("Interpreted", "JIT compiled", "Inlined"));
     private static final int BIG_FILE_BUFFER_SIZE = 5 * 1024 * 1024;
     private static final int SMALL_FILE_BUFFER_SIZE = 4 * 1024;
-    private static final String SYMBOL_EXCLUDED = "3x cluded";
-    private static final String SYMBOL_NULL = "n u11";
+    private static final int STACK_FRAME_CACHE_SIZE = 16 * 1024;
+    private static final int CLASS_EXCLUDED = 0;
+    private static final int CLASS_INCLUDED = 1;
     private final static StackFrame FRAME_EXCLUDED = new StackFrame("excluded", "excluded");
     private final static StackFrame FRAME_NULL = new StackFrame("null", "null");
 
     private final BufferedFile bufferedFile;
     private final Int2IntHashMap classIdToClassNameSymbolId = new Int2IntHashMap(-1);
     private final Int2IntHashMap symbolIdToPos = new Int2IntHashMap(-1);
-    private final Int2ObjectHashMap<String> symbolIdToString = new Int2ObjectHashMap<String>();
+    private final Int2IntHashMap classNameSymbolIdToIncluded = new Int2IntHashMap(-1);
     private final Int2IntHashMap stackTraceIdToFilePositions = new Int2IntHashMap(-1);
     private final Long2LongHashMap nativeTidToJavaTid = new Long2LongHashMap(-1);
     private final Long2ObjectHashMap<StackFrame> frameIdToFrame = new Long2ObjectHashMap<StackFrame>();
@@ -71,6 +74,9 @@ public class JfrParser implements Recyclable {
     private final Long2LongHashMap frameIdToClassId = new Long2LongHashMap(-1);
     // used to resolve a symbol with minimal allocations
     private final StringBuilder symbolBuilder = new StringBuilder();
+    private final StringBuilder classNameBuilder = new StringBuilder();
+    private final StringBuilder methodNameBuilder = new StringBuilder();
+    private final StackFrameCache stackFrameCache;
     private long eventsOffset;
     private long metadataOffset;
     @Nullable
@@ -85,7 +91,12 @@ public class JfrParser implements Recyclable {
     }
 
     JfrParser(ByteBuffer bigBuffer, ByteBuffer smallBuffer) {
+        this(bigBuffer, smallBuffer, new StackFrameCache(STACK_FRAME_CACHE_SIZE));
+    }
+
+    JfrParser(ByteBuffer bigBuffer, ByteBuffer smallBuffer, StackFrameCache stackFrameCache) {
         bufferedFile = new BufferedFile(bigBuffer, smallBuffer);
+        this.stackFrameCache = stackFrameCache;
     }
 
     /**
@@ -225,7 +236,6 @@ public class JfrParser implements Recyclable {
                     int symbolId = (int) bufferedFile.getLong();
                     int pos = (int) bufferedFile.position();
                     symbolIdToPos.put(symbolId, pos);
-                    symbolIdToString.put(symbolId, SYMBOL_NULL);
                     skipString();
                 }
                 break;
@@ -292,8 +302,8 @@ public class JfrParser implements Recyclable {
     /**
      * Resolves the stack trace with the given {@code stackTraceId}.
      * <p>
-     * Note that his allocates strings for symbols in case a stack frame has not already been resolved for the current JFR file yet.
-     * These strings are currently not cached so this can create some GC pressure.
+     * Note that this allocates strings for symbols in case a stack frame is neither resolved for the current JFR file yet,
+     * nor contained in the {@link StackFrameCache}.
      * </p>
      * <p>
      * Excludes frames based on the {@link WildcardMatcher}s supplied to {@link #parse(File, List, List)}.
@@ -347,33 +357,24 @@ public class JfrParser implements Recyclable {
         return isJavaFrameType[frameType];
     }
 
-    private String resolveSymbol(int id, boolean classSymbol) throws IOException {
-        String symbol = symbolIdToString.get(id);
-        if (symbol != SYMBOL_NULL) {
-            return symbol;
-        }
-        StringBuilder symbolBuilder = resolveSymbolBuilder(symbolIdToPos.get(id), classSymbol);
-        if (classSymbol && !isClassIncluded(symbolBuilder)) {
-            symbol = SYMBOL_EXCLUDED;
-        } else {
-            symbol = symbolBuilder.toString();
-        }
-        symbolIdToString.put(id, symbol);
-        return symbol;
-    }
-
-    private StringBuilder resolveSymbolBuilder(int pos, boolean replaceSlashWithDot) throws IOException {
+    private StringBuilder resolveSymbol(int id, StringBuilder builder, boolean replaceSlashWithDot) throws IOException {
         long currentPos = bufferedFile.position();
-        bufferedFile.position(pos);
+        bufferedFile.position(symbolIdToPos.get(id));
         try {
-            return readUtf8String(replaceSlashWithDot);
+            return readUtf8String(builder, replaceSlashWithDot);
         } finally {
             bufferedFile.position(currentPos);
         }
     }
 
-    private boolean isClassIncluded(CharSequence className) {
-        return WildcardMatcher.isAnyMatch(includedClasses, className) && WildcardMatcher.isNoneMatch(excludedClasses, className);
+    private boolean isClassIncluded(int classNameSymbolId, CharSequence className) {
+        int included = classNameSymbolIdToIncluded.get(classNameSymbolId);
+        if (included == -1) {
+            boolean isIncluded = WildcardMatcher.isAnyMatch(includedClasses, className) && WildcardMatcher.isNoneMatch(excludedClasses, className);
+            included = isIncluded ? CLASS_INCLUDED : CLASS_EXCLUDED;
+            classNameSymbolIdToIncluded.put(classNameSymbolId, included);
+        }
+        return included == CLASS_INCLUDED;
     }
 
     private StackFrame resolveStackFrame(long frameId) throws IOException {
@@ -381,25 +382,25 @@ public class JfrParser implements Recyclable {
         if (stackFrame != FRAME_NULL) {
             return stackFrame;
         }
-        String className = resolveSymbol(classIdToClassNameSymbolId.get((int) frameIdToClassId.get(frameId)), true);
-        if (className == SYMBOL_EXCLUDED) {
+        int classNameSymbolId = classIdToClassNameSymbolId.get((int) frameIdToClassId.get(frameId));
+        StringBuilder className = resolveSymbol(classNameSymbolId, classNameBuilder, true);
+        if (!isClassIncluded(classNameSymbolId, className)) {
             stackFrame = FRAME_EXCLUDED;
         } else {
-            String method = resolveSymbol((int) frameIdToMethodSymbol.get(frameId), false);
-            stackFrame = new StackFrame(className, Objects.requireNonNull(method));
+            StringBuilder methodName = resolveSymbol((int) frameIdToMethodSymbol.get(frameId), methodNameBuilder, false);
+            stackFrame = stackFrameCache.get(className, methodName);
         }
         frameIdToFrame.put(frameId, stackFrame);
         return stackFrame;
     }
 
     private StringBuilder readUtf8String() throws IOException {
-        return readUtf8String(false);
+        return readUtf8String(symbolBuilder, false);
     }
 
-    private StringBuilder readUtf8String(boolean replaceSlashWithDot) throws IOException {
+    private StringBuilder readUtf8String(StringBuilder symbolBuilder, boolean replaceSlashWithDot) throws IOException {
         int size = bufferedFile.getUnsignedShort();
         bufferedFile.ensureRemaining(size);
-        StringBuilder symbolBuilder = this.symbolBuilder;
         symbolBuilder.setLength(0);
         for (int i = 0; i < size; i++) {
             char c = (char) bufferedFile.getUnsafe();
@@ -424,10 +425,21 @@ public class JfrParser implements Recyclable {
         frameIdToMethodSymbol.clear();
         frameIdToClassId.clear();
         symbolBuilder.setLength(0);
+        classNameBuilder.setLength(0);
+        methodNameBuilder.setLength(0);
         excludedClasses = null;
         includedClasses = null;
         symbolIdToPos.clear();
-        symbolIdToString.clear();
+        classNameSymbolIdToIncluded.clear();
+    }
+
+    /**
+     * Returns the cache of resolved {@link StackFrame}s, which survives {@linkplain #resetState() resets}.
+     *
+     * @return the cache of resolved {@link StackFrame}s
+     */
+    public StackFrameCache getStackFrameCache() {
+        return stackFrameCache;
     }
 
     public interface StackTraceConsumer {
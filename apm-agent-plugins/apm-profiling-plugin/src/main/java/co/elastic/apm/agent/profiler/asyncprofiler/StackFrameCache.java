@@ -0,0 +1,231 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.profiler.asyncprofiler;
+
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import co.elastic.apm.agent.profiler.collections.Long2ObjectHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A size-bounded cache of {@link StackFrame}s which survives across profiling sessions.
+ * <p>
+ * The ids within a JFR file (class, method and symbol ids) are only valid for a single recording.
+ * That's why {@link JfrParser} has to throw away its id-based lookup tables when {@linkplain JfrParser#resetState() resetting}.
+ * This cache is keyed by the class and method name instead so that the same {@link StackFrame} instances,
+ * including their class and method name strings, can be re-used in subsequent sessions.
+ * </p>
+ * <p>
+ * Lookups are performed on the {@link CharSequence}s read from the JFR file, without creating {@link String}s first.
+ * Therefore, a cache hit does not allocate.
+ * When the cache is full, the least recently used entry is evicted and its entry object is re-used.
+ * </p>
+ * <p>
+ * This class is not thread safe and is only meant to be used by the profiler thread.
+ * </p>
+ */
+public class StackFrameCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxSize;
+    private final Long2ObjectHashMap<Entry> entries;
+    /**
+     * The most recently used entry
+     */
+    @Nullable
+    private Entry head;
+    /**
+     * The least recently used entry
+     */
+    @Nullable
+    private Entry tail;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StackFrameCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.entries = new Long2ObjectHashMap<>();
+    }
+
+    /**
+     * Returns a cached {@link StackFrame} with the provided class and method name or creates and caches a new one.
+     *
+     * @param className  the class name, the contents may be changed after this method returns
+     * @param methodName the method name, the contents may be changed after this method returns
+     * @return a {@link StackFrame} with the provided class and method name
+     */
+    public StackFrame get(CharSequence className, CharSequence methodName) {
+        long key = hash(className, methodName);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(className, methodName)) {
+            hits++;
+            moveToHead(entry);
+            return entry.stackFrame;
+        }
+        misses++;
+        StackFrame stackFrame = new StackFrame(className.toString(), methodName.toString());
+        if (entry != null) {
+            // hash collision, the most recent frame wins
+            entry.stackFrame = stackFrame;
+            moveToHead(entry);
+            return stackFrame;
+        }
+        Entry eldest = tail;
+        if (entries.size() >= maxSize && eldest != null) {
+            evict(eldest);
+            entry = eldest;
+            entry.key = key;
+            entry.stackFrame = stackFrame;
+        } else {
+            entry = new Entry(key, stackFrame);
+        }
+        entries.put(key, entry);
+        addToHead(entry);
+        return stackFrame;
+    }
+
+    private void evict(Entry eldest) {
+        unlink(eldest);
+        entries.remove(eldest.key);
+        evictions++;
+    }
+
+    private void moveToHead(Entry entry) {
+        if (entry != head) {
+            unlink(entry);
+            addToHead(entry);
+        }
+    }
+
+    private void addToHead(Entry entry) {
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            tail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     * FNV-1a hash of the class name, followed by a separator, followed by the method name
+     */
+    private static long hash(CharSequence className, CharSequence methodName) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, length = className.length(); i < length; i++) {
+            hash = (hash ^ className.charAt(i)) * FNV_PRIME;
+        }
+        // '#' is neither a valid part of a class name nor of a method name
+        hash = (hash ^ '#') * FNV_PRIME;
+        for (int i = 0, length = methodName.length(); i < length; i++) {
+            hash = (hash ^ methodName.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the ratio of hits to total lookups since the last {@link #resetStatistics()}, or {@code 0} if there were no lookups
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        if (total == 0) {
+            return 0;
+        }
+        return (double) hits / total;
+    }
+
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public void clear() {
+        entries.clear();
+        head = null;
+        tail = null;
+        resetStatistics();
+    }
+
+    private static class Entry {
+        private long key;
+        private StackFrame stackFrame;
+        @Nullable
+        private Entry prev;
+        @Nullable
+        private Entry next;
+
+        private Entry(long key, StackFrame stackFrame) {
+            this.key = key;
+            this.stackFrame = stackFrame;
+        }
+
+        private boolean matches(CharSequence className, CharSequence methodName) {
+            return contentEquals(stackFrame.getClassName(), className)
+                && contentEquals(stackFrame.getMethodName(), methodName);
+        }
+
+        private static boolean contentEquals(@Nullable String s, CharSequence cs) {
+            return s != null && s.contentEquals(cs);
+        }
+    }
+}
@@ -984,11 +984,11 @@ class CallTreeTest {
             }
         }
         profiler.consumeActivationEventsFromRingBufferAndWriteToFile();
-        long eof = profiler.startProcessingActivationEventsFile();
+        profiler.startProcessingActivationEventsFile();
         CallTree.Root root = null;
         NoopObjectPool<CallTree> callTreePool = NoopObjectPool.ofRecyclable(CallTree::new);
         for (StackTraceEvent stackTraceEvent : stackTraceEvents) {
-            profiler.processActivationEventsUpTo(stackTraceEvent.nanoTime, eof);
+            profiler.processActivationEventsUpTo(stackTraceEvent.nanoTime);
             if (root == null) {
                 root = profiler.getRoot();
                 assertThat(root).isNotNull();
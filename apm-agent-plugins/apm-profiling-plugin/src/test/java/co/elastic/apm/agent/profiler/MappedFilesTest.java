@@ -0,0 +1,82 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.profiler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedFilesTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPreallocateKeepsExistingContent() throws Exception {
+        Path file = tempDir.resolve("mapped.bin");
+        Files.write(file, new byte[]{1, 2, 3});
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            MappedFiles.preallocate(channel, channel.size(), 200_000);
+            assertThat(channel.size()).isEqualTo(200_000);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 200_000);
+            assertThat(buffer.get(0)).isEqualTo((byte) 1);
+            assertThat(buffer.get(2)).isEqualTo((byte) 3);
+            assertThat(buffer.get(199_999)).isEqualTo((byte) 0);
+            MappedFiles.unmap(buffer);
+        }
+        // the file can be deleted after the mapping has been released, which is not the case on Windows otherwise
+        Files.delete(file);
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void testPreallocateRegionOfMappedFile() throws Exception {
+        Path file = tempDir.resolve("sparse.bin");
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE, CREATE_NEW)) {
+            // mapping extends the file
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 200_000);
+            buffer.put(0, (byte) 1);
+            MappedFiles.preallocate(channel, 1, 100_000);
+            assertThat(channel.size()).isEqualTo(200_000);
+            assertThat(buffer.get(0)).isEqualTo((byte) 1);
+            buffer.put(99_999, (byte) 2);
+            MappedFiles.unmap(buffer);
+        }
+    }
+
+    @Test
+    void testPreallocateEmptyRegion() throws Exception {
+        Path file = tempDir.resolve("large.bin");
+        Files.write(file, new byte[1024]);
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            MappedFiles.preallocate(channel, 1024, 512);
+            assertThat(channel.size()).isEqualTo(1024);
+        }
+    }
+}
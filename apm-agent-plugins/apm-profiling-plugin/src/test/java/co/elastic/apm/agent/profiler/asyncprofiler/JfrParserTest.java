@@ -58,4 +58,36 @@ class JfrParserTest {
         assertThat(stackTraces.get()).isEqualTo(97);
     }
 
+    @Test
+    void testStackFramesAreCachedAcrossSessions() throws Exception {
+        JfrParser jfrParser = new JfrParser(ByteBuffer.allocate(113), ByteBuffer.allocate(113));
+        File file = Paths.get(JfrParserTest.class.getClassLoader().getResource("recording.jfr").toURI()).toFile();
+
+        List<StackFrame> firstSession = resolveAllStackFrames(jfrParser, file);
+        StackFrameCache cache = jfrParser.getStackFrameCache();
+        assertThat(cache.size()).isPositive();
+        jfrParser.resetState();
+        cache.resetStatistics();
+
+        List<StackFrame> secondSession = resolveAllStackFrames(jfrParser, file);
+        assertThat(cache.getMisses()).isZero();
+        assertThat(cache.getHits()).isPositive();
+        assertThat(secondSession).hasSameSizeAs(firstSession);
+        for (int i = 0; i < firstSession.size(); i++) {
+            assertThat(secondSession.get(i)).isSameAs(firstSession.get(i));
+        }
+    }
+
+    private static List<StackFrame> resolveAllStackFrames(JfrParser jfrParser, File file) throws Exception {
+        jfrParser.parse(file, List.of(), List.of(caseSensitiveMatcher("co.elastic.apm.*")));
+        List<StackFrame> allStackFrames = new ArrayList<>();
+        ArrayList<StackFrame> stackFrames = new ArrayList<>();
+        jfrParser.consumeStackTraces((threadId, stackTraceId, nanoTime) -> {
+            jfrParser.resolveStackTrace(stackTraceId, true, stackFrames, MAX_STACK_DEPTH);
+            allStackFrames.addAll(stackFrames);
+            stackFrames.clear();
+        });
+        return allStackFrames;
+    }
+
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.apm.agent.profiler.asyncprofiler;
+
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StackFrameCacheTest {
+
+    @Test
+    void testHit() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackFrame frame = cache.get(new StringBuilder("com.example.Foo"), new StringBuilder("bar"));
+        assertThat(frame.getClassName()).isEqualTo("com.example.Foo");
+        assertThat(frame.getMethodName()).isEqualTo("bar");
+
+        assertThat(cache.get(new StringBuilder("com.example.Foo"), new StringBuilder("bar"))).isSameAs(frame);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    void testClassAndMethodBoundary() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackFrame first = cache.get("com.example.Foo", "bar");
+        StackFrame second = cache.get("com.example.Fooba", "r");
+        assertThat(second).isNotSameAs(first);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackFrame foo = cache.get("Foo", "foo");
+        StackFrame bar = cache.get("Bar", "bar");
+        // makes bar the least recently used entry
+        assertThat(cache.get("Foo", "foo")).isSameAs(foo);
+
+        StackFrame baz = cache.get("Baz", "baz");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.get("Foo", "foo")).isSameAs(foo);
+        assertThat(cache.get("Baz", "baz")).isSameAs(baz);
+        assertThat(cache.get("Bar", "bar")).isNotSameAs(bar);
+    }
+
+    @Test
+    void testClear() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackFrame foo = cache.get("Foo", "foo");
+        cache.clear();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getMisses()).isZero();
+        assertThat(cache.get("Foo", "foo")).isNotSameAs(foo);
+    }
+}
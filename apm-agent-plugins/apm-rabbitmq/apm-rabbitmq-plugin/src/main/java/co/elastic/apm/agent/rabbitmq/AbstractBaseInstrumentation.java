@@ -48,7 +48,7 @@ public abstract class AbstractBaseInstrumentation extends TracerAwareInstrumenta
     }
 
     protected static boolean captureHeaderKey(String key) {
-        return !WildcardMatcher.isAnyMatch(coreConfiguration.getSanitizeFieldNames(), key);
+        return coreConfiguration.getSanitizeFieldNamesMatcherSet().isNoneMatch(key);
     }
 
     /**
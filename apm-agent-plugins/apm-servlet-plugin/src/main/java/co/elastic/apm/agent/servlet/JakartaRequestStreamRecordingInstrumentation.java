@@ -19,6 +19,7 @@
 package co.elastic.apm.agent.servlet;
 
 import co.elastic.apm.agent.tracer.Transaction;
+import co.elastic.apm.agent.tracer.metadata.Request;
 import co.elastic.apm.agent.sdk.state.CallDepth;
 import co.elastic.apm.agent.servlet.helper.JakartaRecordingServletInputStreamWrapper;
 import jakarta.servlet.ServletInputStream;
@@ -56,8 +57,12 @@ public class JakartaRequestStreamRecordingInstrumentation extends RequestStreamR
             }
             final Transaction<?> transaction = tracer.currentTransaction();
             // only wrap if the body buffer has been initialized via ServletTransactionHelper.startCaptureBody
-            if (transaction != null && transaction.getContext().getRequest().getBodyBuffer() != null) {
-                return new JakartaRecordingServletInputStreamWrapper(transaction.getContext().getRequest(), inputStream);
+            if (transaction == null) {
+                return inputStream;
+            }
+            Request request = transaction.getContext().getRequest();
+            if (request.getBodyBuffer() != null || request.isRecordingBodyBytes()) {
+                return new JakartaRecordingServletInputStreamWrapper(request, inputStream);
             } else {
                 return inputStream;
             }
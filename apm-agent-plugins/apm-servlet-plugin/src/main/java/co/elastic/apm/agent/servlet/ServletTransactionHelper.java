@@ -122,8 +122,12 @@ public class ServletTransactionHelper {
                 // form parameters are recorded via ServletRequest.getParameterMap
                 // as the container might not call ServletRequest.getInputStream
                 && !contentTypeHeader.startsWith(CONTENT_TYPE_FROM_URLENCODED)
-                && WildcardMatcher.isAnyMatch(webConfiguration.getCaptureContentTypes(), contentTypeHeader)) {
-                request.withBodyBuffer();
+                && webConfiguration.getCaptureContentTypesMatcherSet().isAnyMatch(contentTypeHeader)) {
+                if (coreConfiguration.isCaptureBodyAsBytes()) {
+                    request.withBodyBytes();
+                } else {
+                    request.withBodyBuffer();
+                }
             } else {
                 request.redactBody();
                 if (coreConfiguration.getCaptureBody() == OFF) {
@@ -263,7 +267,7 @@ public class ServletTransactionHelper {
         // JSPs don't contain path params and the name is more telling than the generated servlet class
         if (webConfiguration.isUsePathAsName() || ENDS_WITH_JSP.matches(servletPath, pathInfo)) {
             // should override ServletName#doGet
-            TransactionNameUtils.setNameFromHttpRequestPath(method, servletPath, pathInfo, transaction.getAndOverrideName(PRIORITY_LOW_LEVEL_FRAMEWORK + 1), webConfiguration.getUrlGroups());
+            TransactionNameUtils.setNameFromHttpRequestPath(method, servletPath, pathInfo, transaction.getAndOverrideName(PRIORITY_LOW_LEVEL_FRAMEWORK + 1), webConfiguration.getUrlGroupsMatcherSet());
         } else {
             TransactionNameUtils.setNameUnknownRoute(method, transaction.getAndOverrideName(PRIORITY_DEFAULT));
         }
@@ -290,7 +294,7 @@ public class ServletTransactionHelper {
             && contentTypeHeader.startsWith(CONTENT_TYPE_FROM_URLENCODED)
             && hasBody(contentTypeHeader, method)
             && coreConfiguration.getCaptureBody() != OFF
-            && WildcardMatcher.isAnyMatch(webConfiguration.getCaptureContentTypes(), contentTypeHeader);
+            && webConfiguration.getCaptureContentTypesMatcherSet().isAnyMatch(contentTypeHeader);
     }
 
     private void fillResponse(Response response, boolean committed, int status) {
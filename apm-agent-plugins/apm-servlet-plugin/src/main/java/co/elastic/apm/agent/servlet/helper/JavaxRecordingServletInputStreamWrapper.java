@@ -155,6 +155,9 @@ public class JavaxRecordingServletInputStreamWrapper extends ServletInputStream
     private void decode(byte[] b, int off, int read) {
         if (read == -1) {
             request.endOfBufferInput();
+        } else if (request.isRecordingBodyBytes()) {
+            // decoded when serializing
+            request.appendBodyBytes(b, off, read);
         } else {
             final CharBuffer bodyBuffer = request.getBodyBuffer();
             if (bodyBuffer != null) {
@@ -167,6 +170,8 @@ public class JavaxRecordingServletInputStreamWrapper extends ServletInputStream
     private void decode(int b) {
         if (b == -1) {
             request.endOfBufferInput();
+        } else if (request.isRecordingBodyBytes()) {
+            request.appendBodyByte((byte) b);
         } else {
             final CharBuffer bodyBuffer = request.getBodyBuffer();
             if (bodyBuffer != null) {
@@ -45,7 +45,7 @@ public class RoutesAdvice {
         TransactionNameUtils.setNameFromHttpRequestPath(method,
             routeMatch.getMatchUri(),
             transaction.getAndOverrideName(PRIORITY_LOW_LEVEL_FRAMEWORK + 1),
-            tracer.getConfig(WebConfiguration.class).getUrlGroups());
+            tracer.getConfig(WebConfiguration.class).getUrlGroupsMatcherSet());
 
         transaction.setFrameworkName("Spark");
         transaction.setFrameworkVersion(VersionUtils.getVersion(Route.class, "com.sparkjava", "spark-core"));
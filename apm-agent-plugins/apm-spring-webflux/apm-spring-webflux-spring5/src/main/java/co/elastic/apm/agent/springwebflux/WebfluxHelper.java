@@ -205,7 +205,7 @@ public class WebfluxHelper {
                 method,
                 path,
                 transactionName,
-                webConfig.getUrlGroups()
+                webConfig.getUrlGroupsMatcherSet()
             );
         } else {
             TransactionNameUtils.setNameUnknownRoute(
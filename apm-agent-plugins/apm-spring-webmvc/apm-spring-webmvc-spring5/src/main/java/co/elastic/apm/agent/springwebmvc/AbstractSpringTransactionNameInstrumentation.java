@@ -131,7 +131,7 @@ public abstract class AbstractSpringTransactionNameInstrumentation extends Trace
                     adapter.getServletPath(request),
                     adapter.getPathInfo(request),
                     transaction.getAndOverrideName(PRIORITY_LOW_LEVEL_FRAMEWORK + 1),
-                    webConfig.getUrlGroups()
+                    webConfig.getUrlGroupsMatcherSet()
                 );
             } else if (!className.isEmpty()) {
                 // if we are here, then method name is null, thus using lower priority
@@ -41,7 +41,7 @@ public class ExecuteOperationsAdvice {
 
         StringBuilder transactionName = transaction.getAndOverrideName(PRIORITY_HIGH_LEVEL_FRAMEWORK);
         if (transactionName != null) {
-            TransactionNameUtils.setNameFromHttpRequestPath(request.getMethod(), request.getServletPath(), transactionName, webConfig.getUrlGroups());
+            TransactionNameUtils.setNameFromHttpRequestPath(request.getMethod(), request.getServletPath(), transactionName, webConfig.getUrlGroupsMatcherSet());
             StrutsFrameworkUtils.setFrameworkNameAndVersion(transaction);
         }
     }
@@ -72,7 +72,7 @@ public abstract class AbstractHttpTransactionHelper {
                 // form parameters are recorded via ServletRequest.getParameterMap
                 // as the container might not call ServletRequest.getInputStream
                 && !contentTypeHeader.startsWith(CONTENT_TYPE_FROM_URLENCODED)
-                && WildcardMatcher.isAnyMatch(webConfiguration.getCaptureContentTypes(), contentTypeHeader)) {
+                && webConfiguration.getCaptureContentTypesMatcherSet().isAnyMatch(contentTypeHeader)) {
                 request.withBodyBuffer();
             } else {
                 request.redactBody();
@@ -102,7 +102,7 @@ public abstract class AbstractHttpTransactionHelper {
                 pathFirstPart,
                 pathSecondPart,
                 transaction.getAndOverrideName(PRIORITY_LOW_LEVEL_FRAMEWORK + 1 + priorityOffset),
-                webConfiguration.getUrlGroups());
+                webConfiguration.getUrlGroupsMatcherSet());
         } else {
             TransactionNameUtils.setNameUnknownRoute(method, transaction.getAndOverrideName(PRIORITY_DEFAULT));
         }
@@ -137,7 +137,7 @@ public abstract class AbstractHttpTransactionHelper {
             && contentTypeHeader.startsWith(CONTENT_TYPE_FROM_URLENCODED)
             && hasBody(contentTypeHeader, method)
             && coreConfiguration.getCaptureBody() != OFF
-            && WildcardMatcher.isAnyMatch(webConfiguration.getCaptureContentTypes(), contentTypeHeader);
+            && webConfiguration.getCaptureContentTypesMatcherSet().isAnyMatch(contentTypeHeader);
     }
 
     protected void fillResponse(Response response, @Nullable Boolean committed, int status) {
@@ -92,6 +92,37 @@ public interface Request {
 
     void endOfBufferInput();
 
+    /**
+     * Starts recording the request body as raw bytes, as an alternative to {@link #withBodyBuffer()}.
+     * <p>
+     * The bytes are stored in pooled segments and are only decoded as UTF-8 when the transaction is serialized.
+     * Recording ends when the size limit is reached or when {@link #endOfBufferInput()} is called.
+     * </p>
+     * <p>
+     * Note: this method is not thread safe
+     * </p>
+     */
+    void withBodyBytes();
+
+    /**
+     * @return {@code true} if {@link #withBodyBytes()} has been called and recording has not ended yet
+     */
+    boolean isRecordingBodyBytes();
+
+    /**
+     * Appends bytes to the recorded request body.
+     *
+     * @return {@code false} if the body is not recorded as bytes or if recording ended, for example because the size limit has been reached
+     */
+    boolean appendBodyBytes(byte[] bytes, int offset, int length);
+
+    /**
+     * Appends a single byte to the recorded request body.
+     *
+     * @return {@code false} if the body is not recorded as bytes or if recording ended, for example because the size limit has been reached
+     */
+    boolean appendBodyByte(byte b);
+
     /**
      * Sets the body as a raw string and removes any previously set parameter or body buffer.
      *